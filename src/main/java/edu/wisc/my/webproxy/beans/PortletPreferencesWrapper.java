@@ -21,9 +21,8 @@ package edu.wisc.my.webproxy.beans;
 
 import java.io.IOException;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.portlet.PortletPreferences;
 import javax.portlet.ReadOnlyException;
@@ -34,13 +33,17 @@ import javax.portlet.ValidatorException;
  *  
  */
 public class PortletPreferencesWrapper implements PortletPreferences {
-    /* pattern is a regular expression that matches anything inside ${xyz} */
-    private static final Pattern ATTRIBUTE_PATTERN = Pattern.compile("\\$\\{([^\\$\\}]+)\\}");
+    private static final String NO_VALUE = new String();
+    private static final String[] NO_VALUES = new String[0];
 
     private PortletPreferences portletPrefs = null;
 
     private Map userInfo = null;
 
+    //Substituted values already returned by this wrapper, cleared when the preferences are modified
+    private final Map<String, String> valueCache = new HashMap<String, String>();
+    private final Map<String, String[]> valuesCache = new HashMap<String, String[]>();
+
     public PortletPreferencesWrapper(PortletPreferences pp, Map userInfo) {
         this.portletPrefs = pp;
         this.userInfo = userInfo;
@@ -56,9 +59,18 @@ public class PortletPreferencesWrapper implements PortletPreferences {
     }
 
     public String getValue(String attribute, String def) {
-        String value = this.portletPrefs.getValue(attribute, def);
-        if (value!=null)
-            value = rewriteValue(value);
+        String value = this.valueCache.get(attribute);
+        if (value == null) {
+            value = this.rewriteValue(this.portletPrefs.getValue(attribute, null));
+            if (value == null) {
+                value = NO_VALUE;
+            }
+            this.valueCache.put(attribute, value);
+        }
+        
+        if (value == NO_VALUE) {
+            return this.rewriteValue(def);
+        }
         return value;
     }
 
@@ -66,49 +78,46 @@ public class PortletPreferencesWrapper implements PortletPreferences {
         if (value == null)
             return null;
 
-        final StringBuffer valueBuffer = new StringBuffer(value);
-        
-        Matcher contentMatcher = ATTRIBUTE_PATTERN.matcher(valueBuffer);
-        
-        int searchIndex = 0;
-        while (searchIndex < valueBuffer.length() && contentMatcher.find(searchIndex)) {
-            final int start = contentMatcher.start();
-            final int end = contentMatcher.end();
-            final String attrName = contentMatcher.group(1);
-            String attrValue = (String)userInfo.get(attrName);
-            
-            if (attrValue == null)
-                attrValue = "";
-
-            valueBuffer.replace(start, end, attrValue);
-            searchIndex = start + attrValue.length() + 1;
-            contentMatcher = ATTRIBUTE_PATTERN.matcher(valueBuffer);
-        }
-        
-        return valueBuffer.toString();
+        return PreferenceTemplate.compile(value).expand(this.userInfo);
     }
 
     public String[] getValues(String attribute, String[] def) {
-        String sTemp = null;
-        String[] values = this.portletPrefs.getValues(attribute, def);
-        
-        if (values == null)
-            return null;
+        String[] newValues = this.valuesCache.get(attribute);
+        if (newValues == null) {
+            final String[] values = this.portletPrefs.getValues(attribute, null);
+            if (values != null) {
+                newValues = new String[values.length];
+                for (int count = 0; count < values.length; count++) {
+                    newValues[count] = this.rewriteValue(values[count]);
+                }
+            }
+            else {
+                newValues = NO_VALUES;
+            }
+            this.valuesCache.put(attribute, newValues);
+        }
         
-        String[] newValues = new String[values.length];
-        for (int count = 0; count < values.length; count++) {
-            sTemp = this.rewriteValue(values[count]);
-            newValues[count] = sTemp;
+        if (newValues == NO_VALUES) {
+            if (def == null)
+                return null;
+            
+            newValues = new String[def.length];
+            for (int count = 0; count < def.length; count++) {
+                newValues[count] = this.rewriteValue(def[count]);
+            }
+            return newValues;
         }
 
-        return newValues;
+        return newValues.clone();
     }
 
     public void setValue(String arg0, String arg1) throws ReadOnlyException {
+        this.clearCache();
         this.portletPrefs.setValue(arg0, arg1);
     }
 
     public void setValues(String arg0, String[] arg1) throws ReadOnlyException {
+        this.clearCache();
         this.portletPrefs.setValues(arg0, arg1);
     }
 
@@ -121,11 +130,17 @@ public class PortletPreferencesWrapper implements PortletPreferences {
     }
 
     public void reset(String arg0) throws ReadOnlyException {
+        this.clearCache();
         this.portletPrefs.reset(arg0);
     }
 
     public void store() throws IOException, ValidatorException {
+        this.clearCache();
         this.portletPrefs.store();
     }
 
-}
\ No newline at end of file
+    private void clearCache() {
+        this.valueCache.clear();
+        this.valuesCache.clear();
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A preference value parsed into literal text and ${attribute} references to user attributes.
+ * Parsing follows the original substitution loop exactly: after a reference the character
+ * following it is not searched for the start of another reference, so in ${a}${b} only ${a}
+ * is replaced.
+ *
+ * @version $Revision$
+ */
+public final class PreferenceTemplate {
+    /* pattern is a regular expression that matches anything inside ${xyz} */
+    private static final Pattern ATTRIBUTE_PATTERN = Pattern.compile("\\$\\{([^\\$\\}]+)\\}");
+
+    private final String value;
+    private final String[] literals;
+    private final String[] attributeNames;
+    private final int literalLength;
+
+    private PreferenceTemplate(String value, String[] literals, String[] attributeNames) {
+        this.value = value;
+        this.literals = literals;
+        this.attributeNames = attributeNames;
+
+        int length = 0;
+        for (final String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parses a preference value into a template.
+     */
+    public static PreferenceTemplate compile(String value) {
+        final List<String> literals = new ArrayList<String>();
+        final List<String> attributeNames = new ArrayList<String>();
+
+        final Matcher contentMatcher = ATTRIBUTE_PATTERN.matcher(value);
+        int literalStart = 0;
+        int searchIndex = 0;
+        while (searchIndex < value.length() && contentMatcher.find(searchIndex)) {
+            literals.add(value.substring(literalStart, contentMatcher.start()));
+            attributeNames.add(contentMatcher.group(1));
+
+            literalStart = contentMatcher.end();
+            searchIndex = literalStart + 1;
+        }
+        literals.add(value.substring(literalStart));
+
+        return new PreferenceTemplate(value, literals.toArray(new String[literals.size()]), attributeNames.toArray(new String[attributeNames.size()]));
+    }
+
+    /**
+     * @return true if the value contains no attribute references
+     */
+    public boolean isConstant() {
+        return this.attributeNames.length == 0;
+    }
+
+    /**
+     * Replaces the attribute references with values from the user attributes, missing
+     * attributes are replaced with an empty string.
+     *
+     * @param userInfo The user attributes, may be null if the template is constant
+     */
+    public String expand(Map<?, ?> userInfo) {
+        if (this.attributeNames.length == 0) {
+            return this.value;
+        }
+
+        final StringBuilder expanded = new StringBuilder(this.literalLength + this.attributeNames.length * 16);
+        for (int index = 0; index < this.attributeNames.length; index++) {
+            expanded.append(this.literals[index]);
+
+            final String attrValue = (String)userInfo.get(this.attributeNames[index]);
+            if (attrValue != null) {
+                expanded.append(attrValue);
+            }
+        }
+        expanded.append(this.literals[this.attributeNames.length]);
+
+        return expanded.toString();
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.cache;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * OutputStream that collects bytes into fixed size chunks borrowed from a shared pool instead
+ * of growing and copying a single array. If more than the maximum size is written the buffer
+ * overflows, its chunks are released and further writes are ignored so the caller can keep
+ * writing without checking the size on every call.
+ * 
+ * {@link #release()} must be called when the buffer is no longer needed to return the chunks
+ * to the pool.
+ * 
+ * @version $Revision$
+ */
+public class CacheBuffer extends OutputStream {
+    private static final int CHUNK_SIZE = 8192;
+    private static final int MAX_POOLED_CHUNKS = 512;
+    
+    private static final Queue<byte[]> CHUNK_POOL = new ConcurrentLinkedQueue<byte[]>();
+    
+    private final int maxSize;
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private byte[] currentChunk = null;
+    private int chunkPosition = 0;
+    private int size = 0;
+    private boolean overflowed = false;
+    
+    
+    /**
+     * @param maxSize The maximum number of bytes to buffer, 0 or less for no limit.
+     */
+    public CacheBuffer(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    
+    @Override
+    public void write(int b) {
+        if (this.reserve(1)) {
+            if (this.currentChunk == null || this.chunkPosition == CHUNK_SIZE) {
+                this.nextChunk();
+            }
+            this.currentChunk[this.chunkPosition++] = (byte)b;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (this.reserve(len)) {
+            while (len > 0) {
+                if (this.currentChunk == null || this.chunkPosition == CHUNK_SIZE) {
+                    this.nextChunk();
+                }
+                
+                final int count = Math.min(len, CHUNK_SIZE - this.chunkPosition);
+                System.arraycopy(b, off, this.currentChunk, this.chunkPosition, count);
+                this.chunkPosition += count;
+                off += count;
+                len -= count;
+            }
+        }
+    }
+    
+    /**
+     * @return The number of bytes buffered.
+     */
+    public int size() {
+        return this.size;
+    }
+    
+    /**
+     * @return true if more than the maximum size was written to the buffer.
+     */
+    public boolean isOverflowed() {
+        return this.overflowed;
+    }
+    
+    /**
+     * @return A copy of the buffered bytes in a single array.
+     * @throws IllegalStateException If the buffer overflowed.
+     */
+    public byte[] toByteArray() {
+        if (this.overflowed) {
+            throw new IllegalStateException("The buffer overflowed, its content was discarded");
+        }
+        
+        final byte[] bytes = new byte[this.size];
+        int position = 0;
+        for (final byte[] chunk : this.chunks) {
+            final int count = Math.min(CHUNK_SIZE, this.size - position);
+            System.arraycopy(chunk, 0, bytes, position, count);
+            position += count;
+        }
+        return bytes;
+    }
+    
+    /**
+     * Returns the chunks to the pool, the buffered content is discarded.
+     */
+    public void release() {
+        for (final byte[] chunk : this.chunks) {
+            if (CHUNK_POOL.size() < MAX_POOLED_CHUNKS) {
+                CHUNK_POOL.offer(chunk);
+            }
+        }
+        this.chunks.clear();
+        this.currentChunk = null;
+        this.chunkPosition = 0;
+        this.size = 0;
+    }
+    
+    /**
+     * Accounts for bytes about to be written, overflowing the buffer if they don't fit.
+     * 
+     * @return true if the bytes should be written.
+     */
+    private boolean reserve(int len) {
+        if (this.overflowed) {
+            return false;
+        }
+        
+        if (this.maxSize > 0 && this.size + len > this.maxSize) {
+            this.release();
+            this.overflowed = true;
+            return false;
+        }
+        
+        this.size += len;
+        return true;
+    }
+    
+    private void nextChunk() {
+        byte[] chunk = CHUNK_POOL.poll();
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+        }
+        
+        this.chunks.add(chunk);
+        this.currentChunk = chunk;
+        this.chunkPosition = 0;
+    }
+}
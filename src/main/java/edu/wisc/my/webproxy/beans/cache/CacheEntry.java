@@ -19,28 +19,108 @@
 
 package edu.wisc.my.webproxy.beans.cache;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Date;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 
 /**
  * Represents the rendered content of a page. The content type of the request
- * and a String of the content are stored which allow the content to be
- * replayed to the user.
+ * and the content are stored which allow the content to be replayed to the user.
+ * The content is kept as deflate compressed UTF-8 bytes.
  * 
  * @author Eric Dalquist <a href="mailto:edalquist@unicon.net">edalquist@unicon.net</a>
  * @version $Revision$
  */
 public class CacheEntry implements Serializable {
+    /**
+     * Charset of the compressed content
+     */
+    public static final String CONTENT_CHARSET = "UTF-8";
+    
+    private static final int BUFFER_SIZE = 4096;
+    
     private String contentType;
-    private String content;
+    private byte[] content;
     private Date expirationDate;
+    private String etag;
+    private String lastModified;
     
     
+    public CacheEntry() {
+    }
+    
+    /**
+     * Creates a copy of the entry. Entries returned by a {@link PageCache} may be shared with
+     * other threads, a copy must be updated and cached instead of changing them in place.
+     * 
+     * @param entry The entry to copy.
+     */
+    public CacheEntry(CacheEntry entry) {
+        this.contentType = entry.contentType;
+        //The compressed content is never modified in place, it is only replaced
+        this.content = entry.content;
+        this.expirationDate = entry.expirationDate;
+        this.etag = entry.etag;
+        this.lastModified = entry.lastModified;
+    }
+    
     /**
+     * Decompresses the content into a String, {@link #writeContent(Writer)} should be used
+     * when the content is only going to be written out.
+     * 
      * @return Returns the content.
      */
     public String getContent() {
+        if (this.content == null) {
+            return null;
+        }
+        
+        final StringWriter writer = new StringWriter(this.content.length * 4);
+        try {
+            this.writeContent(writer);
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Failed to decompress cached content", ioe);
+        }
+        return writer.toString();
+    }
+    /**
+     * Decompresses the content directly to the writer.
+     * 
+     * @param out The writer to write the content to.
+     */
+    public void writeContent(Writer out) throws IOException {
+        if (this.content == null) {
+            return;
+        }
+        
+        final Inflater inflater = new Inflater();
+        try {
+            final Reader in = new InputStreamReader(new InflaterInputStream(new ByteArrayInputStream(this.content), inflater, BUFFER_SIZE), CONTENT_CHARSET);
+            final char[] buffer = new char[BUFFER_SIZE];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+        }
+        finally {
+            inflater.end();
+        }
+    }
+    /**
+     * @return Returns the deflate compressed UTF-8 content.
+     */
+    public byte[] getCompressedContent() {
         return this.content;
     }
     /**
@@ -56,9 +136,43 @@ public class CacheEntry implements Serializable {
         return this.expirationDate;
     }
     /**
+     * @return Returns the ETag validator sent by the remote server, null if none was sent.
+     */
+    public String getEtag() {
+        return this.etag;
+    }
+    /**
+     * @return Returns the Last-Modified validator sent by the remote server, null if none was sent.
+     */
+    public String getLastModified() {
+        return this.lastModified;
+    }
+    /**
+     * Compresses and stores the content.
+     * 
      * @param content The content to set.
      */
     public void setContent(String content) {
+        if (content == null) {
+            this.content = null;
+            return;
+        }
+        
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(32, content.length() / 4));
+        try {
+            final Writer out = new OutputStreamWriter(new DeflaterOutputStream(bytes), CONTENT_CHARSET);
+            out.write(content);
+            out.close();
+        }
+        catch (IOException ioe) {
+            throw new IllegalStateException("Failed to compress content", ioe);
+        }
+        this.content = bytes.toByteArray();
+    }
+    /**
+     * @param content The deflate compressed UTF-8 content to set.
+     */
+    public void setCompressedContent(byte[] content) {
         this.content = content;
     }
     /**
@@ -73,4 +187,16 @@ public class CacheEntry implements Serializable {
     public void setExpirationDate(Date expirationDate) {
         this.expirationDate = expirationDate;
     }
+    /**
+     * @param etag The ETag validator to set.
+     */
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+    /**
+     * @param lastModified The Last-Modified validator to set.
+     */
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
 }
@@ -0,0 +1,188 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent loads of the same uncached page. The first render that misses the cache
+ * for a key becomes the leader and loads the page, renders that miss the cache for the key while
+ * the leader is loading wait for it and use the page it cached. If the leader doesn't cache the
+ * page within the maximum wait the expired entry is used if there is one, otherwise the render
+ * loads the page itself.
+ *
+ * @version $Revision$
+ */
+public class CacheLoadCoordinator {
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong coalescedHitCount = new AtomicLong();
+    private final AtomicLong staleCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private long maxWait = 5000;
+
+    /**
+     * Milliseconds a render waits for the leader to load the page. Defaults to 5000.
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Joins the load of the page for the cache key. If the returned flight is the leader the
+     * caller must load the page and call {@link #complete(Flight)} once it is cached or the load
+     * failed, otherwise the caller should call {@link #awaitLoad(Flight, PageCache, String)}.
+     */
+    public Flight join(String cacheKey) {
+        final Flight flight = new Flight(cacheKey);
+        final Flight leaderFlight = this.flights.putIfAbsent(cacheKey, flight);
+        if (leaderFlight == null) {
+            this.loadCount.incrementAndGet();
+            return flight;
+        }
+
+        this.coalescedCount.incrementAndGet();
+        return leaderFlight.follow();
+    }
+
+    /**
+     * Completes the load of the leader flight, waiting renders are released.
+     */
+    public void complete(Flight flight) {
+        if (!flight.leader) {
+            throw new IllegalArgumentException("Only the leader can complete a flight");
+        }
+
+        this.flights.remove(flight.cacheKey, flight);
+        flight.latch.countDown();
+    }
+
+    /**
+     * Waits for the leader of the flight to load the page.
+     *
+     * @return The entry cached by the leader, the expired entry if the leader didn't cache the page, null if there is neither.
+     */
+    public CacheEntry awaitLoad(Flight flight, PageCache cache, String cacheKey) {
+        boolean completed = false;
+        try {
+            completed = flight.latch.await(this.maxWait, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!completed) {
+            this.timeoutCount.incrementAndGet();
+        }
+        else {
+            final CacheEntry loadedEntry = cache.getCachedPage(cacheKey);
+            if (loadedEntry != null) {
+                this.coalescedHitCount.incrementAndGet();
+                return loadedEntry;
+            }
+        }
+
+        final CacheEntry staleEntry = cache.getCachedPage(cacheKey, true);
+        if (staleEntry != null) {
+            this.staleCount.incrementAndGet();
+        }
+        return staleEntry;
+    }
+
+    /**
+     * @return The number of pages being loaded.
+     */
+    public int getLoadingCount() {
+        return this.flights.size();
+    }
+
+    /**
+     * @return The number of loads started by a leader.
+     */
+    public long getLoadCount() {
+        return this.loadCount.get();
+    }
+
+    /**
+     * @return The number of renders that waited for a leader instead of loading the page.
+     */
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+
+    /**
+     * @return The number of waiting renders that used the page cached by the leader.
+     */
+    public long getCoalescedHitCount() {
+        return this.coalescedHitCount.get();
+    }
+
+    /**
+     * @return The number of waiting renders that used the expired entry.
+     */
+    public long getStaleCount() {
+        return this.staleCount.get();
+    }
+
+    /**
+     * @return The number of waiting renders that gave up waiting for the leader.
+     */
+    public long getTimeoutCount() {
+        return this.timeoutCount.get();
+    }
+
+    /**
+     * A load of the page for a cache key.
+     */
+    public static final class Flight {
+        private final String cacheKey;
+        private final CountDownLatch latch;
+        private final boolean leader;
+
+        private Flight(String cacheKey) {
+            this.cacheKey = cacheKey;
+            this.latch = new CountDownLatch(1);
+            this.leader = true;
+        }
+
+        private Flight(Flight leaderFlight) {
+            this.cacheKey = leaderFlight.cacheKey;
+            this.latch = leaderFlight.latch;
+            this.leader = false;
+        }
+
+        private Flight follow() {
+            return new Flight(this);
+        }
+
+        /**
+         * @return true if this render should load the page.
+         */
+        public boolean isLeader() {
+            return this.leader;
+        }
+    }
+}
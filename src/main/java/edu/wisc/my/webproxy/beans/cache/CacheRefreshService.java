@@ -0,0 +1,134 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+/**
+ * Runs background refreshes of cached pages on a bounded executor. At most one refresh per cache
+ * key is scheduled or running at a time, further requests for the key are ignored until it
+ * completes. If the executor is saturated the refresh is not scheduled and the caller falls back
+ * to refreshing the content itself.
+ *
+ * @version $Revision$
+ */
+public class CacheRefreshService {
+    private static final Log log = LogFactory.getLog(CacheRefreshService.class);
+
+    private final ConcurrentMap<String, Boolean> refreshingKeys = new ConcurrentHashMap<String, Boolean>();
+    private final AtomicLong scheduledCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private TaskExecutor taskExecutor;
+
+    /**
+     * The executor that runs the refreshes, it should reject tasks when its queue is full
+     * rather than running them on the calling thread.
+     */
+    public void setTaskExecutor(TaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Schedules a refresh of the cached page.
+     *
+     * @param cacheKey The key of the page being refreshed.
+     * @param refreshTask Refreshes the page, exceptions it throws are logged.
+     * @return true if the refresh was scheduled or a refresh of the key is already in progress,
+     *         false if the executor could not accept the refresh.
+     */
+    public boolean refresh(final String cacheKey, final Runnable refreshTask) {
+        if (this.refreshingKeys.putIfAbsent(cacheKey, Boolean.TRUE) != null) {
+            return true;
+        }
+
+        try {
+            this.taskExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        refreshTask.run();
+                    }
+                    catch (RuntimeException re) {
+                        failedCount.incrementAndGet();
+                        log.warn("Background refresh of cached page '" + cacheKey + "' failed", re);
+                    }
+                    finally {
+                        refreshingKeys.remove(cacheKey);
+                    }
+                }
+            });
+        }
+        catch (TaskRejectedException tre) {
+            this.refreshingKeys.remove(cacheKey);
+            this.rejectedCount.incrementAndGet();
+
+            if (log.isDebugEnabled()) {
+                log.debug("Refresh executor is saturated, not refreshing cached page '" + cacheKey + "' in the background", tre);
+            }
+            return false;
+        }
+
+        this.scheduledCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return true if a refresh of the cached page is scheduled or running.
+     */
+    public boolean isRefreshing(String cacheKey) {
+        return this.refreshingKeys.containsKey(cacheKey);
+    }
+
+    /**
+     * @return The number of refreshes scheduled or running.
+     */
+    public int getRefreshingCount() {
+        return this.refreshingKeys.size();
+    }
+
+    /**
+     * @return The number of refreshes that were scheduled.
+     */
+    public long getScheduledCount() {
+        return this.scheduledCount.get();
+    }
+
+    /**
+     * @return The number of refreshes that were rejected by the executor.
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * @return The number of refreshes that failed.
+     */
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+}
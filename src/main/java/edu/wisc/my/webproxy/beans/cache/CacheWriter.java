@@ -20,8 +20,16 @@
 package edu.wisc.my.webproxy.beans.cache;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.io.Writer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.wisc.my.webproxy.util.EncodingWriter;
 
 
 
@@ -29,6 +37,11 @@ import java.io.Writer;
  * Caching output stream. Takes a PageCache and the cache parameters along with
  * an output stream to delegate the calls to.
  * 
+ * The content is encoded as UTF-8 and compressed as it is written into a chunked
+ * {@link CacheBuffer}. If the compressed content grows larger than the maximum entry
+ * size of the PageCache caching is abandoned, the content is still written to the
+ * delegate stream.
+ * 
  * When close() is called on this class the bufferend content is written
  * out to the PageCache.
  * 
@@ -36,8 +49,17 @@ import java.io.Writer;
  * @version $Revision$
  */
 public class CacheWriter extends Writer {
+    private static final int MAX_POOLED_DEFLATERS = 32;
+    private static final int DEFLATE_BUFFER_SIZE = 4096;
+    
+    private static final Queue<Deflater> DEFLATER_POOL = new ConcurrentLinkedQueue<Deflater>();
+    
+    private static final Log LOG = LogFactory.getLog(CacheWriter.class);
+    
     private Writer out;
-    private final StringWriter cacheBuffer = new StringWriter(1024);
+    private Writer cacheOut;
+    private final CacheBuffer cacheBuffer;
+    private final Deflater deflater;
     
     private final CacheEntry entryBase;
     private final String key;
@@ -67,6 +89,11 @@ public class CacheWriter extends Writer {
         this.key = cacheKey;
         this.cache = cache;
         this.persistData = persistData;
+        
+        final Deflater pooledDeflater = DEFLATER_POOL.poll();
+        this.deflater = (pooledDeflater != null ? pooledDeflater : new Deflater(Deflater.BEST_SPEED));
+        this.cacheBuffer = new CacheBuffer(cache.getMaxEntrySize());
+        this.cacheOut = new EncodingWriter(new DeflaterOutputStream(this.cacheBuffer, this.deflater, DEFLATE_BUFFER_SIZE), CacheEntry.CONTENT_CHARSET);
     }
     
 
@@ -81,9 +108,24 @@ public class CacheWriter extends Writer {
             throw new IllegalStateException("close() has already been called.");
         }
         
-        this.entryBase.setContent(this.cacheBuffer.toString());
-        
-        this.cache.cachePage(this.key, this.entryBase, this.persistData);
+        try {
+            if (this.cacheOut != null) {
+                //Flushes the encoder and finishes the compressed data
+                this.cacheOut.close();
+                this.cacheOut = null;
+                
+                if (this.cacheBuffer.isOverflowed()) {
+                    this.logOverflow();
+                }
+                else {
+                    this.entryBase.setCompressedContent(this.cacheBuffer.toByteArray());
+                    this.cache.cachePage(this.key, this.entryBase, this.persistData);
+                }
+            }
+        }
+        finally {
+            this.release();
+        }
         
         if (this.out != null) {
             this.out.close();
@@ -111,7 +153,10 @@ public class CacheWriter extends Writer {
             throw new IllegalStateException("close() has already been called.");
         }
     
-        this.cacheBuffer.write(cbuf, off, len);
+        if (this.cacheOut != null) {
+            this.cacheOut.write(cbuf, off, len);
+            this.checkOverflow();
+        }
         this.out.write(cbuf, off, len);
     }
 
@@ -122,7 +167,10 @@ public class CacheWriter extends Writer {
             throw new IllegalStateException("close() has already been called.");
         }
     
-        this.cacheBuffer.append(c);
+        if (this.cacheOut != null) {
+            this.cacheOut.append(c);
+            this.checkOverflow();
+        }
         this.out.append(c);
         
         return this;
@@ -135,7 +183,10 @@ public class CacheWriter extends Writer {
             throw new IllegalStateException("close() has already been called.");
         }
     
-        this.cacheBuffer.append(csq, start, end);
+        if (this.cacheOut != null) {
+            this.cacheOut.append(csq, start, end);
+            this.checkOverflow();
+        }
         this.out.append(csq, start, end);
         
         return this;
@@ -148,7 +199,10 @@ public class CacheWriter extends Writer {
             throw new IllegalStateException("close() has already been called.");
         }
     
-        this.cacheBuffer.append(csq);
+        if (this.cacheOut != null) {
+            this.cacheOut.append(csq);
+            this.checkOverflow();
+        }
         this.out.append(csq);
         
         return this;
@@ -161,7 +215,10 @@ public class CacheWriter extends Writer {
             throw new IllegalStateException("close() has already been called.");
         }
     
-        this.cacheBuffer.write(cbuf);
+        if (this.cacheOut != null) {
+            this.cacheOut.write(cbuf);
+            this.checkOverflow();
+        }
         this.out.write(cbuf);
     }
 
@@ -172,7 +229,10 @@ public class CacheWriter extends Writer {
             throw new IllegalStateException("close() has already been called.");
         }
     
-        this.cacheBuffer.write(c);
+        if (this.cacheOut != null) {
+            this.cacheOut.write(c);
+            this.checkOverflow();
+        }
         this.out.write(c);
     }
 
@@ -183,7 +243,10 @@ public class CacheWriter extends Writer {
             throw new IllegalStateException("close() has already been called.");
         }
     
-        this.cacheBuffer.write(str, off, len);
+        if (this.cacheOut != null) {
+            this.cacheOut.write(str, off, len);
+            this.checkOverflow();
+        }
         this.out.write(str, off, len);
     }
 
@@ -194,7 +257,46 @@ public class CacheWriter extends Writer {
             throw new IllegalStateException("close() has already been called.");
         }
     
-        this.cacheBuffer.write(str);
+        if (this.cacheOut != null) {
+            this.cacheOut.write(str);
+            this.checkOverflow();
+        }
         this.out.write(str);
     }
+    
+    
+    /**
+     * Stops caching once the compressed content no longer fits in the maximum entry size,
+     * the rest of the content is only written to the delegate stream.
+     */
+    private void checkOverflow() throws IOException {
+        if (this.cacheBuffer.isOverflowed()) {
+            this.logOverflow();
+            
+            final Writer overflowedOut = this.cacheOut;
+            this.cacheOut = null;
+            overflowedOut.close();
+        }
+    }
+    
+    private void logOverflow() {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Content for '" + this.key + "' is larger than the maximum cache entry size of " + this.cache.getMaxEntrySize() + " bytes and will not be cached");
+        }
+    }
+    
+    /**
+     * Returns the buffer chunks and the deflater to their pools.
+     */
+    private void release() {
+        this.cacheBuffer.release();
+        
+        this.deflater.reset();
+        if (DEFLATER_POOL.size() < MAX_POOLED_DEFLATERS) {
+            DEFLATER_POOL.offer(this.deflater);
+        }
+        else {
+            this.deflater.end();
+        }
+    }
 }
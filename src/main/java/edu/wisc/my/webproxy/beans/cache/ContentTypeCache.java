@@ -0,0 +1,322 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.cache;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import edu.wisc.my.webproxy.beans.http.Response;
+
+/**
+ * Remembers the content type returned for URLs so the portlet can decide whether a link
+ * is proxied or passed through to the browser without probing the remote server. Entries
+ * live for the freshness lifetime given by the response headers and are bounded both per
+ * origin (scheme://host:port) and in the number of origins tracked. Content types learned
+ * for a user's requests are only used for that user since the remote server may answer
+ * differently depending on the user's cookies and credentials. URLs of public content that
+ * have not been seen yet may be resolved by file extension or by path pattern.
+ *
+ * @version $Revision$
+ */
+public class ContentTypeCache {
+    private static final int HTTP_OK = 200;
+
+    protected final Log logger = LogFactory.getLog(this.getClass());
+
+    private final Map<String, Map<String, ContentTypeEntry>> originCaches;
+    private int maxOrigins = 1000;
+    private int maxEntriesPerOrigin = 500;
+    private int defaultSecondsToLive = 300;
+    private int maxSecondsToLive = 3600;
+    private Map<String, String> extensionContentTypes = Collections.emptyMap();
+    private Map<Pattern, String> pathContentTypes = Collections.emptyMap();
+
+    public ContentTypeCache() {
+        this.originCaches = new LinkedHashMap<String, Map<String, ContentTypeEntry>>(16, .75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, ContentTypeEntry>> eldest) {
+                return this.size() > ContentTypeCache.this.maxOrigins;
+            }
+        };
+    }
+
+    /**
+     * Maximum number of origins to track content types for, the least recently used origin is
+     * dropped when the limit is reached. Defaults to 1000.
+     */
+    public void setMaxOrigins(int maxOrigins) {
+        this.maxOrigins = maxOrigins;
+    }
+
+    /**
+     * Maximum number of URLs tracked per origin, the least recently used URL is dropped
+     * when the limit is reached. Defaults to 500.
+     */
+    public void setMaxEntriesPerOrigin(int maxEntriesPerOrigin) {
+        this.maxEntriesPerOrigin = maxEntriesPerOrigin;
+    }
+
+    /**
+     * Seconds to remember a content type when the response has no freshness information.
+     * Defaults to 300.
+     */
+    public void setDefaultSecondsToLive(int defaultSecondsToLive) {
+        this.defaultSecondsToLive = defaultSecondsToLive;
+    }
+
+    /**
+     * Upper bound on the seconds a content type is remembered regardless of the response
+     * headers. Defaults to 3600.
+     */
+    public void setMaxSecondsToLive(int maxSecondsToLive) {
+        this.maxSecondsToLive = maxSecondsToLive;
+    }
+
+    /**
+     * Content types to assume for URLs whose path ends with one of the specified file
+     * extensions. Extensions are matched case insensitively and should not include the dot.
+     */
+    public void setExtensionContentTypes(Map<String, String> extensionContentTypes) {
+        final Map<String, String> extensions = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        extensions.putAll(extensionContentTypes);
+        this.extensionContentTypes = extensions;
+    }
+
+    /**
+     * Content types to assume for URLs matching the specified regular expressions. The
+     * patterns are checked in order against the full URL before the file extension.
+     */
+    public void setPathContentTypes(Map<String, String> pathContentTypes) {
+        final Map<Pattern, String> paths = new LinkedHashMap<Pattern, String>();
+        for (final Map.Entry<String, String> pathEntry : pathContentTypes.entrySet()) {
+            paths.put(Pattern.compile(pathEntry.getKey()), pathEntry.getValue());
+        }
+        this.pathContentTypes = paths;
+    }
+
+    /**
+     * Gets the content type for the URL, either from a previous response or, for public
+     * content, inferred from the configured path patterns and file extensions.
+     *
+     * @param url The URL to get the content type for
+     * @param userKey Identifies the user the URL is requested for, null if the content is public and the same for all users
+     * @return The content type without any parameters, null if it is not known
+     */
+    public String getContentType(String url, String userKey) {
+        final String origin = this.getOrigin(url);
+        final String entryKey = this.getEntryKey(url, userKey);
+
+        synchronized (this.originCaches) {
+            final Map<String, ContentTypeEntry> originCache = this.originCaches.get(origin);
+            if (originCache != null) {
+                final ContentTypeEntry entry = originCache.get(entryKey);
+                if (entry != null) {
+                    if (entry.expires > System.currentTimeMillis()) {
+                        return entry.contentType;
+                    }
+
+                    originCache.remove(entryKey);
+                }
+            }
+        }
+
+        //The content type of protected content has to come from the user's own request
+        if (userKey != null) {
+            return null;
+        }
+
+        return this.inferContentType(url);
+    }
+
+    /**
+     * Remembers the content type of the response for the URL. Only successful responses
+     * that may be cached according to their Cache-Control header are remembered.
+     *
+     * @param url The URL that was requested
+     * @param userKey Identifies the user the URL was requested for, null if the content is public and the same for all users
+     * @param response The response for the URL
+     */
+    public void cacheContentType(String url, String userKey, Response response) {
+        if (response.getStatusCode() != HTTP_OK) {
+            return;
+        }
+
+        String contentType = response.getContentType();
+        if (contentType == null) {
+            return;
+        }
+        final int paramStart = contentType.indexOf(';');
+        if (paramStart >= 0) {
+            contentType = contentType.substring(0, paramStart);
+        }
+        contentType = contentType.trim();
+
+        final long secondsToLive = Math.min(this.getSecondsToLive(response), this.maxSecondsToLive);
+        if (secondsToLive <= 0) {
+            return;
+        }
+
+        final ContentTypeEntry entry = new ContentTypeEntry(contentType, System.currentTimeMillis() + secondsToLive * 1000);
+        final String origin = this.getOrigin(url);
+        final String entryKey = this.getEntryKey(url, userKey);
+
+        synchronized (this.originCaches) {
+            Map<String, ContentTypeEntry> originCache = this.originCaches.get(origin);
+            if (originCache == null) {
+                originCache = new LinkedHashMap<String, ContentTypeEntry>(16, .75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, ContentTypeEntry> eldest) {
+                        return this.size() > ContentTypeCache.this.maxEntriesPerOrigin;
+                    }
+                };
+                this.originCaches.put(origin, originCache);
+            }
+
+            originCache.put(entryKey, entry);
+        }
+    }
+
+    /**
+     * Determines how long the response may be considered fresh, -1 if it must not be cached.
+     */
+    protected long getSecondsToLive(Response response) {
+        final String cacheControl = response.getHeaderValue("Cache-Control");
+        if (cacheControl != null) {
+            for (final StringTokenizer directives = new StringTokenizer(cacheControl, ","); directives.hasMoreTokens(); ) {
+                final String directive = directives.nextToken().trim().toLowerCase();
+
+                if ("no-store".equals(directive) || "no-cache".equals(directive)) {
+                    return -1;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return Long.parseLong(directive.substring("max-age=".length()).trim());
+                    }
+                    catch (NumberFormatException nfe) {
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        final String expires = response.getHeaderValue("Expires");
+        if (expires != null) {
+            try {
+                final Date expiresDate = DateUtils.parseDate(expires);
+
+                final String date = response.getHeaderValue("Date");
+                final long now = date != null ? DateUtils.parseDate(date).getTime() : System.currentTimeMillis();
+
+                return (expiresDate.getTime() - now) / 1000;
+            }
+            catch (DateParseException dpe) {
+                //Invalid dates mean the response is already expired
+                return -1;
+            }
+        }
+
+        return this.defaultSecondsToLive;
+    }
+
+    /**
+     * Infers the content type of the URL from the configured path patterns and file extensions.
+     */
+    protected String inferContentType(String url) {
+        for (final Map.Entry<Pattern, String> pathEntry : this.pathContentTypes.entrySet()) {
+            if (pathEntry.getKey().matcher(url).matches()) {
+                return pathEntry.getValue();
+            }
+        }
+
+        if (this.extensionContentTypes.isEmpty()) {
+            return null;
+        }
+
+        int pathEnd = url.length();
+        final int queryStart = url.indexOf('?');
+        if (queryStart >= 0) {
+            pathEnd = queryStart;
+        }
+        final int fragmentStart = url.indexOf('#');
+        if (fragmentStart >= 0 && fragmentStart < pathEnd) {
+            pathEnd = fragmentStart;
+        }
+
+        final int extensionStart = url.lastIndexOf('.', pathEnd - 1);
+        final int fileStart = url.lastIndexOf('/', pathEnd - 1);
+        if (extensionStart < 0 || extensionStart < fileStart || url.lastIndexOf("//", pathEnd - 1) == fileStart - 1) {
+            return null;
+        }
+
+        return this.extensionContentTypes.get(url.substring(extensionStart + 1, pathEnd));
+    }
+
+    /**
+     * @return The key of the URL's entry in its origin's cache
+     */
+    protected String getEntryKey(String url, String userKey) {
+        if (userKey == null) {
+            return url;
+        }
+
+        return userKey + "." + url;
+    }
+
+    /**
+     * @return The scheme://host:port part of the URL
+     */
+    protected String getOrigin(String url) {
+        final int schemeEnd = url.indexOf("://");
+        if (schemeEnd < 0) {
+            return "";
+        }
+
+        final int authorityEnd = url.indexOf('/', schemeEnd + 3);
+        if (authorityEnd < 0) {
+            return url.toLowerCase();
+        }
+
+        return url.substring(0, authorityEnd).toLowerCase();
+    }
+
+    private static final class ContentTypeEntry {
+        private final String contentType;
+        private final long expires;
+
+        public ContentTypeEntry(String contentType, long expires) {
+            this.contentType = contentType;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,1011 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+/**
+ * Disk tier for pages cached with the persist cache option, lets the cache survive restarts.
+ * Pages are appended to a log file in the configured directory, each record carries a CRC32 of
+ * its contents. The file is scanned on first use to rebuild the index from the record headers and
+ * keys, page content is only read and checksummed when a page is loaded. A torn record at the end
+ * of the file from a crash is truncated and a corrupt record is dropped when it is loaded.
+ * <p>
+ * When the file grows past the maximum size or is mostly replaced and removed records it is
+ * compacted on the task executor. The live records are copied to a new file without blocking the
+ * store, records appended meanwhile are copied once the copy is done and the synced file is
+ * renamed over the log file. If compaction is interrupted the old log file is still intact.
+ * Records that are retained longest are kept when the live records don't fit in the maximum size.
+ * <p>
+ * The directory is locked while the store is open, a second store for the same directory is
+ * disabled. Files are created readable and writable by the owner only.
+ *
+ * @version $Revision$
+ */
+public class DiskPageStore {
+    private static final String LOG_FILE = "pages.log";
+    private static final String COMPACT_FILE = "pages.log.compact";
+    private static final String LOCK_FILE = "pages.lock";
+
+    private static final int RECORD_MAGIC = 0x57505043;
+    private static final int HEADER_SIZE = 8;
+    //Header, type and length of the key, the beginning of every record read by the scan
+    private static final int SCAN_HEADER_SIZE = HEADER_SIZE + 3;
+    private static final int TRAILER_SIZE = 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private static final long MIN_COMPACT_SIZE = 1024 * 1024;
+
+    private static final Log log = LogFactory.getLog(DiskPageStore.class);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Slot> index = new HashMap<String, Slot>();
+    private final AtomicLong storedCount = new AtomicLong();
+    private final AtomicLong loadedCount = new AtomicLong();
+    private final AtomicLong corruptCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong compactionCount = new AtomicLong();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private File directory;
+    private long maxSize = 100 * 1024 * 1024;
+    private TaskExecutor taskExecutor;
+
+    private volatile boolean opened = false;
+    private boolean closed = false;
+    private RandomAccessFile lockFile;
+    private FileLock directoryLock;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private long fileSize = 0;
+    private long liveSize = 0;
+
+    /**
+     * Directory the log file is stored in, created if it doesn't exist.
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Maximum size in bytes of the log file, older records are dropped when the file is compacted
+     * to fit. Defaults to 100MB.
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * The executor compactions run on, if not set the thread whose write triggers a compaction
+     * runs it after the write completes.
+     */
+    public void setTaskExecutor(TaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Writes the page to disk, replacing any page stored for the key.
+     *
+     * @param retainUntil Time in milliseconds the page is kept until.
+     */
+    public void store(String key, CacheEntry entry, long retainUntil) {
+        final byte[] record;
+        try {
+            record = this.createRecord(PUT, key, entry, retainUntil);
+        }
+        catch (IOException ioe) {
+            log.warn("Failed to serialize page '" + key + "' for the disk store", ioe);
+            return;
+        }
+
+        if (record.length > this.maxSize / 2) {
+            return;
+        }
+
+        boolean compact = false;
+        this.lock.writeLock().lock();
+        try {
+            this.openLocked();
+            if (this.append(key, record, retainUntil)) {
+                this.storedCount.incrementAndGet();
+                compact = this.startCompactionLocked();
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+
+        if (compact) {
+            this.scheduleCompaction();
+        }
+    }
+
+    /**
+     * Removes the page stored for the key, if there is one.
+     */
+    public void remove(String key) {
+        this.open();
+
+        this.lock.readLock().lock();
+        try {
+            if (!this.index.containsKey(key)) {
+                return;
+            }
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+
+        final byte[] record;
+        try {
+            record = this.createRecord(REMOVE, key, null, 0);
+        }
+        catch (IOException ioe) {
+            log.warn("Failed to serialize removal of page '" + key + "' for the disk store", ioe);
+            return;
+        }
+
+        boolean compact = false;
+        this.lock.writeLock().lock();
+        try {
+            if (this.index.containsKey(key) && this.append(key, record, 0)) {
+                compact = this.startCompactionLocked();
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+
+        if (compact) {
+            this.scheduleCompaction();
+        }
+    }
+
+    /**
+     * Reads the page stored for the key.
+     *
+     * @return The page, null if no page is stored for the key, it is no longer retained or the record is corrupt.
+     */
+    public CacheEntry load(String key) {
+        this.open();
+
+        byte[] record = null;
+        this.lock.readLock().lock();
+        try {
+            final Slot slot = this.index.get(key);
+            if (slot == null || slot.retainUntil <= System.currentTimeMillis() || this.channel == null) {
+                return null;
+            }
+
+            record = this.readRecord(this.channel, slot);
+        }
+        catch (IOException ioe) {
+            log.warn("Failed to read page '" + key + "' from the disk store", ioe);
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+
+        if (record != null) {
+            try {
+                final CacheEntry entry = this.parseEntry(record);
+                this.loadedCount.incrementAndGet();
+                return entry;
+            }
+            catch (IOException ioe) {
+                log.warn("Failed to parse page '" + key + "' from the disk store", ioe);
+            }
+        }
+
+        //Corrupt or unreadable record, forget it so it is dropped by the next compaction
+        this.corruptCount.incrementAndGet();
+        this.lock.writeLock().lock();
+        try {
+            final Slot slot = this.index.remove(key);
+            if (slot != null) {
+                this.liveSize -= slot.size;
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+        return null;
+    }
+
+    /**
+     * Closes the log file, should be configured as the destroy method.
+     */
+    public void close() {
+        this.lock.writeLock().lock();
+        try {
+            this.closed = true;
+            this.closeFileLocked();
+            this.unlockDirectoryLocked();
+            this.index.clear();
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of pages in the store.
+     */
+    public int getEntryCount() {
+        this.lock.readLock().lock();
+        try {
+            return this.index.size();
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The size in bytes of the log file.
+     */
+    public long getFileSize() {
+        this.lock.readLock().lock();
+        try {
+            return this.fileSize;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The size in bytes of the live records in the log file.
+     */
+    public long getLiveSize() {
+        this.lock.readLock().lock();
+        try {
+            return this.liveSize;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of pages written to disk.
+     */
+    public long getStoredCount() {
+        return this.storedCount.get();
+    }
+
+    /**
+     * @return The number of pages read from disk.
+     */
+    public long getLoadedCount() {
+        return this.loadedCount.get();
+    }
+
+    /**
+     * @return The number of records dropped because they were torn or failed the checksum.
+     */
+    public long getCorruptCount() {
+        return this.corruptCount.get();
+    }
+
+    /**
+     * @return The number of live pages dropped to fit the maximum size.
+     */
+    public long getEvictedCount() {
+        return this.evictedCount.get();
+    }
+
+    /**
+     * @return The number of times the log file was compacted.
+     */
+    public long getCompactionCount() {
+        return this.compactionCount.get();
+    }
+
+
+    private void open() {
+        if (this.opened) {
+            return;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            this.openLocked();
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Opens the log file and rebuilds the index, the store is disabled if the file can't be opened.
+     */
+    private void openLocked() {
+        if (this.opened || this.closed) {
+            return;
+        }
+        this.opened = true;
+
+        if (this.directory == null) {
+            log.warn("No directory configured for the disk store, persistent pages will not be written to disk");
+            return;
+        }
+
+        if (!this.directory.isDirectory()) {
+            if (!this.directory.mkdirs()) {
+                log.warn("Failed to create disk store directory '" + this.directory + "', persistent pages will not be written to disk");
+                return;
+            }
+            restrictToOwner(this.directory);
+        }
+
+        if (!this.lockDirectoryLocked()) {
+            return;
+        }
+
+        //A compaction file next to the log file is from an interrupted compaction and is discarded,
+        //without a log file it is from a compaction that was interrupted while replacing the log file
+        final File logFile = new File(this.directory, LOG_FILE);
+        final File compactFile = new File(this.directory, COMPACT_FILE);
+        if (compactFile.exists()) {
+            if (logFile.exists()) {
+                if (!compactFile.delete()) {
+                    log.warn("Failed to delete interrupted compaction file '" + compactFile + "'");
+                }
+            }
+            else if (!compactFile.renameTo(logFile)) {
+                log.warn("Failed to rename compaction file '" + compactFile + "' to '" + logFile + "'");
+            }
+        }
+
+        try {
+            this.file = openFile(logFile);
+            this.channel = this.file.getChannel();
+            this.scanLocked();
+        }
+        catch (IOException ioe) {
+            log.warn("Failed to open disk store in '" + this.directory + "', persistent pages will not be written to disk", ioe);
+            this.closeFileLocked();
+            this.unlockDirectoryLocked();
+            this.index.clear();
+        }
+    }
+
+    /**
+     * Locks the directory for this store so two stores, possibly in different JVMs, don't write
+     * the same log file.
+     *
+     * @return true if the lock was acquired.
+     */
+    private boolean lockDirectoryLocked() {
+        final File lockFile = new File(this.directory, LOCK_FILE);
+        try {
+            this.lockFile = openFile(lockFile);
+            this.directoryLock = this.lockFile.getChannel().tryLock();
+        }
+        catch (OverlappingFileLockException ofle) {
+            //Locked by another store in this JVM
+            this.directoryLock = null;
+        }
+        catch (IOException ioe) {
+            log.warn("Failed to lock disk store directory '" + this.directory + "', persistent pages will not be written to disk", ioe);
+            this.unlockDirectoryLocked();
+            return false;
+        }
+
+        if (this.directoryLock == null) {
+            log.warn("Disk store directory '" + this.directory + "' is in use by another store, persistent pages will not be written to disk");
+            this.unlockDirectoryLocked();
+            return false;
+        }
+        return true;
+    }
+
+    private void unlockDirectoryLocked() {
+        if (this.directoryLock != null) {
+            try {
+                this.directoryLock.release();
+            }
+            catch (IOException ioe) {
+                log.warn("Failed to unlock disk store directory '" + this.directory + "'", ioe);
+            }
+            this.directoryLock = null;
+        }
+        closeQuietly(this.lockFile);
+        this.lockFile = null;
+    }
+
+    /**
+     * Rebuilds the index from the headers and keys of the records in the log file, truncating the
+     * file at the first record whose framing is invalid. Checksums are verified when a record is read.
+     */
+    private void scanLocked() throws IOException {
+        final long now = System.currentTimeMillis();
+        final long length = this.channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(SCAN_HEADER_SIZE);
+
+        this.index.clear();
+        this.liveSize = 0;
+
+        long position = 0;
+        while (position < length) {
+            header.clear();
+            if (!this.readFully(this.channel, header, position)
+                    || header.getInt(0) != RECORD_MAGIC) {
+                break;
+            }
+
+            final int bodySize = header.getInt(4);
+            final long size = HEADER_SIZE + (long)bodySize + TRAILER_SIZE;
+            if (bodySize <= 0 || position + size > length) {
+                break;
+            }
+
+            //A record with an invalid key is skipped, its framing is still intact
+            final byte type = header.get(HEADER_SIZE);
+            final int keyLength = header.getShort(HEADER_SIZE + 1) & 0xFFFF;
+            final String key;
+            final long retainUntil;
+            if ((type != PUT && type != REMOVE) || bodySize < 3 + keyLength + 8) {
+                key = null;
+                retainUntil = 0;
+            }
+            else {
+                final ByteBuffer keyBuffer = ByteBuffer.allocate(2 + keyLength + 8);
+                keyBuffer.putShort((short)keyLength);
+                if (!this.readFully(this.channel, keyBuffer, position + SCAN_HEADER_SIZE)) {
+                    break;
+                }
+
+                final DataInputStream in = new DataInputStream(new ByteArrayInputStream(keyBuffer.array()));
+                String readKey;
+                try {
+                    readKey = in.readUTF();
+                }
+                catch (UTFDataFormatException udfe) {
+                    readKey = null;
+                }
+                key = readKey;
+                retainUntil = in.readLong();
+            }
+            if (key == null) {
+                this.corruptCount.incrementAndGet();
+                position += size;
+                continue;
+            }
+
+            final Slot oldSlot = this.index.remove(key);
+            if (oldSlot != null) {
+                this.liveSize -= oldSlot.size;
+            }
+            if (type == PUT && retainUntil > now) {
+                this.index.put(key, new Slot(position, (int)size, retainUntil));
+                this.liveSize += size;
+            }
+
+            position += size;
+        }
+
+        if (position < length) {
+            log.warn("Truncating invalid record at " + position + " of disk store file with " + length + " bytes");
+            this.corruptCount.incrementAndGet();
+            this.channel.truncate(position);
+        }
+        this.fileSize = position;
+
+        if (log.isInfoEnabled()) {
+            log.info("Opened disk store in '" + this.directory + "' with " + this.index.size() + " pages");
+        }
+    }
+
+    /**
+     * Appends the record and updates the index.
+     *
+     * @return true if the record was written.
+     */
+    private boolean append(String key, byte[] record, long retainUntil) {
+        if (this.channel == null) {
+            return false;
+        }
+
+        try {
+            this.writeFully(this.channel, ByteBuffer.wrap(record), this.fileSize);
+        }
+        catch (IOException ioe) {
+            log.warn("Failed to write page '" + key + "' to the disk store", ioe);
+            try {
+                this.channel.truncate(this.fileSize);
+            }
+            catch (IOException ioe2) {
+                log.warn("Failed to truncate partial record from the disk store", ioe2);
+            }
+            return false;
+        }
+
+        final Slot oldSlot = this.index.remove(key);
+        if (oldSlot != null) {
+            this.liveSize -= oldSlot.size;
+        }
+        if (retainUntil > 0) {
+            this.index.put(key, new Slot(this.fileSize, record.length, retainUntil));
+            this.liveSize += record.length;
+        }
+        this.fileSize += record.length;
+        return true;
+    }
+
+    /**
+     * Checks if the log file needs compacting and no compaction is running.
+     *
+     * @return true if the caller must schedule a compaction.
+     */
+    private boolean startCompactionLocked() {
+        if (this.fileSize > this.maxSize
+                || (this.fileSize > MIN_COMPACT_SIZE && this.liveSize < this.fileSize / 2)) {
+            return this.compacting.compareAndSet(false, true);
+        }
+        return false;
+    }
+
+    /**
+     * Runs the compaction on the task executor, or on the calling thread if there is none. Must
+     * not be called with the lock held.
+     */
+    private void scheduleCompaction() {
+        final Runnable compaction = new Runnable() {
+            public void run() {
+                try {
+                    compact();
+                }
+                finally {
+                    compacting.set(false);
+                }
+            }
+        };
+
+        if (this.taskExecutor == null) {
+            compaction.run();
+            return;
+        }
+
+        try {
+            this.taskExecutor.execute(compaction);
+        }
+        catch (TaskRejectedException tre) {
+            //The next write that finds the file too large tries again
+            this.compacting.set(false);
+            if (log.isDebugEnabled()) {
+                log.debug("Compaction executor is saturated, not compacting disk store in '" + this.directory + "'", tre);
+            }
+        }
+    }
+
+    /**
+     * Copies the live records to a new file and renames it over the log file. Compacts to three
+     * quarters of the maximum size so that a full store isn't compacted on every write. The live
+     * records are copied without holding the lock, the lock is held to copy the records appended
+     * while copying and to replace the log file.
+     */
+    private void compact() {
+        final Map<String, Slot> liveSlots;
+        final long copyEnd;
+        final FileChannel sourceChannel;
+        this.lock.writeLock().lock();
+        try {
+            if (this.channel == null) {
+                return;
+            }
+            liveSlots = new HashMap<String, Slot>(this.index);
+            copyEnd = this.fileSize;
+            sourceChannel = this.channel;
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+
+        final long now = System.currentTimeMillis();
+        final long targetSize = this.maxSize / 4 * 3;
+
+        //Keep the pages retained longest
+        final List<Map.Entry<String, Slot>> slots = new ArrayList<Map.Entry<String, Slot>>(liveSlots.entrySet());
+        Collections.sort(slots, new Comparator<Map.Entry<String, Slot>>() {
+            public int compare(Map.Entry<String, Slot> o1, Map.Entry<String, Slot> o2) {
+                final long r1 = o1.getValue().retainUntil;
+                final long r2 = o2.getValue().retainUntil;
+                return r1 > r2 ? -1 : (r1 < r2 ? 1 : 0);
+            }
+        });
+
+        final File compactFile = new File(this.directory, COMPACT_FILE);
+        final Map<String, Slot> compactIndex = new HashMap<String, Slot>();
+        long compactSize = 0;
+        RandomAccessFile compactOut = null;
+        try {
+            compactOut = openFile(compactFile);
+            compactOut.setLength(0);
+            final FileChannel compactChannel = compactOut.getChannel();
+
+            for (final Map.Entry<String, Slot> slotEntry : slots) {
+                final Slot slot = slotEntry.getValue();
+                if (slot.retainUntil <= now) {
+                    continue;
+                }
+                if (compactSize + slot.size > targetSize) {
+                    this.evictedCount.incrementAndGet();
+                    continue;
+                }
+
+                final byte[] body = this.readRecord(sourceChannel, slot);
+                if (body == null) {
+                    this.corruptCount.incrementAndGet();
+                    continue;
+                }
+
+                final ByteBuffer buffer = ByteBuffer.allocate(slot.size);
+                buffer.putInt(RECORD_MAGIC);
+                buffer.putInt(body.length);
+                buffer.put(body);
+                buffer.putLong(checksum(body));
+                buffer.flip();
+                this.writeFully(compactChannel, buffer, compactSize);
+
+                compactIndex.put(slotEntry.getKey(), new Slot(compactSize, slot.size, slot.retainUntil));
+                compactSize += slot.size;
+            }
+
+            compactChannel.force(true);
+        }
+        catch (IOException ioe) {
+            closeQuietly(compactOut);
+            this.lock.writeLock().lock();
+            try {
+                //Once the store is closed the file may belong to another store for the directory
+                if (!this.closed) {
+                    log.warn("Failed to compact disk store in '" + this.directory + "'", ioe);
+                    compactFile.delete();
+                }
+            }
+            finally {
+                this.lock.writeLock().unlock();
+            }
+            return;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            this.replaceLogLocked(compactOut, compactFile, sourceChannel, liveSlots, compactIndex, compactSize, copyEnd);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the records appended since the compaction started to the compaction file and renames
+     * it over the log file.
+     *
+     * @param liveSlots The index when the compaction started.
+     * @param compactIndex The slots of the copied records in the compaction file.
+     * @param copyEnd The size of the log file when the compaction started.
+     */
+    private void replaceLogLocked(RandomAccessFile compactOut, File compactFile, FileChannel sourceChannel,
+            Map<String, Slot> liveSlots, Map<String, Slot> compactIndex, long compactSize, long copyEnd) {
+
+        //The store was closed or disabled while copying
+        if (this.channel != sourceChannel) {
+            closeQuietly(compactOut);
+            if (!this.closed) {
+                compactFile.delete();
+            }
+            return;
+        }
+
+        final long appendedSize = this.fileSize - copyEnd;
+        try {
+            final FileChannel compactChannel = compactOut.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(appendedSize, 64 * 1024));
+            for (long offset = 0; offset < appendedSize; ) {
+                buffer.clear();
+                buffer.limit((int)Math.min(buffer.capacity(), appendedSize - offset));
+                if (!this.readFully(this.channel, buffer, copyEnd + offset)) {
+                    throw new IOException("Log file ended while copying appended records");
+                }
+                buffer.flip();
+                offset += this.writeFully(compactChannel, buffer, compactSize + offset);
+            }
+
+            compactChannel.force(true);
+            compactOut.close();
+        }
+        catch (IOException ioe) {
+            log.warn("Failed to compact disk store in '" + this.directory + "'", ioe);
+            closeQuietly(compactOut);
+            compactFile.delete();
+            return;
+        }
+
+        //Records appended while copying follow the copied records, pages that were replaced,
+        //removed or dropped while copying are not in the new index
+        final Map<String, Slot> newIndex = new HashMap<String, Slot>();
+        long newLiveSize = 0;
+        for (final Map.Entry<String, Slot> slotEntry : this.index.entrySet()) {
+            final String key = slotEntry.getKey();
+            final Slot slot = slotEntry.getValue();
+
+            final Slot newSlot;
+            if (slot.position >= copyEnd) {
+                newSlot = new Slot(compactSize + slot.position - copyEnd, slot.size, slot.retainUntil);
+            }
+            else if (liveSlots.get(key) == slot) {
+                newSlot = compactIndex.get(key);
+            }
+            else {
+                newSlot = null;
+            }
+
+            if (newSlot != null) {
+                newIndex.put(key, newSlot);
+                newLiveSize += newSlot.size;
+            }
+        }
+
+        //The rename is the commit point, until then the old log file is used. Where rename can't
+        //replace a file the log file is deleted first, the complete compaction file is used on open
+        this.closeFileLocked();
+        final File logFile = new File(this.directory, LOG_FILE);
+        if (!compactFile.renameTo(logFile) && !(logFile.delete() && compactFile.renameTo(logFile))) {
+            log.warn("Failed to rename '" + compactFile + "' to '" + logFile + "', compaction is abandoned");
+            compactFile.delete();
+        }
+        else {
+            this.index.clear();
+            this.index.putAll(newIndex);
+            this.liveSize = newLiveSize;
+            this.fileSize = compactSize + appendedSize;
+            this.compactionCount.incrementAndGet();
+        }
+
+        try {
+            this.file = openFile(logFile);
+            this.channel = this.file.getChannel();
+            if (this.fileSize != this.channel.size()) {
+                this.scanLocked();
+            }
+        }
+        catch (IOException ioe) {
+            log.warn("Failed to reopen disk store in '" + this.directory + "', persistent pages will not be written to disk", ioe);
+            this.closeFileLocked();
+            this.index.clear();
+        }
+    }
+
+    /**
+     * Reads the record in the slot and verifies its checksum.
+     *
+     * @return The body of the record, null if it is invalid.
+     */
+    private byte[] readRecord(FileChannel recordChannel, Slot slot) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(slot.size);
+        if (!this.readFully(recordChannel, buffer, slot.position)) {
+            return null;
+        }
+
+        final int bodySize = slot.size - HEADER_SIZE - TRAILER_SIZE;
+        if (buffer.getInt(0) != RECORD_MAGIC || buffer.getInt(4) != bodySize) {
+            return null;
+        }
+
+        final byte[] body = new byte[bodySize];
+        buffer.position(HEADER_SIZE);
+        buffer.get(body);
+        if (buffer.getLong() != checksum(body)) {
+            return null;
+        }
+
+        return body;
+    }
+
+    /**
+     * @return The number of bytes written.
+     */
+    private int writeFully(FileChannel recordChannel, ByteBuffer buffer, long position) throws IOException {
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += recordChannel.write(buffer, position);
+        }
+        return length;
+    }
+
+    private boolean readFully(FileChannel recordChannel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = recordChannel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    private byte[] createRecord(byte type, String key, CacheEntry entry, long retainUntil) throws IOException {
+        final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        final DataOutputStream body = new DataOutputStream(bodyBytes);
+        body.writeByte(type);
+        body.writeUTF(key);
+        body.writeLong(retainUntil);
+        if (type == PUT) {
+            writeString(body, entry.getContentType());
+            writeString(body, entry.getEtag());
+            writeString(body, entry.getLastModified());
+
+            final Date expirationDate = entry.getExpirationDate();
+            body.writeLong(expirationDate != null ? expirationDate.getTime() : -1);
+
+            final byte[] content = entry.getCompressedContent();
+            if (content == null) {
+                body.writeInt(-1);
+            }
+            else {
+                body.writeInt(content.length);
+                body.write(content);
+            }
+        }
+        body.flush();
+
+        final byte[] bodyArray = bodyBytes.toByteArray();
+        final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(HEADER_SIZE + bodyArray.length + TRAILER_SIZE);
+        final DataOutputStream record = new DataOutputStream(recordBytes);
+        record.writeInt(RECORD_MAGIC);
+        record.writeInt(bodyArray.length);
+        record.write(bodyArray);
+        record.writeLong(checksum(bodyArray));
+        record.flush();
+        return recordBytes.toByteArray();
+    }
+
+    private CacheEntry parseEntry(byte[] record) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        if (in.readByte() != PUT) {
+            throw new IOException("Record is not a page");
+        }
+        in.readUTF();
+        in.readLong();
+
+        final CacheEntry entry = new CacheEntry();
+        entry.setContentType(readString(in));
+        entry.setEtag(readString(in));
+        entry.setLastModified(readString(in));
+
+        final long expirationDate = in.readLong();
+        if (expirationDate >= 0) {
+            entry.setExpirationDate(new Date(expirationDate));
+        }
+
+        final int contentLength = in.readInt();
+        if (contentLength >= 0) {
+            final byte[] content = new byte[contentLength];
+            in.readFully(content);
+            entry.setCompressedContent(content);
+        }
+
+        return entry;
+    }
+
+    private void closeFileLocked() {
+        closeQuietly(this.file);
+        this.file = null;
+        this.channel = null;
+    }
+
+    /**
+     * Opens the file for reading and writing, a new file is only accessible by the owner.
+     */
+    private static RandomAccessFile openFile(File file) throws IOException {
+        if (file.createNewFile()) {
+            restrictToOwner(file);
+        }
+        return new RandomAccessFile(file, "rw");
+    }
+
+    /**
+     * Removes the permissions of everyone but the owner from the file.
+     */
+    private static void restrictToOwner(File file) {
+        final boolean restricted = file.setReadable(false, false) && file.setReadable(true, true)
+                && file.setWritable(false, false) && file.setWritable(true, true)
+                && file.setExecutable(false, false) && (!file.isDirectory() || file.setExecutable(true, true));
+        if (!restricted) {
+            log.warn("Failed to restrict access to '" + file + "' to its owner");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static long checksum(byte[] body) {
+        final CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return crc.getValue();
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        }
+        catch (IOException ioe) {
+            log.warn("Failed to close disk store file", ioe);
+        }
+    }
+
+    /**
+     * Location of a live record in the log file.
+     */
+    private static final class Slot {
+        private final long position;
+        private final int size;
+        private final long retainUntil;
+
+        private Slot(long position, int size, long retainUntil) {
+            this.position = position;
+            this.size = size;
+            this.retainUntil = retainUntil;
+        }
+    }
+}
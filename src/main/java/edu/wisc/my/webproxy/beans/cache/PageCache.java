@@ -66,4 +66,9 @@ public interface PageCache {
      * @return The entry for the key, null if no entry exists or if the entry is older than the specified max age.
      */
     public CacheEntry getCachedPage(String key, int maxCacheAge);
+    
+    /**
+     * @return The maximum size in bytes of the compressed content of an entry, 0 or less for no limit.
+     */
+    public int getMaxEntrySize();
 }
@@ -22,10 +22,13 @@ package edu.wisc.my.webproxy.beans.cache.ehcache;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import edu.wisc.my.webproxy.beans.cache.CacheEntry;
+import edu.wisc.my.webproxy.beans.cache.DiskPageStore;
 import edu.wisc.my.webproxy.beans.cache.PageCache;
 
 /**
- * PageCache using EhCache
+ * PageCache using EhCache. Pages cached as persistent are also written to the optional
+ * {@link DiskPageStore} and are loaded from it when they aren't in memory, such as after a
+ * restart.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -33,6 +36,9 @@ import edu.wisc.my.webproxy.beans.cache.PageCache;
 public class EhPageCache implements PageCache {
     private Ehcache ehcache;
     private int cacheSecondsToLiveDefault = 0;
+    private int staleSecondsToLive = 0;
+    private int maxEntrySize = 0;
+    private DiskPageStore diskStore;
     
     public Ehcache getEhcache() {
         return this.ehcache;
@@ -40,6 +46,12 @@ public class EhPageCache implements PageCache {
     public void setEhcache(Ehcache ehcache) {
         this.ehcache = ehcache;
     }
+    /**
+     * @param diskStore Disk tier for persistent pages, null to keep all pages in memory only.
+     */
+    public void setDiskStore(DiskPageStore diskStore) {
+        this.diskStore = diskStore;
+    }
 
     /* (non-Javadoc)
      * @see edu.wisc.my.webproxy.beans.cache.PageCache#cachePage(java.lang.String, edu.wisc.my.webproxy.beans.cache.CacheEntry, boolean)
@@ -50,10 +62,26 @@ public class EhPageCache implements PageCache {
         // don't try to cache if the expiration is null 
         if (entry.getExpirationDate()==null) return;
         
+        // don't cache content larger than the entry size limit
+        final byte[] content = entry.getCompressedContent();
+        if (this.maxEntrySize > 0 && content != null && content.length > this.maxEntrySize) return;
+        
         long secondsTtl = ((entry.getExpirationDate().getTime() - System.currentTimeMillis()) > 0) ? 
                 (entry.getExpirationDate().getTime() - System.currentTimeMillis())/1000 : cacheSecondsToLiveDefault; 
+        // keep expired entries around so they can be revalidated or used when the remote server fails
+        secondsTtl += this.staleSecondsToLive;
         element.setTimeToLive((int) Math.min(Integer.MAX_VALUE, secondsTtl)); // ensure that value can fit into an int.
         this.ehcache.put(element);
+        
+        if (this.diskStore != null) {
+            if (persistent) {
+                this.diskStore.store(key, entry, System.currentTimeMillis() + secondsTtl * 1000);
+            }
+            else {
+                // don't let an older persistent copy replace this page after it is evicted
+                this.diskStore.remove(key);
+            }
+        }
     }
 
     /* (non-Javadoc)
@@ -67,20 +95,25 @@ public class EhPageCache implements PageCache {
      * @see edu.wisc.my.webproxy.beans.cache.PageCache#getCachedPage(java.lang.String, boolean)
      */
     public CacheEntry getCachedPage(String key, boolean useExpired) {
-        final Element element = this.ehcache.get(key);
+        final Element element = this.getElement(key);
         
         if (element == null || (!useExpired && element.isExpired())) {
             return null;
         }
         
-        return (CacheEntry)element.getValue();
+        final CacheEntry entry = (CacheEntry)element.getValue();
+        if (!useExpired && entry.getExpirationDate() != null && entry.getExpirationDate().getTime() <= System.currentTimeMillis()) {
+            return null;
+        }
+        
+        return entry;
     }
 
     /* (non-Javadoc)
      * @see edu.wisc.my.webproxy.beans.cache.PageCache#getCachedPage(java.lang.String, int)
      */
     public CacheEntry getCachedPage(String key, int maxCacheAge) {
-        final Element element = this.ehcache.get(key);
+        final Element element = this.getElement(key);
         
         if (element == null || (System.currentTimeMillis() - element.getCreationTime()) > maxCacheAge) {
             return null;
@@ -88,11 +121,57 @@ public class EhPageCache implements PageCache {
         
         return (CacheEntry)element.getValue();
     }
+    
+    /**
+     * Gets the element from memory, falling back to the disk store. Pages loaded from disk are
+     * put back in memory for the rest of the time they are retained.
+     */
+    private Element getElement(String key) {
+        final Element element = this.ehcache.get(key);
+        if (element != null || this.diskStore == null) {
+            return element;
+        }
+        
+        final CacheEntry entry = this.diskStore.load(key);
+        if (entry == null || entry.getExpirationDate() == null) {
+            return null;
+        }
+        
+        final long secondsTtl = (entry.getExpirationDate().getTime() - System.currentTimeMillis()) / 1000 + this.staleSecondsToLive;
+        if (secondsTtl <= 0) {
+            return null;
+        }
+        
+        final Element diskElement = new Element(key, entry);
+        diskElement.setTimeToLive((int) Math.min(Integer.MAX_VALUE, secondsTtl));
+        this.ehcache.put(diskElement);
+        return diskElement;
+    }
     /**
      * @param cacheSecondsToLiveDefault the cacheSecondsToLiveDefault to set
      */
     public void setCacheSecondsToLiveDefault(int cacheSecondsToLiveDefault) {
         this.cacheSecondsToLiveDefault = cacheSecondsToLiveDefault;
     }
+    /**
+     * @param staleSecondsToLive Number of seconds entries are kept after they expire so they can be revalidated
+     * with the remote server or used when the remote server is unavailable.
+     */
+    public void setStaleSecondsToLive(int staleSecondsToLive) {
+        this.staleSecondsToLive = staleSecondsToLive;
+    }
+    /* (non-Javadoc)
+     * @see edu.wisc.my.webproxy.beans.cache.PageCache#getMaxEntrySize()
+     */
+    public int getMaxEntrySize() {
+        return this.maxEntrySize;
+    }
+    /**
+     * @param maxEntrySize The maximum size in bytes of the compressed content of an entry, larger
+     * content is not cached. 0 or less for no limit.
+     */
+    public void setMaxEntrySize(int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
 
 }
@@ -0,0 +1,535 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.cache.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.wisc.my.webproxy.beans.cache.CacheEntry;
+import edu.wisc.my.webproxy.beans.cache.DiskPageStore;
+import edu.wisc.my.webproxy.beans.cache.PageCache;
+
+/**
+ * PageCache that keeps the compressed content of pages in direct memory so large caches don't
+ * fill the Java heap. Direct memory is allocated in slabs which are split into fixed size blocks,
+ * the content of a page is copied into as many blocks as it needs. Only the index of keys, the
+ * page headers and the block numbers are kept on the heap.
+ * <p>
+ * The cache is split into segments by key, each with its own lock, slabs and share of the
+ * capacity. When a segment is full the least recently used pages are evicted. Slabs are allocated
+ * as the cache fills and are kept until the cache is cleared, the JVM must be started with a
+ * -XX:MaxDirectMemorySize larger than the capacity.
+ * <p>
+ * Like {@link edu.wisc.my.webproxy.beans.cache.ehcache.EhPageCache} pages cached as persistent
+ * are also written to the optional {@link DiskPageStore}.
+ *
+ * @version $Revision$
+ */
+public class OffHeapPageCache implements PageCache {
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    private long capacity = 256 * 1024 * 1024;
+    private int blockSize = 4096;
+    private int slabSize = 1024 * 1024;
+    private int segmentCount = 16;
+    private int cacheSecondsToLiveDefault = 0;
+    private int staleSecondsToLive = 0;
+    private int maxEntrySize = 0;
+    private DiskPageStore diskStore;
+
+    private volatile Segment[] segments;
+
+    /**
+     * @param capacity Maximum number of bytes of direct memory used for page content. Defaults to 256MB.
+     */
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+    }
+    /**
+     * @param blockSize Number of bytes in a block, the unit content is allocated in. Defaults to 4KB.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+    /**
+     * @param slabSize Number of bytes of direct memory allocated at a time. Defaults to 1MB.
+     */
+    public void setSlabSize(int slabSize) {
+        this.slabSize = slabSize;
+    }
+    /**
+     * @param segmentCount Number of independently locked segments. Defaults to 16.
+     */
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+    /**
+     * @param cacheSecondsToLiveDefault the cacheSecondsToLiveDefault to set
+     */
+    public void setCacheSecondsToLiveDefault(int cacheSecondsToLiveDefault) {
+        this.cacheSecondsToLiveDefault = cacheSecondsToLiveDefault;
+    }
+    /**
+     * @param staleSecondsToLive Number of seconds entries are kept after they expire so they can be revalidated
+     * with the remote server or used when the remote server is unavailable.
+     */
+    public void setStaleSecondsToLive(int staleSecondsToLive) {
+        this.staleSecondsToLive = staleSecondsToLive;
+    }
+    /**
+     * @param maxEntrySize The maximum size in bytes of the compressed content of an entry, larger
+     * content is not cached. 0 or less for no limit.
+     */
+    public void setMaxEntrySize(int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+    /**
+     * @param diskStore Disk tier for persistent pages, null to keep all pages in memory only.
+     */
+    public void setDiskStore(DiskPageStore diskStore) {
+        this.diskStore = diskStore;
+    }
+
+    /* (non-Javadoc)
+     * @see edu.wisc.my.webproxy.beans.cache.PageCache#cachePage(java.lang.String, edu.wisc.my.webproxy.beans.cache.CacheEntry, boolean)
+     */
+    public void cachePage(String key, CacheEntry entry, boolean persistent) {
+        // don't try to cache if the expiration is null 
+        if (entry.getExpirationDate() == null) return;
+
+        // don't cache content larger than the entry size limit
+        final byte[] content = entry.getCompressedContent();
+        if (this.maxEntrySize > 0 && content != null && content.length > this.maxEntrySize) return;
+
+        final long now = System.currentTimeMillis();
+        long secondsTtl = ((entry.getExpirationDate().getTime() - now) > 0) ? 
+                (entry.getExpirationDate().getTime() - now) / 1000 : cacheSecondsToLiveDefault; 
+        // keep expired entries around so they can be revalidated or used when the remote server fails
+        secondsTtl += this.staleSecondsToLive;
+        final long retainUntil = now + secondsTtl * 1000;
+
+        this.getSegment(key).put(key, entry, now, retainUntil);
+
+        if (this.diskStore != null) {
+            if (persistent) {
+                this.diskStore.store(key, entry, retainUntil);
+            }
+            else {
+                // don't let an older persistent copy replace this page after it is evicted
+                this.diskStore.remove(key);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see edu.wisc.my.webproxy.beans.cache.PageCache#getCachedPage(java.lang.String)
+     */
+    public CacheEntry getCachedPage(String key) {
+        return this.getCachedPage(key, false);
+    }
+
+    /* (non-Javadoc)
+     * @see edu.wisc.my.webproxy.beans.cache.PageCache#getCachedPage(java.lang.String, boolean)
+     */
+    public CacheEntry getCachedPage(String key, boolean useExpired) {
+        final CacheEntry entry = this.getEntry(key, 0);
+        if (entry == null) {
+            return null;
+        }
+
+        if (!useExpired && entry.getExpirationDate().getTime() <= System.currentTimeMillis()) {
+            return null;
+        }
+
+        return entry;
+    }
+
+    /* (non-Javadoc)
+     * @see edu.wisc.my.webproxy.beans.cache.PageCache#getCachedPage(java.lang.String, int)
+     */
+    public CacheEntry getCachedPage(String key, int maxCacheAge) {
+        return this.getEntry(key, System.currentTimeMillis() - maxCacheAge);
+    }
+
+    /* (non-Javadoc)
+     * @see edu.wisc.my.webproxy.beans.cache.PageCache#getMaxEntrySize()
+     */
+    public int getMaxEntrySize() {
+        return this.maxEntrySize;
+    }
+
+    /**
+     * Removes all pages and releases the direct memory, should be configured as the destroy method.
+     */
+    public void clear() {
+        this.segments = null;
+    }
+
+    /**
+     * @return The number of pages in the cache.
+     */
+    public int getEntryCount() {
+        final Segment[] segments = this.segments;
+        if (segments == null) {
+            return 0;
+        }
+
+        int entryCount = 0;
+        for (final Segment segment : segments) {
+            entryCount += segment.getEntryCount();
+        }
+        return entryCount;
+    }
+
+    /**
+     * @return The number of bytes of direct memory used by page content.
+     */
+    public long getUsedBytes() {
+        final Segment[] segments = this.segments;
+        if (segments == null) {
+            return 0;
+        }
+
+        long usedBlocks = 0;
+        for (final Segment segment : segments) {
+            usedBlocks += segment.getUsedBlocks();
+        }
+        return usedBlocks * this.blockSize;
+    }
+
+    /**
+     * @return The number of bytes of direct memory allocated.
+     */
+    public long getAllocatedBytes() {
+        final Segment[] segments = this.segments;
+        if (segments == null) {
+            return 0;
+        }
+
+        long allocatedBlocks = 0;
+        for (final Segment segment : segments) {
+            allocatedBlocks += segment.getAllocatedBlocks();
+        }
+        return allocatedBlocks * this.blockSize;
+    }
+
+    /**
+     * @return The maximum number of bytes of direct memory used by page content.
+     */
+    public long getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return The number of lookups that found a page.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * @return The number of lookups that didn't find a page.
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * @return The number of pages evicted to make room for other pages.
+     */
+    public long getEvictedCount() {
+        return this.evictedCount.get();
+    }
+
+
+    /**
+     * Gets the page from memory, falling back to the disk store. Pages loaded from disk are put
+     * back in memory for the rest of the time they are retained.
+     *
+     * @param minCreationTime Pages cached before this time are ignored.
+     */
+    private CacheEntry getEntry(String key, long minCreationTime) {
+        final Segment segment = this.getSegment(key);
+        final CacheEntry entry = segment.get(key, minCreationTime);
+        if (entry != null) {
+            this.hitCount.incrementAndGet();
+            return entry;
+        }
+
+        this.missCount.incrementAndGet();
+        if (this.diskStore == null) {
+            return null;
+        }
+
+        final CacheEntry diskEntry = this.diskStore.load(key);
+        if (diskEntry == null || diskEntry.getExpirationDate() == null) {
+            return null;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long retainUntil = diskEntry.getExpirationDate().getTime() + this.staleSecondsToLive * 1000L;
+        if (retainUntil <= now) {
+            return null;
+        }
+
+        segment.put(key, diskEntry, now, retainUntil);
+        return diskEntry;
+    }
+
+    private Segment getSegment(String key) {
+        Segment[] segments = this.segments;
+        if (segments == null) {
+            synchronized (this) {
+                segments = this.segments;
+                if (segments == null) {
+                    final long segmentBlocks = Math.max(1, this.capacity / this.segmentCount / this.blockSize);
+                    final int slabBlocks = Math.max(1, this.slabSize / this.blockSize);
+
+                    segments = new Segment[this.segmentCount];
+                    for (int index = 0; index < segments.length; index++) {
+                        segments[index] = new Segment((int)Math.min(Integer.MAX_VALUE, segmentBlocks), slabBlocks);
+                    }
+                    this.segments = segments;
+                }
+            }
+        }
+
+        //Spread the hash bits so keys that only differ in the high bits use different segments
+        int hash = key.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+
+    /**
+     * Heap index entry for a page, the content is in the listed blocks.
+     */
+    private static final class Slot {
+        private final String contentType;
+        private final String etag;
+        private final String lastModified;
+        private final long expirationDate;
+        private final long creationTime;
+        private final long retainUntil;
+        private final int length;
+        private final int[] blocks;
+
+        private Slot(CacheEntry entry, long creationTime, long retainUntil, int length, int[] blocks) {
+            this.contentType = entry.getContentType();
+            this.etag = entry.getEtag();
+            this.lastModified = entry.getLastModified();
+            this.expirationDate = entry.getExpirationDate().getTime();
+            this.creationTime = creationTime;
+            this.retainUntil = retainUntil;
+            this.length = length;
+            this.blocks = blocks;
+        }
+    }
+
+    /**
+     * Independently locked part of the cache with its own slabs and LRU ordered index.
+     */
+    private final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<String, Slot> index = new LinkedHashMap<String, Slot>(16, 0.75f, true);
+        private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+        private final int maxBlocks;
+        private final int slabBlocks;
+        private int[] freeBlocks = new int[64];
+        private int freeCount = 0;
+        private int nextBlock = 0;
+
+        private Segment(int maxBlocks, int slabBlocks) {
+            this.maxBlocks = maxBlocks;
+            this.slabBlocks = slabBlocks;
+        }
+
+        private void put(String key, CacheEntry entry, long creationTime, long retainUntil) {
+            final byte[] content = entry.getCompressedContent();
+            final int length = content != null ? content.length : -1;
+            final int blockCount = length > 0 ? (length + blockSize - 1) / blockSize : 0;
+
+            this.lock.lock();
+            try {
+                this.removeLocked(key);
+
+                if (blockCount > this.maxBlocks) {
+                    return;
+                }
+
+                //Evict the least recently used pages until there is room
+                final Iterator<Slot> slotItr = this.index.values().iterator();
+                while (this.freeCount + (this.maxBlocks - this.nextBlock) < blockCount && slotItr.hasNext()) {
+                    final Slot evicted = slotItr.next();
+                    slotItr.remove();
+                    this.freeLocked(evicted);
+                    evictedCount.incrementAndGet();
+                }
+
+                final int[] blocks = new int[blockCount];
+                for (int blockIndex = 0; blockIndex < blockCount; blockIndex++) {
+                    final int block = this.allocateLocked();
+                    blocks[blockIndex] = block;
+
+                    final int offset = blockIndex * blockSize;
+                    final ByteBuffer buffer = this.getBlockLocked(block);
+                    buffer.put(content, offset, Math.min(blockSize, length - offset));
+                }
+
+                this.index.put(key, new Slot(entry, creationTime, retainUntil, length, blocks));
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+
+        private CacheEntry get(String key, long minCreationTime) {
+            final Slot slot;
+            final byte[] content;
+
+            this.lock.lock();
+            try {
+                slot = this.index.get(key);
+                if (slot == null) {
+                    return null;
+                }
+
+                if (slot.retainUntil <= System.currentTimeMillis()) {
+                    this.removeLocked(key);
+                    return null;
+                }
+
+                if (slot.creationTime < minCreationTime) {
+                    return null;
+                }
+
+                if (slot.length < 0) {
+                    content = null;
+                }
+                else {
+                    content = new byte[slot.length];
+                    for (int blockIndex = 0; blockIndex < slot.blocks.length; blockIndex++) {
+                        final int offset = blockIndex * blockSize;
+                        final ByteBuffer buffer = this.getBlockLocked(slot.blocks[blockIndex]);
+                        buffer.get(content, offset, Math.min(blockSize, slot.length - offset));
+                    }
+                }
+            }
+            finally {
+                this.lock.unlock();
+            }
+
+            final CacheEntry entry = new CacheEntry();
+            entry.setContentType(slot.contentType);
+            entry.setEtag(slot.etag);
+            entry.setLastModified(slot.lastModified);
+            entry.setExpirationDate(new Date(slot.expirationDate));
+            entry.setCompressedContent(content);
+            return entry;
+        }
+
+        private int getEntryCount() {
+            this.lock.lock();
+            try {
+                return this.index.size();
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+
+        private int getUsedBlocks() {
+            this.lock.lock();
+            try {
+                return this.nextBlock - this.freeCount;
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+
+        private int getAllocatedBlocks() {
+            this.lock.lock();
+            try {
+                int allocatedBlocks = 0;
+                for (final ByteBuffer slab : this.slabs) {
+                    allocatedBlocks += slab.capacity() / blockSize;
+                }
+                return allocatedBlocks;
+            }
+            finally {
+                this.lock.unlock();
+            }
+        }
+
+        private void removeLocked(String key) {
+            final Slot slot = this.index.remove(key);
+            if (slot != null) {
+                this.freeLocked(slot);
+            }
+        }
+
+        private void freeLocked(Slot slot) {
+            if (this.freeCount + slot.blocks.length > this.freeBlocks.length) {
+                final int[] newFreeBlocks = new int[Math.max(this.freeBlocks.length * 2, this.freeCount + slot.blocks.length)];
+                System.arraycopy(this.freeBlocks, 0, newFreeBlocks, 0, this.freeCount);
+                this.freeBlocks = newFreeBlocks;
+            }
+
+            System.arraycopy(slot.blocks, 0, this.freeBlocks, this.freeCount, slot.blocks.length);
+            this.freeCount += slot.blocks.length;
+        }
+
+        /**
+         * Takes a free block, allocating a new slab if all allocated blocks are in use. The caller
+         * must have made sure a block is available.
+         */
+        private int allocateLocked() {
+            if (this.freeCount > 0) {
+                this.freeCount--;
+                return this.freeBlocks[this.freeCount];
+            }
+
+            final int block = this.nextBlock++;
+            if (block / this.slabBlocks >= this.slabs.size()) {
+                final int remainingBlocks = this.maxBlocks - this.slabs.size() * this.slabBlocks;
+                this.slabs.add(ByteBuffer.allocateDirect(Math.min(this.slabBlocks, remainingBlocks) * blockSize));
+            }
+            return block;
+        }
+
+        /**
+         * @return A view of the slab positioned at the start of the block.
+         */
+        private ByteBuffer getBlockLocked(int block) {
+            final ByteBuffer buffer = this.slabs.get(block / this.slabBlocks).duplicate();
+            buffer.position((block % this.slabBlocks) * blockSize);
+            return buffer;
+        }
+    }
+}
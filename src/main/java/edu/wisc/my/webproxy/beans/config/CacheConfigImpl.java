@@ -80,6 +80,7 @@ public class CacheConfigImpl extends JspConfigPage {
     public static final String USE_EXPIRED      = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(CACHE_PREF_PREFIX).append("useExpired").toString();
     public static final String RETRY_DELAY      = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(CACHE_PREF_PREFIX).append("retryDelay").toString();
     public static final String PERSIST_CACHE    = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(CACHE_PREF_PREFIX).append("persistCache").toString();
+    public static final String STALE_WHILE_REVALIDATE = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(CACHE_PREF_PREFIX).append("staleWhileRevalidate").toString();
     public static final String CACHE_SCOPE      = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(CACHE_PREF_PREFIX).append("cacheScope").toString();
     public static final String CACHE_SCOPE_USER      = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(CACHE_PREF_PREFIX).append("user").toString();
     public static final String CACHE_SCOPE_APP      = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(CACHE_PREF_PREFIX).append("application").toString();
@@ -152,6 +153,23 @@ public class CacheConfigImpl extends JspConfigPage {
         
         final Boolean persistCache = new Boolean(request.getParameter(PERSIST_CACHE));
         prefs.setValue(PERSIST_CACHE, persistCache.toString());
+        
+        
+        String staleWhileRevalidateStr = null;
+        Integer staleWhileRevalidate = null;
+        try {
+            staleWhileRevalidateStr = ConfigUtils.checkEmptyNullString(request.getParameter(STALE_WHILE_REVALIDATE), null);
+            if (staleWhileRevalidateStr != null) {
+                staleWhileRevalidate = new Integer(staleWhileRevalidateStr);
+                prefs.setValue(STALE_WHILE_REVALIDATE, staleWhileRevalidate.toString());
+            }
+            else {
+                prefs.setValue(STALE_WHILE_REVALIDATE, "");
+            }
+        }
+        catch (NumberFormatException nfe) {
+            errorMessages.append("Invalid stale while revalidate window specified '").append(staleWhileRevalidateStr).append("'\n");
+        }
 
         
         if (errorMessages.length() > 0) {
@@ -63,6 +63,8 @@ import javax.portlet.ActionResponse;
 import javax.portlet.PortletException;
 import javax.portlet.PortletPreferences;
 
+import edu.wisc.my.webproxy.beans.interceptors.InterceptorConfigurationException;
+import edu.wisc.my.webproxy.beans.interceptors.InterceptorRegistry;
 import edu.wisc.my.webproxy.beans.interceptors.PostInterceptor;
 import edu.wisc.my.webproxy.beans.interceptors.PreInterceptor;
 import edu.wisc.my.webproxy.portlet.WebproxyConstants;
@@ -91,6 +93,15 @@ public class GeneralConfigImpl extends JspConfigPage {
     public static final String URL_LIST_TYPE_INCLUDE = "INCLUDE";
     public static final String URL_LIST_TYPE_EXCLUDE = "EXCLUDE";
     
+    private InterceptorRegistry interceptorRegistry;
+    
+    /**
+     * The registry used to validate the configured pre- and post-interceptors.
+     */
+    public void setInterceptorRegistry(InterceptorRegistry interceptorRegistry) {
+        this.interceptorRegistry = interceptorRegistry;
+    }
+    
     public String getName() {
         return "General Configuration";
     }
@@ -191,57 +202,35 @@ public class GeneralConfigImpl extends JspConfigPage {
             prefs.setValue(FNAME_TARGET, "");
         
         
-        //Validate the pre-interceptor class
-        final String preInterceptorClassName = ConfigUtils.checkEmptyNullString(request.getParameter(PRE_INTERCEPTOR_CLASS), null);
-        if (preInterceptorClassName != null) {
-            String className = "";
+        //Validate the pre-interceptors
+        final String preInterceptorNames = ConfigUtils.checkEmptyNullString(request.getParameter(PRE_INTERCEPTOR_CLASS), null);
+        if (preInterceptorNames != null) {
+            String names = "";
             try {
-                final Class preInterceptorClass = Class.forName(preInterceptorClassName);
-                final PreInterceptor preInterceptor = (PreInterceptor)preInterceptorClass.newInstance();
-                className = preInterceptor.getClass().getName();
-            }
-            catch (ClassNotFoundException cnfe) {
-                errorMessages.append("Could not find specified pre-interceptor class '").append(preInterceptorClassName).append("'");
-            }
-            catch (InstantiationException ie) {
-                errorMessages.append("Could not find specified pre-interceptor class '").append(preInterceptorClassName).append("'");
+                names = this.interceptorRegistry.validate(preInterceptorNames, PreInterceptor.class);
             }
-            catch (IllegalAccessException iae) {
-                errorMessages.append("Could not find specified pre-interceptor class '").append(preInterceptorClassName).append("'");
-            }
-            catch (ClassCastException cce) {
-                errorMessages.append("Could not cast '").append(preInterceptorClassName).append("' to 'edu.wisc.my.webproxy.beans.interceptors.PreInterceptor'");
+            catch (InterceptorConfigurationException ice) {
+                errorMessages.append(ice.getMessage()).append("\n");
             }
             
-            prefs.setValue(PRE_INTERCEPTOR_CLASS, className);
+            prefs.setValue(PRE_INTERCEPTOR_CLASS, names);
         }
         else {
             prefs.setValue(PRE_INTERCEPTOR_CLASS, "");
         }
         
-        //Validate the post-interceptor class
-        final String postInterceptorClassName = ConfigUtils.checkEmptyNullString(request.getParameter(POST_INTERCEPTOR_CLASS), null);
-        if (postInterceptorClassName != null) {
-            String className = "";
+        //Validate the post-interceptors
+        final String postInterceptorNames = ConfigUtils.checkEmptyNullString(request.getParameter(POST_INTERCEPTOR_CLASS), null);
+        if (postInterceptorNames != null) {
+            String names = "";
             try {
-                final Class postInterceptorClass = Class.forName(postInterceptorClassName);
-                final PostInterceptor postInterceptor = (PostInterceptor)postInterceptorClass.newInstance();
-                className = postInterceptor.getClass().getName();
-            }
-            catch (ClassNotFoundException cnfe) {
-                errorMessages.append("Could not find specified post-interceptor class '").append(postInterceptorClassName).append("'");
-            }
-            catch (InstantiationException ie) {
-                errorMessages.append("Could not find specified post-interceptor class '").append(postInterceptorClassName).append("'");
-            }
-            catch (IllegalAccessException iae) {
-                errorMessages.append("Could not find specified post-interceptor class '").append(postInterceptorClassName).append("'");
+                names = this.interceptorRegistry.validate(postInterceptorNames, PostInterceptor.class);
             }
-            catch (ClassCastException cce) {
-                errorMessages.append("Could not cast '").append(postInterceptorClassName).append("' to 'edu.wisc.my.webproxy.beans.interceptors.PostInterceptor'");
+            catch (InterceptorConfigurationException ice) {
+                errorMessages.append(ice.getMessage()).append("\n");
             }
             
-            prefs.setValue(POST_INTERCEPTOR_CLASS, className);
+            prefs.setValue(POST_INTERCEPTOR_CLASS, names);
         }
         else {
             prefs.setValue(POST_INTERCEPTOR_CLASS, "");
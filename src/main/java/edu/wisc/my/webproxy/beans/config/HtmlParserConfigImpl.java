@@ -75,6 +75,9 @@ public class HtmlParserConfigImpl extends JspConfigPage {
     public static final String BALANCETAGS          = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(HTMLPARSER_PREF_PREFIX).append("sBalanceTags").toString();
     public static final String STRIPCOMMENTS        = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(HTMLPARSER_PREF_PREFIX).append("sStripComments").toString();
     public static final String REPORTERRORS         = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(HTMLPARSER_PREF_PREFIX).append("sReportErrors").toString();
+    public static final String FUSEDFILTERING       = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(HTMLPARSER_PREF_PREFIX).append("sFusedFiltering").toString();
+    public static final String STREAMINGREWRITE     = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(HTMLPARSER_PREF_PREFIX).append("sStreamingRewrite").toString();
+    public static final String DIRECTOUTPUT         = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(HTMLPARSER_PREF_PREFIX).append("sDirectOutput").toString();
 
     public String getName() {
         return "HTML Parser Configuration";
@@ -98,6 +101,15 @@ public class HtmlParserConfigImpl extends JspConfigPage {
         final Boolean reportErrors = new Boolean(request.getParameter(REPORTERRORS));
         prefs.setValue(REPORTERRORS, reportErrors.toString());
         
+        final Boolean fusedFiltering = new Boolean(request.getParameter(FUSEDFILTERING));
+        prefs.setValue(FUSEDFILTERING, fusedFiltering.toString());
+        
+        final Boolean streamingRewrite = new Boolean(request.getParameter(STREAMINGREWRITE));
+        prefs.setValue(STREAMINGREWRITE, streamingRewrite.toString());
+        
+        final Boolean directOutput = new Boolean(request.getParameter(DIRECTOUTPUT));
+        prefs.setValue(DIRECTOUTPUT, directOutput.toString());
+        
         prefs.store();
     }
 }
\ No newline at end of file
@@ -47,7 +47,15 @@ public class HttpClientConfigImpl extends JspConfigPage {
     public static final String AUTH_TYPE        = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(HTTPCLIENT_PREF_PREFIX).append("sAuthType").toString();
     public static final String AUTH_URL         = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(HTTPCLIENT_PREF_PREFIX).append("sAuthenticationUrl").toString();
     
+    /**
+     * @deprecated Requests are executed with the application's shared connection pool, its maximum
+     * number of connections is configured in applicationContext.xml. Only used if no shared pool is configured.
+     */
+    @Deprecated
     public static final String MAX_CONNECTIONS              = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(HTTPCLIENT_PREF_PREFIX).append("maxConnections").toString();
+    /**
+     * Limit of connections to each host the portlet proxies, applied to the route in the shared connection pool
+     */
     public static final String MAX_CONNECTIONS_PER_ROUTE    = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(HTTPCLIENT_PREF_PREFIX).append("maxConnectionsPerRoute").toString();
     
     public static final String AUTH_ENABLE      = new StringBuffer(WebproxyConstants.UNIQUE_CONSTANT).append(HTTPCLIENT_PREF_PREFIX).append("authEnable").toString();
@@ -0,0 +1,288 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.config;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.portlet.PortletPreferences;
+import javax.portlet.PortletRequest;
+import javax.portlet.PortletSession;
+
+import edu.wisc.my.webproxy.beans.PortletPreferencesWrapper;
+
+/**
+ * Immutable, typed snapshot of the preferences read while proxying a request. The values are
+ * parsed once per portlet instance instead of converting the preference strings on every render.
+ * The snapshot is kept in the portlet session together with the raw preference values it was built
+ * from, it is rebuilt as soon as they no longer match the stored preferences. Preferences stored by
+ * the config pages, the portal's administration or a publish are all picked up on the next request.
+ *
+ * @version $Revision$
+ */
+public final class ProxyConfig implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Portlet scoped session attribute the snapshot is stored under.
+     */
+    public static final String SESSION_KEY = ProxyConfig.class.getName();
+
+    private static final String[] EMPTY = new String[0];
+
+    private static final String[] VALUE_KEYS = {
+        CacheConfigImpl.USE_CACHE,
+        CacheConfigImpl.CACHE_TIMEOUT,
+        CacheConfigImpl.USE_EXPIRED,
+        CacheConfigImpl.RETRY_DELAY,
+        CacheConfigImpl.PERSIST_CACHE,
+        CacheConfigImpl.CACHE_SCOPE,
+        CacheConfigImpl.STALE_WHILE_REVALIDATE,
+        HttpClientConfigImpl.MAX_REDIRECTS,
+        HttpClientConfigImpl.AUTH_ENABLE,
+        HttpClientConfigImpl.SESSION_PERSISTENCE_ENABLE,
+        HtmlParserConfigImpl.DIRECTOUTPUT,
+        HtmlParserConfigImpl.STREAMINGREWRITE,
+        HtmlParserConfigImpl.FUSEDFILTERING,
+        ClippingConfigImpl.DISABLE,
+        StaticHtmlConfigImpl.STATIC_HEADER,
+        StaticHtmlConfigImpl.STATIC_FOOTER
+    };
+
+    private final boolean useCache;
+    private final int cacheTimeout;
+    private final boolean useExpired;
+    private final int retryDelay;
+    private final boolean persistCache;
+    private final boolean userCacheScope;
+    private final int staleWhileRevalidate;
+    private final int maxRedirects;
+    private final boolean authEnabled;
+    private final boolean sessionPersistence;
+    private final boolean directOutput;
+    private final boolean streamingRewrite;
+    private final boolean fusedFiltering;
+    private final boolean clippingEnabled;
+    private final String staticHeader;
+    private final String staticFooter;
+    private final String[] headerNames;
+    private final String[] headerValues;
+    private final boolean headersValid;
+    private final String[] sourceValues;
+
+    private ProxyConfig(String[] values, String[] headerNames, String[] headerValues, String[] sourceValues) {
+        this.useCache = Boolean.valueOf(values[0]).booleanValue();
+        this.cacheTimeout = ConfigUtils.parseInt(values[1], -1);
+        this.useExpired = Boolean.valueOf(values[2]).booleanValue();
+        this.retryDelay = ConfigUtils.parseInt(values[3], -1);
+        this.persistCache = Boolean.valueOf(values[4]).booleanValue();
+        this.userCacheScope = values[5] == null || values[5].equals(CacheConfigImpl.CACHE_SCOPE_USER);
+        this.staleWhileRevalidate = ConfigUtils.parseInt(values[6], -1);
+        this.maxRedirects = ConfigUtils.parseInt(values[7], 5);
+        this.authEnabled = Boolean.valueOf(values[8]).booleanValue();
+        this.sessionPersistence = Boolean.valueOf(values[9]).booleanValue();
+        this.directOutput = Boolean.valueOf(values[10]).booleanValue();
+        this.streamingRewrite = Boolean.valueOf(values[11]).booleanValue();
+        this.fusedFiltering = Boolean.valueOf(values[12]).booleanValue();
+        this.clippingEnabled = Boolean.valueOf(values[13]).booleanValue();
+        this.staticHeader = ConfigUtils.checkEmptyNullString(values[14], null);
+        this.staticFooter = ConfigUtils.checkEmptyNullString(values[15], null);
+
+        this.headersValid = headerNames.length == headerValues.length;
+        if (this.headersValid) {
+            this.headerNames = headerNames;
+            this.headerValues = headerValues;
+        }
+        else {
+            this.headerNames = EMPTY;
+            this.headerValues = EMPTY;
+        }
+        
+        this.sourceValues = sourceValues;
+    }
+
+    /**
+     * Gets the snapshot for the portlet instance of the request. The snapshot in the session is
+     * rebuilt from the preferences, with the user's attributes substituted, if there is none yet
+     * or the preferences changed since it was built.
+     */
+    public static ProxyConfig getConfig(PortletRequest request) {
+        final PortletPreferences prefs = request.getPreferences();
+        final String[] sourceValues = getSourceValues(prefs);
+        
+        final PortletSession session = request.getPortletSession();
+        ProxyConfig config = (ProxyConfig)session.getAttribute(SESSION_KEY);
+        if (config == null || !Arrays.equals(config.sourceValues, sourceValues)) {
+            config = createConfig(new PortletPreferencesWrapper(prefs, (Map<?, ?>)request.getAttribute(PortletRequest.USER_INFO)), sourceValues);
+            session.setAttribute(SESSION_KEY, config);
+        }
+        return config;
+    }
+
+    /**
+     * Builds a snapshot of the preference values.
+     *
+     * @param prefs The preferences, normally a PortletPreferencesWrapper so user attributes are substituted
+     */
+    public static ProxyConfig createConfig(PortletPreferences prefs) {
+        return createConfig(prefs, null);
+    }
+
+    private static ProxyConfig createConfig(PortletPreferences prefs, String[] sourceValues) {
+        final String[] values = new String[VALUE_KEYS.length];
+        for (int index = 0; index < VALUE_KEYS.length; index++) {
+            values[index] = prefs.getValue(VALUE_KEYS[index], null);
+        }
+        final String[] headerNames = prefs.getValues(HttpHeaderConfigImpl.HEADER_NAME, EMPTY);
+        final String[] headerValues = prefs.getValues(HttpHeaderConfigImpl.HEADER_VALUE, EMPTY);
+
+        return new ProxyConfig(values, headerNames, headerValues, sourceValues);
+    }
+
+    /**
+     * The unsubstituted values of every preference the snapshot is built from. The header arrays
+     * are prefixed with their length so moving a value from one to the other is a change as well.
+     */
+    private static String[] getSourceValues(PortletPreferences prefs) {
+        final List<String> sourceValues = new ArrayList<String>(VALUE_KEYS.length + 8);
+        for (int index = 0; index < VALUE_KEYS.length; index++) {
+            sourceValues.add(prefs.getValue(VALUE_KEYS[index], null));
+        }
+        
+        final String[] headerNames = prefs.getValues(HttpHeaderConfigImpl.HEADER_NAME, EMPTY);
+        sourceValues.add(String.valueOf(headerNames.length));
+        sourceValues.addAll(Arrays.asList(headerNames));
+        sourceValues.addAll(Arrays.asList(prefs.getValues(HttpHeaderConfigImpl.HEADER_VALUE, EMPTY)));
+        
+        return sourceValues.toArray(new String[sourceValues.size()]);
+    }
+
+    public boolean isUseCache() {
+        return this.useCache;
+    }
+
+    /**
+     * @return Seconds cached content is fresh for, -1 if not set
+     */
+    public int getCacheTimeout() {
+        return this.cacheTimeout;
+    }
+
+    public boolean isUseExpired() {
+        return this.useExpired;
+    }
+
+    /**
+     * @return Seconds to wait before retrying a request that timed out, -1 if not set
+     */
+    public int getRetryDelay() {
+        return this.retryDelay;
+    }
+
+    public boolean isPersistCache() {
+        return this.persistCache;
+    }
+
+    /**
+     * @return true if cached content is only shared by a single portlet instance, false if it is shared by the application
+     */
+    public boolean isUserCacheScope() {
+        return this.userCacheScope;
+    }
+
+    /**
+     * @return Seconds after expiration that cached content is still used while it is refreshed in the background, -1 if not set
+     */
+    public int getStaleWhileRevalidate() {
+        return this.staleWhileRevalidate;
+    }
+
+    public int getMaxRedirects() {
+        return this.maxRedirects;
+    }
+
+    public boolean isAuthEnabled() {
+        return this.authEnabled;
+    }
+
+    /**
+     * @return true if the cookies of the remote sessions are persisted between portal sessions
+     */
+    public boolean isSessionPersistence() {
+        return this.sessionPersistence;
+    }
+
+    public boolean isDirectOutput() {
+        return this.directOutput;
+    }
+
+    public boolean isStreamingRewrite() {
+        return this.streamingRewrite;
+    }
+
+    public boolean isFusedFiltering() {
+        return this.fusedFiltering;
+    }
+
+    /**
+     * @return true if clipping is turned on, stored in the {@link ClippingConfigImpl#DISABLE} preference
+     */
+    public boolean isClippingEnabled() {
+        return this.clippingEnabled;
+    }
+
+    /**
+     * @return The static HTML written before the content, null if there is none
+     */
+    public String getStaticHeader() {
+        return this.staticHeader;
+    }
+
+    /**
+     * @return The static HTML written after the content, null if there is none
+     */
+    public String getStaticFooter() {
+        return this.staticFooter;
+    }
+
+    /**
+     * @return The names of the configured request headers, empty if the names and values don't match up
+     */
+    public String[] getHeaderNames() {
+        return this.headerNames.clone();
+    }
+
+    /**
+     * @return The values of the configured request headers, empty if the names and values don't match up
+     */
+    public String[] getHeaderValues() {
+        return this.headerValues.clone();
+    }
+
+    /**
+     * @return false if the number of header names does not equal the number of header values
+     */
+    public boolean isHeadersValid() {
+        return this.headersValid;
+    }
+}
@@ -78,30 +78,31 @@ public class AbsoluteUrlFilter extends BaseUrlFilter {
      */
     @Override
     public String rewriteUrl(String urlFragment, boolean passThrough) {
-        final StringBuffer sb = new StringBuffer();
+        final String absoluteUrl;
         
         //Ignore anchor links, ignore host based absolute URLs, ignore email links 
         if (urlFragment.startsWith("#") || urlFragment.startsWith("//") || urlFragment.startsWith("mailto:")) {
-            sb.append(urlFragment);
+            absoluteUrl = urlFragment;
         }
         else if (urlFragment.startsWith("/")) {
-            sb.append(this.urlBase);
-            sb.append(urlFragment);
+            absoluteUrl = this.urlBase.concat(urlFragment);
         }
         else if (urlFragment.indexOf("://") == -1) {
+            final StringBuilder sb = new StringBuilder(this.urlBase.length() + this.urlPath.length() + urlFragment.length());
             sb.append(this.urlBase);
             sb.append(this.urlPath);
             sb.append(urlFragment);
+            absoluteUrl = sb.toString();
         }
         else {
-            sb.append(urlFragment);
+            absoluteUrl = urlFragment;
         }
         
         if (LOG.isTraceEnabled()) {
-            LOG.trace("Rewriting '" + urlFragment + "' to '" + sb + "'");
+            LOG.trace("Rewriting '" + urlFragment + "' to '" + absoluteUrl + "'");
         }
         
-        return sb.toString();
+        return absoluteUrl;
     }
 
     @Override
@@ -19,7 +19,9 @@
 
 package edu.wisc.my.webproxy.beans.filtering;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -102,8 +104,51 @@ public abstract class BaseUrlFilter extends ChainingSaxFilter{
     @Override
     public void startElement(String uri, String localName, String qName,
             Attributes atts) throws SAXException {
-        String sTempAtt = null;
-        AttributesImpl newAtts = new AttributesImpl(atts);
+        //The attributes are only copied when they need to be changed
+        AttributesImpl newAtts = null;
+        boolean getMethod = false;
+        if ("FORM".equalsIgnoreCase(qName)) {
+            newAtts = new AttributesImpl(atts);
+            getMethod = fixFormAttributes(uri, qName, newAtts);
+        }
+        
+        final Set<String> attributes = this.getUrlAttributes(qName);
+        if (attributes != null) {
+            final boolean passThrough = this.isPassThroughElement(qName);
+            final Attributes currentAtts = (newAtts != null ? newAtts : atts);
+            
+            for (int index = 0; index < currentAtts.getLength(); index++) {
+                final String attrName = currentAtts.getQName(index);
+                
+                //check to see if newAttsQName is in the Element Set
+                if(attributes.contains(attrName)) {
+                    final String attrValue = currentAtts.getValue(index);
+                    final String sTempAtt = this.rewriteAttribute(attrValue, passThrough);
+                    if (sTempAtt != attrValue) {
+                        if (newAtts == null) {
+                            newAtts = new AttributesImpl(atts);
+                        }
+                        newAtts.setValue(index, sTempAtt);
+                    }
+                }                    
+            }
+        }
+
+        super.startElement(uri, localName, qName, (newAtts != null ? newAtts : atts));
+        if(getMethod){
+            final AttributesImpl methodAtt = createGetMethodAttributes(uri);
+            super.startElement(uri, "input", "input", methodAtt);
+            super.endElement(uri, "input", "input");
+        }
+    }
+    
+    /**
+     * Forms are always submitted to the portlet with a POST, the original method is sent in a
+     * hidden input and a missing action attribute is added.
+     * 
+     * @return true if a hidden input created by {@link #createGetMethodAttributes(String)} must follow the element
+     */
+    static boolean fixFormAttributes(String uri, String qName, AttributesImpl newAtts) {
         boolean getMethod = false;
         if("FORM".equalsIgnoreCase(qName)){
             boolean foundAction = false;
@@ -134,43 +179,69 @@ public abstract class BaseUrlFilter extends ChainingSaxFilter{
             }
         }
         
-        boolean passThrough = false;
-        Set<String> attributes = elements.get(qName);
-        if (attributes == null) {
-            attributes = passThroughElements.get(qName);
-            passThrough = true;
+        return getMethod;
+    }
+    
+    /**
+     * @return The attributes of the hidden input that tells the portlet a form was submitted with a GET
+     */
+    static AttributesImpl createGetMethodAttributes(String uri) {
+        final AttributesImpl methodAtt = new AttributesImpl();
+        methodAtt.addAttribute(uri, "type", "type", "CDATA", "HIDDEN");
+        methodAtt.addAttribute(uri, "name", "name", "CDATA", WebproxyConstants.UNIQUE_CONSTANT + ".getMethod");
+        methodAtt.addAttribute(uri, "value", "value", "CDATA", "GET");
+        return methodAtt;
+    }
+    
+    /**
+     * @param saxFilters The filters in SaxFilterBean order, the last filter in the list is executed first
+     * @return The URL filters in the list in execution order
+     */
+    public static BaseUrlFilter[] getUrlFilters(List<?> saxFilters) {
+        final List<BaseUrlFilter> urlFilters = new ArrayList<BaseUrlFilter>(saxFilters.size());
+        for (int index = saxFilters.size() - 1; index >= 0; index--) {
+            final Object filter = saxFilters.get(index);
+            if (filter instanceof BaseUrlFilter) {
+                urlFilters.add((BaseUrlFilter)filter);
+            }
         }
         
+        return urlFilters.toArray(new BaseUrlFilter[urlFilters.size()]);
+    }
+    
+    /**
+     * @return The names of the attributes containing URLs for the element, null if the element has none
+     */
+    protected final Set<String> getUrlAttributes(String qName) {
+        final Set<String> attributes = this.elements.get(qName);
         if (attributes != null) {
-            for (int index = 0; index < newAtts.getLength(); index++) {
-                final String attrName = newAtts.getQName(index);
-                
-                //check to see if newAttsQName is in the Element Set
-                if(attributes.contains(attrName)) {
-
-                    final String attrValue = newAtts.getValue(index);
-                    if (attrValue == null || (
-                            attrValue.length() >= JAVASCRIPT_PREFIX.length() && 
-                            JAVASCRIPT_PREFIX.equalsIgnoreCase(attrValue.substring(0, JAVASCRIPT_PREFIX.length())))) {
-                        //Skip attributes with null values or JavaScript prefixes
-                        continue;
-                    }
-                    
-                    sTempAtt = this.rewriteUrl(attrValue, passThrough);
-                    newAtts.setValue(index, sTempAtt);
-                }                    
-            }
+            return attributes;
         }
-
-        super.startElement(uri, localName, qName, newAtts);
-        if(getMethod){
-            AttributesImpl methodAtt = new AttributesImpl();
-            methodAtt.addAttribute(uri, "type", "type", "CDATA", "HIDDEN");
-            methodAtt.addAttribute(uri, "name", "name", "CDATA", WebproxyConstants.UNIQUE_CONSTANT + ".getMethod");
-            methodAtt.addAttribute(uri, "value", "value", "CDATA", "GET");
-            super.startElement(uri, "input", "input", methodAtt);
-            super.endElement(uri, "input", "input");
+        
+        return this.passThroughElements.get(qName);
+    }
+    
+    /**
+     * @return true if the URLs of the element are passed through to the browser instead of being rendered in the portlet
+     */
+    protected final boolean isPassThroughElement(String qName) {
+        return !this.elements.containsKey(qName);
+    }
+    
+    /**
+     * Rewrites the URL in an attribute value, null values and JavaScript URLs are not changed.
+     * 
+     * @return The rewritten URL, the same instance as attrValue if it was not rewritten
+     */
+    protected final String rewriteAttribute(String attrValue, boolean passThrough) {
+        if (attrValue == null || (
+                attrValue.length() >= JAVASCRIPT_PREFIX.length() && 
+                JAVASCRIPT_PREFIX.equalsIgnoreCase(attrValue.substring(0, JAVASCRIPT_PREFIX.length())))) {
+            //Skip attributes with null values or JavaScript prefixes
+            return attrValue;
         }
+        
+        return this.rewriteUrl(attrValue, passThrough);
     }
 
     /**
@@ -195,9 +266,11 @@ public abstract class BaseUrlFilter extends ChainingSaxFilter{
 
     @Override
     public void clearData() {
-        //clear data of parent
-        ChainingSaxFilter parent = (ChainingSaxFilter) super.getParent();
-        parent.clearData();
+        //clear data of parent, there is none when the filter is used by a FusedRewritingFilter
+        final XMLReader parent = super.getParent();
+        if (parent instanceof ChainingSaxFilter) {
+            ((ChainingSaxFilter)parent).clearData();
+        }
         setParent(null);
 
     }
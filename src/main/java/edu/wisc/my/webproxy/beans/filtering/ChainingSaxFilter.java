@@ -114,6 +114,8 @@ public abstract class ChainingSaxFilter extends XMLFilterImpl implements ProxyCo
     public void setParent(XMLReader parent) {
         if (parent instanceof ChainingSaxFilter)
             this.parent = (ChainingSaxFilter)parent;
+        else
+            this.parent = null;
 
         super.setParent(parent);
     }
@@ -0,0 +1,44 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Thrown by the {@link ClippingFilter} to stop the parse once the clipped content has been
+ * written and the rest of the document can't be part of it. The document has already been
+ * ended when this is thrown so the output is complete.
+ * 
+ * @version $Revision$
+ */
+public class ClippingCompleteException extends SAXException {
+    private static final long serialVersionUID = 1L;
+
+    public ClippingCompleteException() {
+        super("Clipped content is complete");
+    }
+    
+    /**
+     * @return true if the exception or the exception it wraps is a ClippingCompleteException
+     */
+    public static boolean isClippingComplete(SAXException se) {
+        return se instanceof ClippingCompleteException || se.getException() instanceof ClippingCompleteException;
+    }
+}
@@ -20,12 +20,16 @@
 package edu.wisc.my.webproxy.beans.filtering;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import javax.portlet.ActionRequest;
 import javax.portlet.ActionResponse;
@@ -41,10 +45,14 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 import edu.wisc.my.webproxy.beans.config.ClippingConfigImpl;
+import edu.wisc.my.webproxy.beans.config.HtmlParserConfigImpl;
 
 /**
  * The clipping filter uses an XPath expression to clip a subset of the Document
  * 
+ * The xPaths are compiled into a trie and each open element remembers its node so
+ * start and end events don't have to compare the whole path.
+ * 
  * @author dgirmwood
  *
  * @version $Id$
@@ -53,13 +61,39 @@ public class ClippingFilter extends ChainingSaxFilter {
 
     private static final Log LOG = LogFactory.getLog(ClippingFilter.class);
     
+    /**
+     * Elements that occur at most once in a balanced document, once they close no
+     * clip below them can match again.
+     */
+    private static final Set<String> SINGULAR_ELEMENTS = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+    static {
+        SINGULAR_ELEMENTS.add("html");
+        SINGULAR_ELEMENTS.add("head");
+        SINGULAR_ELEMENTS.add("body");
+    }
+    
     List<List<String>> xPath = null;
 
-    List<String> currentPath = new LinkedList<String>();
+    //The open elements, each entry knows its position in the xPath trie
+    private final List<PathEntry> currentPath = new ArrayList<PathEntry>();
+    
+    //Root of the trie compiled from the xPaths, null if no xPaths are set
+    private XPathNode xPathRoot = null;
+    
+    //Number of configured xPaths that can still match
+    private int openXPaths = 0;
 
-    private Set notAcceptable = null;
+    private Set<String> notAcceptable = null;
 
     private String[] sElement = null;
+    
+    private Set<String> elements = null;
+    
+    //Number of entries in currentPath that are clipped elements
+    private int elementCount = 0;
+    
+    //Clipped elements that can still match
+    private Set<String> openElements = null;
 
     private Map<String, String> comments = new HashMap<String, String>();
 
@@ -70,6 +104,11 @@ public class ClippingFilter extends ChainingSaxFilter {
     private boolean elementMatch = false;
 
     private boolean disable = true;
+    
+    private boolean earlyTermination = true;
+    
+    //True if the parser balances tags for the current render
+    private boolean balancedTags = false;
 
     /**
      * The default constructor 
@@ -95,14 +134,25 @@ public class ClippingFilter extends ChainingSaxFilter {
      */
     public void setXPath(String[] path) {
         xPath = new ArrayList<List<String>>(path.length);
+        xPathRoot = new XPathNode();
+        openXPaths = 0;
         
         for (int pathIndex = 0; pathIndex < path.length; pathIndex++) {
             final LinkedList<String> pathPartList = new LinkedList<String>();
             xPath.add(pathPartList);
             
+            XPathNode node = xPathRoot;
             StringTokenizer st = new StringTokenizer(path[pathIndex], "/");
             while (st.hasMoreTokens()) {
-                pathPartList.add(st.nextToken());
+                final String pathPart = st.nextToken();
+                pathPartList.add(pathPart);
+                node = node.getOrAddChild(pathPart);
+            }
+            
+            //Empty paths never match
+            if (node != xPathRoot && !node.terminal) {
+                node.terminal = true;
+                openXPaths++;
             }
         }
     }
@@ -115,6 +165,8 @@ public class ClippingFilter extends ChainingSaxFilter {
 
     public void setElement(String[] newElement) {
         this.sElement = newElement;
+        this.elements = new HashSet<String>(Arrays.asList(newElement));
+        this.openElements = new HashSet<String>(this.elements);
     }
 
     /**
@@ -128,6 +180,17 @@ public class ClippingFilter extends ChainingSaxFilter {
             comments.put(newComments[index], "off");
         }
     }
+    
+    /**
+     * If true the parse is stopped with a {@link ClippingCompleteException} once all of the
+     * clipped regions have been closed and nothing after them can match, the rest of the
+     * document is never read. Only applies when no comment clipping is configured and the
+     * portlet's parser configuration balances tags, otherwise html, head and body may occur
+     * more than once. Defaults to true.
+     */
+    public void setEarlyTermination(boolean earlyTermination) {
+        this.earlyTermination = earlyTermination;
+    }
 
     /**
      * Retrives the Xpath set on this clipping filter
@@ -148,54 +211,11 @@ public class ClippingFilter extends ChainingSaxFilter {
      * 
      */
     public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
-        if (!disable) {
-            this.currentPath.add(qName);
-            
-            //loop thru each xPath to see if clipping is set to true.
-            if (xPath != null) {
-                for (final List<String> pathPartList : this.xPath) {
-                    //check current path to see if equals defined clipping
-                    // xPath
-                    for (int myPathIndex = 0; myPathIndex < pathPartList.size() && myPathIndex < this.currentPath.size(); myPathIndex++) {
-                        final String currentPathPart = currentPath.get(myPathIndex);
-                        final String testPathPart = pathPartList.get(myPathIndex);
-                        
-                        if (myPathIndex < currentPath.size() && currentPathPart != null && currentPathPart.equalsIgnoreCase(testPathPart)) {
-                            xPathMatch = true;  
-                            if (myPathIndex == pathPartList.size()-1) {
-                                break;
-                            }
-                        }
-                        else {
-                            xPathMatch = false;
-                            break;
-                        }
-                    }
-                    if (xPathMatch == true && currentPath.size() >= pathPartList.size()) {
-                        break;
-                    } else {
-                            xPathMatch = false;
-                        }
-                }
-            }
-            
-            if (sElement != null)
-                for (final String testElement : this.sElement) {
-                    if (currentPath.contains(testElement)) {
-                        elementMatch = true;
-                        break;
-                    }
-                    else {
-                        elementMatch = false;
-                    }
-                }
-
-            if (xPathMatch || elementMatch || commentMatch) {
-                super.startElement(uri, localName, qName, atts);
-            }
+        if (this.clipStartElement(qName)) {
+            super.startElement(uri, localName, qName, atts);
         }
         else {
-            super.startElement(uri, localName, qName, atts);
+            this.terminateIfComplete();
         }
     }
 
@@ -208,104 +228,116 @@ public class ClippingFilter extends ChainingSaxFilter {
      * 
      */
     public void endElement(String uri, String localName, String qName) throws SAXException {
-        if (!disable) {
-            //loop thru each xPath to see if clipping is set to true.
-            if (xPath != null) {
-                for (final List<String> pathPartList : this.xPath) {
-                    //check current path to see if equals defined clipping
-                    // xPath
-                    for (int myPathIndex = 0; myPathIndex < pathPartList.size() && myPathIndex < this.currentPath.size(); myPathIndex++) {
-                        final String currentPathPart = currentPath.get(myPathIndex);
-                        final String testPathPart = pathPartList.get(myPathIndex);
-                        
-                        if (myPathIndex < currentPath.size() && currentPathPart != null && currentPathPart.equalsIgnoreCase(testPathPart)) {
-                            xPathMatch = true;  
-                            if (myPathIndex == pathPartList.size()-1) {
-                                break;
-                            }
-                        }
-                        else {
-                            xPathMatch = false;
-                            break;
-                        }
-                    }
-                    if (xPathMatch == true && currentPath.size() >= pathPartList.size()) {
-                        break;
-                    } else {
-                            xPathMatch = false;
-                        }
-                }
-            }
-            
-            if (sElement != null)
-                for (final String testElement : this.sElement) {
-                    if (currentPath.contains(testElement)) {
-                        elementMatch = true;
-                        break;
-                    }
-                    else {
-                        elementMatch = false;
-                    }
-                }
-            
-            if (xPathMatch || elementMatch || commentMatch) {
-                super.endElement(uri, localName, qName);
-            }
-
-            boolean removeFromXPath = true;
-            int index = this.currentPath.size();
-            //remove endElements from currentPath
-            while (index > 0 && removeFromXPath) {
-                String tempName = (String)currentPath.get(index - 1);
-                if (notAcceptable(tempName))
-                    currentPath.remove(index - 1);
-                else if (tempName.equalsIgnoreCase(qName)) {
-                    currentPath.remove(index - 1);
-                    removeFromXPath = false;
-                }
-                index--;
-            }
-  
+        if (this.clipEndElement(qName)) {
+            super.endElement(uri, localName, qName);
         }
         else {
-            super.endElement(uri, localName, qName);
+            this.terminateIfComplete();
         }
     }
 
     public void characters(char[] ch, int start, int len) throws SAXException {
-        if (!disable) {
-            if (xPathMatch || elementMatch || commentMatch)
-                super.characters(ch, start, len);
-        }
-        else
+        if (this.isClipped())
             super.characters(ch, start, len);
-
+    }
+    
+    public void startEntity(String name) throws SAXException {
+        if (this.isClipped())
+            super.startEntity(name);
+    }
+    
+    public void endEntity(String name) throws SAXException {
+        if (this.isClipped())
+            super.endEntity(name);
     }
 
-    /*
-     * These QNames do not require to be closed so can be removed from the path
-     * w/o close tags
-     *  
+    /**
+     * Updates the clipping state for the start of an element.
+     * 
+     * @return true if the element is part of the clipped content
      */
-    public void setAcceptableQNames(Set notAcceptable) {
-        this.notAcceptable = notAcceptable;
-
+    boolean clipStartElement(String qName) {
+        if (disable) {
+            return true;
+        }
+        
+        final PathEntry parent = (this.currentPath.isEmpty() ? null : this.currentPath.get(this.currentPath.size() - 1));
+        final PathEntry entry = new PathEntry(qName, this.notAcceptable(qName), this.elements != null && this.elements.contains(qName));
+        entry.update(parent, this.xPathRoot);
+        this.currentPath.add(entry);
+        if (entry.element) {
+            this.elementCount++;
+        }
+        
+        this.updateMatches();
+        return xPathMatch || elementMatch || commentMatch;
     }
 
     /**
-     * Checks to see if element is in notAcceptable array
+     * Updates the clipping state for the end of an element.
      * 
-     * @param qName the qName as String
+     * @return true if the element is part of the clipped content
      */
-    public boolean notAcceptable(String qName) {
-        boolean isAcceptable = false;
-        if (notAcceptable.contains(qName) || notAcceptable.contains(qName.toLowerCase()))
-            isAcceptable = true;
-        return isAcceptable;
+    boolean clipEndElement(String qName) {
+        if (disable) {
+            return true;
+        }
+        
+        this.updateMatches();
+        final boolean clipped = xPathMatch || elementMatch || commentMatch;
+
+        //remove endElements from currentPath, entries that don't need closing are
+        //dropped on the way to the matching element
+        int lowestRemoved = -1;
+        for (int index = this.currentPath.size() - 1; index >= 0; index--) {
+            final PathEntry entry = this.currentPath.get(index);
+            if (entry.voidElement) {
+                this.removeEntry(index);
+                lowestRemoved = index;
+            }
+            else if (entry.qName.equalsIgnoreCase(qName)) {
+                this.removeEntry(index);
+                this.closed(entry);
+                lowestRemoved = index;
+                break;
+            }
+        }
+        
+        //Entries above a removed entry have a new parent
+        if (lowestRemoved >= 0) {
+            for (int index = lowestRemoved; index < this.currentPath.size(); index++) {
+                this.currentPath.get(index).update((index > 0 ? this.currentPath.get(index - 1) : null), this.xPathRoot);
+            }
+        }
+        
+        return clipped;
+    }
 
+    /**
+     * @return true if content at the current position is part of the clipped content
+     */
+    boolean isClipped() {
+        return disable || xPathMatch || elementMatch || commentMatch;
+    }
+    
+    /**
+     * @return true if nothing in the rest of the document can be part of the clipped content
+     */
+    boolean isComplete() {
+        return earlyTermination && balancedTags && !disable && comments.isEmpty() && openXPaths == 0 && (openElements == null || openElements.isEmpty())
+            && !xPathMatch && !elementMatch;
     }
 
-    public void comment(char[] ch, int start, int length) throws SAXException {
+    /**
+     * Updates the clipping state for a comment, comments may toggle clipping on and off.
+     * 
+     * @return true if the comment is part of the clipped content
+     */
+    boolean clipComment(char[] ch, int start, int length) {
+        if (comments.isEmpty()) {
+            return this.isClipped();
+        }
+        
         String currentComment = new String(ch, start, length);
         if (comments.containsKey(currentComment)) {
             String commentStatus = (String)comments.get(currentComment);
@@ -319,11 +351,156 @@ public class ClippingFilter extends ChainingSaxFilter {
                 commentMatch = false;
         }
         
-        if (!disable) {
-            if (xPathMatch || elementMatch || commentMatch)
-                super.comment(ch, start, length);
+        return this.isClipped();
+    }
+
+    /**
+     * Ends the document and stops the parse if nothing else can be clipped.
+     */
+    private void terminateIfComplete() throws SAXException {
+        if (this.isComplete()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("All clipped regions are closed, ending the document");
+            }
+            
+            super.endDocument();
+            throw new ClippingCompleteException();
         }
-        else
+    }
+
+    /**
+     * Checks the current path against the clipping xPaths and elements.
+     */
+    private void updateMatches() {
+        if (xPathRoot != null) {
+            xPathMatch = !this.currentPath.isEmpty() && this.currentPath.get(this.currentPath.size() - 1).xPathMatch;
+        }
+        
+        if (elements != null) {
+            elementMatch = this.elementCount > 0;
+        }
+    }
+    
+    private void removeEntry(int index) {
+        final PathEntry entry = this.currentPath.remove(index);
+        if (entry.element) {
+            this.elementCount--;
+        }
+    }
+    
+    /**
+     * Marks the clips that can't match again once the element has been closed.
+     */
+    private void closed(PathEntry entry) {
+        if (!SINGULAR_ELEMENTS.contains(entry.qName)) {
+            return;
+        }
+        
+        if (entry.element) {
+            this.openElements.remove(entry.qName);
+        }
+        
+        if (entry.node != null) {
+            this.openXPaths -= entry.node.close();
+        }
+    }
+
+    /*
+     * These QNames do not require to be closed so can be removed from the path
+     * w/o close tags
+     *  
+     */
+    public void setAcceptableQNames(Set<String> notAcceptable) {
+        this.notAcceptable = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        this.notAcceptable.addAll(notAcceptable);
+    }
+
+    /**
+     * Checks to see if element is in notAcceptable array
+     * 
+     * @param qName the qName as String
+     */
+    public boolean notAcceptable(String qName) {
+        return notAcceptable != null && notAcceptable.contains(qName);
+    }
+
+    /**
+     * An element on the current path and its position in the xPath trie.
+     */
+    private static final class PathEntry {
+        private final String qName;
+        private final boolean voidElement;
+        private final boolean element;
+        private XPathNode node;
+        private boolean xPathMatch;
+        
+        public PathEntry(String qName, boolean voidElement, boolean element) {
+            this.qName = qName;
+            this.voidElement = voidElement;
+            this.element = element;
+        }
+        
+        /**
+         * Walks the trie from the parent entry, the path matches if the parent matches
+         * or an xPath ends at this element.
+         */
+        public void update(PathEntry parent, XPathNode root) {
+            if (root == null) {
+                this.node = null;
+            }
+            else if (parent == null) {
+                this.node = root.getChild(this.qName);
+            }
+            else {
+                this.node = (parent.node != null ? parent.node.getChild(this.qName) : null);
+            }
+            
+            this.xPathMatch = (parent != null && parent.xPathMatch) || (this.node != null && this.node.terminal);
+        }
+    }
+    
+    /**
+     * A node in the trie of xPath parts, names are compared ignoring case.
+     */
+    private static final class XPathNode {
+        private final Map<String, XPathNode> children = new TreeMap<String, XPathNode>(String.CASE_INSENSITIVE_ORDER);
+        private boolean terminal = false;
+        private boolean closed = false;
+        
+        public XPathNode getChild(String childName) {
+            return this.children.get(childName);
+        }
+        
+        public XPathNode getOrAddChild(String childName) {
+            XPathNode child = this.children.get(childName);
+            if (child == null) {
+                child = new XPathNode();
+                this.children.put(childName, child);
+            }
+            return child;
+        }
+        
+        /**
+         * Closes a singular element, no xPath at or below this node can match again.
+         * 
+         * @return The number of xPaths that were closed
+         */
+        public int close() {
+            if (this.closed) {
+                return 0;
+            }
+            
+            this.closed = true;
+            int closedPaths = (this.terminal ? 1 : 0);
+            for (final XPathNode child : this.children.values()) {
+                closedPaths += child.close();
+            }
+            return closedPaths;
+        }
+    }
+
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        if (this.clipComment(ch, start, length))
             super.comment(ch, start, length);
     }
 
@@ -331,6 +508,30 @@ public class ClippingFilter extends ChainingSaxFilter {
         return "Clipping Filter";
     }
 
+    /**
+     * Resets the clipping configuration and parse state so the filter can be reused for
+     * another render, the preferences only set the clipping options that have values.
+     */
+    @Override
+    public void clearData() {
+        this.xPath = null;
+        this.xPathRoot = null;
+        this.openXPaths = 0;
+        this.sElement = null;
+        this.elements = null;
+        this.openElements = null;
+        this.elementCount = 0;
+        this.currentPath.clear();
+        this.comments.clear();
+        this.commentMatch = false;
+        this.xPathMatch = false;
+        this.elementMatch = false;
+        this.disable = true;
+        this.balancedTags = false;
+
+        super.clearData();
+    }
+
     public void setRenderData(RenderRequest request, RenderResponse response) {
         this.setupFilter(request);
         super.setRenderData(request, response);
@@ -353,7 +554,8 @@ public class ClippingFilter extends ChainingSaxFilter {
         sTemp = pp.getValues(ClippingConfigImpl.COMMENT, null);
         if (sTemp != null)
             this.setComments(sTemp);
-        this.disable = !new Boolean(pp.getValue(ClippingConfigImpl.DISABLE, null)).booleanValue();
+        this.disable = !Boolean.valueOf(pp.getValue(ClippingConfigImpl.DISABLE, null)).booleanValue();
+        this.balancedTags = Boolean.valueOf(pp.getValue(HtmlParserConfigImpl.BALANCETAGS, null)).booleanValue();
     }
 
 }
@@ -0,0 +1,41 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Processes proxied content of a specific type without the HTML parser, see
+ * {@link ContentProcessorRegistry}.
+ * 
+ * @version $Revision$
+ */
+public interface ContentProcessor {
+    /**
+     * Copies the content from the reader to the writer, rewriting any URLs it contains.
+     * 
+     * @param in The decoded content
+     * @param out The portlet output, must not be closed
+     * @param urlFilters The URL filters in execution order, their render data has been set
+     */
+    void process(Reader in, Writer out, BaseUrlFilter[] urlFilters) throws IOException;
+}
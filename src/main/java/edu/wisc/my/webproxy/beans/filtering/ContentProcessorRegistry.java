@@ -0,0 +1,60 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@link ContentProcessor}s to use for content types that should not be parsed as HTML.
+ * Content types without a processor are filtered by the HTML parser and the SAX filters.
+ * 
+ * @version $Revision$
+ */
+public class ContentProcessorRegistry {
+    private Map<String, ContentProcessor> processors = Collections.emptyMap();
+
+    /**
+     * @param processors Processors keyed by MIME type, for example text/css. Types are matched case insensitively.
+     */
+    public void setProcessors(Map<String, ContentProcessor> processors) {
+        final Map<String, ContentProcessor> ciProcessors = new TreeMap<String, ContentProcessor>(String.CASE_INSENSITIVE_ORDER);
+        ciProcessors.putAll(processors);
+        this.processors = ciProcessors;
+    }
+
+    /**
+     * @param contentType The MIME type of the content, parameters such as the charset are ignored
+     * @return The processor for the content, null if it should be parsed as HTML
+     */
+    public ContentProcessor getProcessor(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        
+        final int paramStart = contentType.indexOf(';');
+        if (paramStart >= 0) {
+            contentType = contentType.substring(0, paramStart);
+        }
+        
+        return this.processors.get(contentType.trim());
+    }
+}
@@ -0,0 +1,364 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Rewrites the url() references and @import strings of stylesheets with the URL filters as it
+ * copies them. The references are rewritten like the URLs of pass through elements such as
+ * images, data: URLs and fragment references are left alone. Comments and other strings are
+ * copied unchanged.
+ * 
+ * @version $Revision$
+ */
+public class CssContentProcessor implements ContentProcessor {
+
+    public void process(Reader in, Writer out, BaseUrlFilter[] urlFilters) throws IOException {
+        final CssRewriter rewriter = new CssRewriter(in, out, urlFilters);
+        rewriter.rewrite();
+    }
+    
+    /**
+     * The state of rewriting one stylesheet.
+     */
+    private static final class CssRewriter {
+        private static final int BUFFER_SIZE = 8192;
+        private static final String URL_FUNCTION = "url(";
+        
+        private final Reader in;
+        private final Writer out;
+        private final BaseUrlFilter[] urlFilters;
+        
+        private final char[] readBuffer = new char[BUFFER_SIZE];
+        private int readPosition = 0;
+        private int readLength = 0;
+        
+        private final char[] writeBuffer = new char[BUFFER_SIZE];
+        private int writeLength = 0;
+        
+        //The current url() or @import token
+        private final StringBuilder token = new StringBuilder(128);
+        
+        public CssRewriter(Reader in, Writer out, BaseUrlFilter[] urlFilters) {
+            this.in = in;
+            this.out = out;
+            this.urlFilters = urlFilters;
+        }
+        
+        public void rewrite() throws IOException {
+            boolean afterIdentifier = false;
+            boolean afterImport = false;
+            
+            int c;
+            while ((c = this.read()) >= 0) {
+                if (c == '/' && this.peek() == '*') {
+                    this.write('/');
+                    this.copyComment();
+                    afterIdentifier = false;
+                }
+                else if (c == '"' || c == '\'') {
+                    this.readString(c);
+                    if (afterImport && this.token.length() > 1 && this.token.charAt(this.token.length() - 1) == c) {
+                        this.writeUrlToken(1, this.token.length() - 1, (char)c);
+                    }
+                    else {
+                        this.write(this.token);
+                    }
+                    afterIdentifier = false;
+                    afterImport = false;
+                }
+                else if (c == '@') {
+                    this.write('@');
+                    this.token.setLength(0);
+                    while ((c = this.read()) >= 0 && isIdentifierChar(c)) {
+                        this.token.append((char)c);
+                    }
+                    if (c >= 0) {
+                        this.unread();
+                    }
+                    this.write(this.token);
+                    afterImport = "import".equalsIgnoreCase(this.token.toString());
+                    afterIdentifier = true;
+                }
+                else if ((c == 'u' || c == 'U') && !afterIdentifier) {
+                    this.readUrlFunction(c);
+                    afterIdentifier = true;
+                    afterImport = false;
+                }
+                else if (c == '\\') {
+                    //Escaped characters are part of an identifier
+                    this.write('\\');
+                    if ((c = this.read()) >= 0) {
+                        this.write((char)c);
+                    }
+                    afterIdentifier = true;
+                }
+                else {
+                    this.write((char)c);
+                    afterIdentifier = isIdentifierChar(c);
+                    if (!isWhitespace(c)) {
+                        afterImport = false;
+                    }
+                }
+            }
+            
+            this.flushBuffer();
+            this.out.flush();
+        }
+        
+        /**
+         * Reads a url() function, the 'u' has been read. Anything that isn't a url() is copied.
+         */
+        private void readUrlFunction(int first) throws IOException {
+            this.token.setLength(0);
+            this.token.append((char)first);
+            
+            int c;
+            for (int index = 1; index < URL_FUNCTION.length(); index++) {
+                c = this.read();
+                if (c < 0 || Character.toLowerCase((char)c) != URL_FUNCTION.charAt(index)) {
+                    if (c >= 0) {
+                        this.unread();
+                    }
+                    this.write(this.token);
+                    return;
+                }
+                this.token.append((char)c);
+            }
+            
+            c = this.readWhitespace();
+            
+            final int valueStart;
+            final int valueEnd;
+            char quote = 0;
+            if (c == '"' || c == '\'') {
+                quote = (char)c;
+                final int stringStart = this.token.length();
+                this.appendString(c);
+                valueStart = stringStart + 1;
+                valueEnd = this.token.length() - 1;
+                c = this.readWhitespace();
+            }
+            else {
+                valueStart = this.token.length();
+                while (c >= 0 && c != ')') {
+                    this.token.append((char)c);
+                    c = this.read();
+                }
+                
+                int end = this.token.length();
+                while (end > valueStart && isWhitespace(this.token.charAt(end - 1))) {
+                    end--;
+                }
+                valueEnd = end;
+            }
+            
+            if (c != ')') {
+                //Not a complete url(), copy what was read
+                if (c >= 0) {
+                    this.unread();
+                }
+                this.write(this.token);
+                return;
+            }
+            this.token.append(')');
+            
+            this.writeUrlToken(valueStart, valueEnd, quote);
+        }
+        
+        /**
+         * Writes the token with the URL between valueStart and valueEnd rewritten.
+         * 
+         * @param quote The quote around the URL, 0 if it is not quoted
+         */
+        private void writeUrlToken(int valueStart, int valueEnd, char quote) throws IOException {
+            final String url = this.token.substring(valueStart, valueEnd);
+            final String newUrl = this.rewriteUrl(url);
+            if (newUrl == url) {
+                this.write(this.token);
+                return;
+            }
+            
+            this.write(this.token, 0, valueStart);
+            if (quote == 0) {
+                this.write('"');
+                this.write(escapeString(newUrl, '"'));
+                this.write('"');
+            }
+            else {
+                this.write(escapeString(newUrl, quote));
+            }
+            this.write(this.token, valueEnd, this.token.length());
+        }
+        
+        /**
+         * Passes the URL through the URL filters as the URL of a pass through element.
+         * 
+         * @return The rewritten URL, the same instance if it was not changed
+         */
+        private String rewriteUrl(String url) {
+            //Escaped URLs are left alone rather than being unescaped
+            if (url.length() == 0 || url.charAt(0) == '#' || url.indexOf('\\') >= 0 || url.regionMatches(true, 0, "data:", 0, 5)) {
+                return url;
+            }
+            
+            String newUrl = url;
+            for (final BaseUrlFilter urlFilter : this.urlFilters) {
+                newUrl = urlFilter.rewriteAttribute(newUrl, true);
+            }
+            return newUrl;
+        }
+        
+        /**
+         * Reads a string into the token, the opening quote has been read.
+         */
+        private void readString(int quote) throws IOException {
+            this.token.setLength(0);
+            this.appendString(quote);
+        }
+        
+        private void appendString(int quote) throws IOException {
+            this.token.append((char)quote);
+            
+            int c;
+            while ((c = this.read()) >= 0) {
+                this.token.append((char)c);
+                if (c == '\\') {
+                    if ((c = this.read()) >= 0) {
+                        this.token.append((char)c);
+                    }
+                }
+                else if (c == quote || c == '\n') {
+                    return;
+                }
+            }
+        }
+        
+        /**
+         * Appends whitespace to the token.
+         * 
+         * @return The first character after the whitespace
+         */
+        private int readWhitespace() throws IOException {
+            int c = this.read();
+            while (c >= 0 && isWhitespace(c)) {
+                this.token.append((char)c);
+                c = this.read();
+            }
+            return c;
+        }
+        
+        /**
+         * Copies a comment, the '/' has been written.
+         */
+        private void copyComment() throws IOException {
+            boolean star = false;
+            int c;
+            //Skip the opening '*' so it doesn't close the comment
+            this.write((char)this.read());
+            while ((c = this.read()) >= 0) {
+                this.write((char)c);
+                if (star && c == '/') {
+                    return;
+                }
+                star = (c == '*');
+            }
+        }
+        
+        private int peek() throws IOException {
+            final int c = this.read();
+            if (c >= 0) {
+                this.unread();
+            }
+            return c;
+        }
+        
+        private int read() throws IOException {
+            if (this.readPosition == this.readLength) {
+                final int read = this.in.read(this.readBuffer, 0, this.readBuffer.length);
+                this.readPosition = 0;
+                this.readLength = Math.max(read, 0);
+                if (read <= 0) {
+                    return -1;
+                }
+            }
+            
+            return this.readBuffer[this.readPosition++];
+        }
+        
+        /**
+         * Pushes back the last character read, always possible since the buffer is only refilled when empty.
+         */
+        private void unread() {
+            this.readPosition--;
+        }
+        
+        private void write(char c) throws IOException {
+            if (this.writeLength == this.writeBuffer.length) {
+                this.flushBuffer();
+            }
+            this.writeBuffer[this.writeLength++] = c;
+        }
+        
+        private void write(CharSequence chars) throws IOException {
+            this.write(chars, 0, chars.length());
+        }
+        
+        private void write(CharSequence chars, int start, int end) throws IOException {
+            for (int index = start; index < end; index++) {
+                this.write(chars.charAt(index));
+            }
+        }
+        
+        private void flushBuffer() throws IOException {
+            if (this.writeLength > 0) {
+                this.out.write(this.writeBuffer, 0, this.writeLength);
+                this.writeLength = 0;
+            }
+        }
+        
+        private static boolean isIdentifierChar(int c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c > 127;
+        }
+        
+        private static boolean isWhitespace(int c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+        }
+        
+        private static String escapeString(String value, char quote) {
+            if (value.indexOf(quote) < 0 && value.indexOf('\\') < 0) {
+                return value;
+            }
+            
+            final StringBuilder escaped = new StringBuilder(value.length() + 8);
+            for (int index = 0; index < value.length(); index++) {
+                final char c = value.charAt(index);
+                if (c == quote || c == '\\') {
+                    escaped.append('\\');
+                }
+                escaped.append(c);
+            }
+            return escaped.toString();
+        }
+    }
+}
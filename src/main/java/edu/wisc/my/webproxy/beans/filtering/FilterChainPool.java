@@ -0,0 +1,265 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+
+/**
+ * Application scoped pool of {@link FilterChain}s. The parser and SAX filters are prototype
+ * beans configured with large URL attribute maps, creating them through the bean factory for
+ * every render means reflective instantiation and property injection of the whole filter graph.
+ * Chains are created from the prototype beans once and recycled, when a chain is returned it is
+ * reset so no request data, parent links or handlers survive into the next render. When all
+ * pooled chains are in use an unpooled chain is created rather than blocking the render.
+ *
+ * @version $Revision$
+ */
+public class FilterChainPool implements BeanFactoryAware {
+    private static final Log log = LogFactory.getLog(FilterChainPool.class);
+
+    private final GenericObjectPool pool;
+    private final AtomicLong borrowedCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong unpooledCount = new AtomicLong();
+
+    private BeanFactory beanFactory;
+    private String parserBeanName = "HtmlParserBean";
+    private String filtersBeanName = "SaxFilterBean";
+
+    public FilterChainPool() {
+        this.pool = new GenericObjectPool(new FilterChainFactory());
+        this.pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_FAIL);
+        this.pool.setMaxActive(50);
+        this.pool.setMaxIdle(10);
+        this.pool.setTimeBetweenEvictionRunsMillis(60 * 1000);
+        this.pool.setMinEvictableIdleTimeMillis(5 * 60 * 1000);
+    }
+
+    /**
+     * @see org.springframework.beans.factory.BeanFactoryAware#setBeanFactory(org.springframework.beans.factory.BeanFactory)
+     */
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
+    /**
+     * Name of the prototype {@link HtmlParser} bean. Defaults to HtmlParserBean.
+     */
+    public void setParserBeanName(String parserBeanName) {
+        this.parserBeanName = parserBeanName;
+    }
+
+    /**
+     * Name of the prototype bean listing the {@link ChainingSaxFilter}s in reverse execution
+     * order. Defaults to SaxFilterBean.
+     */
+    public void setFiltersBeanName(String filtersBeanName) {
+        this.filtersBeanName = filtersBeanName;
+    }
+
+    /**
+     * Maximum number of chains in use. Defaults to 50.
+     */
+    public void setMaxActive(int maxActive) {
+        this.pool.setMaxActive(maxActive);
+    }
+
+    /**
+     * Maximum number of idle chains kept. Defaults to 10.
+     */
+    public void setMaxIdle(int maxIdle) {
+        this.pool.setMaxIdle(maxIdle);
+    }
+
+    /**
+     * Seconds a chain may be idle before it is evicted from the pool. Defaults to 300.
+     */
+    public void setIdleTimeout(int idleTimeout) {
+        this.pool.setMinEvictableIdleTimeMillis(idleTimeout * 1000L);
+    }
+
+    /**
+     * Gets a filter chain, it must be returned with {@link #returnChain(FilterChain)} once the
+     * render is complete.
+     */
+    public FilterChain borrowChain() {
+        this.borrowedCount.incrementAndGet();
+
+        try {
+            return (FilterChain)this.pool.borrowObject();
+        }
+        catch (NoSuchElementException nsee) {
+            if (log.isDebugEnabled()) {
+                log.debug("All pooled filter chains are in use, creating an unpooled filter chain");
+            }
+        }
+        catch (Exception e) {
+            log.warn("Failed to borrow a filter chain, creating an unpooled filter chain", e);
+        }
+
+        this.unpooledCount.incrementAndGet();
+        return this.createChain(false);
+    }
+
+    /**
+     * Resets a chain obtained from {@link #borrowChain()} and returns it to the pool.
+     */
+    public void returnChain(FilterChain chain) {
+        if (!chain.pooled) {
+            chain.reset();
+            return;
+        }
+
+        try {
+            this.pool.returnObject(chain);
+        }
+        catch (Exception e) {
+            log.warn("Failed to return filter chain to the pool", e);
+        }
+    }
+
+    /**
+     * @return The number of chains currently in use
+     */
+    public int getNumActive() {
+        return this.pool.getNumActive();
+    }
+
+    /**
+     * @return The number of idle chains in the pool
+     */
+    public int getNumIdle() {
+        return this.pool.getNumIdle();
+    }
+
+    /**
+     * @return The number of times a chain has been requested
+     */
+    public long getBorrowedCount() {
+        return this.borrowedCount.get();
+    }
+
+    /**
+     * @return The number of chains created for the pool
+     */
+    public long getCreatedCount() {
+        return this.createdCount.get();
+    }
+
+    /**
+     * @return The number of chains created outside of the pool because the pool was exhausted
+     */
+    public long getUnpooledCount() {
+        return this.unpooledCount.get();
+    }
+
+    /**
+     * Discards all idle chains, the next renders pick up the current bean definitions.
+     */
+    public void clear() {
+        this.pool.clear();
+    }
+
+    /**
+     * Discards all idle chains and closes the pool, should be configured as the destroy method.
+     */
+    public void close() throws Exception {
+        this.pool.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private FilterChain createChain(boolean pooled) {
+        final HtmlParser parser = (HtmlParser)this.beanFactory.getBean(this.parserBeanName, HtmlParser.class);
+        final List<ChainingSaxFilter> filters = (List<ChainingSaxFilter>)this.beanFactory.getBean(this.filtersBeanName, List.class);
+        return new FilterChain(parser, filters, pooled);
+    }
+
+    private class FilterChainFactory extends BasePoolableObjectFactory {
+        @Override
+        public Object makeObject() throws Exception {
+            createdCount.incrementAndGet();
+            return createChain(true);
+        }
+
+        @Override
+        public void passivateObject(Object obj) throws Exception {
+            ((FilterChain)obj).reset();
+        }
+    }
+
+    /**
+     * A parser and the SAX filters for one render. The filters are not linked to each other,
+     * the caller links them and sets the render data as it would for new prototype beans.
+     */
+    public static final class FilterChain {
+        private final HtmlParser parser;
+        private final List<ChainingSaxFilter> filters;
+        private final boolean pooled;
+
+        private FilterChain(HtmlParser parser, List<ChainingSaxFilter> filters, boolean pooled) {
+            this.parser = parser;
+            this.filters = Collections.unmodifiableList(filters);
+            this.pooled = pooled;
+        }
+
+        public HtmlParser getParser() {
+            return this.parser;
+        }
+
+        /**
+         * @return The filters in the order of the filter list bean, the last filter is executed first
+         */
+        public List<ChainingSaxFilter> getFilters() {
+            return this.filters;
+        }
+
+        /**
+         * Unlinks the filters, removes the handlers set by the last parse and clears the request
+         * data of the parser and each filter.
+         */
+        void reset() {
+            this.parser.clearData();
+
+            //Unlink first so clearing a filter doesn't also clear the filters it was chained to
+            for (final ChainingSaxFilter filter : this.filters) {
+                filter.setParent(null);
+                filter.setLexicalHandler(null);
+                filter.setContentHandler(null);
+                filter.setDTDHandler(null);
+                filter.setErrorHandler(null);
+                filter.setEntityResolver(null);
+            }
+            for (final ChainingSaxFilter filter : this.filters) {
+                filter.clearData();
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.portlet.ActionRequest;
+import javax.portlet.ActionResponse;
+import javax.portlet.RenderRequest;
+import javax.portlet.RenderResponse;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Runs the filters of a SaxFilterBean list as a single SAX handler. The clipping decision is made
+ * once per event and the URL attributes of each element are rewritten by all of the URL filters in
+ * one pass over the attributes, producing the same output as chaining the filters. Only lists of
+ * {@link BaseUrlFilter}s with an optional {@link ClippingFilter} executed first can be fused, see
+ * {@link #canFuse(List)}.
+ * 
+ * @version $Revision$
+ */
+public class FusedRewritingFilter extends ChainingSaxFilter {
+    private final ClippingFilter clippingFilter;
+    private final BaseUrlFilter[] urlFilters;
+    
+    //Per filter attribute sets and pass through flags for the current element
+    private final Set<String>[] elementAttributes;
+    private final boolean[] passThrough;
+
+    /**
+     * @param saxFilters The filters in SaxFilterBean order, the last filter in the list is executed first
+     * @throws IllegalArgumentException If the filters can't be fused
+     */
+    @SuppressWarnings("unchecked")
+    public FusedRewritingFilter(List<?> saxFilters) {
+        if (!canFuse(saxFilters)) {
+            throw new IllegalArgumentException("Filters can't be fused: " + saxFilters);
+        }
+        
+        ClippingFilter clippingFilter = null;
+        final List<BaseUrlFilter> urlFilters = new ArrayList<BaseUrlFilter>(saxFilters.size());
+        for (int index = saxFilters.size() - 1; index >= 0; index--) {
+            final Object filter = saxFilters.get(index);
+            if (filter instanceof ClippingFilter) {
+                clippingFilter = (ClippingFilter)filter;
+            }
+            else {
+                urlFilters.add((BaseUrlFilter)filter);
+            }
+        }
+        
+        this.clippingFilter = clippingFilter;
+        this.urlFilters = urlFilters.toArray(new BaseUrlFilter[urlFilters.size()]);
+        this.elementAttributes = new Set[this.urlFilters.length];
+        this.passThrough = new boolean[this.urlFilters.length];
+    }
+    
+    /**
+     * @param saxFilters The filters in SaxFilterBean order, the last filter in the list is executed first
+     * @return true if the list only contains {@link BaseUrlFilter}s and at most one {@link ClippingFilter} which is executed first
+     */
+    public static boolean canFuse(List<?> saxFilters) {
+        for (int index = 0; index < saxFilters.size(); index++) {
+            final Object filter = saxFilters.get(index);
+            
+            if (filter instanceof ClippingFilter) {
+                //The clipping filter must see the elements before the URL filters add inputs to forms
+                if (index != saxFilters.size() - 1) {
+                    return false;
+                }
+            }
+            else if (!(filter instanceof BaseUrlFilter)) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        if (this.clippingFilter != null && !this.clippingFilter.clipStartElement(qName)) {
+            this.terminateIfComplete();
+            return;
+        }
+        
+        if (this.urlFilters.length == 0) {
+            super.startElement(uri, localName, qName, atts);
+            return;
+        }
+        
+        //The first URL filter changes the form, for the following filters the form is already fixed
+        AttributesImpl newAtts = null;
+        boolean getMethod = false;
+        if ("FORM".equalsIgnoreCase(qName)) {
+            newAtts = new AttributesImpl(atts);
+            getMethod = BaseUrlFilter.fixFormAttributes(uri, qName, newAtts);
+        }
+        
+        final Attributes rewrittenAtts = this.rewriteAttributes(0, qName, (newAtts != null ? newAtts : atts), newAtts != null);
+        super.startElement(uri, localName, qName, rewrittenAtts);
+        
+        if (getMethod) {
+            final AttributesImpl methodAtt = BaseUrlFilter.createGetMethodAttributes(uri);
+            this.rewriteAttributes(1, "input", methodAtt, true);
+            super.startElement(uri, "input", "input", methodAtt);
+            super.endElement(uri, "input", "input");
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (this.clippingFilter == null || this.clippingFilter.clipEndElement(qName)) {
+            super.endElement(uri, localName, qName);
+        }
+        else {
+            this.terminateIfComplete();
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (this.clippingFilter == null || this.clippingFilter.isClipped()) {
+            super.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void startEntity(String name) throws SAXException {
+        if (this.clippingFilter == null || this.clippingFilter.isClipped()) {
+            super.startEntity(name);
+        }
+    }
+
+    @Override
+    public void endEntity(String name) throws SAXException {
+        if (this.clippingFilter == null || this.clippingFilter.isClipped()) {
+            super.endEntity(name);
+        }
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        if (this.clippingFilter == null || this.clippingFilter.clipComment(ch, start, length)) {
+            super.comment(ch, start, length);
+        }
+    }
+    
+    /**
+     * Ends the document and stops the parse if the clipping filter has nothing else to clip.
+     */
+    private void terminateIfComplete() throws SAXException {
+        if (this.clippingFilter.isComplete()) {
+            super.endDocument();
+            throw new ClippingCompleteException();
+        }
+    }
+    
+    /**
+     * Rewrites the URL attributes of the element with the URL filters starting at firstFilter, each
+     * attribute is passed through the filters in execution order. The attributes are copied before
+     * the first change unless they are owned by the caller.
+     * 
+     * @return The rewritten attributes
+     */
+    private Attributes rewriteAttributes(int firstFilter, String qName, Attributes atts, boolean owned) {
+        boolean hasUrlAttributes = false;
+        for (int filterIndex = firstFilter; filterIndex < this.urlFilters.length; filterIndex++) {
+            final BaseUrlFilter urlFilter = this.urlFilters[filterIndex];
+            final Set<String> attributes = urlFilter.getUrlAttributes(qName);
+            
+            this.elementAttributes[filterIndex] = attributes;
+            if (attributes != null) {
+                this.passThrough[filterIndex] = urlFilter.isPassThroughElement(qName);
+                hasUrlAttributes = true;
+            }
+        }
+        
+        if (!hasUrlAttributes) {
+            return atts;
+        }
+        
+        AttributesImpl newAtts = (owned ? (AttributesImpl)atts : null);
+        for (int index = 0; index < atts.getLength(); index++) {
+            final String attrName = atts.getQName(index);
+            final String attrValue = atts.getValue(index);
+            
+            String newValue = attrValue;
+            for (int filterIndex = firstFilter; filterIndex < this.urlFilters.length; filterIndex++) {
+                final Set<String> attributes = this.elementAttributes[filterIndex];
+                if (attributes != null && attributes.contains(attrName)) {
+                    newValue = this.urlFilters[filterIndex].rewriteAttribute(newValue, this.passThrough[filterIndex]);
+                }
+            }
+            
+            if (newValue != attrValue) {
+                if (newAtts == null) {
+                    newAtts = new AttributesImpl(atts);
+                }
+                newAtts.setValue(index, newValue);
+            }
+        }
+        
+        return (newAtts != null ? newAtts : atts);
+    }
+
+    public String getName() {
+        return "Fused Rewriting Filter";
+    }
+
+    @Override
+    public void setRenderData(RenderRequest request, RenderResponse response) {
+        if (this.clippingFilter != null) {
+            this.clippingFilter.setRenderData(request, response);
+        }
+        for (final BaseUrlFilter urlFilter : this.urlFilters) {
+            urlFilter.setRenderData(request, response);
+        }
+        
+        super.setRenderData(request, response);
+    }
+
+    @Override
+    public void setActionData(ActionRequest request, ActionResponse response) {
+        if (this.clippingFilter != null) {
+            this.clippingFilter.setActionData(request, response);
+        }
+        for (final BaseUrlFilter urlFilter : this.urlFilters) {
+            urlFilter.setActionData(request, response);
+        }
+        
+        super.setActionData(request, response);
+    }
+
+    @Override
+    public void clearData() {
+        if (this.clippingFilter != null) {
+            this.clippingFilter.clearData();
+        }
+        for (final BaseUrlFilter urlFilter : this.urlFilters) {
+            urlFilter.clearData();
+        }
+        
+        super.clearData();
+    }
+}
@@ -21,7 +21,11 @@ package edu.wisc.my.webproxy.beans.filtering;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
@@ -29,6 +33,10 @@ import org.xml.sax.SAXException;
  * A filter that will always be at the end of the filter chain. 
  * It takes the SAX events and create an XML document into an OutputStream. 
  * This filter uses the portlet's OutputStream to write the data to.
+ * <p>
+ * Output is collected in a char buffer borrowed from a shared pool and written to the
+ * Writer when the buffer fills, at the end of the document and when {@link #clearData()}
+ * is called.
  * 
  * @author dgrimwood
  *
@@ -46,8 +54,15 @@ public final class HtmlOutputFilter extends ChainingSaxFilter {
     private static final String EQUAL           = "=";
     private static final String SPACE           = " ";
     
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final BlockingQueue<char[]> BUFFER_POOL = new ArrayBlockingQueue<char[]>(64);
+    
+    private static final Log LOG = LogFactory.getLog(HtmlOutputFilter.class);
+    
     private final Writer out;
     private String currentEntity = null; //The current entity that is being rendered
+    private char[] buffer = null;
+    private int bufferLength = 0;
     
     public HtmlOutputFilter(Writer out) {
         if (out == null)
@@ -66,9 +81,9 @@ public final class HtmlOutputFilter extends ChainingSaxFilter {
      */
     public void comment(char[] ch, int start, int length) throws SAXException {
         try {
-            out.write(COMMENT_START);
-            out.write(ch, start, length);
-            out.write(COMMENT_END);
+            this.write(COMMENT_START);
+            this.write(ch, start, length);
+            this.write(COMMENT_END);
         }
         catch (IOException ioe) {
             throw new SAXException("Error writing data to output stream", ioe);
@@ -82,9 +97,9 @@ public final class HtmlOutputFilter extends ChainingSaxFilter {
         this.currentEntity = name;
         
         try {
-            out.write(ENTITY_START);
-            out.write(this.currentEntity);
-            out.write(ENTITY_END);
+            this.write(ENTITY_START);
+            this.write(this.currentEntity);
+            this.write(ENTITY_END);
         }
         catch (IOException ioe) {
             throw new SAXException("Error writing data to output stream", ioe);
@@ -104,8 +119,7 @@ public final class HtmlOutputFilter extends ChainingSaxFilter {
     public void characters(char[] ch, int start, int length) throws SAXException {
         try {
             if (this.currentEntity == null) {
-                final String chars = new String(ch, start, length);
-                out.write(chars);
+                this.write(ch, start, length);
             }
         }
         catch (IOException ioe) {
@@ -118,6 +132,7 @@ public final class HtmlOutputFilter extends ChainingSaxFilter {
      */
     public void endDocument() throws SAXException {
         try {
+            this.flushBuffer();
             out.flush();
         }
         catch (IOException ioe) {
@@ -130,9 +145,9 @@ public final class HtmlOutputFilter extends ChainingSaxFilter {
      */
     public void endElement(String uri, String localName, String qName) throws SAXException {
         try {
-            out.write(TAG_CLOSE_START);
-            out.write(qName);
-            out.write(TAG_END);
+            this.write(TAG_CLOSE_START);
+            this.write(qName);
+            this.write(TAG_END);
         }
         catch (IOException ioe) {
             throw new SAXException("Error writing data to output stream", ioe);
@@ -144,28 +159,104 @@ public final class HtmlOutputFilter extends ChainingSaxFilter {
      */
     public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
         try {
-            out.write(TAG_OPEN_START);
-            out.write(qName);
+            this.write(TAG_OPEN_START);
+            this.write(qName);
             
             for (int index = 0; index < atts.getLength(); index++) {
                 final String name = atts.getQName(index);
                 final String value = atts.getValue(index);
                 
-                out.write(SPACE);
-                out.write(name);
+                this.write(SPACE);
+                this.write(name);
                 
                 if (value != null) {
-                    out.write(EQUAL);
-                    out.write(QUOTE);
-                    out.write(value);
-                    out.write(QUOTE);
+                    this.write(EQUAL);
+                    this.write(QUOTE);
+                    this.write(value);
+                    this.write(QUOTE);
                 }
             }
             
-            out.write(TAG_END);
+            this.write(TAG_END);
         }
         catch (IOException ioe) {
             throw new SAXException("Error writing data to output stream", ioe);
         }
     }
+
+    /**
+     * Writes any buffered output and returns the buffer to the pool.
+     * 
+     * @see edu.wisc.my.webproxy.beans.filtering.ChainingSaxFilter#clearData()
+     */
+    @Override
+    public void clearData() {
+        try {
+            this.flushBuffer();
+        }
+        catch (IOException ioe) {
+            LOG.warn("Error writing buffered data to output stream", ioe);
+        }
+        finally {
+            if (this.buffer != null) {
+                BUFFER_POOL.offer(this.buffer);
+                this.buffer = null;
+                this.bufferLength = 0;
+            }
+        }
+        
+        super.clearData();
+    }
+    
+    private void write(String str) throws IOException {
+        final int length = str.length();
+        int offset = 0;
+        while (offset < length) {
+            final char[] buf = this.getBuffer();
+            final int count = Math.min(length - offset, buf.length - this.bufferLength);
+            str.getChars(offset, offset + count, buf, this.bufferLength);
+            this.bufferLength += count;
+            offset += count;
+            
+            if (this.bufferLength == buf.length) {
+                this.flushBuffer();
+            }
+        }
+    }
+    
+    private void write(char[] ch, int start, int length) throws IOException {
+        final char[] buf = this.getBuffer();
+        
+        //Large chunks are written directly rather than copied through the buffer
+        if (length >= buf.length) {
+            this.flushBuffer();
+            out.write(ch, start, length);
+            return;
+        }
+        
+        if (length > buf.length - this.bufferLength) {
+            this.flushBuffer();
+        }
+        
+        System.arraycopy(ch, start, buf, this.bufferLength, length);
+        this.bufferLength += length;
+    }
+    
+    private void flushBuffer() throws IOException {
+        if (this.bufferLength > 0) {
+            out.write(this.buffer, 0, this.bufferLength);
+            this.bufferLength = 0;
+        }
+    }
+    
+    private char[] getBuffer() {
+        if (this.buffer == null) {
+            this.buffer = BUFFER_POOL.poll();
+            if (this.buffer == null) {
+                this.buffer = new char[BUFFER_SIZE];
+            }
+        }
+        
+        return this.buffer;
+    }
 }
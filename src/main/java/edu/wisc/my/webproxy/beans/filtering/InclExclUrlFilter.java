@@ -54,11 +54,10 @@
 *******************************************************************************/
 package edu.wisc.my.webproxy.beans.filtering;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import org.xml.sax.XMLReader;
 
+import edu.wisc.my.webproxy.util.PatternListMatcher;
+
 
 /**
  * @author Eric Dalquist <a href="mailto:edalquist@unicon.net">edalquist@unicon.net</a>
@@ -68,6 +67,7 @@ public abstract class InclExclUrlFilter extends BaseUrlFilter {
     private static final String EXCLUDE = "EXCLUDE";
 
     private String[] urlRegExList = null;
+    private PatternListMatcher urlMatcher = null;
     private String listType = null;
 
     public InclExclUrlFilter() {
@@ -83,21 +83,13 @@ public abstract class InclExclUrlFilter extends BaseUrlFilter {
             return originalUrl;
         }
         
-        for (int index = 0; index < this.urlRegExList.length; index++) {
-            if (this.urlRegExList[index] == null || this.urlRegExList[index].trim().length() == 0) {
-                continue;
+        final int index = this.urlMatcher.find(originalUrl);
+        if (index >= 0) {
+            if (EXCLUDE.equalsIgnoreCase(this.listType)) {
+                return originalUrl;
             }
-            
-            final Pattern urlPattern = Pattern.compile(this.urlRegExList[index]);
-            final Matcher urlMatcher = urlPattern.matcher(originalUrl);
-            
-            if (urlMatcher.find()) {
-                if (EXCLUDE.equalsIgnoreCase(this.listType)) {
-                    return originalUrl;
-                }
 
-                return this.doUrlRewite(originalUrl, index, passThrough);
-            }
+            return this.doUrlRewite(originalUrl, index, passThrough);
         }
         
         if (EXCLUDE.equalsIgnoreCase(this.listType)) {
@@ -132,6 +124,7 @@ public abstract class InclExclUrlFilter extends BaseUrlFilter {
      */
     protected void setUrlRegExList(String[] urlRegExList) {
         this.urlRegExList = urlRegExList;
+        this.urlMatcher = urlRegExList == null ? null : PatternListMatcher.getInstance(urlRegExList, 0);
     }
 
     
@@ -33,6 +33,7 @@ import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.LexicalHandler;
 
+import edu.wisc.my.webproxy.beans.config.HtmlParserConfigImpl;
 import edu.wisc.my.webproxy.beans.config.ProxyComponent;
 
 /**
@@ -57,38 +58,40 @@ public class NekoHtmlParser implements HtmlParser, ProxyComponent {
 
     private boolean reportErrors = false;
 
+    private SaxParserPool parserPool;
+
+    private SaxParserPool.ParserFeatures borrowedFeatures;
+
+    private SAXParser borrowedParser;
+
     public NekoHtmlParser() {
 
     }
 
+    /**
+     * (Optional) The pool to borrow parsers from, if not set a new parser is created for each render.
+     */
+    public void setParserPool(SaxParserPool parserPool) {
+        this.parserPool = parserPool;
+    }
+
     public XMLReader getReader(LexicalHandler myHandler) {
+        final SaxParserPool.ParserFeatures features = new SaxParserPool.ParserFeatures(reportErrors, insertDoctype, balanceTags, scriptStripComment, stripComments);
 
-        SAXParser defaultParser = new SAXParser();
+        final SAXParser defaultParser;
+        if (this.parserPool != null) {
+            this.returnParser();
+
+            defaultParser = this.parserPool.borrowParser(features);
+            this.borrowedFeatures = features;
+            this.borrowedParser = defaultParser;
+        }
+        else {
+            defaultParser = SaxParserPool.createParser(features);
+        }
 
         try {
             defaultParser.setProperty("http://xml.org/sax/properties/lexical-handler", myHandler);
-            defaultParser.setProperty("http://cyberneko.org/html/properties/default-encoding", "UTF-8");
-            defaultParser.setProperty("http://cyberneko.org/html/properties/names/elems", "match");
-            defaultParser.setProperty("http://cyberneko.org/html/properties/names/attrs", "no-change");
-            
-            defaultParser.setFeature("http://cyberneko.org/html/features/report-errors", reportErrors);
-            defaultParser.setFeature("http://cyberneko.org/html/features/insert-doctype", insertDoctype);
-            defaultParser.setFeature("http://cyberneko.org/html/features/balance-tags", balanceTags);
-            defaultParser.setFeature("http://cyberneko.org/html/features/scanner/script/strip-comment-delims", scriptStripComment);
-            defaultParser.setFeature("http://cyberneko.org/html/features/scanner/style/strip-comment-delims", stripComments);
-
-            // AW (2008/09/03):  The 'strip-cdata-delims' feature removes CDATA 
-            // delimiters ('<![CDATA[' and ']]>') from <script> elements found 
-            // within the source DOM.  These delimiters are sometimes placed 
-            // there b/c JavaScript commonly contains characters that would need 
-            // escaping in XML.  The delimiters, conversely, break JavaScript in 
-            // HTML.  Since there is currently no forseeable scenario where these 
-            // delimiters should *not* be removed, we just set this option to 
-            // 'true.'  
-            defaultParser.setFeature("http://cyberneko.org/html/features/scanner/script/strip-cdata-delims", true);            
-            
-            defaultParser.setFeature("http://cyberneko.org/html/features/scanner/notify-builtin-refs", true);
-            defaultParser.setFeature("http://apache.org/xml/features/scanner/notify-char-refs", true);
         }
         catch (SAXNotRecognizedException e) {
             log.debug("SaxParser not recognized:  ", e);
@@ -105,11 +108,11 @@ public class NekoHtmlParser implements HtmlParser, ProxyComponent {
 
     public void setRenderData(RenderRequest request, RenderResponse response) {
         PortletPreferences pp = request.getPreferences();
-        this.reportErrors = new Boolean(pp.getValue("reportErrors", null)).booleanValue();
-        this.balanceTags = new Boolean(pp.getValue("balanceTags", null)).booleanValue();
-        this.insertDoctype = new Boolean(pp.getValue("insertDoctype", null)).booleanValue();
-        this.scriptStripComment = new Boolean(pp.getValue("scriptStripComment", null)).booleanValue();
-        this.stripComments = new Boolean(pp.getValue("stripComments", null)).booleanValue();
+        this.reportErrors = Boolean.valueOf(pp.getValue(HtmlParserConfigImpl.REPORTERRORS, null)).booleanValue();
+        this.balanceTags = Boolean.valueOf(pp.getValue(HtmlParserConfigImpl.BALANCETAGS, null)).booleanValue();
+        this.insertDoctype = Boolean.valueOf(pp.getValue(HtmlParserConfigImpl.INSERTDOCTYPE, null)).booleanValue();
+        this.scriptStripComment = Boolean.valueOf(pp.getValue(HtmlParserConfigImpl.SCRIPTSTRIPCOMMENT, null)).booleanValue();
+        this.stripComments = Boolean.valueOf(pp.getValue(HtmlParserConfigImpl.STRIPCOMMENTS, null)).booleanValue();
     }
 
     public void setActionData(ActionRequest request, ActionResponse response) {
@@ -117,7 +120,15 @@ public class NekoHtmlParser implements HtmlParser, ProxyComponent {
     }
 
     public void clearData() {
+        this.returnParser();
+    }
 
+    private void returnParser() {
+        if (this.borrowedParser != null) {
+            this.parserPool.returnParser(this.borrowedFeatures, this.borrowedParser);
+            this.borrowedFeatures = null;
+            this.borrowedParser = null;
+        }
     }
 }
 
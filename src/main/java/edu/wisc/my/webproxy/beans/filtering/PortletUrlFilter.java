@@ -19,25 +19,30 @@
 
 package edu.wisc.my.webproxy.beans.filtering;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.portlet.ActionRequest;
 import javax.portlet.ActionResponse;
 import javax.portlet.PortletPreferences;
-import javax.portlet.PortletURL;
 import javax.portlet.RenderRequest;
 import javax.portlet.RenderResponse;
-import javax.portlet.WindowState;
-import javax.portlet.WindowStateException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.xml.sax.XMLReader;
 
 import edu.wisc.my.webproxy.beans.config.GeneralConfigImpl;
-import edu.wisc.my.webproxy.portlet.WebproxyConstants;
+import edu.wisc.my.webproxy.portlet.ActionUrlTemplate;
 
 /**
  * A filter that re-writes all URLs to portlet URLs
  * 
+ * Instead of creating a PortletURL for every link an action URL template is created
+ * once per window state for each render with a placeholder for the URL parameter, the
+ * encoded URL is spliced into the template. Each template is checked against a PortletURL
+ * created by the container and the container is used for the window state if they differ.
+ * 
  * @author dgrimwood
  * 
  * @version $Id$
@@ -49,6 +54,12 @@ public final class PortletUrlFilter extends InclExclUrlFilter {
     
     private String[] urlStateList = null;
     private RenderResponse renderResponse = null;
+    private boolean useUrlTemplates = true;
+    private boolean templateMismatchLogged = false;
+    
+    //Templates by window state for the current render, null if the container has to be used
+    private final Map<String, ActionUrlTemplate> urlTemplates = new HashMap<String, ActionUrlTemplate>();
+    private final Map<String, ActionUrlTemplate> passThroughUrlTemplates = new HashMap<String, ActionUrlTemplate>();
 
     public PortletUrlFilter() {
     }
@@ -56,25 +67,31 @@ public final class PortletUrlFilter extends InclExclUrlFilter {
     public PortletUrlFilter(XMLReader parent) {
         super(parent);
     }
+    
+    /**
+     * If true action URLs are created from a template per window state instead of asking the
+     * container for each URL. Defaults to true.
+     */
+    public void setUseUrlTemplates(boolean useUrlTemplates) {
+        this.useUrlTemplates = useUrlTemplates;
+    }
 
     @Override
     protected String doUrlRewite(String orignialUrl, int matchIndex, boolean passThrough) {
-        final PortletURL newUrl = this.renderResponse.createActionURL();
-        newUrl.setParameter(WebproxyConstants.BASE_URL, orignialUrl);
-        if (passThrough) {
-            newUrl.setParameter(WebproxyConstants.PASS_THROUGH, Boolean.TRUE.toString());
-        }
-
+        String windowState = null;
         if (matchIndex >= 0 && this.urlStateList != null && this.urlStateList[matchIndex] != null && this.urlStateList[matchIndex].trim().length() > 0) {
-            try {
-                newUrl.setWindowState(new WindowState(this.urlStateList[matchIndex]));
-            }
-            catch (WindowStateException e) {
-                log.error("Unable to set WindowState='" + this.urlStateList[matchIndex] + "'", e);
-            }
+            windowState = this.urlStateList[matchIndex];
+        }
+        
+        final ActionUrlTemplate urlTemplate = this.getUrlTemplate(windowState, passThrough);
+        
+        final String portletUrl;
+        if (urlTemplate != null) {
+            portletUrl = urlTemplate.createUrl(orignialUrl);
+        }
+        else {
+            portletUrl = ActionUrlTemplate.createActionUrl(this.renderResponse, orignialUrl, windowState, passThrough);
         }
-
-        final String portletUrl = newUrl.toString();
         
         if (log.isDebugEnabled()) {
             log.debug("Re-Wrote '" + orignialUrl + "' to '" + portletUrl + "'");
@@ -82,6 +99,45 @@ public final class PortletUrlFilter extends InclExclUrlFilter {
         
         return portletUrl;
     }
+    
+    /**
+     * Gets the URL template for the window state, creating it if this is the first URL
+     * of the render with the state.
+     * 
+     * @return The template, null if templates can't be used
+     */
+    private ActionUrlTemplate getUrlTemplate(String windowState, boolean passThrough) {
+        if (!this.useUrlTemplates) {
+            return null;
+        }
+        
+        final Map<String, ActionUrlTemplate> templates = (passThrough ? this.passThroughUrlTemplates : this.urlTemplates);
+        if (templates.containsKey(windowState)) {
+            return templates.get(windowState);
+        }
+        
+        //A null template is remembered so the container is used for the rest of the render
+        final ActionUrlTemplate urlTemplate = ActionUrlTemplate.createTemplate(this.renderResponse, windowState, passThrough);
+        if (urlTemplate == null) {
+            this.warnTemplateMismatch("Action URLs created from a template for WindowState='" + windowState + "' don't match the URLs created by the portlet container");
+        }
+        templates.put(windowState, urlTemplate);
+        return urlTemplate;
+    }
+    
+    /**
+     * Logs a template that can't be used as a warning the first time for this filter, the
+     * check fails the same way on every render.
+     */
+    private void warnTemplateMismatch(String message) {
+        if (!this.templateMismatchLogged) {
+            log.warn(message + ", URL templates will not be used for the window state");
+            this.templateMismatchLogged = true;
+        }
+        else if (log.isDebugEnabled()) {
+            log.debug(message);
+        }
+    }
 
     @Override
     public void setRenderData(RenderRequest request, RenderResponse response) {
@@ -105,6 +161,8 @@ public final class PortletUrlFilter extends InclExclUrlFilter {
         this.setListType(null);
         
         this.renderResponse = null;
+        this.urlTemplates.clear();
+        this.passThroughUrlTemplates.clear();
         
         //clear data of parent
         super.clearData();
@@ -0,0 +1,316 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.cyberneko.html.parsers.SAXParser;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+
+/**
+ * Application scoped pool of NekoHTML {@link SAXParser}s. Creating a parser is expensive as the
+ * Xerces component manager, symbol table and scanners are built for each instance. Parsers are
+ * pooled by the {@link ParserFeatures} they were configured with. When returned they have their
+ * handlers removed so they don't hold on to the filters of the last render and their features
+ * and properties are reset to the pooled configuration. When all parsers for a configuration are
+ * in use an unpooled parser is created rather than blocking the render, it is discarded when it
+ * is returned.
+ *
+ * @version $Revision$
+ */
+public class SaxParserPool {
+    private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+    private static final String IGNORE_SPECIFIED_CHARSET = "http://cyberneko.org/html/features/scanner/ignore-specified-charset";
+
+    private static final Log log = LogFactory.getLog(SaxParserPool.class);
+
+    private final GenericKeyedObjectPool pool;
+    private final AtomicLong borrowedCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong unpooledCount = new AtomicLong();
+
+    public SaxParserPool() {
+        this.pool = new GenericKeyedObjectPool(new SaxParserFactory());
+        this.pool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL);
+        this.pool.setMaxActive(50);
+        this.pool.setMaxIdle(10);
+        this.pool.setMaxTotal(200);
+        this.pool.setTimeBetweenEvictionRunsMillis(60 * 1000);
+        this.pool.setMinEvictableIdleTimeMillis(5 * 60 * 1000);
+    }
+
+    /**
+     * Maximum number of parsers in use per feature configuration. Defaults to 50.
+     */
+    public void setMaxActive(int maxActive) {
+        this.pool.setMaxActive(maxActive);
+    }
+
+    /**
+     * Maximum number of idle parsers kept per feature configuration. Defaults to 10.
+     */
+    public void setMaxIdle(int maxIdle) {
+        this.pool.setMaxIdle(maxIdle);
+    }
+
+    /**
+     * Maximum number of parsers in use or idle for all feature configurations. Defaults to 200.
+     */
+    public void setMaxTotal(int maxTotal) {
+        this.pool.setMaxTotal(maxTotal);
+    }
+
+    /**
+     * Seconds a parser may be idle before it is evicted from the pool. Defaults to 300.
+     */
+    public void setIdleTimeout(int idleTimeout) {
+        this.pool.setMinEvictableIdleTimeMillis(idleTimeout * 1000L);
+    }
+
+    /**
+     * Gets a parser configured with the specified features. The parser must be returned with
+     * {@link #returnParser(ParserFeatures, SAXParser)} once parsing is complete.
+     */
+    public SAXParser borrowParser(ParserFeatures features) {
+        this.borrowedCount.incrementAndGet();
+
+        try {
+            return (SAXParser)this.pool.borrowObject(features);
+        }
+        catch (NoSuchElementException nsee) {
+            if (log.isDebugEnabled()) {
+                log.debug("All pooled parsers for " + features + " are in use, creating an unpooled parser");
+            }
+            this.unpooledCount.incrementAndGet();
+            return configureParser(new UnpooledSAXParser(), features);
+        }
+        catch (Exception e) {
+            log.warn("Failed to borrow a parser for " + features + ", creating an unpooled parser", e);
+            this.unpooledCount.incrementAndGet();
+            return configureParser(new UnpooledSAXParser(), features);
+        }
+    }
+
+    /**
+     * Returns a parser obtained from {@link #borrowParser(ParserFeatures)} to the pool. Parsers
+     * created because the pool was exhausted are discarded.
+     */
+    public void returnParser(ParserFeatures features, SAXParser parser) {
+        if (parser instanceof UnpooledSAXParser) {
+            return;
+        }
+        
+        try {
+            this.pool.returnObject(features, parser);
+        }
+        catch (Exception e) {
+            log.warn("Failed to return parser for " + features + " to the pool", e);
+        }
+    }
+
+    /**
+     * @return The number of parsers currently in use
+     */
+    public int getNumActive() {
+        return this.pool.getNumActive();
+    }
+
+    /**
+     * @return The number of idle parsers in the pool
+     */
+    public int getNumIdle() {
+        return this.pool.getNumIdle();
+    }
+
+    /**
+     * @return The number of times a parser has been requested
+     */
+    public long getBorrowedCount() {
+        return this.borrowedCount.get();
+    }
+
+    /**
+     * @return The number of parsers created for the pool
+     */
+    public long getCreatedCount() {
+        return this.createdCount.get();
+    }
+
+    /**
+     * @return The number of parsers created outside of the pool because the pool was exhausted
+     */
+    public long getUnpooledCount() {
+        return this.unpooledCount.get();
+    }
+
+    /**
+     * Discards all idle parsers.
+     */
+    public void clear() {
+        this.pool.clear();
+    }
+
+    /**
+     * Discards all idle parsers and closes the pool, should be configured as the destroy method.
+     */
+    public void close() throws Exception {
+        this.pool.close();
+    }
+
+    /**
+     * Creates a new parser configured with the specified features.
+     */
+    public static SAXParser createParser(ParserFeatures features) {
+        return configureParser(new SAXParser(), features);
+    }
+
+    /**
+     * Sets the properties and features of the parser for the specified features, features that
+     * are changed per render are set to their defaults.
+     */
+    protected static SAXParser configureParser(SAXParser parser, ParserFeatures features) {
+        try {
+            parser.setProperty("http://cyberneko.org/html/properties/default-encoding", "UTF-8");
+            parser.setProperty("http://cyberneko.org/html/properties/names/elems", "match");
+            parser.setProperty("http://cyberneko.org/html/properties/names/attrs", "no-change");
+
+            parser.setFeature("http://cyberneko.org/html/features/report-errors", features.reportErrors);
+            parser.setFeature("http://cyberneko.org/html/features/insert-doctype", features.insertDoctype);
+            parser.setFeature("http://cyberneko.org/html/features/balance-tags", features.balanceTags);
+            parser.setFeature("http://cyberneko.org/html/features/scanner/script/strip-comment-delims", features.scriptStripComment);
+            parser.setFeature("http://cyberneko.org/html/features/scanner/style/strip-comment-delims", features.stripComments);
+
+            // AW (2008/09/03):  The 'strip-cdata-delims' feature removes CDATA 
+            // delimiters ('<![CDATA[' and ']]>') from <script> elements found 
+            // within the source DOM.  These delimiters are sometimes placed 
+            // there b/c JavaScript commonly contains characters that would need 
+            // escaping in XML.  The delimiters, conversely, break JavaScript in 
+            // HTML.  Since there is currently no forseeable scenario where these 
+            // delimiters should *not* be removed, we just set this option to 
+            // 'true.'  
+            parser.setFeature("http://cyberneko.org/html/features/scanner/script/strip-cdata-delims", true);
+
+            parser.setFeature("http://cyberneko.org/html/features/scanner/notify-builtin-refs", true);
+            parser.setFeature("http://apache.org/xml/features/scanner/notify-char-refs", true);
+            
+            parser.setFeature(IGNORE_SPECIFIED_CHARSET, false);
+        }
+        catch (SAXNotRecognizedException e) {
+            log.debug("SaxParser not recognized:  ", e);
+        }
+        catch (SAXNotSupportedException e) {
+            log.debug("SaxParser not supported:  ", e);
+        }
+
+        return parser;
+    }
+
+    private class SaxParserFactory extends BaseKeyedPoolableObjectFactory {
+        @Override
+        public Object makeObject(Object key) throws Exception {
+            createdCount.incrementAndGet();
+            return createParser((ParserFeatures)key);
+        }
+
+        /**
+         * Removes the handlers set by the last render so the idle parser doesn't reference the filter chain
+         * and resets the features and properties the render may have changed. The parser state itself is
+         * reset by Xerces at the start of each parse.
+         */
+        @Override
+        public void passivateObject(Object key, Object obj) throws Exception {
+            final SAXParser parser = (SAXParser)obj;
+            parser.setProperty(LEXICAL_HANDLER, null);
+            parser.setContentHandler(null);
+            parser.setDTDHandler(null);
+            parser.setErrorHandler(null);
+            parser.setEntityResolver(null);
+            
+            configureParser(parser, (ParserFeatures)key);
+        }
+    }
+
+    /**
+     * Parser created when all pooled parsers for a configuration are in use, never returned to the pool.
+     */
+    private static final class UnpooledSAXParser extends SAXParser {
+    }
+
+    /**
+     * The feature configuration of a parser, used as the pool key.
+     */
+    public static final class ParserFeatures {
+        private final boolean reportErrors;
+        private final boolean insertDoctype;
+        private final boolean balanceTags;
+        private final boolean scriptStripComment;
+        private final boolean stripComments;
+
+        public ParserFeatures(boolean reportErrors, boolean insertDoctype, boolean balanceTags, boolean scriptStripComment, boolean stripComments) {
+            this.reportErrors = reportErrors;
+            this.insertDoctype = insertDoctype;
+            this.balanceTags = balanceTags;
+            this.scriptStripComment = scriptStripComment;
+            this.stripComments = stripComments;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.reportErrors ? 1 : 0;
+            hash = (hash << 1) | (this.insertDoctype ? 1 : 0);
+            hash = (hash << 1) | (this.balanceTags ? 1 : 0);
+            hash = (hash << 1) | (this.scriptStripComment ? 1 : 0);
+            hash = (hash << 1) | (this.stripComments ? 1 : 0);
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof ParserFeatures)) {
+                return false;
+            }
+
+            final ParserFeatures other = (ParserFeatures)obj;
+            return this.reportErrors == other.reportErrors
+                && this.insertDoctype == other.insertDoctype
+                && this.balanceTags == other.balanceTags
+                && this.scriptStripComment == other.scriptStripComment
+                && this.stripComments == other.stripComments;
+        }
+
+        @Override
+        public String toString() {
+            return "ParserFeatures[reportErrors=" + this.reportErrors
+                + ", insertDoctype=" + this.insertDoctype
+                + ", balanceTags=" + this.balanceTags
+                + ", scriptStripComment=" + this.scriptStripComment
+                + ", stripComments=" + this.stripComments + "]";
+        }
+    }
+}
@@ -0,0 +1,852 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.portlet.RenderRequest;
+import javax.portlet.RenderResponse;
+
+import edu.wisc.my.webproxy.portlet.WebproxyConstants;
+
+/**
+ * Rewrites the URL attributes of a document with the URL filters of a SaxFilterBean list
+ * without parsing it into SAX events. The document is tokenized as it is read, the URL
+ * attributes of start tags are rewritten in place and everything else, including markup
+ * the HTML parser would balance or normalize, is copied unchanged. Forms are changed the
+ * same way {@link BaseUrlFilter} changes them. Only lists of {@link BaseUrlFilter}s and
+ * disabled {@link ClippingFilter}s can be streamed, see {@link #canStream(List)}.
+ * <p>
+ * A rewriter created with XML URL attributes treats the document as XML, element and
+ * attribute names are case sensitive, there are no raw text elements, forms are not changed
+ * and the URL attributes are configured for the rewriter instead of coming from the element
+ * maps of the URL filters.
+ * 
+ * @version $Revision$
+ */
+public class StreamingHtmlRewriter {
+    private static final int BUFFER_SIZE = 8192;
+    
+    //Elements whose content is not markup
+    private static final Set<String> RAW_TEXT_ELEMENTS = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+    static {
+        RAW_TEXT_ELEMENTS.add("script");
+        RAW_TEXT_ELEMENTS.add("style");
+        RAW_TEXT_ELEMENTS.add("textarea");
+        RAW_TEXT_ELEMENTS.add("title");
+        RAW_TEXT_ELEMENTS.add("xmp");
+    }
+    
+    private static final String GET_METHOD_INPUT = "<input type=\"HIDDEN\" name=\"" + WebproxyConstants.UNIQUE_CONSTANT + ".getMethod\" value=\"GET\">";
+    
+    private final BaseUrlFilter[] urlFilters;
+    
+    //URL attributes by element name for XML documents, null for HTML documents
+    private final Map<String, Set<String>> xmlUrlAttributes;
+    
+    //Per filter attribute sets and pass through flags for the current element
+    private final Set<String>[] elementAttributes;
+    private final boolean[] passThrough;
+    
+    private final char[] readBuffer = new char[BUFFER_SIZE];
+    private int readPosition = 0;
+    private int readLength = 0;
+    private Reader in;
+    
+    private final char[] writeBuffer = new char[BUFFER_SIZE];
+    private int writeLength = 0;
+    private Writer out;
+    
+    //The current tag and the offsets of its attributes in the tag, values exclude quotes
+    private final StringBuilder tag = new StringBuilder(256);
+    private int nameEnd;
+    private int attributesEnd;
+    private int attributeCount;
+    private int[] attributeNameStart = new int[16];
+    private int[] attributeNameEnd = new int[16];
+    private int[] attributeValueStart = new int[16];
+    private int[] attributeValueEnd = new int[16];
+    private boolean[] attributeQuoted = new boolean[16];
+    private String[] attributeReplacements = new String[16];
+
+    /**
+     * @param saxFilters The filters in SaxFilterBean order, the last filter in the list is executed first
+     * @throws IllegalArgumentException If the filters can't be streamed
+     */
+    public StreamingHtmlRewriter(List<?> saxFilters) {
+        this(getUrlFilters(saxFilters));
+    }
+    
+    /**
+     * @param urlFilters The URL filters in execution order
+     */
+    public StreamingHtmlRewriter(BaseUrlFilter[] urlFilters) {
+        this(urlFilters, null);
+    }
+    
+    /**
+     * @param urlFilters The URL filters in execution order
+     * @param xmlUrlAttributes If not null the document is rewritten as XML, the URL attributes by element name with '*' for elements that aren't listed. The attributes are rewritten by every filter as the URLs of pass through elements.
+     */
+    @SuppressWarnings("unchecked")
+    public StreamingHtmlRewriter(BaseUrlFilter[] urlFilters, Map<String, Set<String>> xmlUrlAttributes) {
+        this.urlFilters = urlFilters;
+        this.xmlUrlAttributes = xmlUrlAttributes;
+        this.elementAttributes = new Set[this.urlFilters.length];
+        this.passThrough = new boolean[this.urlFilters.length];
+    }
+    
+    private static BaseUrlFilter[] getUrlFilters(List<?> saxFilters) {
+        if (!canStream(saxFilters)) {
+            throw new IllegalArgumentException("Filters can't be streamed: " + saxFilters);
+        }
+        
+        return BaseUrlFilter.getUrlFilters(saxFilters);
+    }
+    
+    /**
+     * @param saxFilters The filters in SaxFilterBean order
+     * @return true if the list only contains {@link BaseUrlFilter}s and {@link ClippingFilter}s, the
+     *         caller must make sure clipping is disabled
+     */
+    public static boolean canStream(List<?> saxFilters) {
+        for (final Object filter : saxFilters) {
+            if (!(filter instanceof BaseUrlFilter) && !(filter instanceof ClippingFilter)) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    public void setRenderData(RenderRequest request, RenderResponse response) {
+        for (final BaseUrlFilter urlFilter : this.urlFilters) {
+            urlFilter.setRenderData(request, response);
+        }
+    }
+    
+    public void clearData() {
+        for (final BaseUrlFilter urlFilter : this.urlFilters) {
+            urlFilter.clearData();
+        }
+        
+        this.in = null;
+        this.out = null;
+        this.readPosition = 0;
+        this.readLength = 0;
+        this.writeLength = 0;
+        this.tag.setLength(0);
+    }
+    
+    /**
+     * Copies the document from the reader to the writer rewriting the URL attributes. The
+     * writer is flushed but not closed.
+     */
+    public void rewrite(Reader in, Writer out) throws IOException {
+        this.in = in;
+        this.out = out;
+        
+        int c;
+        while ((c = this.copyText()) >= 0) {
+            //c is the '<' that starts markup
+            final int next = this.read();
+            if (next < 0) {
+                this.write('<');
+                break;
+            }
+            
+            if (isLetter(next)) {
+                this.tag.setLength(0);
+                this.tag.append('<').append((char)next);
+                final boolean complete = this.readStartTag();
+                
+                final String qName = this.tag.substring(1, this.nameEnd);
+                if (!complete) {
+                    this.writeTag(0, this.tag.length());
+                    break;
+                }
+                
+                this.writeStartTag(qName);
+                
+                if (this.xmlUrlAttributes == null && RAW_TEXT_ELEMENTS.contains(qName)) {
+                    this.copyRawText(qName);
+                }
+            }
+            else if (next == '!') {
+                this.write('<');
+                this.write('!');
+                if (this.read('-')) {
+                    this.write('-');
+                    if (this.read('-')) {
+                        this.write('-');
+                        this.copyComment();
+                    }
+                    else {
+                        this.copyThroughTagEnd();
+                    }
+                }
+                else if (this.readThrough("[CDATA[")) {
+                    //CDATA sections may contain '>' and are copied up to "]]>"
+                    this.copyCData();
+                }
+                else {
+                    this.copyThroughTagEnd();
+                }
+            }
+            else if (next == '?' && this.xmlUrlAttributes != null) {
+                //Processing instructions end with "?>" and may contain '>'
+                this.write("<?");
+                this.copyProcessingInstruction();
+            }
+            else if (next == '/' || next == '?') {
+                this.write('<');
+                this.write((char)next);
+                this.copyThroughTagEnd();
+            }
+            else {
+                //A '<' that does not start markup
+                this.write('<');
+                this.unread();
+            }
+        }
+        
+        this.flushBuffer();
+        out.flush();
+    }
+    
+    /**
+     * Reads the rest of a start tag into the tag buffer and records the attribute offsets,
+     * the closing '>' is consumed but not added to the buffer.
+     * 
+     * @return false if the document ended before the tag was closed
+     */
+    private boolean readStartTag() throws IOException {
+        this.attributeCount = 0;
+        
+        int c = this.read();
+        while (c >= 0 && !isWhitespace(c) && c != '/' && c != '>') {
+            this.tag.append((char)c);
+            c = this.read();
+        }
+        this.nameEnd = this.tag.length();
+        this.attributesEnd = this.nameEnd;
+        
+        while (true) {
+            //Skip whitespace and stray slashes between attributes
+            while (c >= 0 && (isWhitespace(c) || c == '/')) {
+                this.tag.append((char)c);
+                c = this.read();
+            }
+            if (c < 0) {
+                return false;
+            }
+            if (c == '>') {
+                return true;
+            }
+            
+            final int attribute = this.addAttribute();
+            this.attributeNameStart[attribute] = this.tag.length();
+            do {
+                this.tag.append((char)c);
+                c = this.read();
+            } while (c >= 0 && !isWhitespace(c) && c != '/' && c != '>' && c != '=');
+            this.attributeNameEnd[attribute] = this.tag.length();
+            this.attributeValueStart[attribute] = -1;
+            this.attributesEnd = this.tag.length();
+            
+            //Look for a value after the name
+            while (c >= 0 && isWhitespace(c)) {
+                this.tag.append((char)c);
+                c = this.read();
+            }
+            if (c != '=') {
+                continue;
+            }
+            
+            this.tag.append('=');
+            c = this.read();
+            while (c >= 0 && isWhitespace(c)) {
+                this.tag.append((char)c);
+                c = this.read();
+            }
+            if (c < 0) {
+                return false;
+            }
+            
+            if (c == '"' || c == '\'') {
+                final int quote = c;
+                this.tag.append((char)c);
+                this.attributeValueStart[attribute] = this.tag.length();
+                c = this.read();
+                while (c >= 0 && c != quote) {
+                    this.tag.append((char)c);
+                    c = this.read();
+                }
+                if (c < 0) {
+                    return false;
+                }
+                this.attributeValueEnd[attribute] = this.tag.length();
+                this.attributeQuoted[attribute] = true;
+                this.tag.append((char)c);
+                c = this.read();
+            }
+            else if (c != '>') {
+                this.attributeValueStart[attribute] = this.tag.length();
+                while (c >= 0 && !isWhitespace(c) && c != '>') {
+                    //In XML a "/>" after an unquoted value closes an empty element
+                    if (c == '/' && this.xmlUrlAttributes != null && this.peek() == '>') {
+                        break;
+                    }
+                    this.tag.append((char)c);
+                    c = this.read();
+                }
+                this.attributeValueEnd[attribute] = this.tag.length();
+                this.attributeQuoted[attribute] = false;
+            }
+            
+            this.attributesEnd = this.tag.length();
+        }
+    }
+    
+    /**
+     * Writes the start tag in the tag buffer, rewriting URL attributes and fixing forms.
+     */
+    private void writeStartTag(String qName) throws IOException {
+        final boolean form = this.xmlUrlAttributes == null && "FORM".equalsIgnoreCase(qName);
+        
+        boolean hasUrlAttributes = false;
+        if (this.xmlUrlAttributes != null) {
+            Set<String> attributes = this.xmlUrlAttributes.get(qName);
+            if (attributes == null) {
+                attributes = this.xmlUrlAttributes.get("*");
+            }
+            
+            for (int filterIndex = 0; filterIndex < this.urlFilters.length; filterIndex++) {
+                this.elementAttributes[filterIndex] = attributes;
+                this.passThrough[filterIndex] = true;
+            }
+            hasUrlAttributes = (attributes != null);
+        }
+        else {
+            for (int filterIndex = 0; filterIndex < this.urlFilters.length; filterIndex++) {
+                final BaseUrlFilter urlFilter = this.urlFilters[filterIndex];
+                final Set<String> attributes = urlFilter.getUrlAttributes(qName);
+                
+                this.elementAttributes[filterIndex] = attributes;
+                if (attributes != null) {
+                    this.passThrough[filterIndex] = urlFilter.isPassThroughElement(qName);
+                    hasUrlAttributes = true;
+                }
+            }
+        }
+        
+        if (!hasUrlAttributes && !form) {
+            this.writeTag(0, this.tag.length());
+            this.write('>');
+            return;
+        }
+        
+        boolean changed = false;
+        int actionIndex = -1;
+        int methodIndex = -1;
+        for (int index = 0; index < this.attributeCount; index++) {
+            this.attributeReplacements[index] = null;
+            final String attrName = this.tag.substring(this.attributeNameStart[index], this.attributeNameEnd[index]);
+            
+            if (form) {
+                if ("ACTION".equalsIgnoreCase(attrName)) {
+                    actionIndex = index;
+                }
+                else if ("METHOD".equalsIgnoreCase(attrName)) {
+                    methodIndex = index;
+                }
+            }
+            
+            final String attrValue = this.getAttributeValue(index);
+            if (attrValue == null) {
+                continue;
+            }
+            
+            final String newValue = this.rewriteAttribute(attrName, attrValue);
+            if (newValue != attrValue) {
+                this.attributeReplacements[index] = newValue;
+                changed = true;
+            }
+        }
+        
+        //Forms are always submitted with a POST, see BaseUrlFilter.fixFormAttributes
+        String addedAttributes = null;
+        boolean getMethod = false;
+        if (form) {
+            if (methodIndex != -1) {
+                final String method = this.getAttributeValue(methodIndex);
+                getMethod = "GET".equalsIgnoreCase(method);
+                if (!"POST".equals(method)) {
+                    this.attributeReplacements[methodIndex] = "POST";
+                    changed = true;
+                }
+            }
+            else {
+                addedAttributes = " method=\"POST\"";
+                getMethod = true;
+            }
+            
+            if (actionIndex == -1) {
+                final String action = escapeAttribute(this.rewriteAttribute("ACTION", "/"));
+                addedAttributes = (addedAttributes != null ? addedAttributes : "") + " ACTION=\"" + action + "\"";
+            }
+        }
+        
+        if (!changed && addedAttributes == null) {
+            this.writeTag(0, this.tag.length());
+        }
+        else {
+            int copied = 0;
+            for (int index = 0; index < this.attributeCount; index++) {
+                final String replacement = this.attributeReplacements[index];
+                if (replacement == null) {
+                    continue;
+                }
+                
+                final int valueStart = this.attributeValueStart[index];
+                final int valueEnd = this.attributeValueEnd[index];
+                if (valueStart < 0) {
+                    this.writeTag(copied, this.attributeNameEnd[index]);
+                    this.write('=');
+                    copied = this.attributeNameEnd[index];
+                }
+                else if (this.attributeQuoted[index]) {
+                    this.writeTag(copied, valueStart - 1);
+                    copied = valueEnd + 1;
+                }
+                else {
+                    this.writeTag(copied, valueStart);
+                    copied = valueEnd;
+                }
+                
+                this.write('"');
+                this.write(escapeAttribute(replacement));
+                this.write('"');
+            }
+            
+            if (addedAttributes != null) {
+                this.writeTag(copied, this.attributesEnd);
+                this.write(addedAttributes);
+                copied = this.attributesEnd;
+            }
+            
+            this.writeTag(copied, this.tag.length());
+        }
+        this.write('>');
+        
+        if (getMethod) {
+            this.write(GET_METHOD_INPUT);
+        }
+    }
+    
+    /**
+     * Passes the value through the URL filters that rewrite the attribute, in execution order.
+     * 
+     * @return The rewritten value, the same instance if it was not changed
+     */
+    private String rewriteAttribute(String attrName, String attrValue) {
+        String newValue = attrValue;
+        for (int filterIndex = 0; filterIndex < this.urlFilters.length; filterIndex++) {
+            final Set<String> attributes = this.elementAttributes[filterIndex];
+            if (attributes != null && attributes.contains(attrName)) {
+                newValue = this.urlFilters[filterIndex].rewriteAttribute(newValue, this.passThrough[filterIndex]);
+            }
+        }
+        return newValue;
+    }
+    
+    /**
+     * @return The decoded value of the attribute, null if it has no value
+     */
+    private String getAttributeValue(int index) {
+        final int valueStart = this.attributeValueStart[index];
+        if (valueStart < 0) {
+            return null;
+        }
+        
+        final String value = this.tag.substring(valueStart, this.attributeValueEnd[index]);
+        return (value.indexOf('&') < 0 ? value : decodeReferences(value));
+    }
+    
+    private int addAttribute() {
+        if (this.attributeCount == this.attributeNameStart.length) {
+            final int length = this.attributeCount * 2;
+            this.attributeNameStart = copyOf(this.attributeNameStart, length);
+            this.attributeNameEnd = copyOf(this.attributeNameEnd, length);
+            this.attributeValueStart = copyOf(this.attributeValueStart, length);
+            this.attributeValueEnd = copyOf(this.attributeValueEnd, length);
+            
+            final boolean[] quoted = new boolean[length];
+            System.arraycopy(this.attributeQuoted, 0, quoted, 0, this.attributeCount);
+            this.attributeQuoted = quoted;
+            
+            final String[] replacements = new String[length];
+            System.arraycopy(this.attributeReplacements, 0, replacements, 0, this.attributeCount);
+            this.attributeReplacements = replacements;
+        }
+        
+        return this.attributeCount++;
+    }
+    
+    /**
+     * Copies text up to the next '<'.
+     * 
+     * @return '<' or -1 if the document ended
+     */
+    private int copyText() throws IOException {
+        while (true) {
+            if (this.readPosition == this.readLength && !this.fill()) {
+                return -1;
+            }
+            
+            final int start = this.readPosition;
+            while (this.readPosition < this.readLength) {
+                if (this.readBuffer[this.readPosition] == '<') {
+                    this.write(this.readBuffer, start, this.readPosition - start);
+                    this.readPosition++;
+                    return '<';
+                }
+                this.readPosition++;
+            }
+            this.write(this.readBuffer, start, this.readPosition - start);
+        }
+    }
+    
+    /**
+     * Copies the content of a raw text element and its end tag.
+     */
+    private void copyRawText(String qName) throws IOException {
+        while (this.copyText() >= 0) {
+            this.write('<');
+            if (!this.read('/')) {
+                continue;
+            }
+            this.write('/');
+            
+            //Check for the end tag of the element
+            int matched = 0;
+            int c = this.read();
+            while (c >= 0 && matched < qName.length() && Character.toLowerCase((char)c) == Character.toLowerCase(qName.charAt(matched))) {
+                this.write((char)c);
+                matched++;
+                c = this.read();
+            }
+            if (c >= 0) {
+                this.unread();
+            }
+            
+            if (matched == qName.length() && (c < 0 || c == '>' || c == '/' || isWhitespace(c))) {
+                this.copyThroughTagEnd();
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Copies characters up to and including the next '>'.
+     */
+    private void copyThroughTagEnd() throws IOException {
+        int c;
+        while ((c = this.read()) >= 0) {
+            this.write((char)c);
+            if (c == '>') {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Copies characters as long as they match the expected string.
+     * 
+     * @return true if the whole string was matched
+     */
+    private boolean readThrough(String expected) throws IOException {
+        for (int index = 0; index < expected.length(); index++) {
+            if (!this.read(expected.charAt(index))) {
+                return false;
+            }
+            this.write(expected.charAt(index));
+        }
+        return true;
+    }
+    
+    /**
+     * Copies the rest of a CDATA section up to and including the closing "]]>".
+     */
+    private void copyCData() throws IOException {
+        int brackets = 0;
+        int c;
+        while ((c = this.read()) >= 0) {
+            this.write((char)c);
+            if (c == '>' && brackets >= 2) {
+                return;
+            }
+            brackets = (c == ']' ? brackets + 1 : 0);
+        }
+    }
+    
+    /**
+     * Copies the rest of a processing instruction up to and including the closing "?>".
+     */
+    private void copyProcessingInstruction() throws IOException {
+        boolean question = false;
+        int c;
+        while ((c = this.read()) >= 0) {
+            this.write((char)c);
+            if (c == '>' && question) {
+                return;
+            }
+            question = (c == '?');
+        }
+    }
+    
+    /**
+     * Copies the rest of a comment up to and including the closing "-->".
+     */
+    private void copyComment() throws IOException {
+        int dashes = 0;
+        int c;
+        while ((c = this.read()) >= 0) {
+            this.write((char)c);
+            if (c == '>' && dashes >= 2) {
+                return;
+            }
+            dashes = (c == '-' ? dashes + 1 : 0);
+        }
+    }
+    
+    private boolean fill() throws IOException {
+        final int read = this.in.read(this.readBuffer, 0, this.readBuffer.length);
+        if (read <= 0) {
+            this.readPosition = 0;
+            this.readLength = 0;
+            return false;
+        }
+        
+        this.readPosition = 0;
+        this.readLength = read;
+        return true;
+    }
+    
+    private int read() throws IOException {
+        if (this.readPosition == this.readLength && !this.fill()) {
+            return -1;
+        }
+        
+        return this.readBuffer[this.readPosition++];
+    }
+    
+    private int peek() throws IOException {
+        final int c = this.read();
+        if (c >= 0) {
+            this.unread();
+        }
+        return c;
+    }
+    
+    /**
+     * Reads the next character if it is the expected one.
+     */
+    private boolean read(char expected) throws IOException {
+        final int c = this.read();
+        if (c == expected) {
+            return true;
+        }
+        if (c >= 0) {
+            this.unread();
+        }
+        return false;
+    }
+    
+    /**
+     * Pushes back the last character read, always possible since the buffer is only refilled when empty.
+     */
+    private void unread() {
+        this.readPosition--;
+    }
+    
+    private void write(char c) throws IOException {
+        if (this.writeLength == this.writeBuffer.length) {
+            this.flushBuffer();
+        }
+        this.writeBuffer[this.writeLength++] = c;
+    }
+    
+    private void write(char[] chars, int start, int length) throws IOException {
+        if (length > this.writeBuffer.length - this.writeLength) {
+            this.flushBuffer();
+            if (length > this.writeBuffer.length) {
+                this.out.write(chars, start, length);
+                return;
+            }
+        }
+        System.arraycopy(chars, start, this.writeBuffer, this.writeLength, length);
+        this.writeLength += length;
+    }
+    
+    private void write(String str) throws IOException {
+        final int length = str.length();
+        if (length > this.writeBuffer.length - this.writeLength) {
+            this.flushBuffer();
+            if (length > this.writeBuffer.length) {
+                this.out.write(str);
+                return;
+            }
+        }
+        str.getChars(0, length, this.writeBuffer, this.writeLength);
+        this.writeLength += length;
+    }
+    
+    /**
+     * Writes part of the tag buffer.
+     */
+    private void writeTag(int start, int end) throws IOException {
+        final int length = end - start;
+        if (length > this.writeBuffer.length - this.writeLength) {
+            this.flushBuffer();
+            if (length > this.writeBuffer.length) {
+                this.out.write(this.tag.substring(start, end));
+                return;
+            }
+        }
+        this.tag.getChars(start, end, this.writeBuffer, this.writeLength);
+        this.writeLength += length;
+    }
+    
+    private void flushBuffer() throws IOException {
+        if (this.writeLength > 0) {
+            this.out.write(this.writeBuffer, 0, this.writeLength);
+            this.writeLength = 0;
+        }
+    }
+    
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+    
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+    
+    private static int[] copyOf(int[] array, int length) {
+        final int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+    
+    /**
+     * Decodes the character references the HTML parser would decode in a URL attribute.
+     */
+    static String decodeReferences(String value) {
+        final StringBuilder decoded = new StringBuilder(value.length());
+        
+        int index = 0;
+        while (index < value.length()) {
+            final char c = value.charAt(index);
+            final int end = (c == '&' ? value.indexOf(';', index) : -1);
+            if (end < 0 || end - index > 10) {
+                decoded.append(c);
+                index++;
+                continue;
+            }
+            
+            final String reference = value.substring(index + 1, end);
+            int decodedChar = -1;
+            if ("amp".equals(reference)) {
+                decodedChar = '&';
+            }
+            else if ("lt".equals(reference)) {
+                decodedChar = '<';
+            }
+            else if ("gt".equals(reference)) {
+                decodedChar = '>';
+            }
+            else if ("quot".equals(reference)) {
+                decodedChar = '"';
+            }
+            else if ("apos".equals(reference)) {
+                decodedChar = '\'';
+            }
+            else if (reference.startsWith("#")) {
+                try {
+                    if (reference.startsWith("#x") || reference.startsWith("#X")) {
+                        decodedChar = Integer.parseInt(reference.substring(2), 16);
+                    }
+                    else {
+                        decodedChar = Integer.parseInt(reference.substring(1));
+                    }
+                }
+                catch (NumberFormatException nfe) {
+                    decodedChar = -1;
+                }
+            }
+            
+            if (decodedChar < 0 || !Character.isValidCodePoint(decodedChar)) {
+                decoded.append(c);
+                index++;
+            }
+            else {
+                decoded.appendCodePoint(decodedChar);
+                index = end + 1;
+            }
+        }
+        
+        return decoded.toString();
+    }
+    
+    /**
+     * Escapes a value written in a double quoted attribute, '<' is escaped so the value is
+     * also valid in XML documents.
+     */
+    static String escapeAttribute(String value) {
+        if (value.indexOf('&') < 0 && value.indexOf('"') < 0 && value.indexOf('<') < 0) {
+            return value;
+        }
+        
+        final StringBuilder escaped = new StringBuilder(value.length() + 16);
+        for (int index = 0; index < value.length(); index++) {
+            final char c = value.charAt(index);
+            if (c == '&') {
+                escaped.append("&amp;");
+            }
+            else if (c == '"') {
+                escaped.append("&quot;");
+            }
+            else if (c == '<') {
+                escaped.append("&lt;");
+            }
+            else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites the URL attributes of XML documents with a {@link StreamingHtmlRewriter} in XML mode
+ * and copies the rest of the document unchanged, the HTML parser would treat the elements as HTML.
+ * The element maps of the URL filters describe HTML elements so the URL attributes of XML
+ * documents are configured separately, they are rewritten like the URLs of pass through elements.
+ * 
+ * @version $Revision$
+ */
+public class XmlContentProcessor implements ContentProcessor {
+    private Map<String, Set<String>> urlAttributes = Collections.emptyMap();
+    
+    /**
+     * @param urlAttributes The URL attributes by element name, '*' lists the attributes of elements that aren't listed. Names are case sensitive.
+     */
+    public void setUrlAttributes(Map<String, Set<String>> urlAttributes) {
+        this.urlAttributes = new HashMap<String, Set<String>>(urlAttributes);
+    }
+
+    public void process(Reader in, Writer out, BaseUrlFilter[] urlFilters) throws IOException {
+        final StreamingHtmlRewriter rewriter = new StreamingHtmlRewriter(urlFilters, this.urlAttributes);
+        rewriter.rewrite(in, out);
+    }
+}
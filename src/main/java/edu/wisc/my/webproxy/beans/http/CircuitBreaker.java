@@ -0,0 +1,203 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.http;
+
+/**
+ * Tracks the outcome of recent requests to a single origin and stops requests from being
+ * made while the origin is failing. The breaker opens when the failure or slow call rate
+ * of the last requests crosses the thresholds configured on the {@link CircuitBreakerRegistry},
+ * after the open duration passes a limited number of trial requests are let through and
+ * the breaker closes again if they all succeed.
+ *
+ * @version $Revision$
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String origin;
+    private final CircuitBreakerRegistry config;
+
+    //Ring buffer of the most recent outcomes while closed
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int callIndex = 0;
+    private int callCount = 0;
+    private int failedCount = 0;
+    private int slowCount = 0;
+
+    private State state = State.CLOSED;
+    //Incremented on every state change so calls started in an earlier state are not counted
+    private long generation = 0;
+    private long openedAt = 0;
+    private long lastRequest = System.currentTimeMillis();
+    private int trialsStarted = 0;
+    private int trialsSucceeded = 0;
+    private long timesOpened = 0;
+    private long rejectedCalls = 0;
+
+    public CircuitBreaker(String origin, CircuitBreakerRegistry config) {
+        this.origin = origin;
+        this.config = config;
+        this.failedCalls = new boolean[config.getWindowSize()];
+        this.slowCalls = new boolean[config.getWindowSize()];
+    }
+
+    public String getOrigin() {
+        return this.origin;
+    }
+
+    /**
+     * @return The generation to pass to {@link #recordCall(long, boolean, long)} if a request may be made to the origin, -1 if it may not
+     */
+    public synchronized long allowRequest() {
+        final long now = System.currentTimeMillis();
+        this.lastRequest = now;
+        
+        if (this.state == State.OPEN) {
+            if (now - this.openedAt < this.config.getOpenDuration() * 1000L) {
+                this.rejectedCalls++;
+                return -1;
+            }
+
+            this.state = State.HALF_OPEN;
+            this.generation++;
+            this.trialsStarted = 0;
+            this.trialsSucceeded = 0;
+        }
+
+        if (this.state == State.HALF_OPEN) {
+            if (this.trialsStarted >= this.config.getHalfOpenTrials()) {
+                this.rejectedCalls++;
+                return -1;
+            }
+
+            this.trialsStarted++;
+        }
+
+        return this.generation;
+    }
+
+    /**
+     * Records the outcome of a request that was allowed by {@link #allowRequest()}, outcomes of
+     * requests started before the breaker last changed state are ignored.
+     *
+     * @param generation The generation returned by {@link #allowRequest()} when the request was started
+     * @param failed If the request failed
+     * @param duration How long the request took in milliseconds
+     */
+    public synchronized void recordCall(long generation, boolean failed, long duration) {
+        if (generation != this.generation) {
+            return;
+        }
+        
+        final boolean slow = duration >= this.config.getSlowCallDuration();
+
+        switch (this.state) {
+            case HALF_OPEN: {
+                if (failed || slow) {
+                    this.open();
+                }
+                else if (++this.trialsSucceeded >= this.config.getHalfOpenTrials()) {
+                    this.close();
+                }
+            }
+            break;
+
+            case CLOSED: {
+                if (this.callCount == this.failedCalls.length) {
+                    if (this.failedCalls[this.callIndex]) {
+                        this.failedCount--;
+                    }
+                    if (this.slowCalls[this.callIndex]) {
+                        this.slowCount--;
+                    }
+                }
+                else {
+                    this.callCount++;
+                }
+
+                this.failedCalls[this.callIndex] = failed;
+                this.slowCalls[this.callIndex] = slow;
+                if (failed) {
+                    this.failedCount++;
+                }
+                if (slow) {
+                    this.slowCount++;
+                }
+                this.callIndex = (this.callIndex + 1) % this.failedCalls.length;
+
+                if (this.callCount >= this.config.getMinimumCalls()
+                        && (this.failedCount * 100 >= this.config.getFailureRateThreshold() * this.callCount
+                        || this.slowCount * 100 >= this.config.getSlowCallRateThreshold() * this.callCount)) {
+                    this.open();
+                }
+            }
+            break;
+
+            default: {
+                //No calls are allowed while open
+            }
+        }
+    }
+
+    /**
+     * Closes the breaker and clears the recorded outcomes.
+     */
+    public synchronized void reset() {
+        this.close();
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    /**
+     * @return When a request to the origin was last attempted
+     */
+    public synchronized long getLastRequest() {
+        return this.lastRequest;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.origin + " " + this.state
+            + " calls=" + this.callCount
+            + " failed=" + this.failedCount
+            + " slow=" + this.slowCount
+            + " timesOpened=" + this.timesOpened
+            + " rejected=" + this.rejectedCalls;
+    }
+
+    private void open() {
+        this.state = State.OPEN;
+        this.generation++;
+        this.openedAt = System.currentTimeMillis();
+        this.timesOpened++;
+    }
+
+    private void close() {
+        this.state = State.CLOSED;
+        this.generation++;
+        this.callIndex = 0;
+        this.callCount = 0;
+        this.failedCount = 0;
+        this.slowCount = 0;
+    }
+}
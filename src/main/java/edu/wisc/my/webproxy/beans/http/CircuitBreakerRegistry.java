@@ -0,0 +1,277 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.http;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the {@link CircuitBreaker} for each origin (scheme://host:port) requests are made
+ * to along with the thresholds they use. Exported over JMX so the state of each breaker
+ * can be monitored and breakers can be reset. The number of breakers is bounded, breakers
+ * for origins that have not been requested recently are dropped first.
+ *
+ * @version $Revision$
+ */
+public class CircuitBreakerRegistry {
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private int windowSize = 20;
+    private int minimumCalls = 10;
+    private int failureRateThreshold = 50;
+    private int slowCallRateThreshold = 100;
+    private long slowCallDuration = 30000;
+    private int openDuration = 30;
+    private int halfOpenTrials = 3;
+    private int maxCircuitBreakers = 1000;
+    private int idleTimeout = 3600;
+
+    /**
+     * Number of recent requests the failure and slow call rates are calculated over, defaults to 20.
+     */
+    public int getWindowSize() {
+        return this.windowSize;
+    }
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Number of requests that must be recorded before the breaker can open, defaults to 10.
+     */
+    public int getMinimumCalls() {
+        return this.minimumCalls;
+    }
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    /**
+     * Percentage of failed requests that opens the breaker, defaults to 50.
+     */
+    public int getFailureRateThreshold() {
+        return this.failureRateThreshold;
+    }
+    public void setFailureRateThreshold(int failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * Percentage of slow requests that opens the breaker, defaults to 100.
+     */
+    public int getSlowCallRateThreshold() {
+        return this.slowCallRateThreshold;
+    }
+    public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * Milliseconds after which a request is considered slow, defaults to 30000.
+     */
+    public long getSlowCallDuration() {
+        return this.slowCallDuration;
+    }
+    public void setSlowCallDuration(long slowCallDuration) {
+        this.slowCallDuration = slowCallDuration;
+    }
+
+    /**
+     * Seconds an open breaker rejects requests before letting trial requests through, defaults to 30.
+     */
+    public int getOpenDuration() {
+        return this.openDuration;
+    }
+    public void setOpenDuration(int openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Number of trial requests that must succeed to close the breaker again, defaults to 3.
+     */
+    public int getHalfOpenTrials() {
+        return this.halfOpenTrials;
+    }
+    public void setHalfOpenTrials(int halfOpenTrials) {
+        this.halfOpenTrials = halfOpenTrials;
+    }
+
+    /**
+     * Maximum number of origins to track breakers for, defaults to 1000.
+     */
+    public int getMaxCircuitBreakers() {
+        return this.maxCircuitBreakers;
+    }
+    public void setMaxCircuitBreakers(int maxCircuitBreakers) {
+        this.maxCircuitBreakers = maxCircuitBreakers;
+    }
+
+    /**
+     * Seconds since the last request after which a breaker is dropped when the maximum number
+     * of breakers is reached, defaults to 3600.
+     */
+    public int getIdleTimeout() {
+        return this.idleTimeout;
+    }
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return The number of origins breakers are tracked for
+     */
+    public int getCircuitBreakerCount() {
+        return this.circuitBreakers.size();
+    }
+
+    /**
+     * Gets the breaker for the origin of the URI, creating it if needed.
+     */
+    public CircuitBreaker getCircuitBreaker(URI uri) {
+        final String origin = getOrigin(uri);
+
+        CircuitBreaker circuitBreaker = this.circuitBreakers.get(origin);
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker(origin, this);
+
+            final CircuitBreaker existing = this.circuitBreakers.putIfAbsent(origin, circuitBreaker);
+            if (existing != null) {
+                circuitBreaker = existing;
+            }
+            else if (this.circuitBreakers.size() > this.maxCircuitBreakers) {
+                this.evictCircuitBreakers(circuitBreaker);
+            }
+        }
+
+        return circuitBreaker;
+    }
+
+    /**
+     * @return The state of all breakers
+     */
+    public String[] getCircuitStates() {
+        final List<String> states = new ArrayList<String>(this.circuitBreakers.size());
+        for (final CircuitBreaker circuitBreaker : this.circuitBreakers.values()) {
+            states.add(circuitBreaker.toString());
+        }
+        return states.toArray(new String[states.size()]);
+    }
+
+    /**
+     * @return The origins of all breakers that are not closed
+     */
+    public String[] getOpenCircuits() {
+        final List<String> origins = new ArrayList<String>();
+        for (final CircuitBreaker circuitBreaker : this.circuitBreakers.values()) {
+            if (circuitBreaker.getState() != CircuitBreaker.State.CLOSED) {
+                origins.add(circuitBreaker.getOrigin());
+            }
+        }
+        return origins.toArray(new String[origins.size()]);
+    }
+
+    /**
+     * Closes the breaker for the specified origin
+     *
+     * @param origin The origin in the form scheme://host:port
+     * @return true if a breaker for the origin existed
+     */
+    public boolean resetCircuit(String origin) {
+        final CircuitBreaker circuitBreaker = this.circuitBreakers.get(origin);
+        if (circuitBreaker == null) {
+            return false;
+        }
+
+        circuitBreaker.reset();
+        return true;
+    }
+
+    /**
+     * Closes all breakers
+     */
+    public void resetAllCircuits() {
+        for (final CircuitBreaker circuitBreaker : this.circuitBreakers.values()) {
+            circuitBreaker.reset();
+        }
+    }
+
+    /**
+     * Drops idle breakers and then the least recently requested breakers until the number
+     * of breakers is within the limit.
+     */
+    protected synchronized void evictCircuitBreakers(CircuitBreaker created) {
+        final long idleBefore = System.currentTimeMillis() - this.idleTimeout * 1000L;
+        
+        final List<Map.Entry<String, CircuitBreaker>> candidates = new ArrayList<Map.Entry<String, CircuitBreaker>>(this.circuitBreakers.size());
+        for (final Map.Entry<String, CircuitBreaker> breakerEntry : this.circuitBreakers.entrySet()) {
+            final CircuitBreaker circuitBreaker = breakerEntry.getValue();
+            if (circuitBreaker == created) {
+                continue;
+            }
+            
+            if (circuitBreaker.getLastRequest() < idleBefore) {
+                this.circuitBreakers.remove(breakerEntry.getKey(), circuitBreaker);
+            }
+            else {
+                candidates.add(breakerEntry);
+            }
+        }
+        
+        if (this.circuitBreakers.size() <= this.maxCircuitBreakers) {
+            return;
+        }
+        
+        Collections.sort(candidates, new Comparator<Map.Entry<String, CircuitBreaker>>() {
+            public int compare(Map.Entry<String, CircuitBreaker> e1, Map.Entry<String, CircuitBreaker> e2) {
+                final long lastRequest1 = e1.getValue().getLastRequest();
+                final long lastRequest2 = e2.getValue().getLastRequest();
+                return lastRequest1 < lastRequest2 ? -1 : (lastRequest1 == lastRequest2 ? 0 : 1);
+            }
+        });
+        
+        for (final Map.Entry<String, CircuitBreaker> breakerEntry : candidates) {
+            if (this.circuitBreakers.size() <= this.maxCircuitBreakers) {
+                break;
+            }
+            
+            this.circuitBreakers.remove(breakerEntry.getKey(), breakerEntry.getValue());
+        }
+    }
+
+    protected static String getOrigin(URI uri) {
+        final String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase();
+
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equals(scheme) ? 443 : 80;
+        }
+
+        return scheme + "://" + (uri.getHost() == null ? "" : uri.getHost().toLowerCase()) + ":" + port;
+    }
+}
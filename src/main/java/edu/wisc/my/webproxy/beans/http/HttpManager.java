@@ -55,7 +55,10 @@
 package edu.wisc.my.webproxy.beans.http;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -94,6 +97,68 @@ public abstract class HttpManager implements ProxyComponent {
 	
     public abstract Response doRequest(Request request) throws HttpTimeoutException, IOException;
     
+    /**
+     * Starts the request with the given request object without waiting for the remote
+     * server to respond. The returned Future completes once the response headers have
+     * been received, use {@link #getResponse(Future)} to wait for it. Cancelling the
+     * Future aborts the underlying request.
+     *
+     * @param request the (@link Request) object that contains all the necessary data to make the remote request.
+     * @return a Future for the (@link Response) to the request.
+     */
+    public abstract Future<Response> doRequestAsync(Request request);
+    
+    /**
+     * Waits for a Future returned by {@link #doRequestAsync(Request)} to complete, unwrapping
+     * any failure into the exceptions thrown by {@link #doRequest(Request)}.
+     */
+    public static Response getResponse(Future<Response> responseFuture) throws HttpTimeoutException, IOException {
+        try {
+            return responseFuture.get();
+        }
+        catch (InterruptedException ie) {
+            responseFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            
+            final InterruptedIOException iioe = new InterruptedIOException("Interrupted while waiting for response");
+            iioe.initCause(ie);
+            throw iioe;
+        }
+        catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof HttpTimeoutException) {
+                throw (HttpTimeoutException)cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            
+            final IOException ioe = new IOException("Request failed: " + cause);
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+    
+    
+    /**
+     * Checks if two credentials authenticate the same user with the same password. The equals
+     * implementations of the HttpClient credentials only compare the principal.
+     */
+    public static boolean isSameCredentials(Credentials credentials, Credentials otherCredentials) {
+        if (credentials == null || otherCredentials == null) {
+            return credentials == otherCredentials;
+        }
+
+        final String password = credentials.getPassword();
+        return credentials.equals(otherCredentials) && (password == null ? otherCredentials.getPassword() == null : password.equals(otherCredentials.getPassword()));
+    }
+    
     
     /** 
      * Creates an empty request object.
@@ -24,20 +24,28 @@
 package edu.wisc.my.webproxy.beans.http;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import javax.portlet.PortletPreferences;
 import javax.portlet.PortletRequest;
-import javax.portlet.PortletSession;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.NameValuePair;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.Credentials;
+import org.apache.http.auth.NTCredentials;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
@@ -45,9 +53,12 @@ import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.params.ClientPNames;
+import org.apache.http.client.protocol.ClientContext;
 import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
@@ -55,11 +66,16 @@ import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
-import org.springframework.web.portlet.util.PortletUtils;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 
 import edu.wisc.my.webproxy.beans.PortletPreferencesWrapper;
 import edu.wisc.my.webproxy.beans.config.ConfigUtils;
 import edu.wisc.my.webproxy.beans.config.HttpClientConfigImpl;
+import edu.wisc.my.webproxy.portlet.ApplicationContextLocator;
 import edu.wisc.my.webproxy.portlet.WebproxyConstants;
 
 /**
@@ -68,13 +84,33 @@ import edu.wisc.my.webproxy.portlet.WebproxyConstants;
  * @author nramzan
  * @version $Id$
  */
-public class HttpManagerImpl extends HttpManager {
-    private static final String HTTP_CLIENT_ATTR = HttpManagerImpl.class.getName() + ".HTTP_CLIENT";
+public class HttpManagerImpl extends HttpManager implements Serializable {
+    private static final long serialVersionUID = 1L;
     
-	protected final Log logger = LogFactory.getLog(this.getClass());
-	private ClientConnectionManager clientConnectionManager;
-	private DefaultHttpClient client;
-	private SchemeRegistry schemeRegistry;
+	protected transient Log logger = LogFactory.getLog(this.getClass());
+	
+	//Application scoped collaborators, restored from the HttpManagerBean definition after deserialization
+	private transient ClientConnectionManager clientConnectionManager;
+	private transient HttpClient sharedClient;
+	private transient HttpClient client;
+	private transient SchemeRegistry schemeRegistry;
+	private transient TaskExecutor requestExecutor;
+	private transient CircuitBreakerRegistry circuitBreakerRegistry;
+	private boolean compressionEnabled = true;
+	private boolean ntlmConnectionAffinity = true;
+	private int maxPinnedConnectionsPerUser = 2;
+	
+	//Per user state that is bound to the HttpContext of each request
+	private final BasicCookieStore cookieStore = new BasicCookieStore();
+	private Credentials credentials;
+	private int connectionTimeout = 30 * 1000;
+	private int socketTimeout = 120 * 1000;
+	private Boolean circularRedirects;
+	private int maxConnectionsPerRoute = -1;
+	
+	//NTLM authenticated connections only live on this server so the user token isn't serialized
+	private transient volatile Object userToken;
+	private transient Semaphore pinnedConnections;
 	
     /**
      * Default constructor
@@ -90,18 +126,267 @@ public class HttpManagerImpl extends HttpManager {
         this.schemeRegistry = schemeRegistry;
     }
     
+    /**
+     * (Optional) The application scoped {@link HttpClient} all requests are executed with. If not specified one
+     * will be created for this HttpManager. Per user state is never stored in the client, cookies and credentials
+     * are bound to the {@link HttpContext} of each request.
+     */
+    public void setHttpClient(HttpClient httpClient) {
+        this.sharedClient = httpClient;
+    }
+    
     /**
      * (Optional) The ClientConnectionManager to use for creating the {@link HttpClient} instance. If not specified one will be created for each {@link HttpClient} created.
+     * This should be an application scoped pool, see {@link PoolingClientConnectionManager}.
      */
     public void setClientConnectionManager(ClientConnectionManager clientConnectionManager) {
         this.clientConnectionManager = clientConnectionManager;
     }
+    
+    /**
+     * (Optional) The per origin circuit breakers requests are tracked with. If not specified requests
+     * are always made.
+     */
+    public void setCircuitBreakerRegistry(CircuitBreakerRegistry circuitBreakerRegistry) {
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+    }
+    
+    /**
+     * If gzip and deflate encoded responses should be requested from the remote server, defaults to true.
+     * Encoded responses are decoded by {@link Response#getResponseBodyAsStream()}.
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+    
+    /**
+     * (Optional) The bounded executor used to run requests started by {@link #doRequestAsync(Request)}. If not
+     * specified the request is executed on the calling thread. If the executor rejects the request the returned
+     * Future fails with a {@link RequestRejectedException} instead of tying up the calling thread.
+     */
+    public void setRequestExecutor(TaskExecutor requestExecutor) {
+        this.requestExecutor = requestExecutor;
+    }
+
+
+    /**
+     * NTLM authenticates connections instead of requests. If true connections authenticated with this user's
+     * NTCredentials are pinned to the user and reused for the following requests so the NTLM handshake is only
+     * done once per connection. Defaults to true.
+     */
+    public void setNtlmConnectionAffinity(boolean ntlmConnectionAffinity) {
+        this.ntlmConnectionAffinity = ntlmConnectionAffinity;
+    }
+
+    /**
+     * Maximum number of pooled connections pinned to a user's NTLM identity. Concurrent requests beyond the
+     * limit authenticate a new connection which is closed once the response is closed. Defaults to 2.
+     */
+    public void setMaxPinnedConnectionsPerUser(int maxPinnedConnectionsPerUser) {
+        this.maxPinnedConnectionsPerUser = maxPinnedConnectionsPerUser;
+    }
 
 
     /* (non-Javadoc)
      * @see edu.wisc.my.webproxy.beans.http.HttpManager#doRequest(edu.wisc.my.webproxy.beans.http.Request)
      */
     public Response doRequest(Request request) throws HttpTimeoutException, IOException {
+        final HttpUriRequest method = this.createMethod(request);
+        final HttpClient executingClient = this.getClient();
+        this.applyConnectionLimit(method, executingClient);
+        return this.executeMethod(method, executingClient, this.createContext(executingClient));
+    }
+    
+    /* (non-Javadoc)
+     * @see edu.wisc.my.webproxy.beans.http.HttpManager#doRequestAsync(edu.wisc.my.webproxy.beans.http.Request)
+     */
+    public Future<Response> doRequestAsync(Request request) {
+        final HttpUriRequest method;
+        try {
+            method = this.createMethod(request);
+        }
+        catch (IOException ioe) {
+            final FutureTask<Response> failedTask = new ResponseFutureTask(null, new FailedRequest(ioe));
+            failedTask.run();
+            return failedTask;
+        }
+        
+        final HttpClient executingClient = this.getClient();
+        this.applyConnectionLimit(method, executingClient);
+        final HttpContext context = this.createContext(executingClient);
+        final FutureTask<Response> responseTask = new ResponseFutureTask(method, new Callable<Response>() {
+            public Response call() throws Exception {
+                return executeMethod(method, executingClient, context);
+            }
+        });
+        
+        if (this.requestExecutor == null) {
+            responseTask.run();
+            return responseTask;
+        }
+        
+        try {
+            this.requestExecutor.execute(responseTask);
+        }
+        catch (TaskRejectedException tre) {
+            final RequestRejectedException rre = new RequestRejectedException("Request executor is saturated, not requesting '" + request.getUrl() + "'", tre);
+            final FutureTask<Response> rejectedTask = new ResponseFutureTask(null, new FailedRequest(rre));
+            rejectedTask.run();
+            return rejectedTask;
+        }
+        
+        return responseTask;
+    }
+    
+    /**
+     * @return The client set up for this HttpManager, restoring the shared client if this HttpManager was deserialized
+     */
+    private HttpClient getClient() {
+        if (this.client == null) {
+            if (this.schemeRegistry == null) {
+                this.restoreCollaborators();
+            }
+            this.client = this.sharedClient;
+            
+            if (this.client == null) {
+                throw new IllegalStateException("setup(PortletRequest) must be called before executing requests");
+            }
+        }
+        
+        return this.client;
+    }
+    
+    /**
+     * Applies the per route connection limit configured for the portlet to the shared pool, see
+     * {@link PoolingClientConnectionManager#requestMaxForHost(java.net.URI, int)}. A client created
+     * for this user has its own pool that was configured when it was created.
+     */
+    private void applyConnectionLimit(HttpUriRequest method, HttpClient executingClient) {
+        if (this.maxConnectionsPerRoute > 0 && executingClient == this.sharedClient && this.clientConnectionManager instanceof PoolingClientConnectionManager) {
+            ((PoolingClientConnectionManager)this.clientConnectionManager).requestMaxForHost(method.getURI(), this.maxConnectionsPerRoute);
+        }
+    }
+    
+    /**
+     * Creates the context for executing a request. When the request is executed with the shared client
+     * this user's cookies and credentials are bound to the context. A client created for this user, like
+     * the Shibboleth SAML client, keeps its own cookie store and credentials provider, attributes in the
+     * context would take precedence over them.
+     * 
+     * @param client The client the request will be executed with
+     */
+    protected HttpContext createContext(HttpClient client) {
+        final HttpContext context = new BasicHttpContext();
+        if (client != this.sharedClient) {
+            return context;
+        }
+        
+        context.setAttribute(ClientContext.COOKIE_STORE, this.cookieStore);
+        
+        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        if (this.credentials != null) {
+            credentialsProvider.setCredentials(AuthScope.ANY, this.credentials);
+        }
+        context.setAttribute(ClientContext.CREDS_PROVIDER, credentialsProvider);
+        
+        return context;
+    }
+    
+    /**
+     * Executes the method, tracking the outcome with the circuit breaker for the remote server
+     * if one is configured.
+     * 
+     * @throws CircuitOpenException If the circuit breaker for the remote server is open
+     */
+    protected Response executeMethod(HttpUriRequest method, HttpClient client, HttpContext context) throws HttpTimeoutException, IOException {
+        if (this.circuitBreakerRegistry == null) {
+            return this.createResponse(method, client, context);
+        }
+        
+        final CircuitBreaker circuitBreaker = this.circuitBreakerRegistry.getCircuitBreaker(method.getURI());
+        final long generation = circuitBreaker.allowRequest();
+        if (generation < 0) {
+            throw new CircuitOpenException("Circuit breaker for " + circuitBreaker.getOrigin() + " is open, not requesting '" + method.getURI() + "'");
+        }
+        
+        final long start = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            final Response response = this.createResponse(method, client, context);
+            failed = response.getStatusCode() >= 500;
+            return response;
+        }
+        finally {
+            circuitBreaker.recordCall(generation, failed, System.currentTimeMillis() - start);
+        }
+    }
+    
+    /**
+     * Executes the method and creates the Response for it. When NTLM connection affinity is enabled the
+     * request is executed on a connection pinned to this user's NTLM identity if one is available.
+     */
+    protected Response createResponse(HttpUriRequest method, HttpClient client, HttpContext context) throws HttpTimeoutException, IOException {
+        if (!this.ntlmConnectionAffinity || !(this.credentials instanceof NTCredentials)) {
+            return new ResponseImpl(method, client, context);
+        }
+        
+        final Semaphore pinned = this.getPinnedConnections();
+        final boolean pinnedPermit = pinned.tryAcquire();
+        if (pinnedPermit) {
+            if (this.userToken != null) {
+                context.setAttribute(ClientContext.USER_TOKEN, this.userToken);
+            }
+        }
+        else {
+            //Responses without a body release the connection to the pool before they are returned,
+            //have the remote server close it so the connection authenticated for this user isn't reused
+            method.setHeader("Connection", "close");
+        }
+        
+        boolean executed = false;
+        try {
+            final ResponseImpl response = new ResponseImpl(method, client, context);
+            executed = true;
+            
+            if (pinnedPermit) {
+                //The token identifies the authenticated connection when it is released to the pool
+                final Object token = context.getAttribute(ClientContext.USER_TOKEN);
+                if (token != null) {
+                    this.userToken = token;
+                }
+                
+                response.setCloseCallback(new Runnable() {
+                    public void run() {
+                        pinned.release();
+                    }
+                });
+            }
+            else {
+                //All pinned connections for this user are in use, don't pin another one
+                response.setDiscardConnection(true);
+            }
+            
+            return response;
+        }
+        finally {
+            if (pinnedPermit && !executed) {
+                pinned.release();
+            }
+        }
+    }
+    
+    private synchronized Semaphore getPinnedConnections() {
+        if (this.pinnedConnections == null) {
+            this.pinnedConnections = new Semaphore(this.maxPinnedConnectionsPerUser);
+        }
+        
+        return this.pinnedConnections;
+    }
+    
+    /**
+     * Builds the HttpClient method for the specified request.
+     */
+    protected HttpUriRequest createMethod(Request request) throws IOException {
 
     	// get the request type
     	String requestType = request.getType();
@@ -144,12 +429,62 @@ public class HttpManagerImpl extends HttpManager {
                 method.setHeader(headers[index].getName(), headers[index].getValue());
             }
         }
-        // WPP-84 Insure connection closes and doesn't leave socket in CLOSE_WAIT.  Tried other approaches but
-        // they weren't reliable.  Unfortunately this will use a 2nd socket for authentication scenarios but it
-        // will insure sockets aren't left hanging.
-        method.setHeader("Connection", "close");
+        // configure the request, the client is shared so per user settings can't be set on it
+        final HttpParams params = method.getParams();
+        params.setParameter(CoreProtocolPNames.HTTP_ELEMENT_CHARSET, "UTF-8");
+        HttpConnectionParams.setConnectionTimeout(params, this.connectionTimeout);
+        HttpConnectionParams.setSoTimeout(params, this.socketTimeout);
+        if (this.circularRedirects != null) {
+            params.setBooleanParameter(ClientPNames.ALLOW_CIRCULAR_REDIRECTS, this.circularRedirects);
+        }
+        
+        // negotiate compression unless the configured headers already specify an encoding
+        if (this.compressionEnabled && !method.containsHeader("Accept-Encoding")) {
+            method.setHeader("Accept-Encoding", "gzip, deflate");
+        }
+        
+        // WPP-84 Connections are kept alive and reused through the shared pool, sockets closed by the
+        // remote server are cleaned up by the pool's scheduled stale connection reaper instead of
+        // forcing Connection: close on every request.
+
+        return method;
+    }
+
+    /**
+     * Aborts the underlying HTTP request when the Future is cancelled, the worker thread
+     * would otherwise stay blocked on the socket until it times out.
+     */
+    private static class ResponseFutureTask extends FutureTask<Response> {
+        private final HttpUriRequest method;
+        
+        public ResponseFutureTask(HttpUriRequest method, Callable<Response> callable) {
+            super(callable);
+            this.method = method;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && this.method != null) {
+                this.method.abort();
+            }
+            return cancelled;
+        }
+    }
+    
+    /**
+     * Reports a failure that happened while building or starting the request.
+     */
+    private static class FailedRequest implements Callable<Response> {
+        private final Exception cause;
+        
+        public FailedRequest(Exception cause) {
+            this.cause = cause;
+        }
 
-        return new ResponseImpl(method, client);
+        public Response call() throws Exception {
+            throw this.cause;
+        }
     }
 
     /* (non-Javadoc)
@@ -178,24 +513,72 @@ public class HttpManagerImpl extends HttpManager {
      */
     @Override
     public void setup(PortletRequest request) {
+        // the application scoped collaborators are not serialized with the session
+        if (this.schemeRegistry == null) {
+            this.restoreCollaborators();
+        }
 
-    	// get a new HttpClient instance
+    	// get the HttpClient instance
     	client = getHttpClient(request);
     	
     	PortletPreferences prefs = new PortletPreferencesWrapper(request.getPreferences(), (Map)request.getAttribute(PortletRequest.USER_INFO));
-        HttpParams params = client.getParams();
         
         // configure circular redirects
         final String circularRedirectsStr = prefs.getValue(HttpClientConfigImpl.CIRCULAR_REDIRECTS, null);
         if (circularRedirectsStr != null) {
-        	params.setBooleanParameter(ClientPNames.ALLOW_CIRCULAR_REDIRECTS, Boolean.valueOf(circularRedirectsStr));
+            this.circularRedirects = Boolean.valueOf(circularRedirectsStr);
+        }
+        else {
+            this.circularRedirects = null;
         }
+        
+        // the per route limit is applied to the shared pool, the shared pool's total is configured for the application
+        this.maxConnectionsPerRoute = ConfigUtils.parseInt(prefs.getValue(HttpClientConfigImpl.MAX_CONNECTIONS_PER_ROUTE, null), -1);
+        
+        this.readTimeouts(prefs);
     }
 
+    /**
+     * Copies the application scoped collaborators from a new instance of the HttpManagerBean
+     * definition. Used when this HttpManager was deserialized from a replicated session.
+     */
+    protected void restoreCollaborators() {
+        final ApplicationContext context = ApplicationContextLocator.getApplicationContext();
+        if (context == null) {
+            logger.warn("No ApplicationContext available, HttpManager collaborators can't be restored");
+            return;
+        }
+        
+        final HttpManagerImpl template = (HttpManagerImpl)context.getBean("HttpManagerBean", HttpManagerImpl.class);
+        this.clientConnectionManager = template.clientConnectionManager;
+        this.sharedClient = template.sharedClient;
+        this.schemeRegistry = template.schemeRegistry;
+        this.requestExecutor = template.requestExecutor;
+        this.circuitBreakerRegistry = template.circuitBreakerRegistry;
+        this.compressionEnabled = template.compressionEnabled;
+        this.ntlmConnectionAffinity = template.ntlmConnectionAffinity;
+        this.maxPinnedConnectionsPerUser = template.maxPinnedConnectionsPerUser;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.logger = LogFactory.getLog(this.getClass());
+    }
 
 	protected DefaultHttpClient setHttpClientTimeouts(PortletRequest request, DefaultHttpClient client) {
 		PortletPreferences prefs = new PortletPreferencesWrapper(request.getPreferences(), (Map)request.getAttribute(PortletRequest.USER_INFO));
-		HttpParams params = client.getParams();
+		this.readTimeouts(prefs);
+		
+		final HttpParams params = client.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, this.connectionTimeout);
+		HttpConnectionParams.setSoTimeout(params, this.socketTimeout);
+		return client;
+	}
+	
+	/**
+	 * Reads the connection and socket timeouts from the preferences, invalid values are ignored.
+	 */
+	private void readTimeouts(PortletPreferences prefs) {
         final String httpConnectionTimeout = prefs.getValue(HttpClientConfigImpl.HTTP_CONNECTION_TIMEOUT, "30");
         final String httpSocketTimeout = prefs.getValue(HttpClientConfigImpl.HTTP_SOCKET_TIMEOUT, "120");
         try {
@@ -207,7 +590,7 @@ public class HttpManagerImpl extends HttpManager {
              * ie. http://www.google.com:81
              */
             final int httpTimeout = Integer.parseInt(httpConnectionTimeout);
-            HttpConnectionParams.setConnectionTimeout(params, httpTimeout * 1000);
+            this.connectionTimeout = httpTimeout * 1000;
             
             /*
              * Suggested way of testing Socket Timeout is by using a tool locally to connect
@@ -217,12 +600,11 @@ public class HttpManagerImpl extends HttpManager {
              * ie. http://localhost:10010
              */
             final int httpClientSocketTimeout = Integer.parseInt(httpSocketTimeout);
-            HttpConnectionParams.setSoTimeout(params, httpClientSocketTimeout * 1000);
+            this.socketTimeout = httpClientSocketTimeout * 1000;
         }
         catch (NumberFormatException nfe) {
             
         }
-		return client;
 	}
 
     /*
@@ -231,7 +613,7 @@ public class HttpManagerImpl extends HttpManager {
      */
 	@Override
 	public void addCookie(Cookie cookie) {
-		client.getCookieStore().addCookie(cookie);
+		this.cookieStore.addCookie(cookie);
 	}
 
 	/*
@@ -241,7 +623,7 @@ public class HttpManagerImpl extends HttpManager {
 	@Override
 	public void addCookies(Cookie[] cookies) {
 		for (Cookie cookie : cookies) { 
-			client.getCookieStore().addCookie(cookie);
+			this.cookieStore.addCookie(cookie);
 		}
 	}
 	
@@ -251,7 +633,7 @@ public class HttpManagerImpl extends HttpManager {
 	 */
 	@Override
 	public void clearCookies() {
-		client.getCookieStore().clear();
+		this.cookieStore.clear();
 	}
 
 	/*
@@ -260,7 +642,7 @@ public class HttpManagerImpl extends HttpManager {
 	 */
 	@Override
 	public List<Cookie> getCookies() {
-		return client.getCookieStore().getCookies();
+		return this.cookieStore.getCookies();
 	}
 
 	/*
@@ -269,7 +651,7 @@ public class HttpManagerImpl extends HttpManager {
 	 */
 	@Override
 	public Credentials getCredentials() {
-		return client.getCredentialsProvider().getCredentials(AuthScope.ANY);
+		return this.credentials;
 	}
 
 	/*
@@ -284,26 +666,31 @@ public class HttpManagerImpl extends HttpManager {
             throw new IllegalArgumentException("Both username and password are null for BASIC authentication");
         }
 
-        client.getCredentialsProvider().setCredentials(AuthScope.ANY, credentials);
+        // the connections pinned to the user token are only authenticated for the current credentials
+        if (!isSameCredentials(this.credentials, credentials)) {
+            this.userToken = null;
+        }
+        this.credentials = credentials;
 
 	}
 	
-	protected final DefaultHttpClient getHttpClient(PortletRequest request) {
-	    final PortletSession portletSession = request.getPortletSession();
+	/**
+	 * @return The cookies of this user, bound to the context of each request
+	 */
+	protected final CookieStore getCookieStore() {
+	    return this.cookieStore;
+	}
+	
+	/**
+	 * Gets the {@link HttpClient} to execute requests with. Returns the shared client if one is
+	 * configured, otherwise creates a client for this HttpManager.
+	 */
+	protected HttpClient getHttpClient(PortletRequest request) {
+	    if (this.sharedClient == null) {
+	        this.sharedClient = this.createHttpClient(request);
+	    }
 	    
-	    synchronized (PortletUtils.getSessionMutex(portletSession)) {
-            DefaultHttpClient client = (DefaultHttpClient)portletSession.getAttribute(HTTP_CLIENT_ATTR);
-	        if (client == null) {
-	            client = this.createHttpClient(request);
-	            
-	            final HttpParams params = client.getParams();
-	            params.setParameter(CoreProtocolPNames.HTTP_ELEMENT_CHARSET, "UTF-8");
-	            
-	            portletSession.setAttribute(HTTP_CLIENT_ATTR, client);
-	        }
-	        client = setHttpClientTimeouts(request, client);
-	        return client;
-        }
+	    return this.sharedClient;
 	}
 
 	/**
@@ -322,8 +709,7 @@ public class HttpManagerImpl extends HttpManager {
         
         final HttpParams params = new BasicHttpParams();
         final ClientConnectionManager clientConnectionManager = this.createClientConnectionManager(request, params);
-        client = new DefaultHttpClient (clientConnectionManager, params);
-        return client;
+        return new DefaultHttpClient (clientConnectionManager, params);
     }
     
     /**
@@ -33,6 +33,7 @@ import javax.portlet.PortletSession;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.auth.Credentials;
 import org.apache.http.cookie.Cookie;
 import org.apache.http.impl.cookie.BasicClientCookie;
 import org.springframework.context.ApplicationContext;
@@ -41,6 +42,7 @@ import org.springframework.web.portlet.util.PortletUtils;
 import edu.wisc.my.webproxy.beans.PortletPreferencesWrapper;
 import edu.wisc.my.webproxy.beans.config.ConfigUtils;
 import edu.wisc.my.webproxy.beans.config.HttpClientConfigImpl;
+import edu.wisc.my.webproxy.beans.config.ProxyConfig;
 import edu.wisc.my.webproxy.portlet.ApplicationContextLocator;
 import edu.wisc.my.webproxy.portlet.WebproxyConstants;
 
@@ -107,7 +109,7 @@ public class HttpManagerService {
             
                 // if session persistence is enabled, attempt to get any persisted cookies
                 // from the store
-                final boolean sessionPersistenceEnabled = new Boolean(prefs.getValue(HttpClientConfigImpl.SESSION_PERSISTENCE_ENABLE, null)).booleanValue();
+                final boolean sessionPersistenceEnabled = ProxyConfig.getConfig(request).isSessionPersistence();
                 if (sessionPersistenceEnabled) {
                 	// get state key
                 	final String stateKey;
@@ -154,6 +156,62 @@ public class HttpManagerService {
         }
 	}
 	
+	/**
+	 * Puts a copy of the user's HttpManager in the session of a detached request. The copy has
+	 * the cookies and credentials the user's HttpManager has now, so a background render can't
+	 * change or see later changes to the state of the user's own requests. If the user has no
+	 * HttpManager yet the background render creates a new one.
+	 * 
+	 * @param request The user's request
+	 * @param detachedRequest The detached copy of the request, its session must hold copies of the user's attributes
+	 */
+	public void detachManager(PortletRequest request, PortletRequest detachedRequest) {
+        final PortletSession session = request.getPortletSession();
+        final PortletPreferences prefs = new PortletPreferencesWrapper(request.getPreferences(), (Map<?, ?>)request.getAttribute(PortletRequest.USER_INFO));
+        final String sharedStateKey = ConfigUtils.checkEmptyNullString(prefs.getValue(HttpClientConfigImpl.SHARED_SESSION_KEY, null), null);
+        
+        final HttpManager httpManager;
+        synchronized (PortletUtils.getSessionMutex(session)) {
+            if (sharedStateKey != null) {
+                httpManager = (HttpManager)session.getAttribute(sharedStateKey, PortletSession.APPLICATION_SCOPE);
+            }
+            else {
+                httpManager = (HttpManager)session.getAttribute(WebproxyConstants.CURRENT_STATE);
+            }
+        }
+        
+        HttpManager detachedManager = null;
+        if (httpManager != null) {
+            final ApplicationContext context = ApplicationContextLocator.getApplicationContext();
+            detachedManager = (HttpManager)context.getBean("HttpManagerBean", HttpManager.class);
+            
+            final Lock readLock = httpManager.getCookieLock().readLock();
+            readLock.lock();
+            try {
+                for (final Cookie cookie : httpManager.getCookies()) {
+                    detachedManager.addCookie(cookie);
+                }
+            }
+            finally {
+                readLock.unlock();
+            }
+            
+            final Credentials credentials = httpManager.getCredentials();
+            if (credentials != null) {
+                detachedManager.setCredentials(credentials);
+            }
+        }
+        
+        //A null manager removes the reference to the user's manager copied with the session
+        final PortletSession detachedSession = detachedRequest.getPortletSession();
+        if (sharedStateKey != null) {
+            detachedSession.setAttribute(sharedStateKey, detachedManager, PortletSession.APPLICATION_SCOPE);
+        }
+        else {
+            detachedSession.setAttribute(WebproxyConstants.CURRENT_STATE, detachedManager);
+        }
+	}
+	
 	/**
 	 * Save an HttpManager state.
 	 * 
@@ -165,7 +223,7 @@ public class HttpManagerService {
         
         // if session persistence is enabled, save any cookies currently in
         // the manager to the store
-        final boolean sessionPersistenceEnabled = new Boolean(prefs.getValue(HttpClientConfigImpl.SESSION_PERSISTENCE_ENABLE, null)).booleanValue();
+        final boolean sessionPersistenceEnabled = ProxyConfig.getConfig(request).isSessionPersistence();
         if (sessionPersistenceEnabled) {
             // save the current http manager to the user's session
             final String sharedStateKey = ConfigUtils.checkEmptyNullString(prefs.getValue(HttpClientConfigImpl.SHARED_SESSION_KEY, null), null);
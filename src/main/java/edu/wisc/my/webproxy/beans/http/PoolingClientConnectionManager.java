@@ -0,0 +1,149 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.http;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+/**
+ * Application scoped, keep-alive connection pool shared by all {@link HttpManagerImpl}
+ * instances. Connections are kept open between requests and reused per route, stale
+ * connections are cleaned up by {@link #closeStaleConnections()} which is expected to
+ * be called periodically by the scheduler. {@link #shutdown()} should be configured
+ * as the destroy method so sockets are released when the context stops.
+ *
+ * @version $Revision$
+ */
+public class PoolingClientConnectionManager extends ThreadSafeClientConnManager {
+    protected final Log logger = LogFactory.getLog(this.getClass());
+
+    private long idleConnectionTimeout = 60;
+    
+    //Largest per route limit requested by the portlets proxying each route
+    private final ConcurrentMap<HttpRoute, Integer> requestedMaxPerRoute = new ConcurrentHashMap<HttpRoute, Integer>();
+
+    /**
+     * @param schemeRegistry The registry of supported schemes
+     * @param connectionTimeToLive Maximum lifetime of a pooled connection in seconds, -1 for no limit
+     */
+    public PoolingClientConnectionManager(SchemeRegistry schemeRegistry, long connectionTimeToLive) {
+        super(schemeRegistry, connectionTimeToLive, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Number of seconds a connection may sit idle in the pool before it is closed by
+     * {@link #closeStaleConnections()}. Should be shorter than the keep-alive timeout
+     * of the proxied servers so sockets closed by the remote end don't linger in CLOSE_WAIT.
+     * Defaults to 60.
+     */
+    public void setIdleConnectionTimeout(long idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+    public long getIdleConnectionTimeout() {
+        return this.idleConnectionTimeout;
+    }
+
+    /**
+     * Per host connection limits that override the default max per route. Keys are of the
+     * form scheme://host:port, for example http://www.example.com:80
+     */
+    public void setMaxPerHost(Map<String, Integer> maxPerHost) {
+        for (final Map.Entry<String, Integer> maxEntry : maxPerHost.entrySet()) {
+            final String hostKey = maxEntry.getKey();
+
+            final int schemeEnd = hostKey.indexOf("://");
+            final int portStart = hostKey.lastIndexOf(':');
+            if (schemeEnd < 0 || portStart <= schemeEnd) {
+                throw new IllegalArgumentException("Host '" + hostKey + "' must be of the form scheme://host:port");
+            }
+
+            final String scheme = hostKey.substring(0, schemeEnd);
+            final String hostName = hostKey.substring(schemeEnd + 3, portStart);
+            final int port = Integer.parseInt(hostKey.substring(portStart + 1));
+
+            final HttpRoute route = new HttpRoute(new HttpHost(hostName, port, scheme), null, "https".equalsIgnoreCase(scheme));
+            this.setMaxForRoute(route, maxEntry.getValue());
+        }
+    }
+
+    /**
+     * Applies the connection limit configured for a portlet to the route of the URI. Portlets proxying
+     * the same host share the route, it is limited to the largest limit any of them requested. Routes
+     * no portlet configured a limit for use the default max per route or the {@link #setMaxPerHost(Map)}
+     * overrides.
+     */
+    public void requestMaxForHost(URI uri, int max) {
+        final String scheme = uri.getScheme();
+        final String hostName = uri.getHost();
+        if (scheme == null || hostName == null || max <= 0) {
+            return;
+        }
+
+        final boolean secure = "https".equalsIgnoreCase(scheme);
+        final int port = uri.getPort();
+        this.requestMaxForRoute(new HttpRoute(new HttpHost(hostName, port, scheme), null, secure), max);
+        if (port < 0) {
+            //The route of a request without an explicit port may be keyed with the default port
+            this.requestMaxForRoute(new HttpRoute(new HttpHost(hostName, secure ? 443 : 80, scheme), null, secure), max);
+        }
+    }
+
+    private void requestMaxForRoute(HttpRoute route, int max) {
+        final Integer requested = this.requestedMaxPerRoute.get(route);
+        if (requested != null && requested.intValue() >= max) {
+            return;
+        }
+
+        synchronized (this.requestedMaxPerRoute) {
+            final Integer current = this.requestedMaxPerRoute.get(route);
+            if (current == null || current.intValue() < max) {
+                if (this.logger.isInfoEnabled()) {
+                    this.logger.info("Limiting " + route + " to " + max + " connections as configured by a portlet");
+                }
+                
+                this.setMaxForRoute(route, max);
+                this.requestedMaxPerRoute.put(route, max);
+            }
+        }
+    }
+
+    /**
+     * Closes expired connections and connections that have been idle longer than the
+     * configured idle timeout.
+     */
+    public void closeStaleConnections() {
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Closing stale pooled connections, " + this.getConnectionsInPool() + " connections currently pooled");
+        }
+
+        this.closeExpiredConnections();
+        this.closeIdleConnections(this.idleConnectionTimeout, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.http;
+
+/**
+ * Reported by {@link HttpManager#doRequestAsync(Request)} when the request executor is saturated
+ * and the request could not be started. Extends {@link HttpTimeoutException} so callers can fall
+ * back to expired cached content just like they do when the remote server times out.
+ *
+ * @version $Revision$
+ */
+public class RequestRejectedException extends HttpTimeoutException {
+    private static final long serialVersionUID = 1L;
+
+    public RequestRejectedException(String message, Throwable t) {
+        super(message, t);
+    }
+}
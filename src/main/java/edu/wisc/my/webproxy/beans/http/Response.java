@@ -54,6 +54,7 @@
 *******************************************************************************/
 package edu.wisc.my.webproxy.beans.http;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -70,15 +71,27 @@ public interface Response {
     public final static int SC_MOVED_PERMANENTLY = 301;
     public final static int SC_SEE_OTHER = 303;
     public final static int SC_TEMPORARY_REDIRECT = 307;
+    public final static int SC_NOT_MODIFIED = 304;
     
     /** 
      * Retrieves the body of the response as an inputstream.
      *
      * @return is the (@link InputStream) the whole body of the response as a InputStream.
+     * @throws IOException If the Content-Encoding of the body can't be decoded
      * 
      */
     
-    InputStream getResponseBodyAsStream();
+    InputStream getResponseBodyAsStream() throws IOException;
+    
+    /** 
+     * Retrieves the body of the response as it was sent by the remote server, if the
+     * response has a Content-Encoding such as gzip the returned stream is still encoded.
+     *
+     * @return is the (@link InputStream) the whole body of the response as a InputStream.
+     * 
+     */
+    
+    InputStream getRawResponseBodyAsStream();
     
     /** 
      * Retrieves the type of the content of response as a String
@@ -88,6 +101,14 @@ public interface Response {
      */
     String getContentType();
     
+    /** 
+     * Retrieves the charset declared by the charset parameter of the Content-Type
+     *
+     * @return charset the charset name, null if none is declared or it is not supported.
+     * 
+     */
+    String getCharacterEncoding();
+    
     /** 
      * Retrieves all the response headers as an array of Headers
      *
@@ -97,6 +118,16 @@ public interface Response {
     
     IHeader[] getHeaders();
     
+    /** 
+     * Retrieves the value of the first response header with the specified name
+     *
+     * @param name the case insensitive name of the header
+     * @return the header value, null if the response has no such header
+     * 
+     */
+    
+    String getHeaderValue(String name);
+    
     /** 
      * Retrieves the status code that is returned when a request is made
      *
@@ -116,5 +147,13 @@ public interface Response {
      */
 
     void close();
+    
+    /** 
+     * Drops the HTTP connection made to the remote server without reading the rest of the
+     * response body, used when the remaining content is not needed.
+     * 
+     */
+
+    void abort();
 }
 
@@ -25,6 +25,10 @@ package edu.wisc.my.webproxy.beans.http;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,8 +40,10 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.protocol.HttpContext;
 
 import edu.wisc.my.webproxy.portlet.WebProxyPortlet;
+import edu.wisc.my.webproxy.util.CharsetUtils;
 
 
 /**
@@ -54,6 +60,8 @@ public class ResponseImpl implements Response{
     HttpUriRequest method;
     HttpClient client;
     HttpResponse response;
+    private boolean discardConnection = false;
+    private Runnable closeCallback;
     
     /**
 	 * Creates a response object
@@ -63,11 +71,21 @@ public class ResponseImpl implements Response{
 	 */
 
     public ResponseImpl(HttpUriRequest method, HttpClient client) throws HttpTimeoutException, IOException {
+        this(method, client, null);
+    }
+    
+    /**
+     * Creates a response object
+     * @param method the HttpUriRequest used to make the remote request
+     * @param client the HttpClient client instance that made the request
+     * @param context the HttpContext to execute the request in, may be null
+     */
+    public ResponseImpl(HttpUriRequest method, HttpClient client, HttpContext context) throws HttpTimeoutException, IOException {
     	this.client = client;
     	this.method = method;
     	
     	try {
-			this.response = this.client.execute(this.method);
+			this.response = this.client.execute(this.method, context);
 			int statusCode = response.getStatusLine().getStatusCode();
 			
 			if (statusCode != HttpStatus.SC_OK) {  
@@ -80,20 +98,117 @@ public class ResponseImpl implements Response{
     }
     
     
+    /**
+     * @param discardConnection If true the connection is closed instead of being returned to the pool when this response is closed
+     */
+    public void setDiscardConnection(boolean discardConnection) {
+        this.discardConnection = discardConnection;
+    }
+    
+    /**
+     * @param closeCallback Run once after the connection has been released by {@link #close()}
+     */
+    public void setCloseCallback(Runnable closeCallback) {
+        this.closeCallback = closeCallback;
+    }
+    
     /* (non-Javadoc)
      * @see edu.wisc.my.webproxy.beans.http.Response#getResponseBodyAsStream()
      */
     
-    public InputStream getResponseBodyAsStream() {
-    	InputStream is = null;
+    public InputStream getResponseBodyAsStream() throws IOException {
+    	InputStream is = this.getRawResponseBodyAsStream();
+    	if (is == null) {
+    	    return null;
+    	}
+    	
+    	final String contentEncoding = this.getHeaderValue("Content-Encoding");
+    	if (contentEncoding == null) {
+    	    return is;
+    	}
+    	
+    	try {
+    	    final String encoding = contentEncoding.trim().toLowerCase();
+    	    if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+    	        final PushbackInputStream pis = new PushbackInputStream(is, 1);
+    	        if (isEmpty(pis)) {
+    	            return pis;
+    	        }
+    	        is = new GZIPInputStream(pis);
+    	    }
+    	    else if ("deflate".equals(encoding)) {
+    	        //Servers send either zlib wrapped or raw deflate data for the deflate encoding, check for the zlib header
+    	        final PushbackInputStream pis = new PushbackInputStream(is, 2);
+    	        final byte[] header = new byte[2];
+    	        final int read = pis.read(header);
+    	        if (read <= 0) {
+    	            return pis;
+    	        }
+    	        pis.unread(header, 0, read);
+    	        
+    	        final boolean zlibWrapped = read == 2 && (header[0] & 0x0f) == 8 && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+    	        is = new InflaterStream(pis, new Inflater(!zlibWrapped));
+    	    }
+    	}
+    	catch (IOException e) {
+    	    //Part of the body has been read, the connection can't be reused
+    	    this.discardConnection = true;
+    	    
+    	    final IOException ioe = new IOException("Failed to decode the response body with Content-Encoding '" + contentEncoding + "': " + e.getMessage());
+    	    ioe.initCause(e);
+    	    throw ioe;
+    	}
+    	
+    	return is;
+    }
+    
+    /* (non-Javadoc)
+     * @see edu.wisc.my.webproxy.beans.http.Response#getRawResponseBodyAsStream()
+     */
+    public InputStream getRawResponseBodyAsStream() {
+        final HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return null;
+        }
+        
+        InputStream is = null;
         try {
-			is = response.getEntity().getContent();
-		} catch (IOException e) {
+            is = entity.getContent();
+        } catch (IOException e) {
             LOG.error("Caught an IOException when retrieving the response body: ", e);
-		}
-    
+        }
+        
         return is;
     }
+    
+    private static boolean isEmpty(PushbackInputStream pis) throws IOException {
+        final int b = pis.read();
+        if (b < 0) {
+            return true;
+        }
+        
+        pis.unread(b);
+        return false;
+    }
+    
+    /**
+     * Releases the native resources of the {@link Inflater} when closed.
+     */
+    private static class InflaterStream extends InflaterInputStream {
+        public InflaterStream(InputStream in, Inflater inflater) {
+            super(in, inflater);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                this.inf.end();
+            }
+        }
+    }
 
     /* (non-Javadoc)
      * @see edu.wisc.my.webproxy.beans.http.Response#getContentType()
@@ -109,6 +224,13 @@ public class ResponseImpl implements Response{
         return contentType;
     }
 
+    /* (non-Javadoc)
+     * @see edu.wisc.my.webproxy.beans.http.Response#getCharacterEncoding()
+     */
+    public String getCharacterEncoding() {
+        return CharsetUtils.getContentTypeCharset(this.getContentType());
+    }
+
     /* (non-Javadoc)
      * @see edu.wisc.my.webproxy.beans.http.Response#getHeaders()
      */
@@ -124,6 +246,18 @@ public class ResponseImpl implements Response{
         return myHeaders;
     }
 
+    /* (non-Javadoc)
+     * @see edu.wisc.my.webproxy.beans.http.Response#getHeaderValue(java.lang.String)
+     */
+    public String getHeaderValue(String name) {
+        final Header header = response.getFirstHeader(name);
+        if (header == null) {
+            return null;
+        }
+        
+        return header.getValue();
+    }
+
     /* (non-Javadoc)
      * @see edu.wisc.my.webproxy.beans.http.Response#getStatusCode()
      */
@@ -135,24 +269,46 @@ public class ResponseImpl implements Response{
         return method.getURI().toString();
     }
 
+    /* (non-Javadoc)
+     * @see edu.wisc.my.webproxy.beans.http.Response#abort()
+     */
+    public void abort() {
+        this.discardConnection = true;
+        this.method.abort();
+    }
+
     /* (non-Javadoc)
      * @see edu.wisc.my.webproxy.beans.http.Response#close()
      */
     public void close() {
-        if (response == null) {
-            return;
-        }
-        
-        final HttpEntity entity = response.getEntity();
-        if (entity == null) {
-            return;
-        }
-        
         try {
-            entity.consumeContent();
+            if (response == null) {
+                return;
+            }
+            
+            if (this.discardConnection) {
+                this.method.abort();
+                return;
+            }
+            
+            final HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return;
+            }
+            
+            try {
+                entity.consumeContent();
+            }
+            catch (IOException e) {
+                LOG.warn("Exception while closing connection", e);
+            }
         }
-        catch (IOException e) {
-            LOG.warn("Exception while closing connection", e);
+        finally {
+            final Runnable callback = this.closeCallback;
+            this.closeCallback = null;
+            if (callback != null) {
+                callback.run();
+            }
         }
     }
 
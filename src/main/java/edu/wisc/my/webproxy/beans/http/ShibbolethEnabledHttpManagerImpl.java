@@ -23,16 +23,20 @@ import java.util.Map;
 
 import javax.portlet.PortletPreferences;
 import javax.portlet.PortletRequest;
+import javax.portlet.PortletSession;
 
+import org.apache.http.client.HttpClient;
 import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.jasig.portal.security.provider.saml.SAMLSession;
+import org.springframework.web.portlet.util.PortletUtils;
 
 import edu.wisc.my.webproxy.beans.PortletPreferencesWrapper;
 import edu.wisc.my.webproxy.beans.config.ConfigUtils;
 import edu.wisc.my.webproxy.beans.config.HttpClientConfigImpl;
+import edu.wisc.my.webproxy.beans.config.ProxyConfig;
 
 /**
  * ShibbolethEnabledHttpManagerImpl subclasses HttpManagerImpl to configurably
@@ -41,7 +45,10 @@ import edu.wisc.my.webproxy.beans.config.HttpClientConfigImpl;
  * @author Jen Bourey, jbourey@unicon.net
  */
 public class ShibbolethEnabledHttpManagerImpl extends HttpManagerImpl {
+    private static final long serialVersionUID = 1L;
+    
 	private final static String AUTH_TYPE_SHIBBOLETH = "SHIBBOLETH";
+	private final static String SAML_CLIENT_ATTR = ShibbolethEnabledHttpManagerImpl.class.getName() + ".SAML_CLIENT";
 
 	private String spPrivateKey;
 	private String spCertificate;
@@ -86,58 +93,77 @@ public class ShibbolethEnabledHttpManagerImpl extends HttpManagerImpl {
     }
 
     /**
-	 * Create a new HttpClient which may potentially be pre-configured for
+	 * Get the HttpClient which may potentially be pre-configured for
 	 * Shibboleth authentication.  If the current portlet instance is configured
 	 * to perform Shibboleth-based authentication, this implementation should 
 	 * construct a new SAMLSession and return the associated DefaultHttpClient
-	 * instance.  If the portlet is not using Shibboleth for authentication, or
-	 * does not have authentication enabled, this method will delegate to the
-	 * default parent impelmentation.
+	 * instance.  The SAML client holds the authenticated session of the user
+	 * so it is kept in the portlet session and not shared between users.
+	 * If the portlet is not using Shibboleth for authentication, or does not
+	 * have authentication enabled, this method will delegate to the default
+	 * parent impelmentation which returns the shared client.
 	 * 
 	 * @param request portlet request
-	 * @return new DefaultHttpClient instance
+	 * @return DefaultHttpClient instance
 	 */
 	@Override
-	protected DefaultHttpClient createHttpClient(PortletRequest request) {
+	protected HttpClient getHttpClient(PortletRequest request) {
 		// determine whether authentication is enabled, and if so, which type
         final PortletPreferences myPreferences = new PortletPreferencesWrapper(request.getPreferences(), (Map<?, ?>)request.getAttribute(PortletRequest.USER_INFO));
-        final boolean authEnabled = new Boolean(myPreferences.getValue(HttpClientConfigImpl.AUTH_ENABLE, null)).booleanValue();
+        final boolean authEnabled = ProxyConfig.getConfig(request).isAuthEnabled();
         final String authType = ConfigUtils.checkEmptyNullString(myPreferences.getValue(HttpClientConfigImpl.AUTH_TYPE, ""), "");
 
         // If this portlet instance is configured to use shibboleth authentication,
-        // construct a new SAMLSession and return the HttpClient instance
-        // returned by the SAMLSession.  
+        // use the HttpClient instance returned by the SAMLSession of this user.
         if (authEnabled && AUTH_TYPE_SHIBBOLETH.equals(authType)) {
-    		final String samlAssertion = getAssertion(request);
-    		
-    		final HttpParams params = new BasicHttpParams();
-    		final ClientConnectionManager clientConnectionManager = this.createClientConnectionManager(request, params);
-    		final SAMLSession samlSession = new SAMLSession(samlAssertion, clientConnectionManager, params);
-    		
-    		samlSession.setSkipValidateIdp(this.skipValidateIdp);
-    		samlSession.setPortalEntityID(portalEntityID);
-
-    		if (spPrivateKey != null && spCertificate != null) {
-    			samlSession.setIdPClientPrivateKeyAndCert(spPrivateKey,
-    					spCertificate);
-    		}
-
-    		String idpPublicKeys = getIdPPublicKeys(request);
-    		if (idpPublicKeys != null) {
-    			samlSession.setIdPServerPublicKeys(idpPublicKeys);
-    		}
-
-    		this.logger.debug("Returning new Shibbolized HttpClient instance");
-    		DefaultHttpClient client = (DefaultHttpClient) samlSession.getHttpClient();
-    		client = setHttpClientTimeouts(request, client);
-    		return client;
+            final PortletSession session = request.getPortletSession();
+            DefaultHttpClient client;
+            synchronized (PortletUtils.getSessionMutex(session)) {
+                client = (DefaultHttpClient)session.getAttribute(SAML_CLIENT_ATTR);
+                if (client == null) {
+                    client = this.createSamlHttpClient(request);
+                    session.setAttribute(SAML_CLIENT_ATTR, client);
+                }
+            }
+            
+            client.setCookieStore(this.getCookieStore());
+            return setHttpClientTimeouts(request, client);
         }
         
         // If the portlet is not using shibboleth authentication, call the 
         // parent method as usual.
-		DefaultHttpClient client = super.createHttpClient(request);
-		client = setHttpClientTimeouts(request, client);
-		return client;
+		return super.getHttpClient(request);
+	}
+	
+	/**
+	 * Construct a new SAMLSession and return the DefaultHttpClient instance
+	 * returned by the SAMLSession.
+	 * 
+	 * @param request portlet request
+	 * @return new DefaultHttpClient instance
+	 */
+	protected DefaultHttpClient createSamlHttpClient(PortletRequest request) {
+		final String samlAssertion = getAssertion(request);
+		
+		final HttpParams params = new BasicHttpParams();
+		final ClientConnectionManager clientConnectionManager = this.createClientConnectionManager(request, params);
+		final SAMLSession samlSession = new SAMLSession(samlAssertion, clientConnectionManager, params);
+		
+		samlSession.setSkipValidateIdp(this.skipValidateIdp);
+		samlSession.setPortalEntityID(portalEntityID);
+
+		if (spPrivateKey != null && spCertificate != null) {
+			samlSession.setIdPClientPrivateKeyAndCert(spPrivateKey,
+					spCertificate);
+		}
+
+		String idpPublicKeys = getIdPPublicKeys(request);
+		if (idpPublicKeys != null) {
+			samlSession.setIdPServerPublicKeys(idpPublicKeys);
+		}
+
+		this.logger.debug("Returning new Shibbolized HttpClient instance");
+		return (DefaultHttpClient) samlSession.getHttpClient();
 	}
 
 	/**
@@ -0,0 +1,43 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.interceptors;
+
+/**
+ * Thrown when a configured pre- or post-interceptor can't be resolved.
+ *
+ * @version $Revision$
+ */
+public class InterceptorConfigurationException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @see Exception#Exception(java.lang.String)
+     */
+    public InterceptorConfigurationException(String message) {
+        super(message);
+    }
+
+    /**
+     * @see Exception#Exception(java.lang.String, java.lang.Throwable)
+     */
+    public InterceptorConfigurationException(String message, Throwable t) {
+        super(message, t);
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.interceptors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+
+/**
+ * Resolves the pre- and post-interceptors configured in the portlet preferences. A preference
+ * value is an ordered list of names separated by commas or whitespace, each name is either the
+ * name of a bean in the application context or the name of a class with a public no argument
+ * constructor. Interceptors are shared by all requests so they must be stateless, each name is
+ * resolved once and the resolved lists are cached by preference value. A name that can't be
+ * resolved is logged once and the same {@link InterceptorConfigurationException} is thrown for
+ * every later request using it.
+ *
+ * @version $Revision$
+ */
+public class InterceptorRegistry implements BeanFactoryAware {
+    private static final String SEPARATORS = ", \t\r\n";
+
+    private static final PreInterceptor[] NO_PRE_INTERCEPTORS = new PreInterceptor[0];
+    private static final PostInterceptor[] NO_POST_INTERCEPTORS = new PostInterceptor[0];
+
+    protected final Log logger = LogFactory.getLog(this.getClass());
+
+    private final ConcurrentMap<String, Object> interceptors = new ConcurrentHashMap<String, Object>();
+    private final ConcurrentMap<String, InterceptorConfigurationException> failures = new ConcurrentHashMap<String, InterceptorConfigurationException>();
+    private final ConcurrentMap<String, PreInterceptor[]> preInterceptorLists = new ConcurrentHashMap<String, PreInterceptor[]>();
+    private final ConcurrentMap<String, PostInterceptor[]> postInterceptorLists = new ConcurrentHashMap<String, PostInterceptor[]>();
+
+    private BeanFactory beanFactory;
+
+    /**
+     * @see org.springframework.beans.factory.BeanFactoryAware#setBeanFactory(org.springframework.beans.factory.BeanFactory)
+     */
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
+    /**
+     * Gets the pre-interceptors for a preference value, in the order they are listed.
+     *
+     * @param names The preference value, may be null
+     * @return The interceptors to run, empty if none are configured
+     * @throws InterceptorConfigurationException If one of the interceptors can't be resolved
+     */
+    public PreInterceptor[] getPreInterceptors(String names) throws InterceptorConfigurationException {
+        if (names == null) {
+            return NO_PRE_INTERCEPTORS;
+        }
+
+        PreInterceptor[] preInterceptors = this.preInterceptorLists.get(names);
+        if (preInterceptors == null) {
+            final List<PreInterceptor> resolved = new ArrayList<PreInterceptor>();
+            for (final String name : parseNames(names)) {
+                resolved.add(this.getInterceptor(name, PreInterceptor.class));
+            }
+
+            preInterceptors = resolved.toArray(new PreInterceptor[resolved.size()]);
+            this.preInterceptorLists.put(names, preInterceptors);
+        }
+
+        return preInterceptors;
+    }
+
+    /**
+     * Gets the post-interceptors for a preference value, in the order they are listed.
+     *
+     * @param names The preference value, may be null
+     * @return The interceptors to run, empty if none are configured
+     * @throws InterceptorConfigurationException If one of the interceptors can't be resolved
+     */
+    public PostInterceptor[] getPostInterceptors(String names) throws InterceptorConfigurationException {
+        if (names == null) {
+            return NO_POST_INTERCEPTORS;
+        }
+
+        PostInterceptor[] postInterceptors = this.postInterceptorLists.get(names);
+        if (postInterceptors == null) {
+            final List<PostInterceptor> resolved = new ArrayList<PostInterceptor>();
+            for (final String name : parseNames(names)) {
+                resolved.add(this.getInterceptor(name, PostInterceptor.class));
+            }
+
+            postInterceptors = resolved.toArray(new PostInterceptor[resolved.size()]);
+            this.postInterceptorLists.put(names, postInterceptors);
+        }
+
+        return postInterceptors;
+    }
+
+    /**
+     * Resolves every name in a preference value without caching failures, used to validate the
+     * value when it is configured.
+     *
+     * @param names The preference value to validate
+     * @param type The interface every interceptor must implement
+     * @return The names separated by commas
+     * @throws InterceptorConfigurationException Describing the first name that can't be resolved
+     */
+    public String validate(String names, Class<?> type) throws InterceptorConfigurationException {
+        final StringBuilder normalized = new StringBuilder();
+        for (final String name : parseNames(names)) {
+            if (!this.interceptors.containsKey(name)) {
+                this.interceptors.putIfAbsent(name, this.createInterceptor(name));
+            }
+            checkType(name, this.interceptors.get(name), type);
+
+            //A successfully resolved name replaces any earlier failure
+            this.failures.remove(getFailureKey(name, type));
+
+            if (normalized.length() > 0) {
+                normalized.append(",");
+            }
+            normalized.append(name);
+        }
+
+        return normalized.toString();
+    }
+
+    /**
+     * Discards all resolved interceptors and failures, the next request resolves them again.
+     */
+    public void clear() {
+        this.interceptors.clear();
+        this.failures.clear();
+        this.preInterceptorLists.clear();
+        this.postInterceptorLists.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getInterceptor(String name, Class<T> type) throws InterceptorConfigurationException {
+        final String failureKey = getFailureKey(name, type);
+        final InterceptorConfigurationException failure = this.failures.get(failureKey);
+        if (failure != null) {
+            throw failure;
+        }
+
+        Object interceptor = this.interceptors.get(name);
+        try {
+            if (interceptor == null) {
+                interceptor = this.createInterceptor(name);
+
+                final Object existing = this.interceptors.putIfAbsent(name, interceptor);
+                if (existing != null) {
+                    interceptor = existing;
+                }
+            }
+
+            checkType(name, interceptor, type);
+        }
+        catch (InterceptorConfigurationException ice) {
+            if (this.failures.putIfAbsent(failureKey, ice) == null) {
+                this.logger.error(ice.getMessage(), ice.getCause());
+            }
+            throw ice;
+        }
+
+        return (T)interceptor;
+    }
+
+    private Object createInterceptor(String name) throws InterceptorConfigurationException {
+        if (this.beanFactory != null && this.beanFactory.containsBean(name)) {
+            try {
+                return this.beanFactory.getBean(name);
+            }
+            catch (BeansException be) {
+                throw new InterceptorConfigurationException("Could not create interceptor bean '" + name + "'", be);
+            }
+        }
+
+        try {
+            return Class.forName(name).newInstance();
+        }
+        catch (ClassNotFoundException cnfe) {
+            throw new InterceptorConfigurationException("Could not find specified interceptor class '" + name + "'", cnfe);
+        }
+        catch (InstantiationException ie) {
+            throw new InterceptorConfigurationException("Could not instantiate specified interceptor class '" + name + "'", ie);
+        }
+        catch (IllegalAccessException iae) {
+            throw new InterceptorConfigurationException("Could not instantiate specified interceptor class '" + name + "'", iae);
+        }
+    }
+
+    private static void checkType(String name, Object interceptor, Class<?> type) throws InterceptorConfigurationException {
+        if (!type.isInstance(interceptor)) {
+            throw new InterceptorConfigurationException("Could not cast '" + name + "' to '" + type.getName() + "'");
+        }
+    }
+
+    private static String getFailureKey(String name, Class<?> type) {
+        return type.getName() + "|" + name;
+    }
+
+    private static List<String> parseNames(String names) {
+        final List<String> parsed = new ArrayList<String>();
+        for (final StringTokenizer nameTokens = new StringTokenizer(names, SEPARATORS); nameTokens.hasMoreTokens(); ) {
+            parsed.add(nameTokens.nextToken());
+        }
+        return parsed;
+    }
+}
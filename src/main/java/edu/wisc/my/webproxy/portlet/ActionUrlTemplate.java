@@ -0,0 +1,125 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.webproxy.portlet;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import javax.portlet.PortletURL;
+import javax.portlet.RenderResponse;
+import javax.portlet.WindowState;
+import javax.portlet.WindowStateException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An action URL for a proxied URL split around the value of the URL parameter. The template
+ * is created from an action URL the container creates with a placeholder for the proxied URL,
+ * the encoded URL is spliced into the template instead of asking the container for every URL.
+ * 
+ * @version $Revision$
+ */
+public final class ActionUrlTemplate {
+    private static final Log LOG = LogFactory.getLog(ActionUrlTemplate.class);
+    
+    private static final String URL_PLACEHOLDER = "WPURLPLACEHOLDER";
+    private static final String CHECK_URL = "http://www.example.com/a b/c.jsp?d=e&f=%20\u00e9+g#h";
+    
+    private final String prefix;
+    private final String suffix;
+    
+    /**
+     * Creates the template for the window state and checks it produces the same URL as the
+     * container.
+     * 
+     * @param response The response to create the action URLs with.
+     * @param windowState The window state of the URLs, null for URLs without a window state.
+     * @param passThrough If the URLs are marked for pass-through.
+     * @return The template, null if the template doesn't match the container's URL.
+     */
+    public static ActionUrlTemplate createTemplate(RenderResponse response, String windowState, boolean passThrough) {
+        final String templateUrl = createActionUrl(response, URL_PLACEHOLDER, windowState, passThrough);
+        
+        final int placeholderIndex = templateUrl.indexOf(URL_PLACEHOLDER);
+        if (placeholderIndex < 0 || placeholderIndex != templateUrl.lastIndexOf(URL_PLACEHOLDER)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("The placeholder does not occur once in action URL '" + templateUrl + "'");
+            }
+            return null;
+        }
+        
+        final ActionUrlTemplate urlTemplate = new ActionUrlTemplate(templateUrl.substring(0, placeholderIndex), templateUrl.substring(placeholderIndex + URL_PLACEHOLDER.length()));
+        
+        final String checkUrl = createActionUrl(response, CHECK_URL, windowState, passThrough);
+        final String templateCheckUrl = urlTemplate.createUrl(CHECK_URL);
+        if (!checkUrl.equals(templateCheckUrl)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Action URL '" + checkUrl + "' created by the portlet container does not match URL '" + templateCheckUrl + "' created from the template");
+            }
+            return null;
+        }
+        
+        return urlTemplate;
+    }
+    
+    /**
+     * Creates the action URL for a proxied URL using the container, an invalid window state
+     * is logged and the URL is created without it.
+     */
+    public static String createActionUrl(RenderResponse response, String url, String windowState, boolean passThrough) {
+        final PortletURL actionUrl = response.createActionURL();
+        actionUrl.setParameter(WebproxyConstants.BASE_URL, url);
+        if (passThrough) {
+            actionUrl.setParameter(WebproxyConstants.PASS_THROUGH, Boolean.TRUE.toString());
+        }
+        
+        if (windowState != null) {
+            try {
+                actionUrl.setWindowState(new WindowState(windowState));
+            }
+            catch (WindowStateException e) {
+                LOG.error("Unable to set WindowState='" + windowState + "'", e);
+            }
+        }
+        
+        return actionUrl.toString();
+    }
+    
+    private ActionUrlTemplate(String prefix, String suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+    
+    /**
+     * Creates the action URL for a proxied URL.
+     */
+    public String createUrl(String url) {
+        final String encodedUrl;
+        try {
+            encodedUrl = URLEncoder.encode(url, "UTF-8");
+        }
+        catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException("UTF-8 is not supported", uee);
+        }
+        
+        return new StringBuilder(this.prefix.length() + encodedUrl.length() + this.suffix.length())
+            .append(this.prefix).append(encodedUrl).append(this.suffix).toString();
+    }
+}
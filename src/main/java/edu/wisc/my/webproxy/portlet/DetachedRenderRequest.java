@@ -0,0 +1,433 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.portlet;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.portlet.PortalContext;
+import javax.portlet.PortletContext;
+import javax.portlet.PortletMode;
+import javax.portlet.PortletPreferences;
+import javax.portlet.PortletRequest;
+import javax.portlet.PortletSession;
+import javax.portlet.ReadOnlyException;
+import javax.portlet.RenderRequest;
+import javax.portlet.ValidatorException;
+import javax.portlet.WindowState;
+
+import edu.wisc.my.webproxy.beans.PortletPreferencesWrapper;
+import edu.wisc.my.webproxy.beans.config.ConfigUtils;
+import edu.wisc.my.webproxy.beans.config.GeneralConfigImpl;
+import edu.wisc.my.webproxy.beans.config.HttpClientConfigImpl;
+
+/**
+ * A copy of the state of a RenderRequest used to render a page in the background after the
+ * original request has completed. The preferences, session attributes and user information are
+ * copied when the request is captured, changes made while rendering are not copied back. The
+ * request has no parameters and is always in VIEW mode.
+ * 
+ * A request captured without the user context has no user information, remote user or session
+ * state and session persistence is disabled, so the page is rendered as it would be for a new
+ * session. A request captured with the user context shares the objects in the user's session,
+ * the user's HttpManager should be replaced with a copy using HttpManagerService#detachManager.
+ * 
+ * @version $Revision$
+ */
+public class DetachedRenderRequest implements RenderRequest {
+    private final PortletPreferences preferences;
+    private final DetachedPortletSession session;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+    private final WindowState windowState;
+    private final PortalContext portalContext;
+    private final String authType;
+    private final String contextPath;
+    private final String remoteUser;
+    private final Principal userPrincipal;
+    private final String responseContentType;
+    private final Locale locale;
+    private final String scheme;
+    private final String serverName;
+    private final int serverPort;
+    private final boolean secure;
+    
+    /**
+     * Captures the state of a request.
+     * 
+     * @param request The request to copy.
+     * @param userContext If the user's information and session state should be copied.
+     * @param url The URL being rendered, stored in the session as the current URL.
+     */
+    public static DetachedRenderRequest capture(PortletRequest request, boolean userContext, String url) {
+        return new DetachedRenderRequest(request, userContext, url);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private DetachedRenderRequest(PortletRequest request, boolean userContext, String url) {
+        final Map<String, String[]> preferenceValues = new HashMap<String, String[]>();
+        for (final Map.Entry<String, String[]> preferenceEntry : ((Map<String, String[]>)request.getPreferences().getMap()).entrySet()) {
+            final String[] values = preferenceEntry.getValue();
+            preferenceValues.put(preferenceEntry.getKey(), (values != null ? values.clone() : null));
+        }
+        
+        final Map<String, Object> portletAttributes = new HashMap<String, Object>();
+        final Map<String, Object> applicationAttributes = new HashMap<String, Object>();
+        final PortletSession requestSession = request.getPortletSession();
+        if (userContext) {
+            final Map<String, ?> userInfo = (Map<String, ?>)request.getAttribute(PortletRequest.USER_INFO);
+            this.attributes.put(PortletRequest.USER_INFO, (userInfo != null ? new HashMap<String, Object>(userInfo) : new HashMap<String, Object>()));
+            
+            for (final Enumeration<String> names = requestSession.getAttributeNames(PortletSession.PORTLET_SCOPE); names.hasMoreElements(); ) {
+                final String name = names.nextElement();
+                portletAttributes.put(name, requestSession.getAttribute(name, PortletSession.PORTLET_SCOPE));
+            }
+            
+            //A shared HttpManager is stored in the application scope
+            final PortletPreferences prefs = new PortletPreferencesWrapper(request.getPreferences(), (Map<?, ?>)request.getAttribute(PortletRequest.USER_INFO));
+            final String sharedStateKey = ConfigUtils.checkEmptyNullString(prefs.getValue(HttpClientConfigImpl.SHARED_SESSION_KEY, null), null);
+            if (sharedStateKey != null) {
+                final Object sharedState = requestSession.getAttribute(sharedStateKey, PortletSession.APPLICATION_SCOPE);
+                if (sharedState != null) {
+                    applicationAttributes.put(sharedStateKey, sharedState);
+                }
+            }
+            
+            this.remoteUser = request.getRemoteUser();
+            this.userPrincipal = request.getUserPrincipal();
+            this.authType = request.getAuthType();
+        }
+        else {
+            this.attributes.put(PortletRequest.USER_INFO, new HashMap<String, Object>());
+            preferenceValues.put(HttpClientConfigImpl.SESSION_PERSISTENCE_ENABLE, new String[] { Boolean.FALSE.toString() });
+            
+            this.remoteUser = null;
+            this.userPrincipal = null;
+            this.authType = null;
+        }
+        portletAttributes.put(GeneralConfigImpl.BASE_URL, url);
+        
+        this.preferences = new DetachedPortletPreferences(preferenceValues);
+        this.session = new DetachedPortletSession(portletAttributes, applicationAttributes, requestSession.getPortletContext(), requestSession.getMaxInactiveInterval());
+        this.windowState = request.getWindowState();
+        this.portalContext = request.getPortalContext();
+        this.contextPath = request.getContextPath();
+        this.responseContentType = request.getResponseContentType();
+        this.locale = request.getLocale();
+        this.scheme = request.getScheme();
+        this.serverName = request.getServerName();
+        this.serverPort = request.getServerPort();
+        this.secure = request.isSecure();
+    }
+
+    public boolean isWindowStateAllowed(WindowState state) {
+        return this.windowState.equals(state);
+    }
+
+    public boolean isPortletModeAllowed(PortletMode mode) {
+        return PortletMode.VIEW.equals(mode);
+    }
+
+    public PortletMode getPortletMode() {
+        return PortletMode.VIEW;
+    }
+
+    public WindowState getWindowState() {
+        return this.windowState;
+    }
+
+    public PortletPreferences getPreferences() {
+        return this.preferences;
+    }
+
+    public PortletSession getPortletSession() {
+        return this.session;
+    }
+
+    public PortletSession getPortletSession(boolean create) {
+        return this.session;
+    }
+
+    public String getProperty(String name) {
+        return null;
+    }
+
+    public Enumeration getProperties(String name) {
+        return Collections.enumeration(Collections.emptyList());
+    }
+
+    public Enumeration getPropertyNames() {
+        return Collections.enumeration(Collections.emptyList());
+    }
+
+    public PortalContext getPortalContext() {
+        return this.portalContext;
+    }
+
+    public String getAuthType() {
+        return this.authType;
+    }
+
+    public String getContextPath() {
+        return this.contextPath;
+    }
+
+    public String getRemoteUser() {
+        return this.remoteUser;
+    }
+
+    public Principal getUserPrincipal() {
+        return this.userPrincipal;
+    }
+
+    public boolean isUserInRole(String role) {
+        return false;
+    }
+
+    public Object getAttribute(String name) {
+        return this.attributes.get(name);
+    }
+
+    public Enumeration getAttributeNames() {
+        return Collections.enumeration(this.attributes.keySet());
+    }
+
+    public String getParameter(String name) {
+        return null;
+    }
+
+    public Enumeration getParameterNames() {
+        return Collections.enumeration(Collections.emptyList());
+    }
+
+    public String[] getParameterValues(String name) {
+        return null;
+    }
+
+    public Map getParameterMap() {
+        return Collections.emptyMap();
+    }
+
+    public boolean isSecure() {
+        return this.secure;
+    }
+
+    public void setAttribute(String name, Object o) {
+        if (o == null) {
+            this.attributes.remove(name);
+        }
+        else {
+            this.attributes.put(name, o);
+        }
+    }
+
+    public void removeAttribute(String name) {
+        this.attributes.remove(name);
+    }
+
+    public String getRequestedSessionId() {
+        return this.session.getId();
+    }
+
+    public boolean isRequestedSessionIdValid() {
+        return true;
+    }
+
+    public String getResponseContentType() {
+        return this.responseContentType;
+    }
+
+    public Enumeration getResponseContentTypes() {
+        return Collections.enumeration(Collections.singletonList(this.responseContentType));
+    }
+
+    public Locale getLocale() {
+        return this.locale;
+    }
+
+    public Enumeration getLocales() {
+        return Collections.enumeration(Collections.singletonList(this.locale));
+    }
+
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    public String getServerName() {
+        return this.serverName;
+    }
+
+    public int getServerPort() {
+        return this.serverPort;
+    }
+    
+    
+    /**
+     * Read only copy of the portlet preferences.
+     */
+    private static final class DetachedPortletPreferences implements PortletPreferences {
+        private final Map<String, String[]> values;
+        
+        public DetachedPortletPreferences(Map<String, String[]> values) {
+            this.values = values;
+        }
+
+        public boolean isReadOnly(String key) {
+            return true;
+        }
+
+        public String getValue(String key, String def) {
+            final String[] value = this.values.get(key);
+            if (value == null || value.length == 0) {
+                return def;
+            }
+            return value[0];
+        }
+
+        public String[] getValues(String key, String[] def) {
+            final String[] value = this.values.get(key);
+            if (value == null) {
+                return def;
+            }
+            return value.clone();
+        }
+
+        public void setValue(String key, String value) throws ReadOnlyException {
+            throw new ReadOnlyException("Preferences can't be modified during a background render");
+        }
+
+        public void setValues(String key, String[] values) throws ReadOnlyException {
+            throw new ReadOnlyException("Preferences can't be modified during a background render");
+        }
+
+        public Enumeration getNames() {
+            return Collections.enumeration(this.values.keySet());
+        }
+
+        public Map getMap() {
+            return Collections.unmodifiableMap(this.values);
+        }
+
+        public void reset(String key) throws ReadOnlyException {
+            throw new ReadOnlyException("Preferences can't be modified during a background render");
+        }
+
+        public void store() throws IOException, ValidatorException {
+            throw new IllegalStateException("Preferences can't be stored during a background render");
+        }
+    }
+    
+    /**
+     * Session holding copies of the attribute references of the user's session.
+     */
+    private static final class DetachedPortletSession implements PortletSession {
+        private final Map<String, Object> portletAttributes;
+        private final Map<String, Object> applicationAttributes;
+        private final PortletContext portletContext;
+        private final long creationTime = System.currentTimeMillis();
+        private int maxInactiveInterval;
+        
+        public DetachedPortletSession(Map<String, Object> portletAttributes, Map<String, Object> applicationAttributes, PortletContext portletContext, int maxInactiveInterval) {
+            this.portletAttributes = new ConcurrentHashMap<String, Object>(portletAttributes);
+            this.applicationAttributes = new ConcurrentHashMap<String, Object>(applicationAttributes);
+            this.portletContext = portletContext;
+            this.maxInactiveInterval = maxInactiveInterval;
+        }
+        
+        private Map<String, Object> getAttributes(int scope) {
+            return (scope == APPLICATION_SCOPE ? this.applicationAttributes : this.portletAttributes);
+        }
+
+        public Object getAttribute(String name) {
+            return this.getAttribute(name, PORTLET_SCOPE);
+        }
+
+        public Object getAttribute(String name, int scope) {
+            return this.getAttributes(scope).get(name);
+        }
+
+        public Enumeration getAttributeNames() {
+            return this.getAttributeNames(PORTLET_SCOPE);
+        }
+
+        public Enumeration getAttributeNames(int scope) {
+            return Collections.enumeration(this.getAttributes(scope).keySet());
+        }
+
+        public long getCreationTime() {
+            return this.creationTime;
+        }
+
+        public String getId() {
+            return "detached-" + System.identityHashCode(this);
+        }
+
+        public long getLastAccessedTime() {
+            return this.creationTime;
+        }
+
+        public int getMaxInactiveInterval() {
+            return this.maxInactiveInterval;
+        }
+
+        public void invalidate() {
+            this.portletAttributes.clear();
+            this.applicationAttributes.clear();
+        }
+
+        public boolean isNew() {
+            return false;
+        }
+
+        public void removeAttribute(String name) {
+            this.removeAttribute(name, PORTLET_SCOPE);
+        }
+
+        public void removeAttribute(String name, int scope) {
+            this.getAttributes(scope).remove(name);
+        }
+
+        public void setAttribute(String name, Object value) {
+            this.setAttribute(name, value, PORTLET_SCOPE);
+        }
+
+        public void setAttribute(String name, Object value, int scope) {
+            if (value == null) {
+                this.removeAttribute(name, scope);
+            }
+            else {
+                this.getAttributes(scope).put(name, value);
+            }
+        }
+
+        public void setMaxInactiveInterval(int interval) {
+            this.maxInactiveInterval = interval;
+        }
+
+        public PortletContext getPortletContext() {
+            return this.portletContext;
+        }
+    }
+}
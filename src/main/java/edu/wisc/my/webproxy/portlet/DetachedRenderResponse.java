@@ -0,0 +1,274 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.portlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.portlet.PortletMode;
+import javax.portlet.PortletModeException;
+import javax.portlet.PortletURL;
+import javax.portlet.RenderResponse;
+import javax.portlet.WindowState;
+import javax.portlet.WindowStateException;
+
+/**
+ * A RenderResponse used to render a page in the background after the original request has
+ * completed. Everything written to the response is discarded, the content is expected to be
+ * captured by a CacheWriter.
+ * 
+ * The container can't create portlet URLs once the original request completes, instead action
+ * URL templates are created for each window state when the response is captured, the same way
+ * the PortletUrlFilter creates them. Only action URLs with the proxied URL and pass
+ * through parameters can be created, anything else fails the render.
+ * 
+ * @version $Revision$
+ */
+public class DetachedRenderResponse implements RenderResponse {
+    private final Map<String, ActionUrlTemplate> urlTemplates;
+    private final Map<String, ActionUrlTemplate> passThroughUrlTemplates;
+    private final String namespace;
+    private final String characterEncoding;
+    private final Locale locale;
+    private String contentType;
+    
+    /**
+     * Captures the state of a response and creates the action URL templates.
+     * 
+     * @param response The response to copy, must still be usable.
+     * @param windowStates The window states action URLs may be created with, URLs without a window state are always supported.
+     * @return The detached response, null if the action URLs created by the container can't be reproduced from a template.
+     */
+    public static DetachedRenderResponse capture(RenderResponse response, String[] windowStates) {
+        final Map<String, ActionUrlTemplate> urlTemplates = new HashMap<String, ActionUrlTemplate>();
+        final Map<String, ActionUrlTemplate> passThroughUrlTemplates = new HashMap<String, ActionUrlTemplate>();
+        
+        if (!addUrlTemplates(response, null, urlTemplates, passThroughUrlTemplates)) {
+            return null;
+        }
+        if (windowStates != null) {
+            for (final String windowState : windowStates) {
+                //Templates are stored by the name of the WindowState the URL is given
+                if (windowState != null && windowState.trim().length() > 0 && !urlTemplates.containsKey(new WindowState(windowState).toString())) {
+                    if (!addUrlTemplates(response, windowState, urlTemplates, passThroughUrlTemplates)) {
+                        return null;
+                    }
+                }
+            }
+        }
+        
+        return new DetachedRenderResponse(response, urlTemplates, passThroughUrlTemplates);
+    }
+    
+    /**
+     * Creates the templates for the window state.
+     * 
+     * @return false if the container's URLs for the window state can't be reproduced from a template
+     */
+    private static boolean addUrlTemplates(RenderResponse response, String windowState, Map<String, ActionUrlTemplate> urlTemplates, Map<String, ActionUrlTemplate> passThroughUrlTemplates) {
+        final ActionUrlTemplate urlTemplate = ActionUrlTemplate.createTemplate(response, windowState, false);
+        final ActionUrlTemplate passThroughUrlTemplate = ActionUrlTemplate.createTemplate(response, windowState, true);
+        if (urlTemplate == null || passThroughUrlTemplate == null) {
+            return false;
+        }
+        
+        final String key = (windowState != null ? new WindowState(windowState).toString() : null);
+        urlTemplates.put(key, urlTemplate);
+        passThroughUrlTemplates.put(key, passThroughUrlTemplate);
+        return true;
+    }
+    
+    private DetachedRenderResponse(RenderResponse response, Map<String, ActionUrlTemplate> urlTemplates, Map<String, ActionUrlTemplate> passThroughUrlTemplates) {
+        this.urlTemplates = urlTemplates;
+        this.passThroughUrlTemplates = passThroughUrlTemplates;
+        this.namespace = response.getNamespace();
+        this.characterEncoding = response.getCharacterEncoding();
+        this.locale = response.getLocale();
+        this.contentType = response.getContentType();
+    }
+
+    public void addProperty(String key, String value) {
+    }
+
+    public void setProperty(String key, String value) {
+    }
+
+    public String encodeURL(String path) {
+        throw new IllegalStateException("URLs can't be encoded during a background render");
+    }
+
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    public PortletURL createRenderURL() {
+        throw new IllegalStateException("Render URLs can't be created during a background render");
+    }
+
+    public PortletURL createActionURL() {
+        return new DetachedActionUrl();
+    }
+
+    public String getNamespace() {
+        return this.namespace;
+    }
+
+    public void setTitle(String title) {
+    }
+
+    public void setContentType(String type) {
+        this.contentType = type;
+    }
+
+    public String getCharacterEncoding() {
+        return this.characterEncoding;
+    }
+
+    public PrintWriter getWriter() throws IOException {
+        return new PrintWriter(NullWriter.INSTANCE);
+    }
+
+    public Locale getLocale() {
+        return this.locale;
+    }
+
+    public void setBufferSize(int size) {
+    }
+
+    public int getBufferSize() {
+        return 0;
+    }
+
+    public void flushBuffer() throws IOException {
+    }
+
+    public void resetBuffer() {
+    }
+
+    public boolean isCommitted() {
+        return false;
+    }
+
+    public void reset() {
+    }
+
+    public OutputStream getPortletOutputStream() throws IOException {
+        return NullOutputStream.INSTANCE;
+    }
+    
+    
+    /**
+     * Action URL created from the templates, only the proxied URL and pass through parameters
+     * are supported.
+     */
+    private final class DetachedActionUrl implements PortletURL {
+        private String url = null;
+        private boolean passThrough = false;
+        private String windowState = null;
+
+        public void setWindowState(WindowState windowState) throws WindowStateException {
+            if (!urlTemplates.containsKey(windowState.toString())) {
+                throw new WindowStateException("No action URL template was created for the window state", windowState);
+            }
+            this.windowState = windowState.toString();
+        }
+
+        public void setPortletMode(PortletMode portletMode) throws PortletModeException {
+            throw new PortletModeException("The portlet mode can't be changed during a background render", portletMode);
+        }
+
+        public void setParameter(String name, String value) {
+            if (WebproxyConstants.BASE_URL.equals(name)) {
+                this.url = value;
+            }
+            else if (WebproxyConstants.PASS_THROUGH.equals(name)) {
+                this.passThrough = Boolean.valueOf(value).booleanValue();
+            }
+            else {
+                throw new IllegalStateException("Parameter '" + name + "' can't be set during a background render");
+            }
+        }
+
+        public void setParameter(String name, String[] values) {
+            if (values == null || values.length != 1) {
+                throw new IllegalStateException("Parameter '" + name + "' must have a single value during a background render");
+            }
+            this.setParameter(name, values[0]);
+        }
+
+        @SuppressWarnings("unchecked")
+        public void setParameters(Map parameters) {
+            for (final Map.Entry<String, String[]> parameter : ((Map<String, String[]>)parameters).entrySet()) {
+                this.setParameter(parameter.getKey(), parameter.getValue());
+            }
+        }
+
+        public void setSecure(boolean secure) {
+            throw new IllegalStateException("URL security can't be changed during a background render");
+        }
+        
+        @Override
+        public String toString() {
+            if (this.url == null) {
+                throw new IllegalStateException("Action URLs without a proxied URL can't be created during a background render");
+            }
+            
+            final ActionUrlTemplate template = (this.passThrough ? passThroughUrlTemplates : urlTemplates).get(this.windowState);
+            return template.createUrl(this.url);
+        }
+    }
+    
+    private static final class NullWriter extends Writer {
+        public static final NullWriter INSTANCE = new NullWriter();
+        
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+        
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+    
+    private static final class NullOutputStream extends OutputStream {
+        public static final NullOutputStream INSTANCE = new NullOutputStream();
+        
+        @Override
+        public void write(int b) {
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
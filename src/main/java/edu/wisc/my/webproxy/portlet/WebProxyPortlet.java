@@ -19,8 +19,10 @@
 
 package edu.wisc.my.webproxy.portlet;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.io.Writer;
 import java.net.URLEncoder;
@@ -33,6 +35,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -70,18 +73,28 @@ import org.xml.sax.XMLReader;
 
 import edu.wisc.my.webproxy.beans.PortletPreferencesWrapper;
 import edu.wisc.my.webproxy.beans.cache.CacheEntry;
+import edu.wisc.my.webproxy.beans.cache.CacheLoadCoordinator;
+import edu.wisc.my.webproxy.beans.cache.CacheRefreshService;
 import edu.wisc.my.webproxy.beans.cache.CacheWriter;
+import edu.wisc.my.webproxy.beans.cache.ContentTypeCache;
 import edu.wisc.my.webproxy.beans.cache.PageCache;
 import edu.wisc.my.webproxy.beans.config.CacheConfigImpl;
 import edu.wisc.my.webproxy.beans.config.ConfigPage;
 import edu.wisc.my.webproxy.beans.config.ConfigUtils;
 import edu.wisc.my.webproxy.beans.config.GeneralConfigImpl;
 import edu.wisc.my.webproxy.beans.config.HttpClientConfigImpl;
-import edu.wisc.my.webproxy.beans.config.HttpHeaderConfigImpl;
-import edu.wisc.my.webproxy.beans.config.StaticHtmlConfigImpl;
+import edu.wisc.my.webproxy.beans.config.ProxyConfig;
+import edu.wisc.my.webproxy.beans.filtering.BaseUrlFilter;
 import edu.wisc.my.webproxy.beans.filtering.ChainingSaxFilter;
+import edu.wisc.my.webproxy.beans.filtering.ClippingCompleteException;
+import edu.wisc.my.webproxy.beans.filtering.ContentProcessor;
+import edu.wisc.my.webproxy.beans.filtering.ContentProcessorRegistry;
+import edu.wisc.my.webproxy.beans.filtering.FilterChainPool;
+import edu.wisc.my.webproxy.beans.filtering.FusedRewritingFilter;
 import edu.wisc.my.webproxy.beans.filtering.HtmlOutputFilter;
 import edu.wisc.my.webproxy.beans.filtering.HtmlParser;
+import edu.wisc.my.webproxy.beans.filtering.StreamingHtmlRewriter;
+import edu.wisc.my.webproxy.beans.http.CircuitOpenException;
 import edu.wisc.my.webproxy.beans.http.HttpManager;
 import edu.wisc.my.webproxy.beans.http.HttpManagerService;
 import edu.wisc.my.webproxy.beans.http.HttpTimeoutException;
@@ -89,13 +102,19 @@ import edu.wisc.my.webproxy.beans.http.IHeader;
 import edu.wisc.my.webproxy.beans.http.IKeyManager;
 import edu.wisc.my.webproxy.beans.http.ParameterPair;
 import edu.wisc.my.webproxy.beans.http.Request;
+import edu.wisc.my.webproxy.beans.http.RequestRejectedException;
 import edu.wisc.my.webproxy.beans.http.Response;
+import edu.wisc.my.webproxy.beans.interceptors.InterceptorConfigurationException;
+import edu.wisc.my.webproxy.beans.interceptors.InterceptorRegistry;
 import edu.wisc.my.webproxy.beans.interceptors.PostInterceptor;
 import edu.wisc.my.webproxy.beans.interceptors.PreInterceptor;
 import edu.wisc.my.webproxy.beans.security.CasAuthenticationHandler;
 import edu.wisc.my.webproxy.servlet.ProxyServlet;
+import edu.wisc.my.webproxy.util.CharsetUtils;
+import edu.wisc.my.webproxy.util.EncodingWriter;
 import edu.wisc.my.webproxy.util.ExtendedLRUTrackingModelPasser;
 import edu.wisc.my.webproxy.util.ExtendedModelPasser;
+import edu.wisc.my.webproxy.util.PatternListMatcher;
 
 /**
  * 
@@ -112,6 +131,11 @@ public class WebProxyPortlet extends GenericPortlet {
     private static final String FOOTER = "/WEB-INF/jsp/footer.jsp";
 
     private static final String MANUAL = "/WEB-INF/jsp/manual.jsp";
+    
+    //Number of bytes at the start of a document searched for a charset declaration
+    private static final int CHARSET_SNIFF_LIMIT = 1024;
+    
+    private static final String IGNORE_SPECIFIED_CHARSET = "http://cyberneko.org/html/features/scanner/ignore-specified-charset";
 
     public final static String preferenceKey = WebProxyPortlet.class.getName();
     
@@ -120,6 +144,19 @@ public class WebProxyPortlet extends GenericPortlet {
         setMaxSize(1000);
     }};
     
+    //Application scoped beans, resolved once when the portlet is initialized
+    private HttpManagerService httpManagerService;
+    private PageCache pageCache;
+    private CacheRefreshService cacheRefreshService;
+    private CacheLoadCoordinator cacheLoadCoordinator;
+    private IKeyManager keyManager;
+    private ContentTypeCache contentTypeCache;
+    private List acceptedContent;
+    private ContentProcessorRegistry contentProcessorRegistry;
+    private FilterChainPool filterChainPool;
+    private InterceptorRegistry interceptorRegistry;
+    private WebRequestInterceptor entityManagerInterceptor;
+    
     
     /**
      * @see javax.portlet.Portlet#destroy()
@@ -132,6 +169,26 @@ public class WebProxyPortlet extends GenericPortlet {
      */
     public void init() throws PortletException {
         super.init();
+        
+        //Gets a reference to the ApplicationContext created by the
+        //ContextLoaderListener which is configured in the web.xml for
+        //this portlet
+        final ApplicationContext context = PortletApplicationContextUtils.getWebApplicationContext(this.getPortletContext());
+        if (context == null) {
+            throw new PortletException("No WebApplicationContext found, the ContextLoaderListener must be configured in web.xml");
+        }
+        
+        this.httpManagerService = (HttpManagerService)context.getBean("HttpManagerService", HttpManagerService.class);
+        this.pageCache = (PageCache)context.getBean("PageCache", PageCache.class);
+        this.cacheRefreshService = (CacheRefreshService)context.getBean("cacheRefreshService", CacheRefreshService.class);
+        this.cacheLoadCoordinator = (CacheLoadCoordinator)context.getBean("cacheLoadCoordinator", CacheLoadCoordinator.class);
+        this.keyManager = (IKeyManager)context.getBean("keyManager", IKeyManager.class);
+        this.contentTypeCache = (ContentTypeCache)context.getBean("ContentTypeCache", ContentTypeCache.class);
+        this.acceptedContent = (List)context.getBean("ContentTypeBean", List.class);
+        this.contentProcessorRegistry = (ContentProcessorRegistry)context.getBean("ContentProcessorRegistry", ContentProcessorRegistry.class);
+        this.filterChainPool = (FilterChainPool)context.getBean("filterChainPool", FilterChainPool.class);
+        this.interceptorRegistry = (InterceptorRegistry)context.getBean("interceptorRegistry", InterceptorRegistry.class);
+        this.entityManagerInterceptor = (WebRequestInterceptor)context.getBean("openEntityManagerInViewInterceptor", WebRequestInterceptor.class);
     }
     
     private static class Mutex implements Serializable {
@@ -161,7 +218,7 @@ public class WebProxyPortlet extends GenericPortlet {
         final ApplicationContext context = PortletApplicationContextUtils.getWebApplicationContext(this.getPortletContext());
         ApplicationContextLocator.setApplicationContext(context);
         
-        final WebRequestInterceptor interceptor = (WebRequestInterceptor)context.getBean("openEntityManagerInViewInterceptor", WebRequestInterceptor.class);
+        final WebRequestInterceptor interceptor = this.entityManagerInterceptor;
         final WebRequest webRequest = new PortletWebRequest(request, response);
 
         Exception dispatchException = null;
@@ -295,28 +352,23 @@ public class WebProxyPortlet extends GenericPortlet {
         
         String sRequestType = request.getParameter(WebproxyConstants.REQUEST_TYPE);
 
-        HttpManagerService findingService = (HttpManagerService) context.getBean("HttpManagerService", HttpManagerService.class);
-        final HttpManager httpManager = findingService.findManager(request);
+        final HttpManager httpManager = this.httpManagerService.findManager(request);
         httpManager.setRenderData(request, response);
 
         this.doFormAuth(httpManager, request);
 
-        final boolean sUseCache = new Boolean(myPreferences.getValue(CacheConfigImpl.USE_CACHE, null)).booleanValue();
+        //Typed snapshot of the preferences, parsed once per portlet instance
+        final ProxyConfig proxyConfig = ProxyConfig.getConfig(request);
+
+        final boolean sUseCache = proxyConfig.isUseCache();
+        
+        //Expired entry with validators that the remote server can confirm is still current
+        CacheEntry revalidateData = null;
+        String revalidateKey = null;
+        String loadKey = null;
         if (sUseCache) {
-            final PageCache cache = (PageCache)context.getBean("PageCache", PageCache.class);
-            final String cacheScope = myPreferences.getValue(CacheConfigImpl.CACHE_SCOPE, null);
-
-            final IKeyManager keyManager = (IKeyManager)context.getBean("keyManager", IKeyManager.class);
-            String cacheKey = null;
-            /*
-             * If scope is user get a key unique to this portlet instance.
-             * Otherwise use the url alone as the key.  This will share the response across all
-             * instances of web proxy portlet.
-             */
-            if (cacheScope == null || cacheScope.equals(CacheConfigImpl.CACHE_SCOPE_USER))
-                cacheKey = keyManager.generateCacheKey(sUrl, request);
-            else 
-                cacheKey = sUrl;
+            final PageCache cache = this.pageCache;
+            final String cacheKey = this.getCacheKey(request, myPreferences, sUrl);
 
             final CacheEntry cachedData = cache.getCachedPage(cacheKey);
 
@@ -324,16 +376,61 @@ public class WebProxyPortlet extends GenericPortlet {
                 if (LOG.isTraceEnabled())
                     LOG.trace("Using cached content for key '" + cacheKey + "'");
 
-                response.setContentType(cachedData.getContentType());
-                response.getWriter().write(cachedData.getContent());
+                this.writeCachedContent(response, cachedData);
                 return;
             }
+            
+            if (sRequestType == null || WebproxyConstants.GET_REQUEST.equals(sRequestType)) {
+                //Display recently expired content and refresh it in the background
+                final int staleWhileRevalidate = proxyConfig.getStaleWhileRevalidate();
+                if (staleWhileRevalidate > 0 && PortletMode.VIEW.equals(mode) && !(request instanceof DetachedRenderRequest)) {
+                    final CacheEntry staleData = cache.getCachedPage(cacheKey, true);
+                    if (staleData != null && staleData.getExpirationDate() != null 
+                            && System.currentTimeMillis() - staleData.getExpirationDate().getTime() <= staleWhileRevalidate * 1000L
+                            && this.refreshInBackground(request, response, myPreferences, proxyConfig, cacheKey, sUrl)) {
+                        
+                        if (LOG.isTraceEnabled())
+                            LOG.trace("Using expired cached content for key '" + cacheKey + "' while it is refreshed");
+                        
+                        this.writeCachedContent(response, staleData);
+                        return;
+                    }
+                }
+                
+                final CacheEntry expiredData = cache.getCachedPage(cacheKey, true);
+                if (expiredData != null && (expiredData.getEtag() != null || expiredData.getLastModified() != null)) {
+                    revalidateData = expiredData;
+                    revalidateKey = cacheKey;
+                }
+                
+                loadKey = cacheKey;
+            }
+        }
+        
+        //Only one render loads a missing page, concurrent renders of the page wait for it
+        CacheLoadCoordinator.Flight loadFlight = null;
+        if (loadKey != null) {
+            loadFlight = this.cacheLoadCoordinator.join(loadKey);
+            if (!loadFlight.isLeader()) {
+                final CacheEntry loadedData = this.cacheLoadCoordinator.awaitLoad(loadFlight, this.pageCache, loadKey);
+                if (loadedData != null) {
+                    if (LOG.isTraceEnabled())
+                        LOG.trace("Using cached content loaded by a concurrent render for key '" + loadKey + "'");
+                    
+                    this.writeCachedContent(response, loadedData);
+                    return;
+                }
+                
+                loadFlight = null;
+            }
         }
 
+        final String requestedUrl = sUrl;
         Response httpResponse = null;
+        FilterChainPool.FilterChain filterChain = null;
         try {
             boolean redirect = true;
-            final int maxRedirects = ConfigUtils.parseInt(myPreferences.getValue(HttpClientConfigImpl.MAX_REDIRECTS, null), 5);
+            final int maxRedirects = proxyConfig.getMaxRedirects();
             for (int index = 0; index < maxRedirects && redirect; index++) {
                 this.doHttpAuth(request, httpManager);
 
@@ -344,21 +441,32 @@ public class WebProxyPortlet extends GenericPortlet {
                 httpRequest.setUrl(sUrl);
 
                 //Set headers
-                final String[] headerNames = myPreferences.getValues(HttpHeaderConfigImpl.HEADER_NAME, new String[0]);
-                final String[] headerValues = myPreferences.getValues(HttpHeaderConfigImpl.HEADER_VALUE, new String[0]);
-                if (headerNames.length == headerValues.length) {
-                    final List<IHeader> headerList = new ArrayList<IHeader>(headerNames.length);
-                    
+                final String[] headerNames = proxyConfig.getHeaderNames();
+                final String[] headerValues = proxyConfig.getHeaderValues();
+                final List<IHeader> headerList = new ArrayList<IHeader>(headerNames.length + 2);
+                if (proxyConfig.isHeadersValid()) {
                     for (int headerIndex = 0; headerIndex < headerNames.length; headerIndex++) {
                         final IHeader h = httpRequest.createHeader(headerNames[headerIndex], headerValues[headerIndex]);
                         headerList.add(h);
                     }
-                    
-                    httpRequest.setHeaders(headerList.toArray(new IHeader[headerList.size()]));
                 }
                 else {
                     LOG.error("Invalid data in preferences. Header name array length does not equal header value array length");
                 }
+                
+                //Ask the remote server to only send the content if it changed since it was cached
+                if (revalidateData != null && index == 0) {
+                    if (revalidateData.getEtag() != null) {
+                        headerList.add(httpRequest.createHeader("If-None-Match", revalidateData.getEtag()));
+                    }
+                    if (revalidateData.getLastModified() != null) {
+                        headerList.add(httpRequest.createHeader("If-Modified-Since", revalidateData.getLastModified()));
+                    }
+                }
+                
+                if (!headerList.isEmpty()) {
+                    httpRequest.setHeaders(headerList.toArray(new IHeader[headerList.size()]));
+                }
                 //check to see if form was a GET form
                 //set Type (e.g., GET, POST, HEAD)
                 if (sRequestType == null) {
@@ -392,69 +500,46 @@ public class WebProxyPortlet extends GenericPortlet {
                     }
                 }
 
-                //Check to see if pre-interceptors are used.
-                final String sPreInterceptor = ConfigUtils.checkEmptyNullString(myPreferences.getValue(GeneralConfigImpl.PRE_INTERCEPTOR_CLASS, null), null);
-                if (sPreInterceptor != null) {
-                    try {
-                        final Class preInterceptorClass = Class.forName(sPreInterceptor);
-                        PreInterceptor myPreInterceptor = (PreInterceptor)preInterceptorClass.newInstance();
-                        myPreInterceptor.intercept(request, response, httpRequest);
-                    }
-                    catch (ClassNotFoundException cnfe) {
-                        final String msg = "Could not find specified pre-interceptor class '" + sPreInterceptor + "'";
-                        LOG.error(msg, cnfe);
-                        throw new PortletException(msg, cnfe);
-                    }
-                    catch (InstantiationException ie) {
-                        final String msg = "Could instatiate specified pre-interceptor class '" + sPreInterceptor + "'";
-                        LOG.error(msg, ie);
-                        throw new PortletException(msg, ie);
-                    }
-                    catch (IllegalAccessException iae) {
-                        final String msg = "Could instatiate specified pre-interceptor class '" + sPreInterceptor + "'";
-                        LOG.error(msg, iae);
-                        throw new PortletException(msg, iae);
-                    }
-                    catch (ClassCastException cce) {
-                        final String msg = "Could not cast '" + sPreInterceptor + "' to 'edu.wisc.my.webproxy.beans.interceptors.PreInterceptor'";
-                        LOG.error(msg, cce);
-                        throw new PortletException(msg, cce);
-                    }
+                //Run the configured pre-interceptors in order
+                for (final PreInterceptor preInterceptor : this.getPreInterceptors(myPreferences)) {
+                    preInterceptor.intercept(request, response, httpRequest);
                 }
 
                 try {
-                    //send httpRequest
-                    httpResponse = httpManager.doRequest(httpRequest);
+                    //release the connection used by the previous redirect
+                    if (httpResponse != null) {
+                        httpResponse.close();
+                        httpResponse = null;
+                    }
+                    
+                    //send httpRequest, the filter chain is borrowed while the remote server responds
+                    final Future<Response> responseFuture = httpManager.doRequestAsync(httpRequest);
+                    if (filterChain == null) {
+                        filterChain = this.filterChainPool.borrowChain();
+                    }
+                    httpResponse = HttpManager.getResponse(responseFuture);
                 }
                 catch (HttpTimeoutException hte) {
-                    final boolean sUseExpired = new Boolean(myPreferences.getValue(CacheConfigImpl.USE_EXPIRED, null)).booleanValue();
-                    if (sUseCache && sUseExpired) {
-                        LOG.info("Request '" + sUrl + "' timed out. Attempting to use expired cache data.");
-                        final PageCache cache = (PageCache)context.getBean("PageCache", PageCache.class);
-
-                        final IKeyManager keyManager = (IKeyManager)context.getBean("keyManager", IKeyManager.class);
-                        
-                        final String cacheScope = myPreferences.getValue(CacheConfigImpl.CACHE_SCOPE, null);
-                        String cacheKey = null;
-                        /*
-                         * If scope is user get a key unique to this portlet instance.
-                         * Otherwise use the url alone as the key.  This will share the response across all
-                         * instances of web proxy portlet.
-                         */
-                        if (cacheScope  == null || cacheScope.equals(CacheConfigImpl.CACHE_SCOPE_USER))
-                            cacheKey = keyManager.generateCacheKey(sUrl, request);
-                        else 
-                            cacheKey = sUrl;      
+                    final boolean sUseExpired = proxyConfig.isUseExpired();
+                    //While the circuit breaker is open or the request executor is saturated expired content is always preferred over failing
+                    final boolean circuitOpen = hte instanceof CircuitOpenException;
+                    final boolean rejected = circuitOpen || hte instanceof RequestRejectedException;
+                    if (sUseCache && (sUseExpired || rejected)) {
+                        LOG.info("Request '" + sUrl + "' " + (circuitOpen ? "rejected by open circuit breaker" : (rejected ? "rejected by saturated request executor" : "timed out")) + ". Attempting to use expired cache data.");
+                        final PageCache cache = this.pageCache;
+                        final String cacheKey = this.getCacheKey(request, myPreferences, sUrl);
 
 
-                        final CacheEntry cachedData = cache.getCachedPage(cacheKey, true);
+                        CacheEntry cachedData = cache.getCachedPage(cacheKey, true);
 
                         if (cachedData != null) {
-                            final int retryDelay = ConfigUtils.parseInt(myPreferences.getValue(CacheConfigImpl.RETRY_DELAY, null), -1);
+                            final int retryDelay = proxyConfig.getRetryDelay();
                             
                             if (retryDelay > 0) {
-                                final boolean persistData = new Boolean(myPreferences.getValue(CacheConfigImpl.PERSIST_CACHE, null)).booleanValue();
+                                final boolean persistData = proxyConfig.isPersistCache();
                                 
+                                //The cached entry may be in use by other requests, cache an updated copy
+                                cachedData = new CacheEntry(cachedData);
                                 cachedData.setExpirationDate(new Date(System.currentTimeMillis() + (retryDelay * 1000)));
                                 cache.cachePage(cacheKey, cachedData, persistData);
                             }
@@ -462,15 +547,19 @@ public class WebProxyPortlet extends GenericPortlet {
                             if (LOG.isTraceEnabled())
                                 LOG.trace("Using cached content for key '" + cacheKey + "'");
 
-                            response.setContentType(cachedData.getContentType());
-                            response.getWriter().write(cachedData.getContent());
+                            this.writeCachedContent(response, cachedData);
                             return;
                         }
                     }
                     
                     //If cached content was used this won't be reached, all other
                     //cases an exception needs to be thrown.
-                    LOG.warn("Request '" + httpRequest + "' timed out", hte);
+                    if (rejected) {
+                        LOG.warn(hte.getMessage());
+                    }
+                    else {
+                        LOG.warn("Request '" + httpRequest + "' timed out", hte);
+                    }
                     throw hte;
                     //TODO handle timeout cleanly
                 }
@@ -478,38 +567,41 @@ public class WebProxyPortlet extends GenericPortlet {
                 //Track last activity time in session
                 session.setAttribute(HttpClientConfigImpl.SESSION_TIMEOUT, new Long(System.currentTimeMillis()));
 
-                //Check to see if post-interceptors are used
-                final String sPostInterceptor = ConfigUtils.checkEmptyNullString(myPreferences.getValue(GeneralConfigImpl.POST_INTERCEPTOR_CLASS, null), null);
-                if (sPostInterceptor != null) {
-                    try {
-                        final Class postInterceptorClass = Class.forName(sPostInterceptor);
-                        PostInterceptor myPostInterceptor = (PostInterceptor)postInterceptorClass.newInstance();
-                        myPostInterceptor.intercept(request, response, httpResponse);
-                    }
-                    catch (ClassNotFoundException cnfe) {
-                        final String msg = "Could not find specified post-interceptor class '" + sPostInterceptor + "'";
-                        LOG.error(msg, cnfe);
-                        throw new PortletException(msg, cnfe);
-                    }
-                    catch (InstantiationException ie) {
-                        final String msg = "Could instatiate specified post-interceptor class '" + sPostInterceptor + "'";
-                        LOG.error(msg, ie);
-                        throw new PortletException(msg, ie);
+                //Run the configured post-interceptors in order
+                for (final PostInterceptor postInterceptor : this.getPostInterceptors(myPreferences)) {
+                    postInterceptor.intercept(request, response, httpResponse);
+                }
+           
+                //store the state
+                this.httpManagerService.saveHttpManager(request, httpManager);
+
+                //The cached content is still current, extend its expiration and use it
+                if (revalidateData != null && index == 0 && httpResponse.getStatusCode() == Response.SC_NOT_MODIFIED) {
+                    final PageCache cache = this.pageCache;
+                    final int cacheExprTime = proxyConfig.getCacheTimeout();
+                    final boolean persistData = proxyConfig.isPersistCache();
+                    
+                    //The cached entry may be in use by other requests, cache an updated copy
+                    revalidateData = new CacheEntry(revalidateData);
+                    if (cacheExprTime >= 0) {
+                        revalidateData.setExpirationDate(new Date(System.currentTimeMillis() + cacheExprTime * 1000));
                     }
-                    catch (IllegalAccessException iae) {
-                        final String msg = "Could instatiate specified post-interceptor class '" + sPostInterceptor + "'";
-                        LOG.error(msg, iae);
-                        throw new PortletException(msg, iae);
+                    final String etag = httpResponse.getHeaderValue("ETag");
+                    if (etag != null) {
+                        revalidateData.setEtag(etag);
                     }
-                    catch (ClassCastException cce) {
-                        final String msg = "Could not cast '" + sPostInterceptor + "' to 'edu.wisc.my.webproxy.beans.interceptors.PostInterceptor'";
-                        LOG.error(msg, cce);
-                        throw new PortletException(msg, cce);
+                    final String lastModified = httpResponse.getHeaderValue("Last-Modified");
+                    if (lastModified != null) {
+                        revalidateData.setLastModified(lastModified);
                     }
+                    cache.cachePage(revalidateKey, revalidateData, persistData);
+                    
+                    if (LOG.isTraceEnabled())
+                        LOG.trace("Revalidated cached content for key '" + revalidateKey + "'");
+                    
+                    this.writeCachedContent(response, revalidateData);
+                    return;
                 }
-           
-                //store the state
-                findingService.saveHttpManager(request, httpManager);
 
                 //Check to see if redirected
                 final String tempUrl = checkRedirect(sUrl, httpResponse);
@@ -522,6 +614,11 @@ public class WebProxyPortlet extends GenericPortlet {
             
             final String realUrl = httpResponse.getRequestUrl();
             
+            //Remember the content type so the next action request for the URL can skip the HEAD request
+            if (sRequestType == null || WebproxyConstants.GET_REQUEST.equals(sRequestType)) {
+                this.contentTypeCache.cacheContentType(requestedUrl, this.getContentTypeUserKey(request, myPreferences), httpResponse);
+            }
+            
 
             //check response object for binary content
             String sContentType = httpResponse.getContentType();
@@ -537,24 +634,32 @@ public class WebProxyPortlet extends GenericPortlet {
             if ("unknown".equals(sContentType))
                 sContentType = "text/html";
 
-            final List acceptedContent = (List)context.getBean("ContentTypeBean", List.class);
-            boolean matches = false;
-            for (Iterator iterateContent = acceptedContent.iterator(); iterateContent.hasNext() && !matches; ) {
-                final String sAcceptedContent = (String)iterateContent.next();
-                final Pattern contentPattern = Pattern.compile(sAcceptedContent, Pattern.CASE_INSENSITIVE);
-                final Matcher contentMatcher = contentPattern.matcher(sContentType);
-                
-                matches = contentMatcher.matches();
-            }
+            final boolean matches = PatternListMatcher.getInstance(this.acceptedContent, Pattern.CASE_INSENSITIVE).matches(sContentType) >= 0;
 
             response.setContentType(sContentType);
             
             //Get InputStream and OutputStream
             InputStream in = null;
+            boolean clippingComplete = false;
             Writer out = null;
             try {
                 in = httpResponse.getResponseBodyAsStream();
-                out = response.getWriter();
+                
+                //Use the charset declared by the remote server, sniff the start of the document if there is none
+                String charset = httpResponse.getCharacterEncoding();
+                if (charset == null && matches) {
+                    in = new BufferedInputStream(in);
+                    charset = CharsetUtils.sniffCharset(in, CHARSET_SNIFF_LIMIT);
+                }
+                
+                final boolean directOutput = proxyConfig.isDirectOutput();
+                if (directOutput && matches && CharsetUtils.isSameCharset(charset, response.getCharacterEncoding())) {
+                    //Encode straight to the portlet output stream with a pooled encoder
+                    out = new EncodingWriter(response.getPortletOutputStream(), response.getCharacterEncoding());
+                }
+                else {
+                    out = response.getWriter();
+                }
 
                 if (!matches) {
                     //TODO Display page with direct link to content and back link to previous URL
@@ -571,26 +676,16 @@ public class WebProxyPortlet extends GenericPortlet {
                     }
                     //Matched a filterable content type, parse and filter stream.
                     if (sUseCache) {
-                        final PageCache cache = (PageCache)context.getBean("PageCache", PageCache.class);
-    
-                        final IKeyManager keyManager = (IKeyManager)context.getBean("keyManager", IKeyManager.class);
-                        final String cacheScope = myPreferences.getValue(CacheConfigImpl.CACHE_SCOPE, null);
-                        String cacheKey = null;
-                        /*
-                         * If scope is user get a key unique to this portlet instance.
-                         * Otherwise use the url alone as the key.  This will share the response across all
-                         * instances of web proxy portlet.
-                         */
-                        if (cacheScope  == null || cacheScope.equals(CacheConfigImpl.CACHE_SCOPE_USER))
-                            cacheKey = keyManager.generateCacheKey(sUrl, request);
-                        else 
-                            cacheKey = sUrl;      
-
-                        final int cacheExprTime = ConfigUtils.parseInt(myPreferences.getValue(CacheConfigImpl.CACHE_TIMEOUT, null), -1);
-                        final boolean persistData = new Boolean(myPreferences.getValue(CacheConfigImpl.PERSIST_CACHE, null)).booleanValue();
+                        final PageCache cache = this.pageCache;
+                        final String cacheKey = this.getCacheKey(request, myPreferences, sUrl);
+
+                        final int cacheExprTime = proxyConfig.getCacheTimeout();
+                        final boolean persistData = proxyConfig.isPersistCache();
                         
                         final CacheEntry entryBase = new CacheEntry();
                         entryBase.setContentType(sContentType);
+                        entryBase.setEtag(httpResponse.getHeaderValue("ETag"));
+                        entryBase.setLastModified(httpResponse.getHeaderValue("Last-Modified"));
                         
                         if (cacheExprTime >= 0)
                             entryBase.setExpirationDate(new Date(System.currentTimeMillis() + cacheExprTime * 1000));
@@ -598,60 +693,127 @@ public class WebProxyPortlet extends GenericPortlet {
                         out = new CacheWriter(out, entryBase, cache, cacheKey, persistData);
                     }
                     //Write out static header data
-                    final String sHeader = ConfigUtils.checkEmptyNullString(myPreferences.getValue(StaticHtmlConfigImpl.STATIC_HEADER, null), null);
+                    final String sHeader = proxyConfig.getStaticHeader();
                     if (sHeader != null) {
                         out.write(sHeader);
                     }   
-                    final HtmlParser htmlParser = (HtmlParser)context.getBean("HtmlParserBean", HtmlParser.class);
-                    final HtmlOutputFilter outFilter = new HtmlOutputFilter(out);
-                    try {
-                        htmlParser.setRenderData(request, response);
+                    if (filterChain == null) {
+                        filterChain = this.filterChainPool.borrowChain();
+                    }
+                    final List saxFilters = filterChain.getFilters();
+                    final boolean streamingRewrite = proxyConfig.isStreamingRewrite();
+                    final boolean clippingEnabled = proxyConfig.isClippingEnabled();
+                    final ContentProcessor contentProcessor = this.contentProcessorRegistry.getProcessor(sContentType);
+                    if (contentProcessor != null) {
+                        //Content that isn't HTML is processed without the HTML parser
+                        final BaseUrlFilter[] urlFilters = BaseUrlFilter.getUrlFilters(saxFilters);
+                        try {
+                            for (final BaseUrlFilter urlFilter : urlFilters) {
+                                urlFilter.setRenderData(request, response);
+                            }
+                            contentProcessor.process(new InputStreamReader(in, (charset != null ? charset : "UTF-8")), out, urlFilters);
+                        }
+                        finally {
+                            for (final BaseUrlFilter urlFilter : urlFilters) {
+                                urlFilter.clearData();
+                            }
+                        }
+                    }
+                    else if (streamingRewrite && !clippingEnabled && StreamingHtmlRewriter.canStream(saxFilters)) {
+                        //Only URLs need to be rewritten, copy the document without parsing it
+                        final StreamingHtmlRewriter rewriter = new StreamingHtmlRewriter(saxFilters);
+                        try {
+                            rewriter.setRenderData(request, response);
+                            rewriter.rewrite(new InputStreamReader(in, (charset != null ? charset : "UTF-8")), out);
+                        }
+                        finally {
+                            rewriter.clearData();
+                        }
+                    }
+                    else {
+                        final HtmlParser htmlParser = filterChain.getParser();
+                        final HtmlOutputFilter outFilter = new HtmlOutputFilter(out);
+                        try {
+                            htmlParser.setRenderData(request, response);
                          
-                        //Setup filter chain
-                        final List saxFilters = (List)context.getBean("SaxFilterBean", List.class);
-                        ChainingSaxFilter parent = null;
-                        final Iterator filterItr = saxFilters.iterator();
-                        if (filterItr.hasNext()) {
-                            parent = (ChainingSaxFilter)filterItr.next();
-                            outFilter.setParent(parent);
+                            //Setup filter chain
+                            ChainingSaxFilter parent = null;
+                            final boolean fusedFiltering = proxyConfig.isFusedFiltering();
+                            final Iterator filterItr = saxFilters.iterator();
+                            if (fusedFiltering && FusedRewritingFilter.canFuse(saxFilters)) {
+                                //Run all of the filters as a single handler
+                                parent = new FusedRewritingFilter(saxFilters);
+                                outFilter.setParent(parent);
+                            }
+                            else if (filterItr.hasNext()) {
+                                parent = (ChainingSaxFilter)filterItr.next();
+                                outFilter.setParent(parent);
                             
-                            while (filterItr.hasNext()) {
-                                final ChainingSaxFilter nextParent = (ChainingSaxFilter)filterItr.next();
-                                parent.setParent(nextParent);
-                                parent = nextParent;
+                                while (filterItr.hasNext()) {
+                                    final ChainingSaxFilter nextParent = (ChainingSaxFilter)filterItr.next();
+                                    parent.setParent(nextParent);
+                                    parent = nextParent;
+                                }
                             }
-                        }
                         
-                        //This call should be chained so it only needs to be done on the end filter
-                        outFilter.setRenderData(request, response);
+                            //This call should be chained so it only needs to be done on the end filter
+                            outFilter.setRenderData(request, response);
     
-                        //Get the xmlReader and set a reference to the last filter for Lexical Handling
-                        final XMLReader xmlReader = htmlParser.getReader(parent);
-                        //Set the parent of the last filter so parsing will work
-                        parent.setParent(xmlReader);
+                            //Get the xmlReader and set a reference to the last filter for Lexical Handling
+                            final XMLReader xmlReader = htmlParser.getReader(parent);
+                            //Set the parent of the last filter so parsing will work
+                            parent.setParent(xmlReader);
+                            
+                            //A known charset takes precedence over any charset declared in the document
+                            final InputSource inputSource = new InputSource(in);
+                            if (charset != null) {
+                                inputSource.setEncoding(charset);
+                            }
+                            try {
+                                xmlReader.setFeature(IGNORE_SPECIFIED_CHARSET, charset != null);
+                            }
+                            catch (SAXException se) {
+                                LOG.debug("Parser does not support feature '" + IGNORE_SPECIFIED_CHARSET + "'", se);
+                            }
 
-                        try {
-                            outFilter.parse(new InputSource(in));
+                            try {
+                                outFilter.parse(inputSource);
+                            }
+                            catch (SAXException se) {
+                                if (!ClippingCompleteException.isClippingComplete(se)) {
+                                    throw new PortletException("A error occured while parsing the content", se);
+                                }
+                            
+                                //The clipped content is complete, drop the connection instead of reading the rest of the page
+                                clippingComplete = true;
+                                httpResponse.abort();
+                            }
                         }
-                        catch (SAXException se) {
-                            throw new PortletException("A error occured while parsing the content", se);
+                        finally {
+                            htmlParser.clearData();
+                            outFilter.clearData();
                         }
-                            
-                        //Write out static footer data
-                        final String sFooter = ConfigUtils.checkEmptyNullString(myPreferences.getValue(StaticHtmlConfigImpl.STATIC_FOOTER, null), null);
-                        if (sFooter != null) {
-                            out.write(sFooter);
-                        }                        
                     }
-                    finally {
-                        htmlParser.clearData();
-                        outFilter.clearData();
+                    
+                    //Write out static footer data
+                    final String sFooter = proxyConfig.getStaticFooter();
+                    if (sFooter != null) {
+                        out.write(sFooter);
                     }
                 }
             }
             finally {
-                if (in != null)
-                    in.close();
+                if (in != null) {
+                    try {
+                        in.close();
+                    }
+                    catch (IOException ioe) {
+                        //Closing the stream of an aborted connection may fail
+                        if (!clippingComplete) {
+                            throw ioe;
+                        }
+                    }
+                }
                 
                 if (out != null) {
                     out.flush();
@@ -662,9 +824,141 @@ public class WebProxyPortlet extends GenericPortlet {
         finally {
             if (httpResponse != null)
                 httpResponse.close();
+            
+            if (filterChain != null)
+                this.filterChainPool.returnChain(filterChain);
+            
+            if (loadFlight != null)
+                this.cacheLoadCoordinator.complete(loadFlight);
         }
     }
 
+    /**
+     * Schedules a background render of the URL that replaces the cached content. Content cached
+     * with the application scope is shared by all users so it is rendered without the user's
+     * information and session state, content cached with the user scope is rendered with a copy
+     * of the user's session and of the cookies and credentials of the user's HttpManager.
+     * 
+     * @return true if the content is being refreshed, false if the refresh could not be scheduled
+     */
+    private boolean refreshInBackground(RenderRequest request, RenderResponse response, PortletPreferences prefs, ProxyConfig proxyConfig, final String cacheKey, String url) {
+        if (this.cacheRefreshService.isRefreshing(cacheKey)) {
+            return true;
+        }
+        
+        final DetachedRenderResponse detachedResponse = DetachedRenderResponse.capture(response, prefs.getValues(GeneralConfigImpl.PORTLET_URL_REWRITE_STATES, null));
+        if (detachedResponse == null) {
+            return false;
+        }
+        final DetachedRenderRequest detachedRequest = DetachedRenderRequest.capture(request, proxyConfig.isUserCacheScope(), url);
+        if (proxyConfig.isUserCacheScope()) {
+            this.httpManagerService.detachManager(request, detachedRequest);
+        }
+        
+        return this.cacheRefreshService.refresh(cacheKey, new Runnable() {
+            public void run() {
+                refreshContent(detachedRequest, detachedResponse);
+            }
+        });
+    }
+    
+    /**
+     * Renders the content for a detached request, the rendered content is only written to the cache.
+     */
+    private void refreshContent(DetachedRenderRequest request, DetachedRenderResponse response) {
+        final WebRequestInterceptor interceptor = this.entityManagerInterceptor;
+        final WebRequest webRequest = new PortletWebRequest(request, response);
+        
+        Exception refreshException = null;
+        try {
+            interceptor.preHandle(webRequest);
+            this.renderContent(request, response);
+            interceptor.postHandle(webRequest, null);
+        }
+        catch (RuntimeException re) {
+            refreshException = re;
+            throw re;
+        }
+        catch (Exception e) {
+            refreshException = e;
+            throw new IllegalStateException("Background render failed", e);
+        }
+        finally {
+            ApplicationContextLocator.setApplicationContext(null);
+            
+            try {
+                interceptor.afterCompletion(webRequest, refreshException);
+            }
+            catch (Exception e) {
+                LOG.warn("Failed to complete background render", e);
+            }
+        }
+    }
+
+    /**
+     * @return The pre-interceptors configured in the preferences, in the order they should run
+     */
+    private PreInterceptor[] getPreInterceptors(PortletPreferences prefs) throws PortletException {
+        final String preInterceptorNames = ConfigUtils.checkEmptyNullString(prefs.getValue(GeneralConfigImpl.PRE_INTERCEPTOR_CLASS, null), null);
+        try {
+            return this.interceptorRegistry.getPreInterceptors(preInterceptorNames);
+        }
+        catch (InterceptorConfigurationException ice) {
+            throw new PortletException(ice.getMessage(), ice);
+        }
+    }
+
+    /**
+     * @return The post-interceptors configured in the preferences, in the order they should run
+     */
+    private PostInterceptor[] getPostInterceptors(PortletPreferences prefs) throws PortletException {
+        final String postInterceptorNames = ConfigUtils.checkEmptyNullString(prefs.getValue(GeneralConfigImpl.POST_INTERCEPTOR_CLASS, null), null);
+        try {
+            return this.interceptorRegistry.getPostInterceptors(postInterceptorNames);
+        }
+        catch (InterceptorConfigurationException ice) {
+            throw new PortletException(ice.getMessage(), ice);
+        }
+    }
+
+    /**
+     * Generates the PageCache key for the URL. If the cache scope is user the key is unique to
+     * this portlet instance, otherwise the url alone is used as the key which shares the response
+     * across all instances of web proxy portlet.
+     */
+    private String getCacheKey(PortletRequest request, PortletPreferences prefs, String url) {
+        final String cacheScope = prefs.getValue(CacheConfigImpl.CACHE_SCOPE, null);
+        if (cacheScope == null || cacheScope.equals(CacheConfigImpl.CACHE_SCOPE_USER)) {
+            return this.keyManager.generateCacheKey(url, request);
+        }
+        
+        return url;
+    }
+    
+    /**
+     * Gets the key content types are remembered under for the user. Content types are only shared
+     * between users when the content is cached in application scope, otherwise the remote server
+     * may answer differently depending on the user's cookies and credentials.
+     * 
+     * @return The user's key, null if the content is public
+     */
+    private String getContentTypeUserKey(PortletRequest request, PortletPreferences prefs) {
+        final String cacheScope = prefs.getValue(CacheConfigImpl.CACHE_SCOPE, null);
+        if (cacheScope == null || cacheScope.equals(CacheConfigImpl.CACHE_SCOPE_USER)) {
+            return this.keyManager.getInstanceKey(request);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Writes the content of a cache entry to the response.
+     */
+    private void writeCachedContent(RenderResponse response, CacheEntry cachedData) throws IOException {
+        response.setContentType(cachedData.getContentType());
+        cachedData.writeContent(response.getWriter());
+    }
+
     /**
      * Creates new URL for Forms with GET methods
      * @param url
@@ -700,7 +994,7 @@ public class WebProxyPortlet extends GenericPortlet {
     private void doHttpAuth(final PortletRequest portletRequest, HttpManager manager) {
         final PortletPreferences myPreferences = new PortletPreferencesWrapper(portletRequest.getPreferences(), (Map)portletRequest.getAttribute(PortletRequest.USER_INFO));
 
-        final boolean authEnabled = new Boolean(myPreferences.getValue(HttpClientConfigImpl.AUTH_ENABLE, null)).booleanValue();
+        final boolean authEnabled = ProxyConfig.getConfig(portletRequest).isAuthEnabled();
         final String authType = ConfigUtils.checkEmptyNullString(myPreferences.getValue(HttpClientConfigImpl.AUTH_TYPE, ""), "");
 
         if (authEnabled && HttpClientConfigImpl.AUTH_TYPE_BASIC.equals(authType) || HttpClientConfigImpl.AUTH_TYPE_NTLM.equals(authType)) {
@@ -728,7 +1022,10 @@ public class WebProxyPortlet extends GenericPortlet {
                 creds = new NTCredentials(userName, password, domain, host);
             }
 
-            manager.setCredentials(creds);
+            //Unchanged credentials keep the connections already authenticated for the user
+            if (!HttpManager.isSameCredentials(manager.getCredentials(), creds)) {
+                manager.setCredentials(creds);
+            }
         }
     }
 
@@ -736,7 +1033,7 @@ public class WebProxyPortlet extends GenericPortlet {
         final PortletSession session = request.getPortletSession();
         final PortletPreferences prefs = new PortletPreferencesWrapper(request.getPreferences(), (Map)request.getAttribute(PortletRequest.USER_INFO));
 
-        final boolean authEnabled = new Boolean(prefs.getValue(HttpClientConfigImpl.AUTH_ENABLE, null)).booleanValue();
+        final boolean authEnabled = ProxyConfig.getConfig(request).isAuthEnabled();
         final String authType = ConfigUtils.checkEmptyNullString(prefs.getValue(HttpClientConfigImpl.AUTH_TYPE, ""), "");
 
         final String sessionTimeoutStr = prefs.getValue(HttpClientConfigImpl.SESSION_TIMEOUT, null);
@@ -833,14 +1130,14 @@ public class WebProxyPortlet extends GenericPortlet {
         PortletSession session = request.getPortletSession();
         PortletPreferences myPreferences = request.getPreferences();
 
-        final boolean authEnabled = new Boolean(myPreferences.getValue(HttpClientConfigImpl.AUTH_ENABLE, null)).booleanValue();
+        final boolean authEnabled = ProxyConfig.getConfig(request).isAuthEnabled();
 
         if (authEnabled) {
             final String authType = myPreferences.getValue(HttpClientConfigImpl.AUTH_TYPE, null);
 
             if (HttpClientConfigImpl.AUTH_TYPE_BASIC.equals(authType)) {
-                final boolean userNamePrompt = new Boolean(myPreferences.getValue(HttpClientConfigImpl.PROMPT_USER_NAME, null)).booleanValue();
-                final boolean passwordPrompt = new Boolean(myPreferences.getValue(HttpClientConfigImpl.PROMPT_PASSWORD, null)).booleanValue();
+                final boolean userNamePrompt = Boolean.valueOf(myPreferences.getValue(HttpClientConfigImpl.PROMPT_USER_NAME, null)).booleanValue();
+                final boolean passwordPrompt = Boolean.valueOf(myPreferences.getValue(HttpClientConfigImpl.PROMPT_PASSWORD, null)).booleanValue();
                 
                 String userName = (String)session.getAttribute(HttpClientConfigImpl.USER_NAME);
                 if (userName == null)
@@ -909,7 +1206,7 @@ public class WebProxyPortlet extends GenericPortlet {
     public void processAction(final ActionRequest request, final ActionResponse response) throws PortletException, IOException {
         final ApplicationContext context = PortletApplicationContextUtils.getWebApplicationContext(this.getPortletContext());
         
-        final WebRequestInterceptor interceptor = (WebRequestInterceptor)context.getBean("openEntityManagerInViewInterceptor", WebRequestInterceptor.class);
+        final WebRequestInterceptor interceptor = this.entityManagerInterceptor;
         final WebRequest webRequest = new PortletWebRequest(request, response);
 
         try {
@@ -961,8 +1258,7 @@ public class WebProxyPortlet extends GenericPortlet {
                 return;
             }
             
-            final HttpManagerService findingService = (HttpManagerService) context.getBean("HttpManagerService", HttpManagerService.class);
-            final HttpManager httpManager = findingService.findManager(request);
+            final HttpManager httpManager = this.httpManagerService.findManager(request);
             httpManager.setActionData(request, response);
             
             //retrieve URL from request object
@@ -973,8 +1269,6 @@ public class WebProxyPortlet extends GenericPortlet {
             //Check if the URL is marked for pass-through, this means it will be redirected to the proxy servlet no matter what
             final boolean passThrough = Boolean.parseBoolean(request.getParameter(WebproxyConstants.PASS_THROUGH));
             if (!passThrough) {
-                //TODO do cache check for content type
-    
                 if(request.getParameter(WebproxyConstants.UNIQUE_CONSTANT + ".getMethod")!=null){
                     sRequestType=WebproxyConstants.GET_REQUEST;
                     sUrl = newGetUrl(sUrl, request);
@@ -982,137 +1276,89 @@ public class WebProxyPortlet extends GenericPortlet {
                 
                 this.doFormAuth(httpManager, request);
     
-                String sContentType = null;
-    
-                Response httpResponse = null;
-                try {
-                    boolean redirect = true;
-                    final int maxRedirects = ConfigUtils.parseInt(pp.getValue(HttpClientConfigImpl.MAX_REDIRECTS, null), 5);
+                //Skip the HEAD request if the content type of the URL is already known
+                final String contentTypeUserKey = this.getContentTypeUserKey(request, pp);
+                String sContentType = this.contentTypeCache.getContentType(sUrl, contentTypeUserKey);
+                if (sContentType == null) {
+                    Response httpResponse = null;
+                    try {
+                        boolean redirect = true;
+                        final ProxyConfig proxyConfig = ProxyConfig.getConfig(request);
+                        final int maxRedirects = proxyConfig.getMaxRedirects();
                     
-                    for (int index = 0; index < maxRedirects && redirect; index++) {
-                        this.doHttpAuth(request, httpManager);
+                        for (int index = 0; index < maxRedirects && redirect; index++) {
+                            this.doHttpAuth(request, httpManager);
     
-                        //create request object
-                        final Request httpRequest = httpManager.createRequest();
+                            //create request object
+                            final Request httpRequest = httpManager.createRequest();
     
-                        //set URL in request
-                        httpRequest.setUrl(sUrl);
+                            //set URL in request
+                            httpRequest.setUrl(sUrl);
     
-                        //Set Type to HEAD
-                        httpRequest.setType(WebproxyConstants.HEAD_REQUEST);
+                            //Set Type to HEAD
+                            httpRequest.setType(WebproxyConstants.HEAD_REQUEST);
      
-                        final String[] headerNames = pp.getValues(HttpHeaderConfigImpl.HEADER_NAME, new String[0]);
-                        final String[] headerValues = pp.getValues(HttpHeaderConfigImpl.HEADER_VALUE, new String[0]);
-                        if (headerNames.length == headerValues.length) {
-                            final List<IHeader> headerList = new ArrayList<IHeader>(headerNames.length);
+                            if (proxyConfig.isHeadersValid()) {
+                                final String[] headerNames = proxyConfig.getHeaderNames();
+                                final String[] headerValues = proxyConfig.getHeaderValues();
+                                final List<IHeader> headerList = new ArrayList<IHeader>(headerNames.length);
                             
-                            for (int headerIndex = 0; headerIndex < headerNames.length; headerIndex++) {
-                                final IHeader h = httpRequest.createHeader(headerNames[headerIndex], headerValues[headerIndex]);
-                                headerList.add(h);
-                            }
+                                for (int headerIndex = 0; headerIndex < headerNames.length; headerIndex++) {
+                                    final IHeader h = httpRequest.createHeader(headerNames[headerIndex], headerValues[headerIndex]);
+                                    headerList.add(h);
+                                }
                             
-                            httpRequest.setHeaders(headerList.toArray(new IHeader[headerList.size()]));
-                        }
-                        else {
-                            LOG.error("Invalid data in preferences. Header name array length does not equal header value array length");
-                        }
-                    
-                        //Check to see if pre-interceptors are used.
-                        final String sPreInterceptor = ConfigUtils.checkEmptyNullString(pp.getValue(GeneralConfigImpl.PRE_INTERCEPTOR_CLASS, null), null);
-                        if (sPreInterceptor != null) {
-                            try {
-                                final Class preInterceptorClass = Class.forName(sPreInterceptor);
-                                PreInterceptor myPreInterceptor = (PreInterceptor)preInterceptorClass.newInstance();
-                                myPreInterceptor.intercept(request, response, httpRequest);
+                                httpRequest.setHeaders(headerList.toArray(new IHeader[headerList.size()]));
                             }
-                            catch (ClassNotFoundException cnfe) {
-                                final String msg = "Could not find specified pre-interceptor class '" + sPreInterceptor + "'";
-                                LOG.error(msg, cnfe);
-                                throw new PortletException(msg, cnfe);
+                            else {
+                                LOG.error("Invalid data in preferences. Header name array length does not equal header value array length");
                             }
-                            catch (InstantiationException ie) {
-                                final String msg = "Could instatiate specified pre-interceptor class '" + sPreInterceptor + "'";
-                                LOG.error(msg, ie);
-                                throw new PortletException(msg, ie);
-                            }
-                            catch (IllegalAccessException iae) {
-                                final String msg = "Could instatiate specified pre-interceptor class '" + sPreInterceptor + "'";
-                                LOG.error(msg, iae);
-                                throw new PortletException(msg, iae);
-                            }
-                            catch (ClassCastException cce) {
-                                final String msg = "Could not cast '" + sPreInterceptor + "' to 'edu.wisc.my.webproxy.beans.interceptors.PreInterceptor'";
-                                LOG.error(msg, cce);
-                                throw new PortletException(msg, cce);
+                    
+                            //Run the configured pre-interceptors in order
+                            for (final PreInterceptor preInterceptor : this.getPreInterceptors(pp)) {
+                                preInterceptor.intercept(request, response, httpRequest);
                             }
-                        }
                         
-                        //send httpRequest
-                        httpResponse = httpManager.doRequest(httpRequest);
+                            //release the connection used by the previous redirect
+                            if (httpResponse != null) {
+                                httpResponse.close();
+                                httpResponse = null;
+                            }
+                            
+                            //send httpRequest
+                            httpResponse = httpManager.doRequest(httpRequest);
                         
-                        session.setAttribute(HttpClientConfigImpl.SESSION_TIMEOUT, new Long(System.currentTimeMillis()));
+                            session.setAttribute(HttpClientConfigImpl.SESSION_TIMEOUT, new Long(System.currentTimeMillis()));
                         
-                        //Check to see if post-interceptors are used
-                        final String sPostInterceptor = ConfigUtils.checkEmptyNullString(pp.getValue(GeneralConfigImpl.POST_INTERCEPTOR_CLASS, null), null);
-                        if (sPostInterceptor != null) {
-                            try {
-                                final Class postInterceptorClass = Class.forName(sPostInterceptor);
-                                PostInterceptor myPostInterceptor = (PostInterceptor)postInterceptorClass.newInstance();
-                                myPostInterceptor.intercept(request, response, httpResponse);
-                            }
-                            catch (ClassNotFoundException cnfe) {
-                                final String msg = "Could not find specified post-interceptor class '" + sPostInterceptor + "'";
-                                LOG.error(msg, cnfe);
-                                throw new PortletException(msg, cnfe);
-                            }
-                            catch (InstantiationException ie) {
-                                final String msg = "Could instatiate specified post-interceptor class '" + sPostInterceptor + "'";
-                                LOG.error(msg, ie);
-                                throw new PortletException(msg, ie);
+                            //Run the configured post-interceptors in order
+                            for (final PostInterceptor postInterceptor : this.getPostInterceptors(pp)) {
+                                postInterceptor.intercept(request, response, httpResponse);
                             }
-                            catch (IllegalAccessException iae) {
-                                final String msg = "Could instatiate specified post-interceptor class '" + sPostInterceptor + "'";
-                                LOG.error(msg, iae);
-                                throw new PortletException(msg, iae);
-                            }
-                            catch (ClassCastException cce) {
-                                final String msg = "Could not cast '" + sPostInterceptor + "' to 'edu.wisc.my.webproxy.beans.interceptors.PostInterceptor'";
-                                LOG.error(msg, cce);
-                                throw new PortletException(msg, cce);
-                            }
-                        }
     
-                        findingService.saveHttpManager(request, httpManager);
+                            this.httpManagerService.saveHttpManager(request, httpManager);
     
-                        final String tempUrl = checkRedirect(sUrl, httpResponse);
-                        //if not redirect, set redirect to false to break from while
-                        if (tempUrl.equals(sUrl))
-                            redirect = false;
-                    }
+                            final String tempUrl = checkRedirect(sUrl, httpResponse);
+                            //if not redirect, set redirect to false to break from while
+                            if (tempUrl.equals(sUrl))
+                                redirect = false;
+                        }
     
-                    //check response object for binary content
-                    if (httpResponse.getContentType() != null) {
-                        StringTokenizer st = new StringTokenizer(httpResponse.getContentType(), ";");
-                        sContentType = st.nextToken();
+                        this.contentTypeCache.cacheContentType(sUrl, contentTypeUserKey, httpResponse);
+
+                        //check response object for binary content
+                        if (httpResponse.getContentType() != null) {
+                            StringTokenizer st = new StringTokenizer(httpResponse.getContentType(), ";");
+                            sContentType = st.nextToken();
+                        }
+                    }
+                    finally {
+                        if (httpResponse != null)
+                            httpResponse.close();
                     }
-                }
-                finally {
-                    if (httpResponse != null)
-                        httpResponse.close();
                 }
                 
                 if (sContentType != null) {
-                    final List acceptedContent = (List)context.getBean("ContentTypeBean", List.class);
-        
-                    String sAcceptedContent = null;
-                    Iterator iterateContent = acceptedContent.iterator();
-                    while (iterateContent.hasNext() && !matches) {
-                        sAcceptedContent = (String)iterateContent.next();
-                        Pattern contentPattern = Pattern.compile(sAcceptedContent, Pattern.CASE_INSENSITIVE);
-                        Matcher contentMatcher = contentPattern.matcher(sContentType);
-                        if (contentMatcher.matches())
-                            matches = true;
-                    }
+                    matches = PatternListMatcher.getInstance(this.acceptedContent, Pattern.CASE_INSENSITIVE).matches(sContentType) >= 0;
                 }
             }
 
@@ -1135,8 +1381,7 @@ public class WebProxyPortlet extends GenericPortlet {
                 model.put(PortletPreferences.class.getName(), pp);
                 model.put(ProxyServlet.HTTP_MANAGER, httpManager);
                 
-                final IKeyManager keyManager = (IKeyManager)context.getBean("keyManager", IKeyManager.class);
-                model.put(IKeyManager.PORTLET_INSTANCE_KEY, keyManager.getInstanceKey(request));
+                model.put(IKeyManager.PORTLET_INSTANCE_KEY, this.keyManager.getInstanceKey(request));
                 
                 final String sessionKey = this.sessionKeyGenerator.getNextSessionKey(session);
                 this.modelPasser.passModelToServlet(request, response, sessionKey, model);
@@ -1290,14 +1535,14 @@ public class WebProxyPortlet extends GenericPortlet {
             if (userName.length() > 0) {
                 session.setAttribute(HttpClientConfigImpl.USER_NAME, userName);
 
-                final boolean userNamePersist = new Boolean(pp.getValue(HttpClientConfigImpl.PERSIST_USER_NAME, null)).booleanValue();
+                final boolean userNamePersist = Boolean.valueOf(pp.getValue(HttpClientConfigImpl.PERSIST_USER_NAME, null)).booleanValue();
                 if (userNamePersist)
                     pp.setValue(HttpClientConfigImpl.USER_NAME, userName);
             }
             if (password.length() > 0) {
                 session.setAttribute(HttpClientConfigImpl.PASSWORD, password);
 
-                final boolean passwordPersist = new Boolean(pp.getValue(HttpClientConfigImpl.PERSIST_PASSWORD, null)).booleanValue();
+                final boolean passwordPersist = Boolean.valueOf(pp.getValue(HttpClientConfigImpl.PERSIST_PASSWORD, null)).booleanValue();
                 if (passwordPersist)
                     pp.setValue(HttpClientConfigImpl.PASSWORD, password);
             }
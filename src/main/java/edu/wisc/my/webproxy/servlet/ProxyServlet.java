@@ -54,6 +54,8 @@ import edu.wisc.my.webproxy.beans.http.IHeader;
 import edu.wisc.my.webproxy.beans.http.ParameterPair;
 import edu.wisc.my.webproxy.beans.http.Request;
 import edu.wisc.my.webproxy.beans.http.Response;
+import edu.wisc.my.webproxy.beans.interceptors.InterceptorConfigurationException;
+import edu.wisc.my.webproxy.beans.interceptors.InterceptorRegistry;
 import edu.wisc.my.webproxy.beans.interceptors.PostInterceptor;
 import edu.wisc.my.webproxy.beans.interceptors.PreInterceptor;
 import edu.wisc.my.webproxy.portlet.ApplicationContextLocator;
@@ -84,7 +86,29 @@ public class ProxyServlet extends HttpServlet {
             )));
     
 
+    /**
+     * Init parameter, if true content encoded (gzip, deflate) responses are forwarded to browsers that
+     * accept the encoding without decoding them. Defaults to false.
+     */
+    public static final String PASS_THROUGH_COMPRESSION_PARAM = "passThroughCompression";
+
     private final ModelPasser modelPasser = new LRUTrackingModelPasser();
+    private boolean passThroughCompression = false;
+    private InterceptorRegistry interceptorRegistry;
+    
+    /**
+     * @see javax.servlet.GenericServlet#init()
+     */
+    @Override
+    public void init() throws ServletException {
+        this.passThroughCompression = Boolean.parseBoolean(this.getInitParameter(PASS_THROUGH_COMPRESSION_PARAM));
+        
+        final WebApplicationContext context = WebApplicationContextUtils.getWebApplicationContext(this.getServletContext());
+        if (context == null) {
+            throw new ServletException("No WebApplicationContext found, the ContextLoaderListener must be configured in web.xml");
+        }
+        this.interceptorRegistry = (InterceptorRegistry)context.getBean("interceptorRegistry", InterceptorRegistry.class);
+    }
     
 
     /**
@@ -185,37 +209,18 @@ public class ProxyServlet extends HttpServlet {
                 }
                 
 
-                //Check to see if pre-interceptors are used.
-                final String sPreInterceptor = ConfigUtils.checkEmptyNullString(prefs.getValue(GeneralConfigImpl.PRE_INTERCEPTOR_CLASS, null), null);
-                if (sPreInterceptor != null) {
-                    try {
-                        final Class<?> preInterceptorClass = Class.forName(sPreInterceptor);
-                        PreInterceptor myPreInterceptor = (PreInterceptor)preInterceptorClass.newInstance();
-                        myPreInterceptor.intercept(request, response, httpRequest);
-                    }
-                    catch (ClassNotFoundException cnfe) {
-                        final String msg = "Could not find specified pre-interceptor class '" + sPreInterceptor + "'";
-                        LOG.error(msg, cnfe);
-                        throw new ServletException(msg, cnfe);
-                    }
-                    catch (InstantiationException ie) {
-                        final String msg = "Could instatiate specified pre-interceptor class '" + sPreInterceptor + "'";
-                        LOG.error(msg, ie);
-                        throw new ServletException(msg, ie);
-                    }
-                    catch (IllegalAccessException iae) {
-                        final String msg = "Could instatiate specified pre-interceptor class '" + sPreInterceptor + "'";
-                        LOG.error(msg, iae);
-                        throw new ServletException(msg, iae);
-                    }
-                    catch (ClassCastException cce) {
-                        final String msg = "Could not cast '" + sPreInterceptor + "' to 'edu.wisc.my.webproxy.beans.interceptors.PreInterceptor'";
-                        LOG.error(msg, cce);
-                        throw new ServletException(msg, cce);
-                    }
+                //Run the configured pre-interceptors in order
+                for (final PreInterceptor preInterceptor : this.getPreInterceptors(prefs)) {
+                    preInterceptor.intercept(request, response, httpRequest);
                 }
 
                 try {
+                    //release the connection used by the previous redirect
+                    if (httpResponse != null) {
+                        httpResponse.close();
+                        httpResponse = null;
+                    }
+                    
                     //send httpRequest
                     httpResponse = httpManager.doRequest(httpRequest);
                 }
@@ -228,35 +233,9 @@ public class ProxyServlet extends HttpServlet {
                     //TODO handle timeout cleanly
                 }
 
-                //Check to see if post-interceptors are used
-                final String sPostInterceptor = ConfigUtils.checkEmptyNullString(prefs.getValue(GeneralConfigImpl.POST_INTERCEPTOR_CLASS, null),
-                                                                                 null);
-                if (sPostInterceptor != null) {
-                    try {
-                        final Class<?> postInterceptorClass = Class.forName(sPostInterceptor);
-                        PostInterceptor myPostInterceptor = (PostInterceptor)postInterceptorClass.newInstance();
-                        myPostInterceptor.intercept(request, response, httpResponse);
-                    }
-                    catch (ClassNotFoundException cnfe) {
-                        final String msg = "Could not find specified post-interceptor class '" + sPostInterceptor + "'";
-                        LOG.error(msg, cnfe);
-                        throw new ServletException(msg, cnfe);
-                    }
-                    catch (InstantiationException ie) {
-                        final String msg = "Could instatiate specified post-interceptor class '" + sPostInterceptor + "'";
-                        LOG.error(msg, ie);
-                        throw new ServletException(msg, ie);
-                    }
-                    catch (IllegalAccessException iae) {
-                        final String msg = "Could instatiate specified post-interceptor class '" + sPostInterceptor + "'";
-                        LOG.error(msg, iae);
-                        throw new ServletException(msg, iae);
-                    }
-                    catch (ClassCastException cce) {
-                        final String msg = "Could not cast '" + sPostInterceptor + "' to 'edu.wisc.my.webproxy.beans.interceptors.PostInterceptor'";
-                        LOG.error(msg, cce);
-                        throw new ServletException(msg, cce);
-                    }
+                //Run the configured post-interceptors in order
+                for (final PostInterceptor postInterceptor : this.getPostInterceptors(prefs)) {
+                    postInterceptor.intercept(request, response, httpResponse);
                 }
 
                 //Check to see if redirected
@@ -268,11 +247,21 @@ public class ProxyServlet extends HttpServlet {
                     url = tempUrl;
             }
 
+            //Determine if the content encoded body can be sent to the browser as is
+            final String contentEncoding = httpResponse.getHeaderValue("Content-Encoding");
+            final boolean encoded = contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding.trim());
+            final boolean forwardEncoded = encoded && this.passThroughCompression && this.acceptsEncoding(request, contentEncoding.trim());
+
             //Copy headers from proxied server
             for (final IHeader header : httpResponse.getHeaders()) {
                 final String name = header.getName();
                 final String value = header.getValue();
 
+                //The length of decoded content is not known
+                if (encoded && !forwardEncoded && "Content-Length".equalsIgnoreCase(name)) {
+                    continue;
+                }
+
                 if (!ALLOWED_HEADERS.contains(name.toLowerCase())) {
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("Ignoring response header: " + name + "=" + value);
@@ -288,6 +277,11 @@ public class ProxyServlet extends HttpServlet {
                 response.addHeader(name, value);
             }
             
+            if (forwardEncoded) {
+                response.setHeader("Content-Encoding", contentEncoding);
+                response.setHeader("Vary", "Accept-Encoding");
+            }
+            
             response.setContentType(httpResponse.getContentType());
             response.setStatus(httpResponse.getStatusCode());
             
@@ -295,7 +289,12 @@ public class ProxyServlet extends HttpServlet {
             InputStream in = null;
             OutputStream out = null;
             try {
-                in = httpResponse.getResponseBodyAsStream();
+                if (forwardEncoded) {
+                    in = httpResponse.getRawResponseBodyAsStream();
+                }
+                else {
+                    in = httpResponse.getResponseBodyAsStream();
+                }
                 out = response.getOutputStream();
 
                 IOUtils.copy(in, out);
@@ -312,10 +311,84 @@ public class ProxyServlet extends HttpServlet {
             }
         }
         finally {
+            if (httpResponse != null) {
+                httpResponse.close();
+            }
+            
             httpManager.clearData();
         }
     }
 
+    /**
+     * @return The pre-interceptors configured in the preferences, in the order they should run
+     */
+    private PreInterceptor[] getPreInterceptors(PortletPreferences prefs) throws ServletException {
+        final String preInterceptorNames = ConfigUtils.checkEmptyNullString(prefs.getValue(GeneralConfigImpl.PRE_INTERCEPTOR_CLASS, null), null);
+        try {
+            return this.interceptorRegistry.getPreInterceptors(preInterceptorNames);
+        }
+        catch (InterceptorConfigurationException ice) {
+            throw new ServletException(ice.getMessage(), ice);
+        }
+    }
+
+    /**
+     * @return The post-interceptors configured in the preferences, in the order they should run
+     */
+    private PostInterceptor[] getPostInterceptors(PortletPreferences prefs) throws ServletException {
+        final String postInterceptorNames = ConfigUtils.checkEmptyNullString(prefs.getValue(GeneralConfigImpl.POST_INTERCEPTOR_CLASS, null), null);
+        try {
+            return this.interceptorRegistry.getPostInterceptors(postInterceptorNames);
+        }
+        catch (InterceptorConfigurationException ice) {
+            throw new ServletException(ice.getMessage(), ice);
+        }
+    }
+
+    /**
+     * Checks the Accept-Encoding header of the browser request for the specified content encoding.
+     */
+    protected boolean acceptsEncoding(HttpServletRequest request, String contentEncoding) {
+        final String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        
+        String encoding = contentEncoding.toLowerCase();
+        if ("x-gzip".equals(encoding)) {
+            encoding = "gzip";
+        }
+        
+        for (final String acceptedValue : acceptEncoding.split(",")) {
+            final String[] acceptedParts = acceptedValue.split(";");
+            String accepted = acceptedParts[0].trim().toLowerCase();
+            if ("x-gzip".equals(accepted)) {
+                accepted = "gzip";
+            }
+            
+            if (!accepted.equals(encoding) && !"*".equals(accepted)) {
+                continue;
+            }
+            
+            //Check for an explicit q=0 which means the encoding is not acceptable
+            for (int partIndex = 1; partIndex < acceptedParts.length; partIndex++) {
+                final String param = acceptedParts[partIndex].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Float.parseFloat(param.substring(2).trim()) > 0;
+                    }
+                    catch (NumberFormatException nfe) {
+                        return false;
+                    }
+                }
+            }
+            
+            return true;
+        }
+        
+        return false;
+    }
+
     /**
      * @see javax.servlet.http.HttpServlet#doHead(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
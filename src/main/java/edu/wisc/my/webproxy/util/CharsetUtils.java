@@ -0,0 +1,161 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Determines the charset of proxied documents, either from the Content-Type header or by
+ * looking for a byte order mark or a charset declaration at the start of the document.
+ * 
+ * @version $Revision$
+ */
+public final class CharsetUtils {
+    private static final String CHARSET_PARAM = "charset=";
+    
+    //meta charset, meta http-equiv content, the XML declaration encoding and the CSS @charset rule
+    private static final Pattern DECLARED_CHARSET = Pattern.compile(
+            "<meta\\s[^>]*?charset\\s*=\\s*[\"']?\\s*([a-z0-9_.:\\-]+)|<\\?xml\\s[^>]*?encoding\\s*=\\s*[\"']([a-z0-9_.:\\-]+)|^@charset\\s+[\"']([a-z0-9_.:\\-]+)",
+            Pattern.CASE_INSENSITIVE);
+    
+    private CharsetUtils() {
+    }
+    
+    /**
+     * @param contentType A Content-Type header value, may be null
+     * @return The supported charset named by the charset parameter, null if there is none
+     */
+    public static String getContentTypeCharset(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        
+        final int paramStart = indexOfIgnoreCase(contentType, CHARSET_PARAM);
+        if (paramStart < 0) {
+            return null;
+        }
+        
+        String charset = contentType.substring(paramStart + CHARSET_PARAM.length());
+        final int paramEnd = charset.indexOf(';');
+        if (paramEnd >= 0) {
+            charset = charset.substring(0, paramEnd);
+        }
+        charset = charset.trim();
+        if (charset.length() > 1 && (charset.charAt(0) == '"' || charset.charAt(0) == '\'') && charset.charAt(charset.length() - 1) == charset.charAt(0)) {
+            charset = charset.substring(1, charset.length() - 1);
+        }
+        
+        return toSupportedCharset(charset);
+    }
+    
+    /**
+     * Looks at no more than limit bytes at the start of the stream for a byte order mark or a
+     * charset declaration. The stream must support mark and is reset before returning.
+     * 
+     * @return The supported charset of the document, null if none was found
+     */
+    public static String sniffCharset(InputStream in, int limit) throws IOException {
+        if (!in.markSupported()) {
+            throw new IllegalArgumentException("The InputStream must support mark");
+        }
+        
+        final byte[] start = new byte[limit];
+        int length = 0;
+        in.mark(limit);
+        try {
+            int read;
+            while (length < limit && (read = in.read(start, length, limit - length)) > 0) {
+                length += read;
+            }
+        }
+        finally {
+            in.reset();
+        }
+        
+        if (length >= 3 && (start[0] & 0xFF) == 0xEF && (start[1] & 0xFF) == 0xBB && (start[2] & 0xFF) == 0xBF) {
+            return "UTF-8";
+        }
+        if (length >= 2 && (start[0] & 0xFF) == 0xFE && (start[1] & 0xFF) == 0xFF) {
+            return "UTF-16BE";
+        }
+        if (length >= 2 && (start[0] & 0xFF) == 0xFF && (start[1] & 0xFF) == 0xFE) {
+            return "UTF-16LE";
+        }
+        
+        //Declarations are ASCII so the bytes can be matched as ISO-8859-1
+        final Matcher declaration = DECLARED_CHARSET.matcher(new String(start, 0, length, "ISO-8859-1"));
+        if (declaration.find()) {
+            for (int group = 1; group <= declaration.groupCount(); group++) {
+                if (declaration.group(group) != null) {
+                    return toSupportedCharset(declaration.group(group));
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * @return true if both names are supported and refer to the same charset
+     */
+    public static boolean isSameCharset(String charset, String otherCharset) {
+        if (charset == null || otherCharset == null) {
+            return false;
+        }
+        if (charset.equalsIgnoreCase(otherCharset)) {
+            return true;
+        }
+        
+        final String supportedCharset = toSupportedCharset(charset);
+        final String supportedOtherCharset = toSupportedCharset(otherCharset);
+        return supportedCharset != null && supportedOtherCharset != null && Charset.forName(supportedCharset).equals(Charset.forName(supportedOtherCharset));
+    }
+    
+    /**
+     * @return The charset name if it is supported by the JVM, null if not
+     */
+    private static String toSupportedCharset(String charset) {
+        if (charset.length() == 0) {
+            return null;
+        }
+        
+        try {
+            return Charset.isSupported(charset) ? charset : null;
+        }
+        catch (IllegalCharsetNameException icne) {
+            return null;
+        }
+    }
+    
+    private static int indexOfIgnoreCase(String str, String search) {
+        final int last = str.length() - search.length();
+        for (int index = 0; index <= last; index++) {
+            if (str.regionMatches(true, index, search, 0, search.length())) {
+                return index;
+            }
+        }
+        return -1;
+    }
+}
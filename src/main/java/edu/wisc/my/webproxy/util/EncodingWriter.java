@@ -0,0 +1,204 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Writer that encodes characters directly to an OutputStream. The encoder and its buffers
+ * are borrowed from a pool per charset when the writer is created and returned when it is
+ * closed, so rendering does not create an encoder and buffers for every request. Characters
+ * that can't be encoded are replaced.
+ * 
+ * @version $Revision$
+ */
+public class EncodingWriter extends Writer {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_PER_CHARSET = 32;
+    
+    private static final ConcurrentMap<Charset, Queue<EncoderState>> ENCODER_POOLS = new ConcurrentHashMap<Charset, Queue<EncoderState>>();
+    
+    private final OutputStream out;
+    private final Charset charset;
+    private EncoderState state;
+    
+    public EncodingWriter(OutputStream out, String charsetName) {
+        this.out = out;
+        this.charset = Charset.forName(charsetName);
+        
+        final EncoderState pooledState = this.getPool().poll();
+        this.state = (pooledState != null ? pooledState : new EncoderState(this.charset));
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        final CharBuffer chars = this.getState().chars;
+        while (len > 0) {
+            final int count = Math.min(len, chars.remaining());
+            chars.put(cbuf, off, count);
+            off += count;
+            len -= count;
+            
+            if (!chars.hasRemaining()) {
+                this.encode(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        final CharBuffer chars = this.getState().chars;
+        while (len > 0) {
+            final int count = Math.min(len, chars.remaining());
+            chars.put(str, off, off + count);
+            off += count;
+            len -= count;
+            
+            if (!chars.hasRemaining()) {
+                this.encode(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        final CharBuffer chars = this.getState().chars;
+        chars.put((char)c);
+        if (!chars.hasRemaining()) {
+            this.encode(false);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.encode(false);
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.state == null) {
+            return;
+        }
+        
+        try {
+            this.encode(true);
+            
+            final ByteBuffer bytes = this.state.bytes;
+            while (this.state.encoder.flush(bytes) == CoderResult.OVERFLOW) {
+                this.writeBytes();
+            }
+            this.writeBytes();
+            
+            this.out.close();
+        }
+        finally {
+            final EncoderState closedState = this.state;
+            this.state = null;
+            
+            closedState.reset();
+            final Queue<EncoderState> pool = this.getPool();
+            if (pool.size() < MAX_POOLED_PER_CHARSET) {
+                pool.offer(closedState);
+            }
+        }
+    }
+    
+    /**
+     * Encodes the buffered characters and writes the bytes, a trailing partial surrogate pair
+     * stays buffered unless this is the end of input.
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        final EncoderState state = this.getState();
+        final CharBuffer chars = state.chars;
+        
+        chars.flip();
+        try {
+            while (state.encoder.encode(chars, state.bytes, endOfInput) == CoderResult.OVERFLOW) {
+                this.writeBytes();
+            }
+            this.writeBytes();
+        }
+        finally {
+            chars.compact();
+        }
+    }
+    
+    private void writeBytes() throws IOException {
+        final ByteBuffer bytes = this.state.bytes;
+        if (bytes.position() > 0) {
+            this.out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+        }
+    }
+    
+    private EncoderState getState() throws IOException {
+        if (this.state == null) {
+            throw new IOException("Writer is closed");
+        }
+        return this.state;
+    }
+    
+    private Queue<EncoderState> getPool() {
+        Queue<EncoderState> pool = ENCODER_POOLS.get(this.charset);
+        if (pool == null) {
+            final Queue<EncoderState> newPool = new ConcurrentLinkedQueue<EncoderState>();
+            pool = ENCODER_POOLS.putIfAbsent(this.charset, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+    
+    /**
+     * An encoder and the buffers used with it.
+     */
+    private static final class EncoderState {
+        private final CharsetEncoder encoder;
+        private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer bytes;
+        
+        public EncoderState(Charset charset) {
+            this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.bytes = ByteBuffer.allocate((int)Math.ceil(BUFFER_SIZE * this.encoder.maxBytesPerChar()));
+        }
+        
+        public void reset() {
+            this.encoder.reset();
+            this.chars.clear();
+            this.bytes.clear();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches a string against an ordered list of regular expressions, returning the index of the
+ * first expression in the list that matches. The expressions are compiled once and the matchers
+ * are cached by the expression list, so repeated lookups with the same preference values don't
+ * recompile anything.
+ * <p>
+ * All expressions are also combined into a single alternation which is used to reject strings
+ * that match none of the expressions in one pass. When the combined expression matches, the
+ * alternative that matched bounds how many of the individual expressions need to be tried to
+ * find the first match in list order. Expressions using backreferences, quoting or comments can't be
+ * safely combined, for those lists each expression is tried in order.
+ * <p>
+ * Null and blank expressions never match but keep their position in the list.
+ * 
+ * @version $Revision$
+ */
+public final class PatternListMatcher {
+    private static final int MAX_CACHED_MATCHERS = 500;
+    private static final Pattern UNCOMBINABLE = Pattern.compile("\\\\(?:[1-9]|k<|Q)|\\(\\?[a-zA-Z]*x");
+
+    private static final Map<CacheKey, PatternListMatcher> MATCHER_CACHE = new LinkedHashMap<CacheKey, PatternListMatcher>(16, .75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, PatternListMatcher> eldest) {
+            return this.size() > MAX_CACHED_MATCHERS;
+        }
+    };
+
+    private final Pattern[] patterns;
+    private final Pattern combined;
+    //Index into patterns for each capturing group of the combined pattern, -1 for groups defined by the expressions
+    private final int[] groupPatterns;
+
+    /**
+     * Gets the matcher for the list of expressions, compiling it if it has not been used before.
+     * 
+     * @param regexes The expressions to match against, may be null
+     * @param flags The {@link Pattern} flags to compile the expressions with
+     * @throws PatternSyntaxException If one of the expressions is invalid
+     */
+    public static PatternListMatcher getInstance(String[] regexes, int flags) {
+        final CacheKey key = new CacheKey(regexes, flags);
+
+        synchronized (MATCHER_CACHE) {
+            final PatternListMatcher matcher = MATCHER_CACHE.get(key);
+            if (matcher != null) {
+                return matcher;
+            }
+        }
+
+        final PatternListMatcher matcher = new PatternListMatcher(regexes, flags);
+        synchronized (MATCHER_CACHE) {
+            MATCHER_CACHE.put(key, matcher);
+        }
+        return matcher;
+    }
+
+    /**
+     * Convenience for {@link #getInstance(String[], int)} with a List of expressions.
+     */
+    public static PatternListMatcher getInstance(List<String> regexes, int flags) {
+        return getInstance(regexes == null ? null : regexes.toArray(new String[regexes.size()]), flags);
+    }
+
+    private PatternListMatcher(String[] regexes, int flags) {
+        if (regexes == null) {
+            regexes = new String[0];
+        }
+
+        this.patterns = new Pattern[regexes.length];
+        final StringBuilder combinedRegex = new StringBuilder();
+        int[] groups = new int[regexes.length * 2];
+        int groupCount = 0;
+        boolean combinable = true;
+
+        for (int index = 0; index < regexes.length; index++) {
+            final String regex = regexes[index];
+            if (regex == null || regex.trim().length() == 0) {
+                continue;
+            }
+
+            final Pattern pattern = Pattern.compile(regex, flags);
+            this.patterns[index] = pattern;
+
+            if (!combinable) {
+                continue;
+            }
+            if (UNCOMBINABLE.matcher(regex).find()) {
+                combinable = false;
+                continue;
+            }
+
+            if (combinedRegex.length() > 0) {
+                combinedRegex.append('|');
+            }
+            combinedRegex.append('(').append(regex).append(')');
+
+            final int patternGroups = pattern.matcher("").groupCount();
+            final int requiredLength = groupCount + 1 + patternGroups;
+            if (requiredLength > groups.length) {
+                final int[] grown = new int[Math.max(requiredLength, groups.length * 2)];
+                System.arraycopy(groups, 0, grown, 0, groupCount);
+                groups = grown;
+            }
+            groups[groupCount++] = index;
+            for (int group = 0; group < patternGroups; group++) {
+                groups[groupCount++] = -1;
+            }
+        }
+
+        Pattern combined = null;
+        if (combinable && combinedRegex.length() > 0) {
+            try {
+                combined = Pattern.compile(combinedRegex.toString(), flags);
+            }
+            catch (PatternSyntaxException pse) {
+                combined = null;
+            }
+        }
+
+        this.combined = combined;
+        this.groupPatterns = new int[groupCount];
+        System.arraycopy(groups, 0, this.groupPatterns, 0, groupCount);
+    }
+
+    /**
+     * @return The index of the first expression that is found in the input, -1 if none are
+     * @see Matcher#find()
+     */
+    public int find(CharSequence input) {
+        int limit = this.patterns.length;
+
+        if (this.combined != null) {
+            final Matcher combinedMatcher = this.combined.matcher(input);
+            if (!combinedMatcher.find()) {
+                return -1;
+            }
+
+            //The matched alternative is the first expression found at the leftmost match, earlier
+            //expressions may still be found further into the input
+            limit = this.getMatchedPattern(combinedMatcher);
+            if (limit == 0) {
+                return 0;
+            }
+        }
+
+        for (int index = 0; index < limit; index++) {
+            final Pattern pattern = this.patterns[index];
+            if (pattern != null && pattern.matcher(input).find()) {
+                return index;
+            }
+        }
+
+        return this.combined != null ? limit : -1;
+    }
+
+    /**
+     * @return The index of the first expression that matches the entire input, -1 if none do
+     * @see Matcher#matches()
+     */
+    public int matches(CharSequence input) {
+        if (this.combined != null) {
+            final Matcher combinedMatcher = this.combined.matcher(input);
+            if (!combinedMatcher.matches()) {
+                return -1;
+            }
+
+            //Alternatives are tried in order so the first one matching the entire input is the result
+            return this.getMatchedPattern(combinedMatcher);
+        }
+
+        for (int index = 0; index < this.patterns.length; index++) {
+            final Pattern pattern = this.patterns[index];
+            if (pattern != null && pattern.matcher(input).matches()) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return The number of expressions in the list
+     */
+    public int size() {
+        return this.patterns.length;
+    }
+
+    /**
+     * @return The index of the expression whose alternative matched in the combined pattern
+     */
+    private int getMatchedPattern(Matcher combinedMatcher) {
+        for (int group = 0; group < this.groupPatterns.length; group++) {
+            final int index = this.groupPatterns[group];
+            if (index >= 0 && combinedMatcher.start(group + 1) >= 0) {
+                return index;
+            }
+        }
+
+        throw new IllegalStateException("Combined pattern matched without matching an alternative: " + this.combined);
+    }
+
+    private static final class CacheKey {
+        private final List<String> regexes;
+        private final int flags;
+
+        public CacheKey(String[] regexes, int flags) {
+            this.regexes = regexes == null ? null : Arrays.asList(regexes.clone());
+            this.flags = flags;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (this.regexes == null ? 0 : this.regexes.hashCode()) + this.flags;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+
+            final CacheKey other = (CacheKey)obj;
+            return this.flags == other.flags
+                && (this.regexes == null ? other.regexes == null : this.regexes.equals(other.regexes));
+        }
+    }
+}
@@ -33,6 +33,7 @@
 
     final String cacheTimeout = prefs.getValue(CacheConfigImpl.CACHE_TIMEOUT, "");
     final String retryDelay   = prefs.getValue(CacheConfigImpl.RETRY_DELAY, "");
+    final String staleWhileRevalidate = prefs.getValue(CacheConfigImpl.STALE_WHILE_REVALIDATE, "");
     
 %>
 <p>
@@ -52,6 +53,12 @@
     <input name="<%=CacheConfigImpl.RETRY_DELAY%>" type="text" value="<%=retryDelay%>" size="10"/> (seconds) 
     (-1 = no delay)
 </p>
+<p>
+    For how long after it expires should cached data still be displayed while it is
+    refreshed in the background
+    <input name="<%=CacheConfigImpl.STALE_WHILE_REVALIDATE%>" type="text" value="<%=staleWhileRevalidate%>" size="10"/> (seconds)
+    (-1 = always refresh before displaying)
+</p>
 <p>
     <input type="checkbox" name="<%=CacheConfigImpl.PERSIST_CACHE%>" value="true" <%=(persistCache ? "checked=\"checked\"" : "")%>/> 
     Persist cached  (will remain in cache between restarts)
@@ -32,6 +32,9 @@
         final boolean stripScriptComments  = new Boolean(prefs.getValue(HtmlParserConfigImpl.SCRIPTSTRIPCOMMENT, null)).booleanValue();
         final boolean stripComments  = new Boolean(prefs.getValue(HtmlParserConfigImpl.STRIPCOMMENTS, null)).booleanValue();
         final boolean reportErrors  = new Boolean(prefs.getValue(HtmlParserConfigImpl.REPORTERRORS, null)).booleanValue();
+        final boolean fusedFiltering  = new Boolean(prefs.getValue(HtmlParserConfigImpl.FUSEDFILTERING, null)).booleanValue();
+        final boolean streamingRewrite  = new Boolean(prefs.getValue(HtmlParserConfigImpl.STREAMINGREWRITE, null)).booleanValue();
+        final boolean directOutput  = new Boolean(prefs.getValue(HtmlParserConfigImpl.DIRECTOUTPUT, null)).booleanValue();
 %>
 <p>
     <input type="checkbox" name="<%=HtmlParserConfigImpl.INSERTDOCTYPE%>" value="true" <%=(insertDocType ? "checked=\"checked\"" : "")%>/>
@@ -53,3 +56,15 @@
     <input type="checkbox" name="<%=HtmlParserConfigImpl.REPORTERRORS%>" value="true" <%=(reportErrors ? "checked=\"checked\"" : "")%>/>
     Report Errors
 </p>
+<p>
+    <input type="checkbox" name="<%=HtmlParserConfigImpl.FUSEDFILTERING%>" value="true" <%=(fusedFiltering ? "checked=\"checked\"" : "")%>/>
+    Single Pass Filtering
+</p>
+<p>
+    <input type="checkbox" name="<%=HtmlParserConfigImpl.STREAMINGREWRITE%>" value="true" <%=(streamingRewrite ? "checked=\"checked\"" : "")%>/>
+    Rewrite URLs Without Parsing (only used when clipping is disabled, the other parser options are ignored)
+</p>
+<p>
+    <input type="checkbox" name="<%=HtmlParserConfigImpl.DIRECTOUTPUT%>" value="true" <%=(directOutput ? "checked=\"checked\"" : "")%>/>
+    Write Directly to the Output Stream (only used when the page has the same charset as the portal)
+</p>
@@ -120,4 +120,27 @@ public class PortletPreferencesWrapperTest extends TestCase {
         for (int index = 0; index < expected.length; index++)
             assertEquals(expected[index], values[index]);
     }
+    
+    public void testDefaultAttribute() {
+        final String value = wrapper.getValue("missing", "${user.name.given}@${state}");
+        assertEquals("John@CA", value);
+    }
+    
+    public void testSetValueReplacesCachedValue() throws Exception {
+        assertEquals("", wrapper.getValue("HomeTown", null));
+        
+        wrapper.setValue("HomeTown", "${state} ${zip}");
+        assertEquals("CA 90210", wrapper.getValue("HomeTown", null));
+        
+        wrapper.setValues("Address", new String[] {"${zip}"});
+        final String[] values = wrapper.getValues("Address", null);
+        assertEquals(1, values.length);
+        assertEquals("90210", values[0]);
+    }
+    
+    public void testReturnedArrayIsCopy() {
+        final String[] values = wrapper.getValues("Address", null);
+        values[0] = "changed";
+        assertEquals("1234 Any St.", wrapper.getValues("Address", null)[0]);
+    }
 }
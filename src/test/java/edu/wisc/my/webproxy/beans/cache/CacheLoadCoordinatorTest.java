@@ -0,0 +1,102 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$
+ */
+public class CacheLoadCoordinatorTest extends TestCase {
+    private final Map<String, CacheEntry> entries = new HashMap<String, CacheEntry>();
+    private final Map<String, CacheEntry> expiredEntries = new HashMap<String, CacheEntry>();
+    
+    private final PageCache cache = new PageCache() {
+        public void cachePage(String key, CacheEntry entry, boolean persistent) {
+            entries.put(key, entry);
+        }
+        public CacheEntry getCachedPage(String key) {
+            return entries.get(key);
+        }
+        public CacheEntry getCachedPage(String key, boolean useExpired) {
+            final CacheEntry entry = entries.get(key);
+            if (entry == null && useExpired) {
+                return expiredEntries.get(key);
+            }
+            return entry;
+        }
+        public CacheEntry getCachedPage(String key, int maxCacheAge) {
+            return entries.get(key);
+        }
+        public int getMaxEntrySize() {
+            return 0;
+        }
+    };
+    
+    public void testFollowerUsesLoadedEntry() throws Exception {
+        final CacheLoadCoordinator coordinator = new CacheLoadCoordinator();
+        
+        final CacheLoadCoordinator.Flight leader = coordinator.join("page");
+        assertTrue(leader.isLeader());
+        
+        final CacheLoadCoordinator.Flight follower = coordinator.join("page");
+        assertFalse(follower.isLeader());
+        assertEquals(1, coordinator.getLoadingCount());
+        
+        final CacheEntry loadedEntry = new CacheEntry();
+        final Thread loader = new Thread() {
+            public void run() {
+                cache.cachePage("page", loadedEntry, false);
+                coordinator.complete(leader);
+            }
+        };
+        loader.start();
+        
+        assertSame(loadedEntry, coordinator.awaitLoad(follower, this.cache, "page"));
+        loader.join();
+        
+        assertEquals(0, coordinator.getLoadingCount());
+        assertEquals(1, coordinator.getLoadCount());
+        assertEquals(1, coordinator.getCoalescedCount());
+        assertEquals(1, coordinator.getCoalescedHitCount());
+        assertTrue(coordinator.join("page").isLeader());
+    }
+    
+    public void testFollowerUsesExpiredEntryAfterTimeout() {
+        final CacheLoadCoordinator coordinator = new CacheLoadCoordinator();
+        coordinator.setMaxWait(10);
+        
+        final CacheEntry expiredEntry = new CacheEntry();
+        this.expiredEntries.put("page", expiredEntry);
+        
+        final CacheLoadCoordinator.Flight leader = coordinator.join("page");
+        final CacheLoadCoordinator.Flight follower = coordinator.join("page");
+        
+        assertSame(expiredEntry, coordinator.awaitLoad(follower, this.cache, "page"));
+        assertEquals(1, coordinator.getTimeoutCount());
+        assertEquals(1, coordinator.getStaleCount());
+        
+        coordinator.complete(leader);
+        assertEquals(0, coordinator.getLoadingCount());
+    }
+}
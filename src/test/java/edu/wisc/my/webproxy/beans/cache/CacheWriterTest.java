@@ -0,0 +1,108 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.cache;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$
+ */
+public class CacheWriterTest extends TestCase {
+    private final Map<String, CacheEntry> entries = new HashMap<String, CacheEntry>();
+    private int maxEntrySize = 0;
+    
+    private final PageCache cache = new PageCache() {
+        public void cachePage(String key, CacheEntry entry, boolean persistent) {
+            entries.put(key, entry);
+        }
+        public CacheEntry getCachedPage(String key) {
+            return entries.get(key);
+        }
+        public CacheEntry getCachedPage(String key, boolean useExpired) {
+            return entries.get(key);
+        }
+        public CacheEntry getCachedPage(String key, int maxCacheAge) {
+            return entries.get(key);
+        }
+        public int getMaxEntrySize() {
+            return maxEntrySize;
+        }
+    };
+    
+    public void testCompressedRoundTrip() throws IOException {
+        final String page = this.createPage(20000);
+        
+        final StringWriter out = new StringWriter();
+        final CacheWriter cacheWriter = new CacheWriter(out, new CacheEntry(), this.cache, "page", false);
+        for (int index = 0; index < page.length(); index += 1000) {
+            cacheWriter.write(page, index, Math.min(1000, page.length() - index));
+        }
+        cacheWriter.close();
+        
+        assertEquals(page, out.toString());
+        
+        final CacheEntry entry = this.entries.get("page");
+        assertNotNull(entry);
+        assertTrue(entry.getCompressedContent().length < page.length());
+        
+        final StringWriter cachedOut = new StringWriter();
+        entry.writeContent(cachedOut);
+        assertEquals(page, cachedOut.toString());
+        assertEquals(page, entry.getContent());
+    }
+    
+    public void testMaxEntrySize() throws IOException {
+        this.maxEntrySize = 64;
+        final String page = this.createPage(20000);
+        
+        final StringWriter out = new StringWriter();
+        final CacheWriter cacheWriter = new CacheWriter(out, new CacheEntry(), this.cache, "page", false);
+        cacheWriter.write(page);
+        cacheWriter.write("</html>");
+        cacheWriter.close();
+        
+        assertEquals(page + "</html>", out.toString());
+        assertNull(this.entries.get("page"));
+    }
+    
+    public void testSetContent() {
+        final String content = "Caf\u00e9 \u4e2d\u6587 \ud83d\ude00";
+        
+        final CacheEntry entry = new CacheEntry();
+        entry.setContent(content);
+        assertEquals(content, entry.getContent());
+        
+        entry.setContent(null);
+        assertNull(entry.getContent());
+    }
+    
+    private String createPage(int rows) {
+        final StringBuilder page = new StringBuilder();
+        for (int index = 0; index < rows; index++) {
+            page.append("<tr><td>").append(index).append("</td><td>\u00e9l\u00e8ve</td></tr>\n");
+        }
+        return page.toString();
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.cache;
+
+import java.io.InputStream;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import edu.wisc.my.webproxy.beans.http.IHeader;
+import edu.wisc.my.webproxy.beans.http.Response;
+
+/**
+ * @version $Revision$
+ */
+public class ContentTypeCacheTest extends TestCase {
+    private ContentTypeCache contentTypeCache;
+    
+    protected void setUp() throws Exception {
+        this.contentTypeCache = new ContentTypeCache();
+        this.contentTypeCache.setExtensionContentTypes(Collections.singletonMap("pdf", "application/pdf"));
+    }
+    
+    public void testPublicContent() throws Exception {
+        this.contentTypeCache.cacheContentType("http://www.example.com/page", null, new ContentTypeResponse("text/html; charset=UTF-8"));
+        
+        assertEquals("text/html", this.contentTypeCache.getContentType("http://www.example.com/page", null));
+        assertEquals("application/pdf", this.contentTypeCache.getContentType("http://www.example.com/report.pdf", null));
+        assertNull(this.contentTypeCache.getContentType("http://www.example.com/other", null));
+    }
+    
+    public void testUserContent() throws Exception {
+        this.contentTypeCache.cacheContentType("http://www.example.com/page", "userA", new ContentTypeResponse("text/html"));
+        
+        assertEquals("text/html", this.contentTypeCache.getContentType("http://www.example.com/page", "userA"));
+        assertNull("content type learned for one user must not be used for another", this.contentTypeCache.getContentType("http://www.example.com/page", "userB"));
+        assertNull("content type learned for a user must not be used for public content", this.contentTypeCache.getContentType("http://www.example.com/page", null));
+        assertNull("extensions must not be used for protected content", this.contentTypeCache.getContentType("http://www.example.com/report.pdf", "userA"));
+    }
+    
+    public void testUncacheableResponse() throws Exception {
+        final ContentTypeResponse response = new ContentTypeResponse("text/html");
+        response.cacheControl = "private, no-store";
+        this.contentTypeCache.cacheContentType("http://www.example.com/page", null, response);
+        
+        assertNull(this.contentTypeCache.getContentType("http://www.example.com/page", null));
+    }
+    
+    private static class ContentTypeResponse implements Response {
+        private final String contentType;
+        private String cacheControl;
+        
+        public ContentTypeResponse(String contentType) {
+            this.contentType = contentType;
+        }
+        
+        public String getContentType() {
+            return this.contentType;
+        }
+        public String getHeaderValue(String name) {
+            if ("Cache-Control".equals(name)) {
+                return this.cacheControl;
+            }
+            return null;
+        }
+        public int getStatusCode() {
+            return 200;
+        }
+        public InputStream getResponseBodyAsStream() {
+            return null;
+        }
+        public InputStream getRawResponseBodyAsStream() {
+            return null;
+        }
+        public String getCharacterEncoding() {
+            return null;
+        }
+        public IHeader[] getHeaders() {
+            return new IHeader[0];
+        }
+        public String getRequestUrl() {
+            return null;
+        }
+        public void close() {
+        }
+        public void abort() {
+        }
+    }
+}
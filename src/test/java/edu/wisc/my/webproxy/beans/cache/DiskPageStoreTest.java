@@ -0,0 +1,322 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+/**
+ * @version $Revision$
+ */
+public class DiskPageStoreTest extends TestCase {
+    private File directory;
+    
+    protected void setUp() throws Exception {
+        this.directory = File.createTempFile("DiskPageStoreTest", "");
+        this.directory.delete();
+        this.directory.mkdirs();
+    }
+    
+    protected void tearDown() throws Exception {
+        final File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+    
+    public void testReloadAfterRestart() {
+        final long retainUntil = System.currentTimeMillis() + 60000;
+        
+        DiskPageStore store = this.createStore(1024 * 1024);
+        store.store("page", this.createEntry("page content"), retainUntil);
+        store.store("removed", this.createEntry("removed content"), retainUntil);
+        store.store("expired", this.createEntry("expired content"), System.currentTimeMillis() - 1000);
+        store.remove("removed");
+        store.close();
+        
+        store = this.createStore(1024 * 1024);
+        final CacheEntry entry = store.load("page");
+        assertNotNull(entry);
+        assertEquals("page content", entry.getContent());
+        assertEquals("text/html", entry.getContentType());
+        assertEquals("\"etag\"", entry.getEtag());
+        assertNull(entry.getLastModified());
+        assertNull(store.load("removed"));
+        assertNull(store.load("expired"));
+        assertEquals(1, store.getEntryCount());
+        store.close();
+    }
+    
+    public void testTornRecordIsTruncated() throws IOException {
+        final long retainUntil = System.currentTimeMillis() + 60000;
+        
+        DiskPageStore store = this.createStore(1024 * 1024);
+        store.store("first", this.createEntry("first content"), retainUntil);
+        store.store("second", this.createEntry("second content"), retainUntil);
+        final long fileSize = store.getFileSize();
+        store.close();
+        
+        final RandomAccessFile file = new RandomAccessFile(new File(this.directory, "pages.log"), "rw");
+        file.setLength(fileSize - 3);
+        file.close();
+        
+        store = this.createStore(1024 * 1024);
+        assertEquals("first content", store.load("first").getContent());
+        assertNull(store.load("second"));
+        assertEquals(1, store.getCorruptCount());
+        assertTrue(store.getFileSize() < fileSize - 3);
+        store.close();
+    }
+    
+    public void testCorruptRecordIsSkipped() throws IOException {
+        final long retainUntil = System.currentTimeMillis() + 60000;
+        
+        DiskPageStore store = this.createStore(1024 * 1024);
+        store.store("first", this.createEntry("first content"), retainUntil);
+        final long firstSize = store.getFileSize();
+        store.store("second", this.createEntry("second content"), retainUntil);
+        store.close();
+        
+        final RandomAccessFile file = new RandomAccessFile(new File(this.directory, "pages.log"), "rw");
+        file.seek(firstSize - 10);
+        file.write(file.read() ^ 0xFF);
+        file.close();
+        
+        //The checksum is only verified when the page is loaded
+        store = this.createStore(1024 * 1024);
+        assertEquals("second content", store.load("second").getContent());
+        assertEquals(2, store.getEntryCount());
+        assertNull(store.load("first"));
+        assertEquals(1, store.getCorruptCount());
+        assertEquals(1, store.getEntryCount());
+        store.close();
+    }
+    
+    public void testCompactionFileWithoutLogFileIsUsed() {
+        final long retainUntil = System.currentTimeMillis() + 60000;
+        
+        DiskPageStore store = this.createStore(1024 * 1024);
+        store.store("page", this.createEntry("page content"), retainUntil);
+        store.close();
+        
+        //Interrupted after the log file was deleted but before the compaction file was renamed
+        final File logFile = new File(this.directory, "pages.log");
+        final File compactFile = new File(this.directory, "pages.log.compact");
+        assertTrue(logFile.renameTo(compactFile));
+        
+        store = this.createStore(1024 * 1024);
+        assertEquals("page content", store.load("page").getContent());
+        assertTrue(logFile.exists());
+        assertFalse(compactFile.exists());
+        store.close();
+    }
+    
+    public void testCompactionFileWithLogFileIsDiscarded() throws IOException {
+        final long retainUntil = System.currentTimeMillis() + 60000;
+        
+        DiskPageStore store = this.createStore(1024 * 1024);
+        store.store("page", this.createEntry("page content"), retainUntil);
+        store.close();
+        
+        //Interrupted while the compaction file was written
+        final File compactFile = new File(this.directory, "pages.log.compact");
+        final RandomAccessFile file = new RandomAccessFile(compactFile, "rw");
+        file.write(new byte[] { 1, 2, 3, 4, 5 });
+        file.close();
+        
+        store = this.createStore(1024 * 1024);
+        assertEquals("page content", store.load("page").getContent());
+        assertEquals(0, store.getCorruptCount());
+        assertFalse(compactFile.exists());
+        store.close();
+    }
+    
+    public void testDirectoryIsLocked() {
+        final long retainUntil = System.currentTimeMillis() + 60000;
+        
+        final DiskPageStore store = this.createStore(1024 * 1024);
+        store.store("page", this.createEntry("page content"), retainUntil);
+        
+        //A second store for the directory is disabled
+        final DiskPageStore secondStore = this.createStore(1024 * 1024);
+        secondStore.store("other", this.createEntry("other content"), retainUntil);
+        assertNull(secondStore.load("page"));
+        assertEquals(0, secondStore.getEntryCount());
+        secondStore.close();
+        
+        assertNull(store.load("other"));
+        store.close();
+        
+        final DiskPageStore reopened = this.createStore(1024 * 1024);
+        assertEquals("page content", reopened.load("page").getContent());
+        reopened.close();
+    }
+    
+    public void testCompactionRunsOnExecutor() {
+        final long now = System.currentTimeMillis();
+        final QueueingTaskExecutor executor = new QueueingTaskExecutor();
+        final DiskPageStore store = this.createStore(16 * 1024);
+        store.setTaskExecutor(executor);
+        
+        int index = 0;
+        while (executor.tasks.isEmpty()) {
+            store.store("page" + index, this.createEntry("content " + index), now + 60000 + index);
+            index++;
+        }
+        
+        //Writes while the compaction is pending don't schedule another one
+        store.store("page" + index, this.createEntry("content " + index), now + 60000 + index);
+        assertEquals(1, executor.tasks.size());
+        assertEquals(0, store.getCompactionCount());
+        
+        executor.tasks.remove(0).run();
+        assertEquals(1, store.getCompactionCount());
+        assertTrue(store.getFileSize() <= 16 * 1024);
+        assertEquals("content " + index, store.load("page" + index).getContent());
+        store.close();
+    }
+    
+    public void testRejectedCompactionIsRetried() {
+        final long now = System.currentTimeMillis();
+        final QueueingTaskExecutor executor = new QueueingTaskExecutor();
+        executor.reject = true;
+        final DiskPageStore store = this.createStore(16 * 1024);
+        store.setTaskExecutor(executor);
+        
+        int index = 0;
+        while (executor.rejected < 2) {
+            store.store("page" + index, this.createEntry("content " + index), now + 60000 + index);
+            index++;
+        }
+        
+        executor.reject = false;
+        store.store("page" + index, this.createEntry("content " + index), now + 60000 + index);
+        assertEquals(1, executor.tasks.size());
+        executor.tasks.remove(0).run();
+        assertEquals(1, store.getCompactionCount());
+        store.close();
+    }
+    
+    public void testWritesDuringCompactionAreKept() throws Exception {
+        final long now = System.currentTimeMillis();
+        final QueueingTaskExecutor executor = new QueueingTaskExecutor();
+        final DiskPageStore store = this.createStore(4 * 1024 * 1024);
+        store.setTaskExecutor(executor);
+        
+        //Content that doesn't compress so copying the records takes a while
+        final Random random = new Random(0);
+        int index = 0;
+        while (executor.tasks.isEmpty()) {
+            store.store("page" + index, this.createEntry(createRandomContent(random, 8 * 1024)), now + 60000 + index);
+            index++;
+        }
+        final int lastPage = index - 1;
+        
+        //Write once the compaction has taken its copy of the index and started copying
+        final File compactFile = new File(this.directory, "pages.log.compact");
+        final Thread compaction = new Thread(executor.tasks.remove(0));
+        compaction.start();
+        while (!compactFile.exists() && compaction.isAlive()) {
+            Thread.yield();
+        }
+        for (int late = 0; late < 50; late++) {
+            store.store("late" + late, this.createEntry("late content " + late), now + 120000);
+            if (late % 5 == 0) {
+                store.remove("late" + late);
+            }
+        }
+        store.store("page" + lastPage, this.createEntry("replaced content"), now + 120000);
+        compaction.join();
+        assertEquals(1, store.getCompactionCount());
+        
+        DiskPageStore current = store;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int late = 0; late < 50; late++) {
+                final CacheEntry entry = current.load("late" + late);
+                if (late % 5 == 0) {
+                    assertNull(entry);
+                }
+                else {
+                    assertEquals("late content " + late, entry.getContent());
+                }
+            }
+            assertEquals("replaced content", current.load("page" + lastPage).getContent());
+            assertEquals(0, current.getCorruptCount());
+            current.close();
+            
+            current = this.createStore(4 * 1024 * 1024);
+        }
+        current.close();
+    }
+    
+    private static String createRandomContent(Random random, int length) {
+        final StringBuilder content = new StringBuilder(length);
+        for (int index = 0; index < length; index++) {
+            content.append((char)('a' + random.nextInt(26)));
+        }
+        return content.toString();
+    }
+    
+    private DiskPageStore createStore(long maxSize) {
+        final DiskPageStore store = new DiskPageStore();
+        store.setDirectory(this.directory);
+        store.setMaxSize(maxSize);
+        return store;
+    }
+    
+    /**
+     * Queues tasks to be run by the test, optionally rejecting them.
+     */
+    private static class QueueingTaskExecutor implements TaskExecutor {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+        private boolean reject = false;
+        private int rejected = 0;
+        
+        public void execute(Runnable task) {
+            if (this.reject) {
+                this.rejected++;
+                throw new TaskRejectedException("Rejected by test");
+            }
+            this.tasks.add(task);
+        }
+    }
+    
+    private CacheEntry createEntry(String content) {
+        final CacheEntry entry = new CacheEntry();
+        entry.setContent(content);
+        entry.setContentType("text/html");
+        entry.setEtag("\"etag\"");
+        entry.setExpirationDate(new Date(System.currentTimeMillis() + 30000));
+        return entry;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.cache.offheap;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import edu.wisc.my.webproxy.beans.cache.CacheEntry;
+
+/**
+ * @version $Revision$
+ */
+public class OffHeapPageCacheTest extends TestCase {
+    public void testRoundTrip() {
+        final OffHeapPageCache cache = this.createCache(1024 * 1024);
+        
+        final String content = this.createContent(new Random(1), 20000);
+        final CacheEntry entry = this.createEntry(content, 60000);
+        entry.setEtag("\"etag\"");
+        cache.cachePage("page", entry, false);
+        
+        final CacheEntry cachedEntry = cache.getCachedPage("page");
+        assertNotSame(entry, cachedEntry);
+        assertEquals(content, cachedEntry.getContent());
+        assertEquals("text/html", cachedEntry.getContentType());
+        assertEquals("\"etag\"", cachedEntry.getEtag());
+        assertEquals(entry.getExpirationDate(), cachedEntry.getExpirationDate());
+        
+        cache.cachePage("page", this.createEntry("replaced", 60000), false);
+        assertEquals("replaced", cache.getCachedPage("page").getContent());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(1024, cache.getUsedBytes());
+    }
+    
+    public void testExpiredEntry() {
+        final OffHeapPageCache cache = this.createCache(1024 * 1024);
+        cache.setStaleSecondsToLive(60);
+        
+        cache.cachePage("page", this.createEntry("expired", -1000), false);
+        assertNull(cache.getCachedPage("page"));
+        assertEquals("expired", cache.getCachedPage("page", true).getContent());
+    }
+    
+    public void testEvictsLeastRecentlyUsed() {
+        final OffHeapPageCache cache = this.createCache(8 * 1024);
+        
+        final Random random = new Random(2);
+        for (int index = 0; index < 8; index++) {
+            cache.cachePage("page" + index, this.createEntry(this.createContent(random, 2000), 60000), false);
+            assertNotNull(cache.getCachedPage("page0"));
+        }
+        
+        assertTrue(cache.getUsedBytes() <= 8 * 1024);
+        assertTrue(cache.getEvictedCount() > 0);
+        assertNotNull(cache.getCachedPage("page0"));
+        assertNotNull(cache.getCachedPage("page7"));
+        assertNull(cache.getCachedPage("page1"));
+    }
+    
+    public void testConcurrentAccess() throws Exception {
+        final OffHeapPageCache cache = this.createCache(64 * 1024);
+        final Random random = new Random(3);
+        final String[] contents = new String[32];
+        for (int index = 0; index < contents.length; index++) {
+            contents[index] = index + ":" + this.createContent(random, 500 + random.nextInt(4000));
+        }
+        
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        final Thread[] threads = new Thread[8];
+        for (int threadIndex = 0; threadIndex < threads.length; threadIndex++) {
+            final Random threadRandom = new Random(threadIndex);
+            threads[threadIndex] = new Thread() {
+                public void run() {
+                    try {
+                        for (int count = 0; count < 2000; count++) {
+                            final int index = threadRandom.nextInt(contents.length);
+                            final CacheEntry entry = cache.getCachedPage("page" + index);
+                            if (entry == null) {
+                                cache.cachePage("page" + index, createEntry(contents[index], 60000), false);
+                            }
+                            else if (!contents[index].equals(entry.getContent())) {
+                                throw new AssertionError("Wrong content for page" + index);
+                            }
+                        }
+                    }
+                    catch (Throwable t) {
+                        synchronized (failures) {
+                            failures.add(t);
+                        }
+                    }
+                }
+            };
+            threads[threadIndex].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertTrue(cache.getUsedBytes() <= 64 * 1024);
+    }
+    
+    private OffHeapPageCache createCache(long capacity) {
+        final OffHeapPageCache cache = new OffHeapPageCache();
+        cache.setCapacity(capacity);
+        cache.setBlockSize(1024);
+        cache.setSlabSize(4096);
+        cache.setSegmentCount(capacity > 8 * 1024 ? 4 : 1);
+        return cache;
+    }
+    
+    private CacheEntry createEntry(String content, long expiresIn) {
+        final CacheEntry entry = new CacheEntry();
+        entry.setContent(content);
+        entry.setContentType("text/html");
+        entry.setExpirationDate(new Date(System.currentTimeMillis() + expiresIn));
+        return entry;
+    }
+    
+    private String createContent(Random random, int length) {
+        final StringBuilder content = new StringBuilder(length);
+        for (int index = 0; index < length; index++) {
+            content.append((char)('a' + random.nextInt(26)));
+        }
+        return content.toString();
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.webproxy.beans.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.portlet.PortletPreferences;
+import javax.portlet.PortletRequest;
+
+import junit.framework.TestCase;
+
+import org.springframework.mock.web.portlet.MockPortletPreferences;
+import org.springframework.mock.web.portlet.MockRenderRequest;
+
+/**
+ * @version $Revision$
+ */
+public class ProxyConfigTest extends TestCase {
+    private MockPortletPreferences prefs;
+    private MockRenderRequest request;
+    
+    protected void setUp() throws Exception {
+        final Map<String, String> userInfo = new HashMap<String, String>();
+        userInfo.put("uid", "jdoe");
+        
+        this.prefs = new MockPortletPreferences();
+        this.prefs.setValue(CacheConfigImpl.USE_CACHE, "true");
+        this.prefs.setValue(CacheConfigImpl.CACHE_TIMEOUT, "300");
+        this.prefs.setValue(HttpClientConfigImpl.AUTH_ENABLE, "TRUE");
+        this.prefs.setValue(HttpClientConfigImpl.MAX_REDIRECTS, "bad");
+        this.prefs.setValue(StaticHtmlConfigImpl.STATIC_HEADER, "<p>${uid}</p>");
+        this.prefs.setValues(HttpHeaderConfigImpl.HEADER_NAME, new String[] { "X-User" });
+        this.prefs.setValues(HttpHeaderConfigImpl.HEADER_VALUE, new String[] { "${uid}" });
+        
+        this.request = new MockRenderRequest();
+        this.request.setPreferences(this.prefs);
+        this.request.setAttribute(PortletRequest.USER_INFO, userInfo);
+    }
+    
+    public void testTypedValues() {
+        final ProxyConfig config = ProxyConfig.getConfig(this.request);
+        
+        assertTrue(config.isUseCache());
+        assertEquals(300, config.getCacheTimeout());
+        assertEquals(-1, config.getRetryDelay());
+        assertTrue(config.isAuthEnabled());
+        assertFalse(config.isSessionPersistence());
+        assertEquals(5, config.getMaxRedirects());
+        assertTrue(config.isUserCacheScope());
+        assertEquals("<p>jdoe</p>", config.getStaticHeader());
+        assertNull(config.getStaticFooter());
+        assertTrue(config.isHeadersValid());
+        assertEquals("X-User", config.getHeaderNames()[0]);
+        assertEquals("jdoe", config.getHeaderValues()[0]);
+    }
+    
+    public void testMismatchedHeaders() {
+        this.prefs.setValues(HttpHeaderConfigImpl.HEADER_VALUE, new String[0]);
+        
+        final ProxyConfig config = ProxyConfig.getConfig(this.request);
+        assertFalse(config.isHeadersValid());
+        assertEquals(0, config.getHeaderNames().length);
+        assertEquals(0, config.getHeaderValues().length);
+    }
+    
+    public void testSnapshotCachedInSession() {
+        final ProxyConfig config = ProxyConfig.getConfig(this.request);
+        assertSame(config, this.request.getPortletSession().getAttribute(ProxyConfig.SESSION_KEY));
+        assertSame(config, ProxyConfig.getConfig(this.request));
+        
+        //A stored change is seen by the next request
+        this.prefs.setValue(CacheConfigImpl.USE_CACHE, "false");
+        final ProxyConfig updated = ProxyConfig.getConfig(this.request);
+        assertNotSame(config, updated);
+        assertFalse(updated.isUseCache());
+        assertSame(updated, ProxyConfig.getConfig(this.request));
+    }
+    
+    public void testChangeOutsideSession() throws Exception {
+        final ProxyConfig config = ProxyConfig.getConfig(this.request);
+        assertTrue(config.isUseCache());
+        
+        //An administrator stores new preferences for the instance from their own session
+        final MockRenderRequest adminRequest = new MockRenderRequest();
+        adminRequest.setPreferences(this.prefs);
+        assertNotSame(this.request.getPortletSession(), adminRequest.getPortletSession());
+        final PortletPreferences adminPrefs = adminRequest.getPreferences();
+        adminPrefs.setValue(CacheConfigImpl.CACHE_TIMEOUT, "60");
+        adminPrefs.setValues(HttpHeaderConfigImpl.HEADER_NAME, new String[0]);
+        adminPrefs.setValues(HttpHeaderConfigImpl.HEADER_VALUE, new String[] { "X-User", "${uid}" });
+        adminPrefs.store();
+        
+        final ProxyConfig updated = ProxyConfig.getConfig(this.request);
+        assertNotSame(config, updated);
+        assertEquals(60, updated.getCacheTimeout());
+        assertFalse(updated.isHeadersValid());
+        
+        //Moving a header value between the names and values is a change as well
+        adminPrefs.setValues(HttpHeaderConfigImpl.HEADER_NAME, new String[] { "X-User" });
+        adminPrefs.setValues(HttpHeaderConfigImpl.HEADER_VALUE, new String[] { "${uid}" });
+        adminPrefs.store();
+        final ProxyConfig restored = ProxyConfig.getConfig(this.request);
+        assertTrue(restored.isHeadersValid());
+        assertEquals("jdoe", restored.getHeaderValues()[0]);
+    }
+    
+    public void testSnapshotPerInstance() {
+        final ProxyConfig config = ProxyConfig.getConfig(this.request);
+        
+        final MockPortletPreferences otherPrefs = new MockPortletPreferences();
+        otherPrefs.setValue(CacheConfigImpl.USE_CACHE, "false");
+        final MockRenderRequest otherRequest = new MockRenderRequest();
+        otherRequest.setPreferences(otherPrefs);
+        
+        final ProxyConfig otherConfig = ProxyConfig.getConfig(otherRequest);
+        assertNotSame(config, otherConfig);
+        assertTrue(config.isUseCache());
+        assertFalse(otherConfig.isUseCache());
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * @version $Revision$
+ */
+public class BaseUrlFilterTest extends TestCase {
+    private PrefixUrlFilter urlFilter;
+    private RecordingHandler handler;
+    
+    protected void setUp() throws Exception {
+        this.urlFilter = new PrefixUrlFilter();
+        
+        this.handler = new RecordingHandler();
+        this.urlFilter.setContentHandler(this.handler);
+    }
+    
+    public void testElementWithoutUrlAttributes() throws Exception {
+        final AttributesImpl atts = this.createAttributes("class", "intro");
+        this.urlFilter.startElement("", "p", "p", atts);
+        
+        assertSame(atts, this.handler.lastAttributes);
+    }
+    
+    public void testUnchangedUrlAttributes() throws Exception {
+        final AttributesImpl atts = this.createAttributes("href", "javascript:void(0)", "class", "link");
+        this.urlFilter.startElement("", "a", "a", atts);
+        
+        assertSame("Attributes must not be copied when no URL is rewritten", atts, this.handler.lastAttributes);
+        
+        final AttributesImpl nullAtts = this.createAttributes("href", null);
+        this.urlFilter.startElement("", "a", "a", nullAtts);
+        
+        assertSame(nullAtts, this.handler.lastAttributes);
+    }
+    
+    public void testRewrittenUrlAttributes() throws Exception {
+        final AttributesImpl atts = this.createAttributes("class", "link", "HREF", "page.html");
+        this.urlFilter.startElement("", "A", "A", atts);
+        
+        final Attributes newAtts = this.handler.lastAttributes;
+        assertNotSame(atts, newAtts);
+        assertEquals("proxy:page.html", newAtts.getValue("HREF"));
+        assertEquals("link", newAtts.getValue("class"));
+        
+        //The parser's attributes are left alone
+        assertEquals("page.html", atts.getValue("HREF"));
+        assertEquals(2, atts.getLength());
+    }
+    
+    public void testPassThroughAttributes() throws Exception {
+        final AttributesImpl atts = this.createAttributes("src", "logo.gif");
+        this.urlFilter.startElement("", "img", "img", atts);
+        
+        assertNotSame(atts, this.handler.lastAttributes);
+        assertEquals("pass:logo.gif", this.handler.lastAttributes.getValue("src"));
+        assertEquals("logo.gif", atts.getValue("src"));
+    }
+    
+    public void testFormAttributes() throws Exception {
+        final AttributesImpl atts = this.createAttributes("method", "get", "action", "search");
+        this.urlFilter.startElement("", "form", "form", atts);
+        
+        assertEquals(2, this.handler.elements);
+        assertEquals("Hidden GET method input follows the form", "GET", this.handler.lastAttributes.getValue("value"));
+        
+        final Attributes formAtts = this.handler.firstAttributes;
+        assertNotSame(atts, formAtts);
+        assertEquals("POST", formAtts.getValue("method"));
+        assertEquals("proxy:search", formAtts.getValue("action"));
+        assertEquals("get", atts.getValue("method"));
+        assertEquals("search", atts.getValue("action"));
+    }
+    
+    private AttributesImpl createAttributes(String... namesAndValues) {
+        final AttributesImpl atts = new AttributesImpl();
+        for (int index = 0; index < namesAndValues.length; index += 2) {
+            atts.addAttribute("", namesAndValues[index], namesAndValues[index], "CDATA", namesAndValues[index + 1]);
+        }
+        return atts;
+    }
+    
+    private static class RecordingHandler extends DefaultHandler {
+        private Attributes firstAttributes;
+        private Attributes lastAttributes;
+        private int elements = 0;
+        
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            if (this.elements == 0) {
+                this.firstAttributes = atts;
+            }
+            this.lastAttributes = atts;
+            this.elements++;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+import org.springframework.mock.web.portlet.MockPortletPreferences;
+import org.springframework.mock.web.portlet.MockRenderRequest;
+import org.springframework.mock.web.portlet.MockRenderResponse;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.helpers.AttributesImpl;
+
+import edu.wisc.my.webproxy.beans.config.ClippingConfigImpl;
+import edu.wisc.my.webproxy.beans.config.HtmlParserConfigImpl;
+
+/**
+ * @version $Revision$
+ */
+public class ClippingFilterTest extends TestCase {
+    private MockPortletPreferences preferences;
+    private ClippingFilter clippingFilter;
+    private RecordingHandler handler;
+    
+    protected void setUp() throws Exception {
+        this.preferences = new MockPortletPreferences();
+        this.preferences.setValue(ClippingConfigImpl.DISABLE, "true");
+        this.preferences.setValue(HtmlParserConfigImpl.BALANCETAGS, "true");
+        
+        this.clippingFilter = new ClippingFilter();
+        this.clippingFilter.setAcceptableQNames(new HashSet<String>(Arrays.asList("br", "img")));
+        
+        this.handler = new RecordingHandler();
+        this.clippingFilter.setContentHandler(this.handler);
+        this.clippingFilter.setLexicalHandler(this.handler);
+    }
+    
+    public void testDisabled() throws Exception {
+        this.preferences.setValue(ClippingConfigImpl.DISABLE, "false");
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/body/div" });
+        this.setRenderData();
+        
+        this.events("<html", "<body", "<p", "'text", ">p", ">body", ">html");
+        assertEquals("<html<body<p'text>p>body>html", this.handler.toString());
+    }
+    
+    public void testSharedXPathPrefixes() throws Exception {
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/body/div/p", "/html/body/ul", "/html/body/div/p" });
+        this.setRenderData();
+        
+        this.events("<html", "<body", "<div", "'skip", "<p", "'first", ">p", "<span", ">span", ">div", "<ul", "<li", ">li", ">ul", "<ol", ">ol");
+        assertEquals("<p'first>p<ul<li>li>ul", this.handler.toString());
+    }
+    
+    public void testXPathCase() throws Exception {
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/HTML/Body/DIV" });
+        this.setRenderData();
+        
+        this.events("<html", "<BODY", "<div", "'text", ">div");
+        assertEquals("<div'text>div", this.handler.toString());
+    }
+    
+    public void testNestedXPaths() throws Exception {
+        //The outer clip includes the inner one, the inner path must not end the outer clip
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/body/div", "/html/body/div/div" });
+        this.setRenderData();
+        
+        this.events("<html", "<body", "<div", "<div", "'inner", ">div", "'outer", ">div", "<p", "'after", ">p");
+        assertEquals("<div<div'inner>div'outer>div", this.handler.toString());
+    }
+    
+    public void testEmptyXPath() throws Exception {
+        this.preferences.setValue(HtmlParserConfigImpl.BALANCETAGS, "false");
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/", "" });
+        this.setRenderData();
+        
+        this.events("<html", "<body", "'text", ">body", ">html");
+        assertEquals("", this.handler.toString());
+        
+        //Nothing can match so the parse ends at the first element
+        this.preferences.setValue(HtmlParserConfigImpl.BALANCETAGS, "true");
+        this.setRenderData();
+        try {
+            this.events("<html");
+            fail("The parse should end at the first element");
+        }
+        catch (SAXException se) {
+            assertTrue(ClippingCompleteException.isClippingComplete(se));
+        }
+    }
+    
+    public void testVoidElements() throws Exception {
+        //Unclosed void elements are dropped from the path when their parent closes
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/body/div" });
+        this.setRenderData();
+        
+        this.events("<html", "<body", "<div", "<br", "<img", "'text", ">div", "<p", ">p", "<div", "'second", ">div");
+        assertEquals("<div<br<img'text>div<div'second>div", this.handler.toString());
+    }
+    
+    public void testElementClipping() throws Exception {
+        this.preferences.setValues(ClippingConfigImpl.ELEMENT, new String[] { "form" });
+        this.setRenderData();
+        
+        this.events("<html", "<body", "<form", "<input", ">input", ">form", "<p", ">p", "<form", ">form", ">body", ">html");
+        assertEquals("<form<input>input>form<form>form", this.handler.toString());
+    }
+    
+    public void testCommentClipping() throws Exception {
+        this.preferences.setValues(ClippingConfigImpl.COMMENT, new String[] { "start" });
+        this.setRenderData();
+        
+        this.events("<html", "<body", "'before", "!start", "<p", "'text", ">p", "!start", "'after", ">body", ">html");
+        assertEquals("!start<p'text>p", this.handler.toString());
+        assertFalse(this.handler.ended);
+    }
+    
+    public void testEarlyTermination() throws Exception {
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/head/title" });
+        this.setRenderData();
+        
+        this.events("<html", "<head", "<title", "'Title", ">title");
+        try {
+            this.events(">head");
+            fail("The parse should end once the head closes");
+        }
+        catch (SAXException se) {
+            assertTrue(ClippingCompleteException.isClippingComplete(se));
+        }
+        
+        assertEquals("<title'Title>title", this.handler.toString());
+        assertTrue(this.handler.ended);
+    }
+    
+    public void testEarlyTerminationDisabled() throws Exception {
+        this.clippingFilter.setEarlyTermination(false);
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/head/title" });
+        this.setRenderData();
+        
+        this.events("<html", "<head", "<title", ">title", ">head", "<body", ">body", ">html");
+        assertEquals("<title>title", this.handler.toString());
+        assertFalse(this.handler.ended);
+    }
+    
+    public void testUnbalancedTags() throws Exception {
+        //Without tag balancing a page can contain a second body that still has to be clipped
+        this.preferences.setValue(HtmlParserConfigImpl.BALANCETAGS, "false");
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/body/div" });
+        this.setRenderData();
+        
+        this.events("<html", "<body", "<div", "'first", ">div", ">body", "<body", "<div", "'second", ">div", ">body", ">html");
+        assertEquals("<div'first>div<div'second>div", this.handler.toString());
+        assertFalse(this.handler.ended);
+    }
+    
+    public void testUnbalancedTagsTerminate() throws Exception {
+        //With tag balancing the clip is complete once body closes
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/body/div" });
+        this.setRenderData();
+        
+        this.events("<html", "<body", "<div", "'first", ">div");
+        try {
+            this.events(">body");
+            fail("The parse should end once the body closes");
+        }
+        catch (SAXException se) {
+            assertTrue(ClippingCompleteException.isClippingComplete(se));
+        }
+        
+        assertEquals("<div'first>div", this.handler.toString());
+    }
+    
+    public void testClearData() throws Exception {
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/body/div" });
+        this.setRenderData();
+        this.events("<html", "<body", "<div", "'first");
+        this.clippingFilter.clearData();
+        
+        //The next render has clipping disabled and starts with an empty path
+        this.handler = new RecordingHandler();
+        this.clippingFilter.setContentHandler(this.handler);
+        this.clippingFilter.setLexicalHandler(this.handler);
+        final MockRenderRequest request = new MockRenderRequest();
+        request.setPreferences(new MockPortletPreferences());
+        this.clippingFilter.setRenderData(request, new MockRenderResponse());
+        
+        this.events("<html", "'text", ">html");
+        assertEquals("<html'text>html", this.handler.toString());
+    }
+    
+    private void setRenderData() {
+        final MockRenderRequest request = new MockRenderRequest();
+        request.setPreferences(this.preferences);
+        this.clippingFilter.setRenderData(request, new MockRenderResponse());
+    }
+    
+    /**
+     * Sends events to the filter, '&lt;' starts an element, '&gt;' ends an element, ''' is
+     * text and '!' is a comment.
+     */
+    private void events(String... events) throws SAXException {
+        for (final String event : events) {
+            final String value = event.substring(1);
+            switch (event.charAt(0)) {
+                case '<':
+                    this.clippingFilter.startElement("", value, value, new AttributesImpl());
+                    break;
+                case '>':
+                    this.clippingFilter.endElement("", value, value);
+                    break;
+                case '\'':
+                    this.clippingFilter.characters(value.toCharArray(), 0, value.length());
+                    break;
+                case '!':
+                    this.clippingFilter.comment(value.toCharArray(), 0, value.length());
+                    break;
+                default:
+                    throw new IllegalArgumentException(event);
+            }
+        }
+    }
+    
+    /**
+     * Records the events in the same notation used by {@link ClippingFilterTest#events(String...)}
+     */
+    private static class RecordingHandler extends DefaultHandler2 {
+        private final StringBuilder events = new StringBuilder();
+        private boolean ended = false;
+        
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            this.events.append('<').append(qName);
+        }
+        
+        public void endElement(String uri, String localName, String qName) {
+            this.events.append('>').append(qName);
+        }
+        
+        public void characters(char[] ch, int start, int length) {
+            this.events.append('\'').append(ch, start, length);
+        }
+        
+        public void comment(char[] ch, int start, int length) {
+            this.events.append('!').append(ch, start, length);
+        }
+        
+        public void endDocument() {
+            this.ended = true;
+        }
+        
+        public String toString() {
+            return this.events.toString();
+        }
+    }
+}
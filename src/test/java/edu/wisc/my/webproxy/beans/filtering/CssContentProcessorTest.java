@@ -0,0 +1,83 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$
+ */
+public class CssContentProcessorTest extends TestCase {
+    private final CssContentProcessor contentProcessor = new CssContentProcessor();
+    
+    public void testUrlFunctions() throws Exception {
+        this.assertProcessed("a { background: url(img/a.png) }", "a { background: url(\"pass:img/a.png\") }");
+        this.assertProcessed("a { background: url( \"img/a.png\" ) }", "a { background: url( \"pass:img/a.png\" ) }");
+        this.assertProcessed("a { background: URL('img/a.png') }", "a { background: URL('pass:img/a.png') }");
+        this.assertProcessed("a{background:url(a.png),url(b.png)}", "a{background:url(\"pass:a.png\"),url(\"pass:b.png\")}");
+    }
+    
+    public void testImports() throws Exception {
+        this.assertProcessed("@import \"base.css\";", "@import \"pass:base.css\";");
+        this.assertProcessed("@import 'base.css' screen;", "@import 'pass:base.css' screen;");
+        this.assertProcessed("@import url(base.css);", "@import url(\"pass:base.css\");");
+        this.assertProcessed("@IMPORT \"base.css\";", "@IMPORT \"pass:base.css\";");
+    }
+    
+    public void testUnchangedUrls() throws Exception {
+        this.assertUnchanged("a { background: url(data:image/png;base64,AAAA) }");
+        this.assertUnchanged("a { filter: url(#shadow) }");
+        this.assertUnchanged("a { background: url() }");
+        this.assertUnchanged("a { background: url(a\\(b.png) }");
+    }
+    
+    public void testNotUrls() throws Exception {
+        this.assertUnchanged("a { content: \"url(a.png)\" }");
+        this.assertUnchanged("a { font-family: \"base.css\" }");
+        this.assertUnchanged("/* url(a.png) @import \"b.css\"; */");
+        this.assertUnchanged("a { cursor: pointer; unicode-range: U+0025-00FF }");
+        this.assertUnchanged(".menu-url(a.png) {}");
+        this.assertUnchanged("@media screen { a { color: red } }");
+        this.assertUnchanged("a { background: url(a.png");
+    }
+    
+    public void testEscapedQuotes() throws Exception {
+        this.assertProcessed("a { background: url(\"a\\\".png\") }", "a { background: url(\"a\\\".png\") }");
+        this.assertProcessed("a { background: url(a\"b.png) }", "a { background: url(\"pass:a\\\"b.png\") }");
+    }
+    
+    public void testComments() throws Exception {
+        this.assertProcessed("/**/a { background: url(a.png) /* x */ }", "/**/a { background: url(\"pass:a.png\") /* x */ }");
+        this.assertUnchanged("/* unterminated url(a.png)");
+    }
+    
+    private void assertUnchanged(String stylesheet) throws Exception {
+        this.assertProcessed(stylesheet, stylesheet);
+    }
+    
+    private void assertProcessed(String stylesheet, String expected) throws Exception {
+        final StringWriter out = new StringWriter();
+        this.contentProcessor.process(new StringReader(stylesheet), out, new BaseUrlFilter[] { new PrefixUrlFilter() });
+        assertEquals(expected, out.toString());
+    }
+}
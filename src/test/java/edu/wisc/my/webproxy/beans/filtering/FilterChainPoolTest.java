@@ -0,0 +1,251 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.portlet.PortletURL;
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.TestCase;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.mock.web.portlet.MockPortletPreferences;
+import org.springframework.mock.web.portlet.MockPortletURL;
+import org.springframework.mock.web.portlet.MockRenderRequest;
+import org.springframework.mock.web.portlet.MockRenderResponse;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import edu.wisc.my.webproxy.beans.config.ClippingConfigImpl;
+import edu.wisc.my.webproxy.beans.config.GeneralConfigImpl;
+import edu.wisc.my.webproxy.beans.config.HtmlParserConfigImpl;
+
+/**
+ * @version $Revision$
+ */
+public class FilterChainPoolTest extends TestCase {
+    private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+    
+    private DefaultListableBeanFactory beanFactory;
+    private FilterChainPool filterChainPool;
+    
+    protected void setUp() throws Exception {
+        this.beanFactory = new DefaultListableBeanFactory();
+        this.beanFactory.registerBeanDefinition("HtmlParserBean", createPrototype("createParser"));
+        this.beanFactory.registerBeanDefinition("SaxFilterBean", createPrototype("createFilters"));
+        
+        this.filterChainPool = new FilterChainPool();
+        this.filterChainPool.setBeanFactory(this.beanFactory);
+    }
+    
+    protected void tearDown() throws Exception {
+        this.filterChainPool.close();
+    }
+    
+    public void testReusedChainIsReset() throws Exception {
+        //A render that clips, rewrites portlet URLs and fails part way through the document
+        final MockPortletPreferences firstPreferences = new MockPortletPreferences();
+        firstPreferences.setValue(GeneralConfigImpl.BASE_URL, "http://first.example.com/app/index.html");
+        firstPreferences.setValues(GeneralConfigImpl.PORTLET_URL_REWRITE_MASKS, new String[] { ".*" });
+        firstPreferences.setValue(GeneralConfigImpl.PORTLET_URL_LIST_TYPE, GeneralConfigImpl.URL_LIST_TYPE_INCLUDE);
+        firstPreferences.setValue(ClippingConfigImpl.DISABLE, "true");
+        firstPreferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/body/div" });
+        firstPreferences.setValue(HtmlParserConfigImpl.BALANCETAGS, "true");
+        
+        final FilterChainPool.FilterChain firstChain = this.filterChainPool.borrowChain();
+        try {
+            this.render(firstChain, firstPreferences, new PrefixedRenderResponse("first"), "<html><body><div><a href=\"page.html\">Page</a><p>");
+            fail("The document is not well formed");
+        }
+        catch (SAXException se) {
+            //Expected, the filters are left mid document
+        }
+        finally {
+            this.filterChainPool.returnChain(firstChain);
+        }
+        assertEquals(1, this.filterChainPool.getNumIdle());
+        
+        final FilterChainPool.FilterChain secondChain = this.filterChainPool.borrowChain();
+        assertSame("The pooled chain should be reused", firstChain, secondChain);
+        assertEquals(1, this.filterChainPool.getCreatedCount());
+        
+        for (final ChainingSaxFilter filter : secondChain.getFilters()) {
+            assertNull(filter.getName(), filter.getParent());
+            assertNull(filter.getName(), filter.getContentHandler());
+            assertNull(filter.getName(), filter.getLexicalHandler());
+        }
+        
+        //A render with other preferences must produce the same output as a new chain
+        final MockPortletPreferences secondPreferences = new MockPortletPreferences();
+        secondPreferences.setValue(GeneralConfigImpl.BASE_URL, "http://second.example.com/");
+        secondPreferences.setValues(GeneralConfigImpl.PORTLET_URL_REWRITE_MASKS, new String[] { "/other/" });
+        secondPreferences.setValue(GeneralConfigImpl.PORTLET_URL_LIST_TYPE, GeneralConfigImpl.URL_LIST_TYPE_INCLUDE);
+        secondPreferences.setValue(ClippingConfigImpl.DISABLE, "true");
+        secondPreferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/body/div" });
+        
+        final String document = "<html><body><p>Text</p><div><a href=\"page.html\">Page</a><a href=\"/other/page.html\">Other</a></div></body></html>";
+        final String output;
+        try {
+            output = this.render(secondChain, secondPreferences, new PrefixedRenderResponse("second"), document);
+        }
+        finally {
+            this.filterChainPool.returnChain(secondChain);
+        }
+        
+        final FilterChainPool newChainPool = new FilterChainPool();
+        newChainPool.setBeanFactory(this.beanFactory);
+        final FilterChainPool.FilterChain newChain = newChainPool.borrowChain();
+        assertNotSame(secondChain, newChain);
+        final String expectedOutput;
+        try {
+            expectedOutput = this.render(newChain, secondPreferences, new PrefixedRenderResponse("second"), document);
+        }
+        finally {
+            newChainPool.returnChain(newChain);
+            newChainPool.close();
+        }
+        assertEquals(expectedOutput, output);
+        
+        assertTrue(output, output.startsWith("<div><a "));
+        assertTrue(output, output.indexOf("href=\"http://second.example.com/page.html\"") >= 0);
+        assertTrue(output, output.indexOf("href=\"second:") >= 0);
+        assertEquals(output, -1, output.indexOf("first"));
+    }
+    
+    public void testExhaustedPool() throws Exception {
+        this.filterChainPool.setMaxActive(1);
+        
+        final FilterChainPool.FilterChain pooledChain = this.filterChainPool.borrowChain();
+        final FilterChainPool.FilterChain unpooledChain = this.filterChainPool.borrowChain();
+        assertNotSame(pooledChain, unpooledChain);
+        assertEquals(1, this.filterChainPool.getUnpooledCount());
+        assertEquals(1, this.filterChainPool.getNumActive());
+        
+        this.filterChainPool.returnChain(unpooledChain);
+        this.filterChainPool.returnChain(pooledChain);
+        assertEquals(0, this.filterChainPool.getNumActive());
+        assertEquals(1, this.filterChainPool.getNumIdle());
+        assertEquals(2, this.filterChainPool.getBorrowedCount());
+    }
+    
+    /**
+     * Links the filters and parses the document the way the portlet does.
+     */
+    private String render(FilterChainPool.FilterChain filterChain, MockPortletPreferences preferences, MockRenderResponse response, String document) throws Exception {
+        final MockRenderRequest request = new MockRenderRequest();
+        request.setPreferences(preferences);
+        
+        final List<ChainingSaxFilter> saxFilters = filterChain.getFilters();
+        final StringWriter out = new StringWriter();
+        final HtmlOutputFilter outFilter = new HtmlOutputFilter(out);
+        
+        ChainingSaxFilter parent = saxFilters.get(0);
+        outFilter.setParent(parent);
+        for (final ChainingSaxFilter nextParent : saxFilters.subList(1, saxFilters.size())) {
+            parent.setParent(nextParent);
+            parent = nextParent;
+        }
+        
+        try {
+            filterChain.getParser().setRenderData(request, response);
+            outFilter.setRenderData(request, response);
+            
+            final XMLReader xmlReader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+            xmlReader.setProperty(LEXICAL_HANDLER, parent);
+            parent.setParent(xmlReader);
+            
+            try {
+                outFilter.parse(new InputSource(new StringReader(document)));
+            }
+            catch (SAXException se) {
+                if (!ClippingCompleteException.isClippingComplete(se)) {
+                    throw se;
+                }
+            }
+        }
+        finally {
+            outFilter.clearData();
+        }
+        
+        return out.toString();
+    }
+    
+    private static RootBeanDefinition createPrototype(String factoryMethodName) {
+        final RootBeanDefinition beanDefinition = new RootBeanDefinition(FilterChainPoolTest.class);
+        beanDefinition.setFactoryMethodName(factoryMethodName);
+        beanDefinition.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        return beanDefinition;
+    }
+    
+    public static HtmlParser createParser() {
+        return new NekoHtmlParser();
+    }
+    
+    /**
+     * @return The filters in SaxFilterBean order, configured like the application context
+     */
+    public static List<ChainingSaxFilter> createFilters() {
+        final Map<String, Set<String>> elements = new HashMap<String, Set<String>>();
+        elements.put("a", Collections.singleton("href"));
+        elements.put("form", Collections.singleton("action"));
+        
+        final PortletUrlFilter portletUrlFilter = new PortletUrlFilter();
+        portletUrlFilter.setElements(elements);
+        
+        final AbsoluteUrlFilter absoluteUrlFilter = new AbsoluteUrlFilter();
+        absoluteUrlFilter.setElements(elements);
+        
+        final ClippingFilter clippingFilter = new ClippingFilter();
+        clippingFilter.setAcceptableQNames(new HashSet<String>(Arrays.asList("br", "img", "input")));
+        
+        return Arrays.<ChainingSaxFilter>asList(portletUrlFilter, absoluteUrlFilter, clippingFilter);
+    }
+    
+    /**
+     * Creates action URLs that start with a prefix so the test can tell which render created them.
+     */
+    private static class PrefixedRenderResponse extends MockRenderResponse {
+        private final String prefix;
+        
+        public PrefixedRenderResponse(String prefix) {
+            this.prefix = prefix;
+        }
+        
+        public PortletURL createActionURL() {
+            return new MockPortletURL(null, MockPortletURL.URL_TYPE_ACTION) {
+                public String toString() {
+                    return prefix + ":" + super.toString();
+                }
+            };
+        }
+    }
+}
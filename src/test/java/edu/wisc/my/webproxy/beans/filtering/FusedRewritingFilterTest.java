@@ -0,0 +1,241 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.TestCase;
+
+import org.springframework.mock.web.portlet.MockPortletPreferences;
+import org.springframework.mock.web.portlet.MockRenderRequest;
+import org.springframework.mock.web.portlet.MockRenderResponse;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import edu.wisc.my.webproxy.beans.config.ClippingConfigImpl;
+import edu.wisc.my.webproxy.beans.config.GeneralConfigImpl;
+import edu.wisc.my.webproxy.beans.config.HtmlParserConfigImpl;
+
+/**
+ * @version $Revision$
+ */
+public class FusedRewritingFilterTest extends TestCase {
+    private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+    
+    private MockPortletPreferences preferences;
+    private MockRenderRequest request;
+    private MockRenderResponse response;
+    
+    protected void setUp() throws Exception {
+        this.preferences = new MockPortletPreferences();
+        this.preferences.setValue(GeneralConfigImpl.BASE_URL, "http://www.example.com/app/index.html");
+        
+        this.request = new MockRenderRequest();
+        this.request.setPreferences(this.preferences);
+        this.response = new MockRenderResponse();
+    }
+    
+    public void testCanFuse() throws Exception {
+        final ClippingFilter clippingFilter = new ClippingFilter();
+        final BaseUrlFilter urlFilter = new PrefixUrlFilter();
+        
+        assertTrue(FusedRewritingFilter.canFuse(Arrays.asList(urlFilter, clippingFilter)));
+        assertTrue(FusedRewritingFilter.canFuse(Arrays.asList(urlFilter)));
+        assertFalse(FusedRewritingFilter.canFuse(Arrays.asList(clippingFilter, urlFilter)));
+        assertFalse(FusedRewritingFilter.canFuse(Arrays.asList(urlFilter, new HtmlOutputFilter(new StringWriter()))));
+    }
+    
+    public void testFormWithGetMethod() throws Exception {
+        final String output = this.assertFusedMatchesChained(
+                "<html><body><form method=\"get\" action=\"search\"><input name=\"q\"/></form></body></html>");
+        
+        assertTrue(output, output.indexOf("method=\"POST\"") >= 0);
+        assertTrue(output, output.indexOf("action=\"proxy:http://www.example.com/app/search\"") >= 0);
+        assertTrue(output, output.indexOf("value=\"GET\"") >= 0);
+    }
+    
+    public void testFormWithoutMethod() throws Exception {
+        final String output = this.assertFusedMatchesChained(
+                "<html><body><form><input name=\"q\"/></form></body></html>");
+        
+        assertTrue(output, output.indexOf("method=\"POST\"") >= 0);
+        assertTrue(output, output.indexOf("ACTION=\"proxy:http://www.example.com/\"") >= 0);
+        assertTrue(output, output.indexOf("value=\"GET\"") >= 0);
+    }
+    
+    public void testFormWithPostMethod() throws Exception {
+        final String output = this.assertFusedMatchesChained(
+                "<html><body><form method=\"post\" action=\"/login\"><input name=\"q\"/></form></body></html>");
+        
+        assertTrue(output, output.indexOf("action=\"proxy:http://www.example.com/login\"") >= 0);
+        assertEquals(output, -1, output.indexOf("value=\"GET\""));
+    }
+    
+    public void testPassThroughElements() throws Exception {
+        final String output = this.assertFusedMatchesChained(
+                "<html><body><a href=\"page.html\">Page</a><img src=\"/images/logo.gif\"/></body></html>");
+        
+        assertTrue(output, output.indexOf("href=\"proxy:http://www.example.com/app/page.html\"") >= 0);
+        assertTrue(output, output.indexOf("src=\"pass:http://www.example.com/images/logo.gif\"") >= 0);
+    }
+    
+    public void testJavascriptUrls() throws Exception {
+        final String output = this.assertFusedMatchesChained(
+                "<html><body><a href=\"javascript:go('page.html')\">Go</a><a href=\"JavaScript:void(0)\">Void</a></body></html>");
+        
+        assertTrue(output, output.indexOf("href=\"javascript:go('page.html')\"") >= 0);
+        assertTrue(output, output.indexOf("href=\"JavaScript:void(0)\"") >= 0);
+    }
+    
+    public void testUnchangedAttributes() throws Exception {
+        final String output = this.assertFusedMatchesChained(
+                "<html><body><p class=\"intro\">Text <b>bold</b></p><!--note--></body></html>");
+        
+        assertTrue(output, output.indexOf("<p class=\"intro\">Text <b>bold</b></p><!--note-->") >= 0);
+    }
+    
+    public void testXPathClipping() throws Exception {
+        this.preferences.setValue(ClippingConfigImpl.DISABLE, "true");
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/body/div" });
+        
+        final String output = this.assertFusedMatchesChained(
+                "<html><body><p>Before</p><div><a href=\"page.html\">Page</a></div><p>After</p></body></html>");
+        
+        assertEquals("<div><a href=\"proxy:http://www.example.com/app/page.html\">Page</a></div>", output);
+    }
+    
+    public void testElementClipping() throws Exception {
+        this.preferences.setValue(ClippingConfigImpl.DISABLE, "true");
+        this.preferences.setValues(ClippingConfigImpl.ELEMENT, new String[] { "form" });
+        
+        final String output = this.assertFusedMatchesChained(
+                "<html><body><p>Before</p><form method=\"get\"><input name=\"q\"/></form><p>After</p></body></html>");
+        
+        assertTrue(output, output.startsWith("<form method=\"POST\" ACTION=\"proxy:http://www.example.com/\">"));
+        assertTrue(output, output.indexOf("value=\"GET\"") >= 0);
+        assertEquals(output, -1, output.indexOf("Before"));
+        assertEquals(output, -1, output.indexOf("After"));
+    }
+    
+    public void testClippingCompletes() throws Exception {
+        this.preferences.setValue(ClippingConfigImpl.DISABLE, "true");
+        this.preferences.setValues(ClippingConfigImpl.XPATH, new String[] { "/html/head/title" });
+        this.preferences.setValue(HtmlParserConfigImpl.BALANCETAGS, "true");
+        
+        final String output = this.assertFusedMatchesChained(
+                "<html><head><title>Title</title></head><body><a href=\"page.html\">Page</a></body></html>");
+        
+        assertEquals("<title>Title</title>", output);
+    }
+    
+    /**
+     * Renders the document with the chained and the fused filters and checks the output is identical.
+     * 
+     * @return The rendered document
+     */
+    private String assertFusedMatchesChained(String document) throws Exception {
+        final String chained = this.render(document, false);
+        final String fused = this.render(document, true);
+        assertEquals(chained, fused);
+        return fused;
+    }
+    
+    /**
+     * Sets up the filters the same way the portlet does and parses the document.
+     */
+    private String render(String document, boolean fused) throws Exception {
+        final List<ChainingSaxFilter> saxFilters = this.createFilters();
+        final StringWriter out = new StringWriter();
+        final HtmlOutputFilter outFilter = new HtmlOutputFilter(out);
+        
+        ChainingSaxFilter parent;
+        if (fused) {
+            parent = new FusedRewritingFilter(saxFilters);
+            outFilter.setParent(parent);
+        }
+        else {
+            parent = saxFilters.get(0);
+            outFilter.setParent(parent);
+            for (final ChainingSaxFilter nextParent : saxFilters.subList(1, saxFilters.size())) {
+                parent.setParent(nextParent);
+                parent = nextParent;
+            }
+        }
+        
+        try {
+            outFilter.setRenderData(this.request, this.response);
+            
+            final SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+            parserFactory.setNamespaceAware(false);
+            final XMLReader xmlReader = parserFactory.newSAXParser().getXMLReader();
+            xmlReader.setProperty(LEXICAL_HANDLER, parent);
+            parent.setParent(xmlReader);
+            
+            try {
+                outFilter.parse(new InputSource(new StringReader(document)));
+            }
+            catch (SAXException se) {
+                if (!ClippingCompleteException.isClippingComplete(se)) {
+                    throw se;
+                }
+            }
+        }
+        finally {
+            outFilter.clearData();
+        }
+        
+        return out.toString();
+    }
+    
+    /**
+     * @return The filters in SaxFilterBean order, the clipping filter is executed first
+     */
+    private List<ChainingSaxFilter> createFilters() {
+        final Map<String, Set<String>> elements = new HashMap<String, Set<String>>();
+        elements.put("a", Collections.singleton("href"));
+        elements.put("form", Collections.singleton("action"));
+        
+        final Map<String, Set<String>> passThroughElements = new HashMap<String, Set<String>>();
+        passThroughElements.put("img", Collections.singleton("src"));
+        passThroughElements.put("input", Collections.singleton("src"));
+        
+        final PrefixUrlFilter prefixUrlFilter = new PrefixUrlFilter();
+        
+        final AbsoluteUrlFilter absoluteUrlFilter = new AbsoluteUrlFilter();
+        absoluteUrlFilter.setElements(elements);
+        absoluteUrlFilter.setPassThroughElements(passThroughElements);
+        
+        final ClippingFilter clippingFilter = new ClippingFilter();
+        clippingFilter.setAcceptableQNames(new HashSet<String>(Arrays.asList("input", "img", "br")));
+        
+        return Arrays.<ChainingSaxFilter>asList(prefixUrlFilter, absoluteUrlFilter, clippingFilter);
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * @version $Revision$
+ */
+public class HtmlOutputFilterTest extends TestCase {
+    public void testClearDataFlushesBuffer() throws Exception {
+        final StringWriter out = new StringWriter();
+        final HtmlOutputFilter outFilter = new HtmlOutputFilter(out);
+        
+        this.writeElement(outFilter, "p", "text");
+        assertEquals("Output is buffered until the buffer fills or the document ends", "", out.toString());
+        
+        outFilter.clearData();
+        assertEquals("<p>text</p>", out.toString());
+        
+        //A second clear must not write the buffered output again or return the buffer twice
+        outFilter.clearData();
+        assertEquals("<p>text</p>", out.toString());
+    }
+    
+    public void testPooledBufferReuse() throws Exception {
+        final StringBuilder longText = new StringBuilder();
+        for (int index = 0; index < 1000; index++) {
+            longText.append("0123456");
+        }
+        
+        //Fill a buffer with more content than the next render writes
+        final StringWriter firstOut = new StringWriter();
+        final HtmlOutputFilter firstFilter = new HtmlOutputFilter(firstOut);
+        this.writeElement(firstFilter, "div", longText.toString());
+        firstFilter.endDocument();
+        firstFilter.clearData();
+        assertEquals("<div>" + longText + "</div>", firstOut.toString());
+        
+        //The pooled buffer is reused and must only contain the new output
+        final StringWriter secondOut = new StringWriter();
+        final HtmlOutputFilter secondFilter = new HtmlOutputFilter(secondOut);
+        this.writeElement(secondFilter, "p", "short");
+        secondFilter.endDocument();
+        secondFilter.clearData();
+        assertEquals("<p>short</p>", secondOut.toString());
+        
+        //Both filters can hold buffers at the same time
+        final StringWriter thirdOut = new StringWriter();
+        final StringWriter fourthOut = new StringWriter();
+        final HtmlOutputFilter thirdFilter = new HtmlOutputFilter(thirdOut);
+        final HtmlOutputFilter fourthFilter = new HtmlOutputFilter(fourthOut);
+        this.writeElement(thirdFilter, "b", "third");
+        this.writeElement(fourthFilter, "i", "fourth");
+        thirdFilter.clearData();
+        fourthFilter.clearData();
+        assertEquals("<b>third</b>", thirdOut.toString());
+        assertEquals("<i>fourth</i>", fourthOut.toString());
+    }
+    
+    public void testLargeWrites() throws Exception {
+        final char[] text = new char[20 * 1024];
+        for (int index = 0; index < text.length; index++) {
+            text[index] = (char)('a' + (index % 26));
+        }
+        
+        final StringWriter out = new StringWriter();
+        final HtmlOutputFilter outFilter = new HtmlOutputFilter(out);
+        outFilter.startElement("", "pre", "pre", new AttributesImpl());
+        outFilter.characters(text, 0, text.length);
+        outFilter.characters(text, 10, 5000);
+        outFilter.characters(text, 10, 5000);
+        outFilter.endElement("", "pre", "pre");
+        outFilter.endDocument();
+        outFilter.clearData();
+        
+        final String expectedText = new String(text) + new String(text, 10, 5000) + new String(text, 10, 5000);
+        assertEquals("<pre>" + expectedText + "</pre>", out.toString());
+    }
+    
+    public void testAttributesAndComments() throws Exception {
+        final StringWriter out = new StringWriter();
+        final HtmlOutputFilter outFilter = new HtmlOutputFilter(out);
+        
+        final AttributesImpl atts = new AttributesImpl();
+        atts.addAttribute("", "href", "href", "CDATA", "page.html");
+        atts.addAttribute("", "selected", "selected", "CDATA", null);
+        outFilter.startElement("", "a", "a", atts);
+        outFilter.startEntity("amp");
+        outFilter.characters("&".toCharArray(), 0, 1);
+        outFilter.endEntity("amp");
+        outFilter.endElement("", "a", "a");
+        outFilter.comment("note".toCharArray(), 0, 4);
+        outFilter.endDocument();
+        outFilter.clearData();
+        
+        assertEquals("<a href=\"page.html\" selected>&amp;</a><!--note-->", out.toString());
+    }
+    
+    private void writeElement(HtmlOutputFilter outFilter, String qName, String text) throws Exception {
+        outFilter.startElement("", qName, qName, new AttributesImpl());
+        outFilter.characters(text.toCharArray(), 0, text.length());
+        outFilter.endElement("", qName, qName);
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import javax.portlet.PortletURL;
+import javax.portlet.WindowState;
+
+import junit.framework.TestCase;
+
+import org.springframework.mock.web.portlet.MockPortletPreferences;
+import org.springframework.mock.web.portlet.MockPortletURL;
+import org.springframework.mock.web.portlet.MockRenderRequest;
+import org.springframework.mock.web.portlet.MockRenderResponse;
+
+import edu.wisc.my.webproxy.beans.config.GeneralConfigImpl;
+import edu.wisc.my.webproxy.portlet.WebproxyConstants;
+
+/**
+ * @version $Revision$
+ */
+public class PortletUrlFilterTest extends TestCase {
+    private static final String[] URLS = {
+        "http://www.example.com/",
+        "http://www.example.com/a b/c.jsp?d=e&f=%20\u00e9+g#h",
+        "http://www.example.com/maximize/page.html",
+        "http://www.example.com/maximize/a b+c",
+    };
+    
+    private MockRenderRequest request;
+    private CountingRenderResponse response;
+    private PortletUrlFilter urlFilter;
+    
+    protected void setUp() throws Exception {
+        final MockPortletPreferences preferences = new MockPortletPreferences();
+        preferences.setValues(GeneralConfigImpl.PORTLET_URL_REWRITE_MASKS, new String[] { "/maximize/", ".*" });
+        preferences.setValues(GeneralConfigImpl.PORTLET_URL_REWRITE_STATES, new String[] { "maximized", "" });
+        preferences.setValue(GeneralConfigImpl.PORTLET_URL_LIST_TYPE, GeneralConfigImpl.URL_LIST_TYPE_INCLUDE);
+        
+        this.request = new MockRenderRequest();
+        this.request.setPreferences(preferences);
+        this.response = new CountingRenderResponse(null);
+        this.urlFilter = new PortletUrlFilter();
+    }
+    
+    public void testTemplateUrls() throws Exception {
+        this.urlFilter.setRenderData(this.request, this.response);
+        
+        for (final String url : URLS) {
+            assertEquals(this.createActionUrl(url, false), this.urlFilter.rewriteUrl(url, false));
+            assertEquals(this.createActionUrl(url, true), this.urlFilter.rewriteUrl(url, true));
+        }
+        
+        //A template and a check URL for each window state and pass through combination
+        assertEquals(8, this.response.actionUrls);
+        
+        //The templates are kept for the render
+        for (final String url : URLS) {
+            this.urlFilter.rewriteUrl(url, false);
+            this.urlFilter.rewriteUrl(url, true);
+        }
+        assertEquals(8, this.response.actionUrls);
+    }
+    
+    public void testContainerUrls() throws Exception {
+        this.urlFilter.setUseUrlTemplates(false);
+        this.urlFilter.setRenderData(this.request, this.response);
+        
+        for (final String url : URLS) {
+            assertEquals(this.createActionUrl(url, false), this.urlFilter.rewriteUrl(url, false));
+        }
+        assertEquals(URLS.length, this.response.actionUrls);
+    }
+    
+    public void testMismatchedTemplate() throws Exception {
+        //The container encodes URLs differently for the maximized state
+        this.response = new CountingRenderResponse(WindowState.MAXIMIZED);
+        this.urlFilter.setRenderData(this.request, this.response);
+        
+        for (final String url : URLS) {
+            final String expectedUrl = new CountingRenderResponse(WindowState.MAXIMIZED).createActionUrl(url, this.getWindowState(url), false);
+            assertEquals(expectedUrl, this.urlFilter.rewriteUrl(url, false));
+        }
+        
+        //The normal state uses its template, every maximized URL is created by the container
+        assertEquals(2 + 2 + 2, this.response.actionUrls);
+    }
+    
+    public void testTemplatesVerifiedPerRender() throws Exception {
+        this.urlFilter.setRenderData(this.request, new CountingRenderResponse(WindowState.MAXIMIZED));
+        for (final String url : URLS) {
+            this.urlFilter.rewriteUrl(url, false);
+        }
+        this.urlFilter.clearData();
+        
+        //A failed check for another portlet's render must not disable templates for this one
+        this.urlFilter.setRenderData(this.request, this.response);
+        for (final String url : URLS) {
+            assertEquals(this.createActionUrl(url, false), this.urlFilter.rewriteUrl(url, false));
+        }
+        assertEquals(4, this.response.actionUrls);
+        this.urlFilter.clearData();
+        
+        //Templates from a previous render are not reused
+        final CountingRenderResponse nextResponse = new CountingRenderResponse(null);
+        nextResponse.setNamespace("next");
+        this.urlFilter.setRenderData(this.request, nextResponse);
+        assertEquals(nextResponse.createActionUrl(URLS[0], null, false), this.urlFilter.rewriteUrl(URLS[0], false));
+        assertTrue(nextResponse.actionUrls > 0);
+    }
+    
+    public void testUnmatchedUrls() throws Exception {
+        final MockPortletPreferences preferences = new MockPortletPreferences();
+        preferences.setValues(GeneralConfigImpl.PORTLET_URL_REWRITE_MASKS, new String[] { "/maximize/" });
+        preferences.setValue(GeneralConfigImpl.PORTLET_URL_LIST_TYPE, GeneralConfigImpl.URL_LIST_TYPE_INCLUDE);
+        this.request.setPreferences(preferences);
+        this.urlFilter.setRenderData(this.request, this.response);
+        
+        assertSame(URLS[0], this.urlFilter.rewriteUrl(URLS[0], false));
+        assertEquals(0, this.response.actionUrls);
+    }
+    
+    private String createActionUrl(String url, boolean passThrough) {
+        return new CountingRenderResponse(null).createActionUrl(url, this.getWindowState(url), passThrough);
+    }
+    
+    private WindowState getWindowState(String url) {
+        return (url.indexOf("/maximize/") >= 0 ? WindowState.MAXIMIZED : null);
+    }
+    
+    /**
+     * Counts the action URLs created, optionally encodes spaces in the URL parameter differently
+     * for a window state so templates don't match.
+     */
+    private static class CountingRenderResponse extends MockRenderResponse {
+        private final WindowState mismatchedState;
+        private int actionUrls = 0;
+        
+        public CountingRenderResponse(WindowState mismatchedState) {
+            this.mismatchedState = mismatchedState;
+        }
+        
+        public PortletURL createActionURL() {
+            this.actionUrls++;
+            return new MockPortletURL(null, MockPortletURL.URL_TYPE_ACTION) {
+                public String toString() {
+                    final String url = super.toString();
+                    if (mismatchedState != null && mismatchedState.toString().equals(this.getWindowStateName(url))) {
+                        return url.replace("+", "%20");
+                    }
+                    return url;
+                }
+                
+                private String getWindowStateName(String url) {
+                    final int index = url.indexOf("windowState=");
+                    if (index < 0) {
+                        return null;
+                    }
+                    final int end = url.indexOf(';', index);
+                    return url.substring(index + "windowState=".length(), (end < 0 ? url.length() : end));
+                }
+            };
+        }
+        
+        public String createActionUrl(String url, WindowState windowState, boolean passThrough) {
+            try {
+                final PortletURL portletUrl = this.createActionURL();
+                portletUrl.setParameter(WebproxyConstants.BASE_URL, url);
+                if (passThrough) {
+                    portletUrl.setParameter(WebproxyConstants.PASS_THROUGH, Boolean.TRUE.toString());
+                }
+                if (windowState != null) {
+                    portletUrl.setWindowState(windowState);
+                }
+                return portletUrl.toString();
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
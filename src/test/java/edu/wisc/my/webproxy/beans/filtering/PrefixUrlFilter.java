@@ -0,0 +1,54 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Marks rewritten URLs so tests can tell which URLs were rewritten and if the element
+ * was passed through. Rewrites a/href and form/action and passes through img/src and
+ * input/src by default.
+ * 
+ * @version $Revision$
+ */
+public class PrefixUrlFilter extends BaseUrlFilter {
+    public PrefixUrlFilter() {
+        final Map<String, Set<String>> elements = new HashMap<String, Set<String>>();
+        elements.put("a", Collections.singleton("href"));
+        elements.put("form", Collections.singleton("action"));
+        this.setElements(elements);
+        
+        final Map<String, Set<String>> passThroughElements = new HashMap<String, Set<String>>();
+        passThroughElements.put("img", Collections.singleton("src"));
+        passThroughElements.put("input", Collections.singleton("src"));
+        this.setPassThroughElements(passThroughElements);
+    }
+    
+    public String rewriteUrl(String url, boolean passThrough) {
+        return (passThrough ? "pass:" : "proxy:") + url;
+    }
+    
+    public String getName() {
+        return "Prefix URL Filter";
+    }
+}
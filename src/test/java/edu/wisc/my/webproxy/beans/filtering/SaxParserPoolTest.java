@@ -0,0 +1,90 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import org.cyberneko.html.parsers.SAXParser;
+import org.xml.sax.helpers.DefaultHandler;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$
+ */
+public class SaxParserPoolTest extends TestCase {
+    private static final String IGNORE_SPECIFIED_CHARSET = "http://cyberneko.org/html/features/scanner/ignore-specified-charset";
+    
+    private final SaxParserPool.ParserFeatures features = new SaxParserPool.ParserFeatures(false, true, false, true, true);
+    private SaxParserPool parserPool;
+    
+    protected void setUp() throws Exception {
+        this.parserPool = new SaxParserPool();
+        this.parserPool.setMaxActive(1);
+    }
+    
+    protected void tearDown() throws Exception {
+        this.parserPool.close();
+    }
+    
+    public void testExhaustedPool() throws Exception {
+        final SAXParser pooledParser = this.parserPool.borrowParser(this.features);
+        final SAXParser unpooledParser = this.parserPool.borrowParser(this.features);
+        assertNotSame(pooledParser, unpooledParser);
+        assertEquals(1, this.parserPool.getUnpooledCount());
+        assertEquals(1, this.parserPool.getNumActive());
+        
+        //The unpooled parser is discarded, it must not change the pool's accounting
+        this.parserPool.returnParser(this.features, unpooledParser);
+        assertEquals(1, this.parserPool.getNumActive());
+        assertEquals(0, this.parserPool.getNumIdle());
+        
+        this.parserPool.returnParser(this.features, pooledParser);
+        assertEquals(0, this.parserPool.getNumActive());
+        assertEquals(1, this.parserPool.getNumIdle());
+        
+        assertSame(pooledParser, this.parserPool.borrowParser(this.features));
+        assertEquals(1, this.parserPool.getCreatedCount());
+    }
+    
+    public void testReturnedParserIsReset() throws Exception {
+        final SAXParser parser = this.parserPool.borrowParser(this.features);
+        parser.setFeature(IGNORE_SPECIFIED_CHARSET, true);
+        parser.setProperty("http://cyberneko.org/html/properties/default-encoding", "ISO-8859-1");
+        parser.setContentHandler(new DefaultHandler());
+        this.parserPool.returnParser(this.features, parser);
+        
+        final SAXParser reused = this.parserPool.borrowParser(this.features);
+        assertSame(parser, reused);
+        assertFalse(reused.getFeature(IGNORE_SPECIFIED_CHARSET));
+        assertEquals("UTF-8", reused.getProperty("http://cyberneko.org/html/properties/default-encoding"));
+        assertNull(reused.getContentHandler());
+    }
+    
+    public void testParsersPooledByFeatures() throws Exception {
+        final SaxParserPool.ParserFeatures balancedFeatures = new SaxParserPool.ParserFeatures(false, true, true, true, true);
+        
+        final SAXParser parser = this.parserPool.borrowParser(this.features);
+        this.parserPool.returnParser(this.features, parser);
+        
+        final SAXParser balancedParser = this.parserPool.borrowParser(balancedFeatures);
+        assertNotSame(parser, balancedParser);
+        assertTrue(balancedParser.getFeature("http://cyberneko.org/html/features/balance-tags"));
+        assertEquals(0, this.parserPool.getUnpooledCount());
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+import edu.wisc.my.webproxy.portlet.WebproxyConstants;
+
+/**
+ * @version $Revision$
+ */
+public class StreamingHtmlRewriterTest extends TestCase {
+    private static final String GET_METHOD_INPUT = "<input type=\"HIDDEN\" name=\"" + WebproxyConstants.UNIQUE_CONSTANT + ".getMethod\" value=\"GET\">";
+    
+    public void testText() throws Exception {
+        this.assertUnchanged("");
+        this.assertUnchanged("plain text");
+        this.assertUnchanged("a < b > c");
+        this.assertUnchanged("trailing <");
+        this.assertUnchanged("<p>text</p>");
+    }
+    
+    public void testComments() throws Exception {
+        this.assertUnchanged("<!-- <a href=\"page.html\"> -->");
+        this.assertUnchanged("<!---->");
+        this.assertUnchanged("<!-- a -- b --- >still comment-->");
+        this.assertUnchanged("<!-- unterminated <a href=\"page.html\">");
+        this.assertRewritten("<!--x--><a href=\"b\">", "<!--x--><a href=\"proxy:b\">");
+    }
+    
+    public void testPartialCommentStart() throws Exception {
+        this.assertUnchanged("<!-x>");
+        this.assertUnchanged("<!-x><a>");
+        this.assertUnchanged("<!->");
+        this.assertUnchanged("<!-");
+        this.assertRewritten("<!-x><a href=\"b\">", "<!-x><a href=\"proxy:b\">");
+    }
+    
+    public void testDeclarations() throws Exception {
+        this.assertUnchanged("<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01//EN\">");
+        this.assertUnchanged("<?xml version=\"1.0\"?>");
+        this.assertUnchanged("</p >");
+    }
+    
+    public void testCData() throws Exception {
+        this.assertUnchanged("<![CDATA[ <a href=\"page.html\"> ]] > ]]>");
+        this.assertRewritten("<![CDATA[x]]><a href=\"b\">", "<![CDATA[x]]><a href=\"proxy:b\">");
+        this.assertUnchanged("<![CDAT><a>");
+    }
+    
+    public void testQuotedAttributes() throws Exception {
+        this.assertRewritten("<a href=\"page.html\" class=\"x\">", "<a href=\"proxy:page.html\" class=\"x\">");
+        this.assertRewritten("<a class='x' href='page.html'>", "<a class='x' href=\"proxy:page.html\">");
+        this.assertRewritten("<a href = \"a > b\">", "<a href = \"proxy:a > b\">");
+        this.assertRewritten("<A HREF=\"page.html\">", "<A HREF=\"proxy:page.html\">");
+    }
+    
+    public void testUnquotedAttributes() throws Exception {
+        this.assertRewritten("<a href=page.html>", "<a href=\"proxy:page.html\">");
+        this.assertRewritten("<a href=page.html class=x>", "<a href=\"proxy:page.html\" class=x>");
+        this.assertRewritten("<img src=/logo.gif/>", "<img src=\"pass:/logo.gif/\">");
+    }
+    
+    public void testValuelessAttributes() throws Exception {
+        this.assertUnchanged("<a href>");
+        this.assertUnchanged("<input checked disabled>");
+        this.assertRewritten("<a download href=\"b\">", "<a download href=\"proxy:b\">");
+        this.assertRewritten("<img src=\"a\" / >", "<img src=\"pass:a\" / >");
+    }
+    
+    public void testReferences() throws Exception {
+        this.assertRewritten("<a href=\"page.html?a=1&amp;b=2\">", "<a href=\"proxy:page.html?a=1&amp;b=2\">");
+        this.assertRewritten("<a href=\"&#x2F;page&#47;&quot;\">", "<a href=\"proxy:/page/&quot;\">");
+        this.assertUnchanged("<a href=\"javascript:go(&quot;x&quot;)\">");
+    }
+    
+    public void testRawTextElements() throws Exception {
+        this.assertUnchanged("<script>if (a < b) { document.write('<a href=\"page.html\">'); }</script>");
+        this.assertUnchanged("<style>a > b { color: red }</style>");
+        this.assertUnchanged("<textarea><a href=\"page.html\"></textarea >");
+        this.assertUnchanged("<title>a</tit</title>");
+        this.assertUnchanged("<SCRIPT>x = '</scripts>';</Script>");
+        this.assertRewritten("<script></script><a href=\"b\">", "<script></script><a href=\"proxy:b\">");
+        this.assertUnchanged("<script>unterminated <a href=\"page.html\">");
+    }
+    
+    public void testUnterminatedTag() throws Exception {
+        this.assertUnchanged("<a href=\"page.html");
+        this.assertUnchanged("<a href=");
+        this.assertUnchanged("<a href=\"page.html\"");
+    }
+    
+    public void testForms() throws Exception {
+        this.assertRewritten("<form method=\"get\" action=\"search\">",
+                "<form method=\"POST\" action=\"proxy:search\">" + GET_METHOD_INPUT);
+        this.assertRewritten("<form action=\"login\" method=\"POST\">",
+                "<form action=\"proxy:login\" method=\"POST\">");
+        this.assertRewritten("<form>",
+                "<form method=\"POST\" ACTION=\"proxy:/\">" + GET_METHOD_INPUT);
+        this.assertRewritten("<form name=f>",
+                "<form name=f method=\"POST\" ACTION=\"proxy:/\">" + GET_METHOD_INPUT);
+    }
+    
+    public void testManyAttributes() throws Exception {
+        final StringBuilder tag = new StringBuilder("<a");
+        for (int index = 0; index < 40; index++) {
+            tag.append(" data-").append(index).append("=\"").append(index).append('"');
+        }
+        
+        this.assertRewritten(tag + " href=\"b\">", tag + " href=\"proxy:b\">");
+    }
+    
+    public void testLargeDocument() throws Exception {
+        final StringBuilder document = new StringBuilder();
+        final StringBuilder expected = new StringBuilder();
+        for (int index = 0; index < 2000; index++) {
+            document.append("<p>").append(index).append(" <a href=\"p").append(index).append("\">link</a></p>\n");
+            expected.append("<p>").append(index).append(" <a href=\"proxy:p").append(index).append("\">link</a></p>\n");
+        }
+        
+        this.assertRewritten(document.toString(), expected.toString());
+    }
+    
+    private void assertUnchanged(String document) throws IOException {
+        this.assertRewritten(document, document);
+    }
+    
+    /**
+     * Rewrites the document reading it all at once and one character at a time so tokens
+     * are split across reads.
+     */
+    private void assertRewritten(String document, String expected) throws IOException {
+        assertEquals(expected, this.rewrite(new StringReader(document)));
+        assertEquals(expected, this.rewrite(new SingleCharReader(document)));
+    }
+    
+    private String rewrite(Reader in) throws IOException {
+        final StreamingHtmlRewriter rewriter = new StreamingHtmlRewriter(new BaseUrlFilter[] { new PrefixUrlFilter() });
+        final StringWriter out = new StringWriter();
+        try {
+            rewriter.rewrite(in, out);
+        }
+        finally {
+            rewriter.clearData();
+        }
+        return out.toString();
+    }
+    
+    private static class SingleCharReader extends Reader {
+        private final String document;
+        private int position = 0;
+        
+        public SingleCharReader(String document) {
+            this.document = document;
+        }
+        
+        public int read(char[] cbuf, int off, int len) {
+            if (this.position == this.document.length()) {
+                return -1;
+            }
+            cbuf[off] = this.document.charAt(this.position++);
+            return 1;
+        }
+        
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.filtering;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * @version $Revision$
+ */
+public class XmlContentProcessorTest extends TestCase {
+    private XmlContentProcessor contentProcessor;
+    
+    protected void setUp() throws Exception {
+        final Map<String, Set<String>> urlAttributes = new HashMap<String, Set<String>>();
+        urlAttributes.put("*", new HashSet<String>(Arrays.asList("xlink:href")));
+        urlAttributes.put("link", new HashSet<String>(Arrays.asList("href")));
+        
+        this.contentProcessor = new XmlContentProcessor();
+        this.contentProcessor.setUrlAttributes(urlAttributes);
+    }
+    
+    public void testConfiguredAttributes() throws Exception {
+        final String output = this.process(
+                "<?xml version=\"1.0\"?>\n" +
+                "<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">" +
+                "<link href=\"/feed\"/><item xlink:href=\"item.xml\"/><link xlink:href=\"other.xml\"/></feed>");
+        
+        assertEquals(
+                "<?xml version=\"1.0\"?>\n" +
+                "<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">" +
+                "<link href=\"pass:/feed\"/><item xlink:href=\"pass:item.xml\"/><link xlink:href=\"other.xml\"/></feed>", output);
+        this.assertWellFormed(output);
+    }
+    
+    public void testHtmlMapsNotApplied() throws Exception {
+        //The URL filter would rewrite a/href and form/action in HTML
+        final String document = "<doc><a href=\"page.html\"/><form action=\"search\"/><img src=\"logo.gif\"/><A HREF=\"x\"/></doc>";
+        assertEquals(document, this.process(document));
+    }
+    
+    public void testCaseSensitiveNames() throws Exception {
+        final String document = "<doc><LINK href=\"a\"/><link HREF=\"b\"/></doc>";
+        assertEquals(document, this.process(document));
+    }
+    
+    public void testEmptyElements() throws Exception {
+        //script has no raw text content in XML and the empty element must not swallow the rest
+        final String output = this.process("<doc><script/><link href=\"a\"/><title/><link href=\"b\" /></doc>");
+        
+        assertEquals("<doc><script/><link href=\"pass:a\"/><title/><link href=\"pass:b\" /></doc>", output);
+        this.assertWellFormed(output);
+    }
+    
+    public void testElementsWithContent() throws Exception {
+        final String output = this.process("<doc><script>if (a &lt; b) {}</script><link href=\"a\"></link><style><link href=\"b\"/></style></doc>");
+        
+        assertEquals("<doc><script>if (a &lt; b) {}</script><link href=\"pass:a\"></link><style><link href=\"pass:b\"/></style></doc>", output);
+        this.assertWellFormed(output);
+    }
+    
+    public void testUnquotedAttributeBeforeEmptyElementEnd() throws Exception {
+        assertEquals("<link href=\"pass:a\"/>", this.process("<link href=a/>"));
+    }
+    
+    public void testEscaping() throws Exception {
+        final String output = this.process("<doc><link href='a?b=1&amp;c=\"2\"&lt;'/></doc>");
+        
+        assertEquals("<doc><link href=\"pass:a?b=1&amp;c=&quot;2&quot;&lt;\"/></doc>", output);
+        this.assertWellFormed(output);
+    }
+    
+    public void testProcessingInstructions() throws Exception {
+        final String output = this.process("<?xml-stylesheet type=\"text/xsl\" href=\"a>b.xsl\"?><doc><link href=\"a\"/></doc>");
+        
+        assertEquals("<?xml-stylesheet type=\"text/xsl\" href=\"a>b.xsl\"?><doc><link href=\"pass:a\"/></doc>", output);
+        this.assertWellFormed(output);
+    }
+    
+    public void testCommentsAndCData() throws Exception {
+        final String document = "<doc><!-- <link href=\"a\"/> --><![CDATA[<link href=\"b\"/>]]></doc>";
+        final String output = this.process(document);
+        
+        assertEquals(document, output);
+        this.assertWellFormed(output);
+    }
+    
+    public void testNoUrlAttributes() throws Exception {
+        this.contentProcessor = new XmlContentProcessor();
+        
+        final String document = "<doc><link href=\"a\"/></doc>";
+        assertEquals(document, this.process(document));
+    }
+    
+    private String process(String document) throws Exception {
+        final StringWriter out = new StringWriter();
+        this.contentProcessor.process(new StringReader(document), out, new BaseUrlFilter[] { new PrefixUrlFilter() });
+        return out.toString();
+    }
+    
+    private void assertWellFormed(String document) throws Exception {
+        final SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+        parserFactory.setNamespaceAware(true);
+        parserFactory.newSAXParser().parse(new InputSource(new StringReader(document)), new DefaultHandler());
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.http;
+
+import java.net.URI;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$
+ */
+public class CircuitBreakerTest extends TestCase {
+    private CircuitBreakerRegistry registry;
+    
+    protected void setUp() throws Exception {
+        this.registry = new CircuitBreakerRegistry();
+        this.registry.setWindowSize(4);
+        this.registry.setMinimumCalls(2);
+        this.registry.setFailureRateThreshold(50);
+        this.registry.setOpenDuration(0);
+        this.registry.setHalfOpenTrials(2);
+    }
+    
+    public void testOpensOnFailures() throws Exception {
+        final CircuitBreaker circuitBreaker = this.registry.getCircuitBreaker(new URI("http://www.example.com/"));
+        
+        circuitBreaker.recordCall(circuitBreaker.allowRequest(), true, 10);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        circuitBreaker.recordCall(circuitBreaker.allowRequest(), true, 10);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+    
+    public void testOnlyTrialCallsCloseHalfOpenBreaker() throws Exception {
+        final CircuitBreaker circuitBreaker = this.registry.getCircuitBreaker(new URI("http://www.example.com/"));
+        
+        //Slow calls started while closed complete after the breaker opened
+        final long closedCall1 = circuitBreaker.allowRequest();
+        final long closedCall2 = circuitBreaker.allowRequest();
+        final long closedCall3 = circuitBreaker.allowRequest();
+        circuitBreaker.recordCall(closedCall1, true, 10);
+        circuitBreaker.recordCall(closedCall2, true, 10);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        
+        //Open duration is 0, the next request is a trial
+        final long trialCall1 = circuitBreaker.allowRequest();
+        assertTrue(trialCall1 >= 0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        
+        //A successful call started before the breaker opened must not count as a trial
+        circuitBreaker.recordCall(closedCall3, false, 10);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        
+        final long trialCall2 = circuitBreaker.allowRequest();
+        assertTrue(trialCall2 >= 0);
+        assertEquals("only halfOpenTrials requests are allowed", -1, circuitBreaker.allowRequest());
+        
+        circuitBreaker.recordCall(trialCall1, false, 10);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.recordCall(trialCall2, false, 10);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+    
+    public void testFailedTrialReopens() throws Exception {
+        final CircuitBreaker circuitBreaker = this.registry.getCircuitBreaker(new URI("http://www.example.com/"));
+        circuitBreaker.recordCall(circuitBreaker.allowRequest(), true, 10);
+        circuitBreaker.recordCall(circuitBreaker.allowRequest(), true, 10);
+        
+        final long trialCall1 = circuitBreaker.allowRequest();
+        final long trialCall2 = circuitBreaker.allowRequest();
+        circuitBreaker.recordCall(trialCall1, true, 10);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        
+        //The other trial of the failed round completes after the breaker reopened
+        circuitBreaker.recordCall(trialCall2, false, 10);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+    
+    public void testRegistryIsBounded() throws Exception {
+        this.registry.setMaxCircuitBreakers(2);
+        
+        final CircuitBreaker first = this.registry.getCircuitBreaker(new URI("http://one.example.com/"));
+        Thread.sleep(5);
+        this.registry.getCircuitBreaker(new URI("http://two.example.com/"));
+        Thread.sleep(5);
+        this.registry.getCircuitBreaker(new URI("http://three.example.com/"));
+        assertEquals(2, this.registry.getCircuitBreakerCount());
+        
+        assertNotSame("least recently requested breaker is dropped", first, this.registry.getCircuitBreaker(new URI("http://one.example.com/")));
+        assertEquals(2, this.registry.getCircuitBreakerCount());
+    }
+}
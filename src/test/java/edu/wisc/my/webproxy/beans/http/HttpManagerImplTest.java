@@ -0,0 +1,279 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.NTCredentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.mock.web.portlet.MockPortletPreferences;
+import org.springframework.mock.web.portlet.MockRenderRequest;
+
+import junit.framework.TestCase;
+import edu.wisc.my.webproxy.beans.config.HttpClientConfigImpl;
+import edu.wisc.my.webproxy.portlet.ApplicationContextLocator;
+import edu.wisc.my.webproxy.portlet.WebproxyConstants;
+
+/**
+ * @version $Revision$
+ */
+public class HttpManagerImplTest extends TestCase {
+    private StubHttpClient client;
+    private HttpManagerImpl httpManager;
+    
+    protected void setUp() throws Exception {
+        this.client = new StubHttpClient();
+        
+        this.httpManager = new HttpManagerImpl();
+        this.httpManager.setSchemeRegistry(new SchemeRegistry());
+        this.httpManager.setHttpClient(this.client);
+    }
+    
+    public void testRejectedRequestFails() throws Exception {
+        this.httpManager.setRequestExecutor(new TaskExecutor() {
+            public void execute(Runnable task) {
+                throw new TaskRejectedException("saturated");
+            }
+        });
+        
+        final Future<Response> responseFuture = this.httpManager.doRequestAsync(this.createRequest("http://www.example.com/"));
+        assertTrue(responseFuture.isDone());
+        
+        try {
+            HttpManager.getResponse(responseFuture);
+            fail("RequestRejectedException expected");
+        }
+        catch (RequestRejectedException rre) {
+            //expected
+        }
+        
+        assertEquals("rejected request must not run on the calling thread", 0, this.client.getRequests().size());
+    }
+    
+    public void testAsyncRequest() throws Exception {
+        this.httpManager.setRequestExecutor(new TaskExecutor() {
+            public void execute(Runnable task) {
+                new Thread(task).start();
+            }
+        });
+        
+        final Future<Response> responseFuture = this.httpManager.doRequestAsync(this.createRequest("http://www.example.com/"));
+        final Response response = HttpManager.getResponse(responseFuture);
+        try {
+            assertEquals(200, response.getStatusCode());
+        }
+        finally {
+            response.close();
+        }
+        
+        assertEquals(1, this.client.getRequests().size());
+        assertEquals("http://www.example.com/", this.client.getRequests().get(0).getURI().toString());
+    }
+    
+    public void testSharedClientContext() throws Exception {
+        final BasicClientCookie cookie = new BasicClientCookie("JSESSIONID", "1234");
+        cookie.setDomain("www.example.com");
+        this.httpManager.addCookie(cookie);
+        this.httpManager.setCredentials(new UsernamePasswordCredentials("user", "secret"));
+        
+        final Response response = this.httpManager.doRequest(this.createRequest("http://www.example.com/"));
+        response.close();
+        
+        final HttpContext context = this.client.getContexts().get(0);
+        final CookieStore cookieStore = (CookieStore)context.getAttribute(ClientContext.COOKIE_STORE);
+        assertEquals(1, cookieStore.getCookies().size());
+        final CredentialsProvider credentialsProvider = (CredentialsProvider)context.getAttribute(ClientContext.CREDS_PROVIDER);
+        assertEquals("user", credentialsProvider.getCredentials(AuthScope.ANY).getUserPrincipal().getName());
+    }
+    
+    public void testUserClientContext() throws Exception {
+        //A client created for the user, like the SAML client, keeps its own cookies and credentials
+        final HttpContext context = this.httpManager.createContext(new StubHttpClient());
+        assertNull(context.getAttribute(ClientContext.COOKIE_STORE));
+        assertNull(context.getAttribute(ClientContext.CREDS_PROVIDER));
+    }
+    
+    public void testSerialization() throws Exception {
+        final BasicClientCookie cookie = new BasicClientCookie("JSESSIONID", "1234");
+        cookie.setDomain("www.example.com");
+        cookie.setPath("/");
+        this.httpManager.addCookie(cookie);
+        this.httpManager.setCredentials(new UsernamePasswordCredentials("user", "secret"));
+        
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(this.httpManager);
+        out.close();
+        
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        final HttpManagerImpl restored = (HttpManagerImpl)in.readObject();
+        in.close();
+        
+        final List<Cookie> cookies = restored.getCookies();
+        assertEquals(1, cookies.size());
+        assertEquals("JSESSIONID", cookies.get(0).getName());
+        assertEquals("1234", cookies.get(0).getValue());
+        assertEquals("www.example.com", cookies.get(0).getDomain());
+        
+        final Credentials credentials = restored.getCredentials();
+        assertEquals("user", credentials.getUserPrincipal().getName());
+        assertEquals("secret", credentials.getPassword());
+        
+        //The shared collaborators are restored from the HttpManagerBean definition
+        final GenericApplicationContext applicationContext = new GenericApplicationContext();
+        applicationContext.getBeanFactory().registerSingleton("HttpManagerBean", this.httpManager);
+        applicationContext.refresh();
+        ApplicationContextLocator.setApplicationContext(applicationContext);
+        try {
+            final Response response = restored.doRequest(this.createRequest("http://www.example.com/"));
+            response.close();
+        }
+        finally {
+            ApplicationContextLocator.setApplicationContext(null);
+        }
+        
+        assertEquals(1, this.client.getRequests().size());
+        final HttpContext context = this.client.getContexts().get(0);
+        final CookieStore cookieStore = (CookieStore)context.getAttribute(ClientContext.COOKIE_STORE);
+        assertEquals("1234", cookieStore.getCookies().get(0).getValue());
+    }
+    
+    public void testHeadRequestOnUnpinnedConnection() throws Exception {
+        this.httpManager.setNtlmConnectionAffinity(true);
+        this.httpManager.setMaxPinnedConnectionsPerUser(0);
+        this.httpManager.setCredentials(new NTCredentials("user", "secret", "workstation", "DOMAIN"));
+        
+        final Request request = this.createRequest("http://www.example.com/");
+        request.setType(WebproxyConstants.HEAD_REQUEST);
+        final Response response = this.httpManager.doRequest(request);
+        
+        //A HEAD response has no entity, the connection has to be closed by the remote server
+        final HttpUriRequest method = this.client.getRequests().get(0);
+        assertNotNull(method.getFirstHeader("Connection"));
+        assertEquals("close", method.getFirstHeader("Connection").getValue());
+        
+        response.close();
+        assertTrue("unpinned connection must be discarded", ((HttpRequestBase)method).isAborted());
+    }
+    
+    public void testPinnedConnection() throws Exception {
+        this.httpManager.setNtlmConnectionAffinity(true);
+        this.httpManager.setMaxPinnedConnectionsPerUser(1);
+        this.httpManager.setCredentials(new NTCredentials("user", "secret", "workstation", "DOMAIN"));
+        
+        for (int index = 0; index < 2; index++) {
+            final Response response = this.httpManager.doRequest(this.createRequest("http://www.example.com/"));
+            response.close();
+            
+            //The pinned permit is released on close so the second request is pinned as well
+            final HttpUriRequest method = this.client.getRequests().get(index);
+            assertNull(method.getFirstHeader("Connection"));
+            assertFalse(((HttpRequestBase)method).isAborted());
+        }
+    }
+    
+    public void testUserTokenKeptForSameCredentials() throws Exception {
+        final List<Object> userTokens = new ArrayList<Object>();
+        this.client = new StubHttpClient() {
+            @Override
+            public synchronized HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException, ClientProtocolException {
+                //Like the request director, set the token of the authenticated connection on the context
+                userTokens.add(context.getAttribute(ClientContext.USER_TOKEN));
+                context.setAttribute(ClientContext.USER_TOKEN, "DOMAIN/user");
+                return super.execute(request, context);
+            }
+        };
+        this.httpManager.setHttpClient(this.client);
+        this.httpManager.setNtlmConnectionAffinity(true);
+
+        this.httpManager.setCredentials(new NTCredentials("user", "secret", "workstation", "DOMAIN"));
+        this.httpManager.doRequest(this.createRequest("http://www.example.com/")).close();
+
+        this.httpManager.setCredentials(new NTCredentials("user", "secret", "workstation", "DOMAIN"));
+        this.httpManager.doRequest(this.createRequest("http://www.example.com/")).close();
+
+        //A changed password has to authenticate a new connection
+        this.httpManager.setCredentials(new NTCredentials("user", "changed", "workstation", "DOMAIN"));
+        this.httpManager.doRequest(this.createRequest("http://www.example.com/")).close();
+
+        assertEquals(3, userTokens.size());
+        assertNull(userTokens.get(0));
+        assertEquals("DOMAIN/user", userTokens.get(1));
+        assertNull(userTokens.get(2));
+    }
+
+    public void testSameCredentials() throws Exception {
+        assertTrue(HttpManager.isSameCredentials(null, null));
+        assertFalse(HttpManager.isSameCredentials(null, new UsernamePasswordCredentials("user", "secret")));
+        assertTrue(HttpManager.isSameCredentials(new UsernamePasswordCredentials("user", "secret"), new UsernamePasswordCredentials("user", "secret")));
+        assertFalse(HttpManager.isSameCredentials(new UsernamePasswordCredentials("user", "secret"), new UsernamePasswordCredentials("user", "changed")));
+        assertFalse(HttpManager.isSameCredentials(new NTCredentials("user", "secret", "workstation", "DOMAIN"), new NTCredentials("user", "secret", "workstation", "OTHER")));
+    }
+
+    public void testConnectionLimitAppliedToSharedPool() throws Exception {
+        final PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager(new SchemeRegistry(), 300);
+        connectionManager.setDefaultMaxPerRoute(20);
+        this.httpManager.setClientConnectionManager(connectionManager);
+        
+        final MockPortletPreferences prefs = new MockPortletPreferences();
+        prefs.setValue(HttpClientConfigImpl.MAX_CONNECTIONS_PER_ROUTE, "35");
+        final MockRenderRequest portletRequest = new MockRenderRequest();
+        portletRequest.setPreferences(prefs);
+        this.httpManager.setup(portletRequest);
+        
+        this.httpManager.doRequest(this.createRequest("http://www.example.com:8080/")).close();
+        
+        assertEquals(35, connectionManager.getMaxForRoute(new HttpRoute(new HttpHost("www.example.com", 8080, "http"), null, false)));
+        assertEquals(20, connectionManager.getMaxForRoute(new HttpRoute(new HttpHost("www.example.org", 8080, "http"), null, false)));
+        connectionManager.shutdown();
+    }
+    
+    private Request createRequest(String url) {
+        final Request request = this.httpManager.createRequest();
+        request.setUrl(url);
+        request.setType(WebproxyConstants.GET_REQUEST);
+        return request;
+    }
+}
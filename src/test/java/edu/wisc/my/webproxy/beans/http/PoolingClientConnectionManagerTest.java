@@ -0,0 +1,65 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.http;
+
+import java.net.URI;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+
+/**
+ * @version $Revision$
+ */
+public class PoolingClientConnectionManagerTest extends TestCase {
+    private PoolingClientConnectionManager connectionManager;
+    
+    protected void setUp() throws Exception {
+        this.connectionManager = new PoolingClientConnectionManager(new SchemeRegistry(), 300);
+        this.connectionManager.setDefaultMaxPerRoute(20);
+    }
+    
+    protected void tearDown() throws Exception {
+        this.connectionManager.shutdown();
+    }
+    
+    public void testLargestRequestedLimitIsUsed() throws Exception {
+        final HttpRoute route = new HttpRoute(new HttpHost("www.example.com", 8080, "http"), null, false);
+        
+        this.connectionManager.requestMaxForHost(new URI("http://www.example.com:8080/app"), 5);
+        assertEquals(5, this.connectionManager.getMaxForRoute(route));
+        
+        this.connectionManager.requestMaxForHost(new URI("http://www.example.com:8080/other"), 30);
+        assertEquals(30, this.connectionManager.getMaxForRoute(route));
+        
+        this.connectionManager.requestMaxForHost(new URI("http://www.example.com:8080/app"), 5);
+        assertEquals(30, this.connectionManager.getMaxForRoute(route));
+    }
+    
+    public void testDefaultPort() throws Exception {
+        this.connectionManager.requestMaxForHost(new URI("https://www.example.com/app"), 40);
+        
+        assertEquals(40, this.connectionManager.getMaxForRoute(new HttpRoute(new HttpHost("www.example.com", -1, "https"), null, true)));
+        assertEquals(40, this.connectionManager.getMaxForRoute(new HttpRoute(new HttpHost("www.example.com", 443, "https"), null, true)));
+        assertEquals(20, this.connectionManager.getMaxForRoute(new HttpRoute(new HttpHost("www.example.com", 80, "http"), null, false)));
+    }
+}
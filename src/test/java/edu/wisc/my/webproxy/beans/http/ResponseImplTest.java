@@ -0,0 +1,86 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * @version $Revision$
+ */
+public class ResponseImplTest extends TestCase {
+    private StubHttpClient client;
+    
+    protected void setUp() throws Exception {
+        this.client = new StubHttpClient();
+    }
+    
+    public void testGzipBody() throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write("<html>content</html>".getBytes("UTF-8"));
+        gzip.close();
+        this.addResponse("gzip", new String(bytes.toByteArray(), "ISO-8859-1"));
+        
+        final ResponseImpl response = new ResponseImpl(new HttpGet("http://www.example.com/"), this.client, null);
+        try {
+            assertEquals("<html>content</html>", IOUtils.toString(response.getResponseBodyAsStream(), "UTF-8"));
+        }
+        finally {
+            response.close();
+        }
+    }
+    
+    public void testCorruptGzipBodyFails() throws Exception {
+        this.addResponse("gzip", "<html>not compressed</html>");
+        
+        final HttpGet method = new HttpGet("http://www.example.com/");
+        final ResponseImpl response = new ResponseImpl(method, this.client, null);
+        try {
+            response.getResponseBodyAsStream();
+            fail("IOException expected");
+        }
+        catch (IOException ioe) {
+            //expected, the partly read body must not be returned
+        }
+        finally {
+            response.close();
+        }
+        
+        assertTrue("connection with a partly read body must be discarded", ((HttpRequestBase)method).isAborted());
+    }
+    
+    private void addResponse(String contentEncoding, String body) throws Exception {
+        final BasicHttpResponse httpResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        httpResponse.setHeader("Content-Encoding", contentEncoding);
+        httpResponse.setEntity(new StringEntity(body));
+        this.client.addResponse(httpResponse);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.beans.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * HttpClient that records the requests it executes and answers them with queued responses,
+ * a 200 response without an entity is returned when no response is queued.
+ * 
+ * @version $Revision$
+ */
+public class StubHttpClient implements HttpClient {
+    private final HttpParams params = new BasicHttpParams();
+    private final LinkedList<HttpResponse> responses = new LinkedList<HttpResponse>();
+    private final List<HttpUriRequest> requests = new ArrayList<HttpUriRequest>();
+    private final List<HttpContext> contexts = new ArrayList<HttpContext>();
+    
+    public synchronized void addResponse(HttpResponse response) {
+        this.responses.add(response);
+    }
+    
+    public synchronized List<HttpUriRequest> getRequests() {
+        return new ArrayList<HttpUriRequest>(this.requests);
+    }
+    
+    public synchronized List<HttpContext> getContexts() {
+        return new ArrayList<HttpContext>(this.contexts);
+    }
+
+    public synchronized HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException, ClientProtocolException {
+        this.requests.add(request);
+        this.contexts.add(context);
+        
+        if (this.responses.isEmpty()) {
+            return new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        }
+        return this.responses.removeFirst();
+    }
+
+    public HttpResponse execute(HttpUriRequest request) throws IOException, ClientProtocolException {
+        return this.execute(request, (HttpContext)null);
+    }
+
+    public HttpResponse execute(HttpHost target, HttpRequest request) throws IOException, ClientProtocolException {
+        throw new UnsupportedOperationException();
+    }
+
+    public HttpResponse execute(HttpHost target, HttpRequest request, HttpContext context) throws IOException, ClientProtocolException {
+        throw new UnsupportedOperationException();
+    }
+
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler) throws IOException, ClientProtocolException {
+        return responseHandler.handleResponse(this.execute(request));
+    }
+
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler, HttpContext context) throws IOException, ClientProtocolException {
+        return responseHandler.handleResponse(this.execute(request, context));
+    }
+
+    public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> responseHandler) throws IOException, ClientProtocolException {
+        throw new UnsupportedOperationException();
+    }
+
+    public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> responseHandler, HttpContext context) throws IOException, ClientProtocolException {
+        throw new UnsupportedOperationException();
+    }
+
+    public HttpParams getParams() {
+        return this.params;
+    }
+
+    public ClientConnectionManager getConnectionManager() {
+        return null;
+    }
+}
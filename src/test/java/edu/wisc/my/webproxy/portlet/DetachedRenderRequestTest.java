@@ -0,0 +1,149 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.webproxy.portlet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.portlet.PortletMode;
+import javax.portlet.PortletPreferences;
+import javax.portlet.PortletRequest;
+import javax.portlet.PortletSession;
+import javax.portlet.ReadOnlyException;
+
+import junit.framework.TestCase;
+
+import org.springframework.mock.web.portlet.MockPortletPreferences;
+import org.springframework.mock.web.portlet.MockPortletSession;
+import org.springframework.mock.web.portlet.MockRenderRequest;
+
+import edu.wisc.my.webproxy.beans.config.GeneralConfigImpl;
+import edu.wisc.my.webproxy.beans.config.HttpClientConfigImpl;
+
+/**
+ * @version $Revision$
+ */
+public class DetachedRenderRequestTest extends TestCase {
+    private static final String URL = "http://www.example.com/page";
+    
+    private MockPortletPreferences prefs;
+    private MockPortletSession session;
+    private MockRenderRequest request;
+    
+    protected void setUp() throws Exception {
+        final Map<String, String> userInfo = new HashMap<String, String>();
+        userInfo.put("uid", "jdoe");
+        
+        this.prefs = new MockPortletPreferences();
+        this.prefs.setValue(HttpClientConfigImpl.SESSION_PERSISTENCE_ENABLE, "true");
+        this.prefs.setValue(HttpClientConfigImpl.SHARED_SESSION_KEY, "shared-${uid}");
+        this.prefs.setValues(GeneralConfigImpl.PORTLET_URL_REWRITE_STATES, new String[] { "maximized" });
+        
+        this.session = new MockPortletSession();
+        this.session.setAttribute("portletAttribute", "portletValue");
+        this.session.setAttribute(GeneralConfigImpl.BASE_URL, "http://www.example.com/other");
+        this.session.setAttribute("shared-jdoe", "sharedState", PortletSession.APPLICATION_SCOPE);
+        this.session.setAttribute("unrelated", "applicationValue", PortletSession.APPLICATION_SCOPE);
+        
+        this.request = new MockRenderRequest();
+        this.request.setPreferences(this.prefs);
+        this.request.setSession(this.session);
+        this.request.setAttribute(PortletRequest.USER_INFO, userInfo);
+        this.request.setRemoteUser("jdoe");
+        this.request.setParameter("param", "value");
+    }
+    
+    public void testCaptureWithUserContext() {
+        final DetachedRenderRequest detached = DetachedRenderRequest.capture(this.request, true, URL);
+        
+        assertEquals("jdoe", detached.getRemoteUser());
+        assertEquals("jdoe", ((Map<?, ?>)detached.getAttribute(PortletRequest.USER_INFO)).get("uid"));
+        
+        final PortletSession detachedSession = detached.getPortletSession();
+        assertEquals("portletValue", detachedSession.getAttribute("portletAttribute"));
+        assertEquals(URL, detachedSession.getAttribute(GeneralConfigImpl.BASE_URL));
+        assertEquals("sharedState", detachedSession.getAttribute("shared-jdoe", PortletSession.APPLICATION_SCOPE));
+        assertNull(detachedSession.getAttribute("unrelated", PortletSession.APPLICATION_SCOPE));
+        
+        assertEquals("true", detached.getPreferences().getValue(HttpClientConfigImpl.SESSION_PERSISTENCE_ENABLE, null));
+    }
+    
+    public void testCaptureWithoutUserContext() {
+        final DetachedRenderRequest detached = DetachedRenderRequest.capture(this.request, false, URL);
+        
+        assertNull(detached.getRemoteUser());
+        assertTrue(((Map<?, ?>)detached.getAttribute(PortletRequest.USER_INFO)).isEmpty());
+        
+        final PortletSession detachedSession = detached.getPortletSession();
+        assertNull(detachedSession.getAttribute("portletAttribute"));
+        assertEquals(URL, detachedSession.getAttribute(GeneralConfigImpl.BASE_URL));
+        assertNull(detachedSession.getAttribute("shared-jdoe", PortletSession.APPLICATION_SCOPE));
+        
+        //The page must not be rendered with cookies persisted for the user
+        assertEquals("false", detached.getPreferences().getValue(HttpClientConfigImpl.SESSION_PERSISTENCE_ENABLE, null));
+    }
+    
+    public void testPreferencesAreCopied() throws Exception {
+        final DetachedRenderRequest detached = DetachedRenderRequest.capture(this.request, true, URL);
+        
+        this.prefs.setValue(HttpClientConfigImpl.SESSION_PERSISTENCE_ENABLE, "false");
+        this.prefs.getValues(GeneralConfigImpl.PORTLET_URL_REWRITE_STATES, null)[0] = "minimized";
+        
+        final PortletPreferences detachedPrefs = detached.getPreferences();
+        assertEquals("true", detachedPrefs.getValue(HttpClientConfigImpl.SESSION_PERSISTENCE_ENABLE, null));
+        assertEquals("maximized", detachedPrefs.getValues(GeneralConfigImpl.PORTLET_URL_REWRITE_STATES, null)[0]);
+        
+        try {
+            detachedPrefs.setValue(HttpClientConfigImpl.SESSION_PERSISTENCE_ENABLE, "false");
+            fail("Detached preferences must be read only");
+        }
+        catch (ReadOnlyException roe) {
+            //expected
+        }
+        try {
+            detachedPrefs.store();
+            fail("Detached preferences can't be stored");
+        }
+        catch (IllegalStateException ise) {
+            //expected
+        }
+    }
+    
+    public void testSessionIsCopied() {
+        final DetachedRenderRequest detached = DetachedRenderRequest.capture(this.request, true, URL);
+        
+        detached.getPortletSession().setAttribute("portletAttribute", "changed");
+        detached.getPortletSession().setAttribute("added", "value");
+        this.session.removeAttribute("portletAttribute");
+        
+        assertNull(this.session.getAttribute("added"));
+        assertEquals("changed", detached.getPortletSession().getAttribute("portletAttribute"));
+        assertEquals(GeneralConfigImpl.BASE_URL + " is only set on the copy", "http://www.example.com/other", this.session.getAttribute(GeneralConfigImpl.BASE_URL));
+    }
+    
+    public void testViewWithoutParameters() {
+        final DetachedRenderRequest detached = DetachedRenderRequest.capture(this.request, true, URL);
+        
+        assertEquals(PortletMode.VIEW, detached.getPortletMode());
+        assertFalse(detached.isPortletModeAllowed(PortletMode.EDIT));
+        assertNull(detached.getParameter("param"));
+        assertTrue(detached.getParameterMap().isEmpty());
+        assertEquals(this.request.getWindowState(), detached.getWindowState());
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package edu.wisc.my.webproxy.portlet;
+
+import javax.portlet.PortletMode;
+import javax.portlet.PortletModeException;
+import javax.portlet.PortletURL;
+import javax.portlet.WindowState;
+import javax.portlet.WindowStateException;
+
+import junit.framework.TestCase;
+
+import org.springframework.mock.web.portlet.MockPortletURL;
+import org.springframework.mock.web.portlet.MockRenderResponse;
+
+/**
+ * @version $Revision$
+ */
+public class DetachedRenderResponseTest extends TestCase {
+    private static final String[] URLS = {
+        "http://www.example.com/",
+        "http://www.example.com/a b/c.jsp?d=e&f=%20\u00e9+g#h",
+        "http://www.example.com/page.html?x=1&y=2",
+    };
+    private static final String[] WINDOW_STATES = { "maximized", "", null };
+    
+    private MismatchingRenderResponse response;
+    
+    protected void setUp() throws Exception {
+        this.response = new MismatchingRenderResponse(null);
+        this.response.setNamespace("ns");
+    }
+    
+    public void testTemplateUrls() throws Exception {
+        final DetachedRenderResponse detached = DetachedRenderResponse.capture(this.response, WINDOW_STATES);
+        assertNotNull(detached);
+        
+        for (final String url : URLS) {
+            for (final WindowState windowState : new WindowState[] { null, WindowState.MAXIMIZED }) {
+                assertEquals(this.response.createActionUrl(url, windowState, false), this.createActionUrl(detached, url, windowState, false));
+                assertEquals(this.response.createActionUrl(url, windowState, true), this.createActionUrl(detached, url, windowState, true));
+            }
+        }
+    }
+    
+    public void testUnknownWindowState() throws Exception {
+        final DetachedRenderResponse detached = DetachedRenderResponse.capture(this.response, WINDOW_STATES);
+        
+        try {
+            detached.createActionURL().setWindowState(WindowState.MINIMIZED);
+            fail("No template was created for the minimized window state");
+        }
+        catch (WindowStateException wse) {
+            //expected
+        }
+    }
+    
+    public void testMismatchedTemplate() {
+        final MismatchingRenderResponse mismatchingResponse = new MismatchingRenderResponse(WindowState.MAXIMIZED);
+        assertNull(DetachedRenderResponse.capture(mismatchingResponse, WINDOW_STATES));
+        
+        //The window state isn't used so the response can still be detached
+        assertNotNull(DetachedRenderResponse.capture(mismatchingResponse, null));
+    }
+    
+    public void testUnsupportedUrls() throws Exception {
+        final DetachedRenderResponse detached = DetachedRenderResponse.capture(this.response, null);
+        
+        try {
+            detached.createRenderURL();
+            fail("Render URLs can't be created");
+        }
+        catch (IllegalStateException ise) {
+            //expected
+        }
+        
+        final PortletURL actionUrl = detached.createActionURL();
+        try {
+            actionUrl.setParameter("other", "value");
+            fail("Only the proxied URL and pass through parameters are supported");
+        }
+        catch (IllegalStateException ise) {
+            //expected
+        }
+        try {
+            actionUrl.setPortletMode(PortletMode.EDIT);
+            fail("The portlet mode can't be changed");
+        }
+        catch (PortletModeException pme) {
+            //expected
+        }
+        try {
+            actionUrl.toString();
+            fail("An action URL needs a proxied URL");
+        }
+        catch (IllegalStateException ise) {
+            //expected
+        }
+    }
+    
+    public void testResponseState() throws Exception {
+        final DetachedRenderResponse detached = DetachedRenderResponse.capture(this.response, null);
+        
+        assertEquals("ns", detached.getNamespace());
+        
+        //Content written to a detached response is discarded
+        detached.getWriter().write("content");
+        detached.getPortletOutputStream().write(new byte[] { 1, 2, 3 });
+        assertFalse(detached.isCommitted());
+    }
+    
+    private String createActionUrl(DetachedRenderResponse detached, String url, WindowState windowState, boolean passThrough) throws Exception {
+        final PortletURL actionUrl = detached.createActionURL();
+        actionUrl.setParameter(WebproxyConstants.BASE_URL, url);
+        if (passThrough) {
+            actionUrl.setParameter(WebproxyConstants.PASS_THROUGH, Boolean.TRUE.toString());
+        }
+        if (windowState != null) {
+            actionUrl.setWindowState(windowState);
+        }
+        return actionUrl.toString();
+    }
+    
+    /**
+     * Optionally encodes spaces in the URL parameter differently for a window state so
+     * templates don't match.
+     */
+    private static class MismatchingRenderResponse extends MockRenderResponse {
+        private final WindowState mismatchedState;
+        
+        public MismatchingRenderResponse(WindowState mismatchedState) {
+            this.mismatchedState = mismatchedState;
+        }
+        
+        public PortletURL createActionURL() {
+            return new MockPortletURL(null, MockPortletURL.URL_TYPE_ACTION) {
+                public String toString() {
+                    final String url = super.toString();
+                    if (mismatchedState != null && mismatchedState.equals(this.getWindowState())) {
+                        return url.replace("+", "%20");
+                    }
+                    return url;
+                }
+            };
+        }
+        
+        public String createActionUrl(String url, WindowState windowState, boolean passThrough) throws WindowStateException {
+            final PortletURL portletUrl = this.createActionURL();
+            portletUrl.setParameter(WebproxyConstants.BASE_URL, url);
+            if (passThrough) {
+                portletUrl.setParameter(WebproxyConstants.PASS_THROUGH, Boolean.TRUE.toString());
+            }
+            if (windowState != null) {
+                portletUrl.setWindowState(windowState);
+            }
+            return portletUrl.toString();
+        }
+    }
+}
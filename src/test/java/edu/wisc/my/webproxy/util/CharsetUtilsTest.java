@@ -0,0 +1,72 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$
+ */
+public class CharsetUtilsTest extends TestCase {
+    public void testContentTypeCharset() {
+        assertEquals("ISO-8859-1", CharsetUtils.getContentTypeCharset("text/html; charset=ISO-8859-1"));
+        assertEquals("UTF-8", CharsetUtils.getContentTypeCharset("text/html;Charset=\"UTF-8\"; foo=bar"));
+        assertNull(CharsetUtils.getContentTypeCharset("text/html"));
+        assertNull(CharsetUtils.getContentTypeCharset("text/html; charset=bogus-charset"));
+        assertNull(CharsetUtils.getContentTypeCharset(null));
+    }
+
+    public void testSniffMetaDeclarations() throws IOException {
+        assertEquals("windows-1252", sniff("<html><head><meta charset=\"windows-1252\"></head>", 1024));
+        assertEquals("ISO-8859-1", sniff("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=ISO-8859-1\">", 1024));
+        assertEquals("utf-8", sniff("<?xml version=\"1.0\" encoding='utf-8'?><html>", 1024));
+        assertEquals("ISO-8859-1", sniff("@charset \"ISO-8859-1\";\nbody { color: red; }", 1024));
+        assertNull(sniff("<html><head><title>No charset</title></head>", 1024));
+    }
+
+    public void testSniffIsBounded() throws IOException {
+        final String doc = "<html><head><title>Padding</title></head><meta charset=\"ISO-8859-1\">";
+        assertNull(sniff(doc, 20));
+
+        final InputStream in = new BufferedInputStream(new ByteArrayInputStream(doc.getBytes("ISO-8859-1")));
+        CharsetUtils.sniffCharset(in, 20);
+        assertEquals('<', in.read());
+    }
+
+    public void testSniffByteOrderMark() throws IOException {
+        final InputStream in = new BufferedInputStream(new ByteArrayInputStream(new byte[] { (byte)0xEF, (byte)0xBB, (byte)0xBF, '<' }));
+        assertEquals("UTF-8", CharsetUtils.sniffCharset(in, 1024));
+    }
+
+    public void testSameCharset() {
+        assertTrue(CharsetUtils.isSameCharset("utf8", "UTF-8"));
+        assertFalse(CharsetUtils.isSameCharset("ISO-8859-1", "UTF-8"));
+        assertFalse(CharsetUtils.isSameCharset(null, "UTF-8"));
+    }
+
+    private static String sniff(String doc, int limit) throws IOException {
+        return CharsetUtils.sniffCharset(new BufferedInputStream(new ByteArrayInputStream(doc.getBytes("ISO-8859-1"))), limit);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package edu.wisc.my.webproxy.util;
+
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Revision$
+ */
+public class PatternListMatcherTest extends TestCase {
+    public void testFindReturnsFirstInListOrder() {
+        final PatternListMatcher matcher = PatternListMatcher.getInstance(new String[] { "/docs/", "example\\.com", "\\.pdf$" }, 0);
+
+        assertEquals(0, matcher.find("http://www.example.com/docs/a.pdf"));
+        assertEquals(1, matcher.find("http://www.example.com/a.pdf"));
+        assertEquals(2, matcher.find("http://www.other.org/a.pdf"));
+        assertEquals(-1, matcher.find("http://www.other.org/a.html"));
+    }
+
+    public void testFindPrefersListOrderOverPosition() {
+        final PatternListMatcher matcher = PatternListMatcher.getInstance(new String[] { "b", "a" }, 0);
+
+        assertEquals(0, matcher.find("ab"));
+        assertEquals(1, matcher.find("a"));
+    }
+
+    public void testBlankAndNullKeepTheirIndex() {
+        final PatternListMatcher matcher = PatternListMatcher.getInstance(new String[] { null, " ", "foo" }, 0);
+
+        assertEquals(2, matcher.find("xfoox"));
+        assertEquals(-1, matcher.find(" "));
+        assertEquals(-1, PatternListMatcher.getInstance((String[])null, 0).find("foo"));
+    }
+
+    public void testUserGroupsDontShiftIndexes() {
+        final PatternListMatcher matcher = PatternListMatcher.getInstance(new String[] { "(a)(b)", "(c)", "d" }, 0);
+
+        assertEquals(0, matcher.find("ab"));
+        assertEquals(1, matcher.find("c"));
+        assertEquals(2, matcher.find("d"));
+    }
+
+    public void testBackreferencesAreNotCombined() {
+        final PatternListMatcher matcher = PatternListMatcher.getInstance(new String[] { "x", "(a)\\1" }, 0);
+
+        assertEquals(1, matcher.find("aa"));
+        assertEquals(-1, matcher.find("ab"));
+    }
+
+    public void testMatchesWithFlags() {
+        final PatternListMatcher matcher = PatternListMatcher.getInstance(new String[] { "text/.*", "application/xhtml\\+xml" }, Pattern.CASE_INSENSITIVE);
+
+        assertEquals(0, matcher.matches("TEXT/HTML"));
+        assertEquals(1, matcher.matches("application/xhtml+xml"));
+        assertEquals(-1, matcher.matches("image/png"));
+        assertEquals(-1, matcher.matches("xtext/html"));
+    }
+
+    public void testInstancesAreCached() {
+        final String[] regexes = new String[] { "a", "b" };
+
+        assertSame(PatternListMatcher.getInstance(regexes, 0), PatternListMatcher.getInstance(new String[] { "a", "b" }, 0));
+        assertNotSame(PatternListMatcher.getInstance(regexes, 0), PatternListMatcher.getInstance(regexes, Pattern.CASE_INSENSITIVE));
+    }
+}